@@ -0,0 +1,32 @@
+package chat_app.backend;
+
+import java.util.UUID;
+
+/**
+ * The result of a message that has been acknowledged by the server.
+ * @see ChatManager#SendMessageAsync(UUID, String)
+ */
+public class Ack
+{
+    private final UUID messageID;
+    private final long roundTripMilliseconds;
+
+    public Ack(UUID messageID, long roundTripMilliseconds)
+    {
+        this.messageID = messageID;
+        this.roundTripMilliseconds = roundTripMilliseconds;
+    }
+
+    public UUID GetMessageID()
+    {
+        return messageID;
+    }
+
+    /**
+     * Returns the time taken between the message being sent and the server acknowledging it.
+     */
+    public long GetRoundTripMilliseconds()
+    {
+        return roundTripMilliseconds;
+    }
+}
@@ -0,0 +1,120 @@
+package chat_app.backend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import readiefur.sockets.ServerManager;
+
+import chat_app.backend.net_data.AckPayload;
+import chat_app.backend.net_data.EType;
+import chat_app.backend.net_data.NetMessage;
+
+/**
+ * Collects message acknowledgements on the host and sends them to each sender in batches.
+ * <br></br>
+ * At high send rates this means a single small {@link EType#ACK} frame covers many messages.
+ */
+public class AckBatcher extends Thread
+{
+    /**
+     * How long acknowledgements are held for before being sent, a short window is enough to coalesce bursts.
+     */
+    public static final int ACK_BATCH_INTERVAL_MS = 10;
+    /**
+     * A batch that reaches this size is sent straight away rather than waiting for the window to end.
+     */
+    public static final int MAX_ACK_BATCH_SIZE = 256;
+
+    private final Object lock = new Object();
+    private ServerManager serverManager;
+    private Map<UUID, List<UUID>> pendingAcks = new HashMap<>();
+
+    public AckBatcher(ServerManager serverManager)
+    {
+        this.serverManager = serverManager;
+    }
+
+    @Override
+    public void run()
+    {
+        //Try to set the thread name to the class name, not required but useful for debugging.
+        try { setName(getClass().getSimpleName()); }
+        catch (Exception e) {}
+
+        while (!isInterrupted() && !serverManager.IsDisposed())
+        {
+            try
+            {
+                //Sleep until there is something to send, then hold off for the batch window so more acks can be collected.
+                synchronized (lock)
+                {
+                    while (pendingAcks.isEmpty())
+                        lock.wait();
+                }
+                Thread.sleep(ACK_BATCH_INTERVAL_MS);
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+
+            Flush();
+        }
+    }
+
+    /**
+     * Queues an acknowledgement for the specified message to be sent to the sender.
+     */
+    public void Queue(UUID sender, UUID messageID)
+    {
+        List<UUID> fullBatch = null;
+
+        synchronized (lock)
+        {
+            List<UUID> batch = pendingAcks.computeIfAbsent(sender, key -> new ArrayList<>());
+            batch.add(messageID);
+
+            if (batch.size() >= MAX_ACK_BATCH_SIZE)
+                fullBatch = pendingAcks.remove(sender);
+            else
+                lock.notifyAll();
+        }
+
+        //Send outside of the lock so that a slow socket doesn't hold up other senders.
+        if (fullBatch != null)
+            SendBatch(sender, fullBatch);
+    }
+
+    /**
+     * Sends all of the currently queued acknowledgements.
+     */
+    public void Flush()
+    {
+        Map<UUID, List<UUID>> batches;
+        synchronized (lock)
+        {
+            if (pendingAcks.isEmpty())
+                return;
+            batches = pendingAcks;
+            pendingAcks = new HashMap<>();
+        }
+
+        for (Map.Entry<UUID, List<UUID>> batch : batches.entrySet())
+            SendBatch(batch.getKey(), batch.getValue());
+    }
+
+    private void SendBatch(UUID sender, List<UUID> messageIDs)
+    {
+        NetMessage<AckPayload> message = new NetMessage<>();
+        message.type = EType.ACK;
+        message.payload = new AckPayload(messageIDs.toArray(new UUID[messageIDs.size()]));
+
+        //The sender may have disconnected since the message was queued.
+        try { serverManager.SendMessage(sender, message); }
+        catch (NullPointerException ex) {}
+        ///See: OnNetMessage > Client > ACK
+    }
+}
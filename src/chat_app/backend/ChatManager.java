@@ -6,36 +6,65 @@ package chat_app.backend;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Serializable;
 import java.net.BindException;
 import java.net.Inet4Address;
+import java.net.NetworkInterface;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import readiefur.console.ELogLevel;
 import readiefur.console.Logger;
 import readiefur.misc.Event;
 import readiefur.misc.IDisposable;
 import readiefur.misc.ManualResetEvent;
 import readiefur.misc.Pair;
+import readiefur.misc.Subscription;
+import readiefur.sockets.AdmissionOptions;
 import readiefur.sockets.Client;
+import readiefur.sockets.CompressionOptions;
+import readiefur.sockets.CompressionStats;
+import readiefur.sockets.ITransport;
+import readiefur.sockets.InMemoryTransport;
+import readiefur.sockets.ServerClientHost;
 import readiefur.sockets.ServerManager;
+import readiefur.sockets.TCPTransport;
 
+import chat_app.backend.net_data.AckPayload;
+import chat_app.backend.net_data.CompressionDictionary;
 import chat_app.backend.net_data.EPeerStatus;
 import chat_app.backend.net_data.EType;
 import chat_app.backend.net_data.EmptyPayload;
+import chat_app.backend.net_data.FederationPayload;
+import chat_app.backend.net_data.FileTransferPayload;
 import chat_app.backend.net_data.MessagePayload;
 import chat_app.backend.net_data.NetMessage;
 import chat_app.backend.net_data.PeersPayload;
+import chat_app.backend.net_data.RoomPayload;
 
 public class ChatManager implements IDisposable
 {
     //#region Fields
     private static final int COMMON_TIMEOUT = 1500;
+    //Stops a client from bouncing between hosts forever while their rings disagree.
+    private static final int MAX_REDIRECTS = 3;
+    //Redirects further apart than this are treated as separate moves (i.e. the room's owner changed) rather than the rings disagreeing.
+    private static final int REDIRECT_WINDOW_MS = 10000;
 
     private Boolean isDisposed = false;
     private final Object lock = new Object();
@@ -44,34 +73,86 @@ public class ChatManager implements IDisposable
     private final String fallbackServerIPAddress;
     private final int port;
     private final String desiredUsername;
+    private final ITransport transport;
     private int failedRestarts = 0;
+    private CompressionOptions compressionOptions = null; //Compression is disabled by default.
+    private Path unixSocketPath = null; //Only TCP is used by default.
+    private AdmissionOptions admissionOptions = null; //Connections are admitted as soon as they are accepted by default.
+    private Boolean discoveryEnabled = false;
+    private NetworkInterface discoveryInterface = null;
+    private int federationPort = -1; //Federation is disabled by default.
+    private String federationSecret = null; //Any host can link to us by default.
+    private final List<Pair<String, Integer>> federatedHosts = new ArrayList<>();
+    private UUID room = null; //Clients don't ask for a room by default.
     private Boolean isCleaningUp = false; //Required due to event loops in cleanup.
+    //The listeners added to the current server manager or client, closed on cleanup.
+    private final List<Subscription> netSubscriptions = new ArrayList<>();
 
     //Server specific properties.
     private ServerManager serverManager = null;
     private PingPong pingPong = null;
+    private AckBatcher ackBatcher = null;
+    private HostAnnouncer hostAnnouncer = null;
+    private long hostEpoch = -1;
+    //Off unless it has been set, see SetRateLimiter.
+    private RateLimiter rateLimiter = null;
+    private Federation federation = null;
+    //The host that each peer connected to another federated host belongs to.
+    private ConcurrentHashMap<UUID, UUID> remotePeerHosts = new ConcurrentHashMap<>();
+    //The room that each of our clients has asked to join.
+    private ConcurrentHashMap<UUID, UUID> peerRooms = new ConcurrentHashMap<>();
 
     //Client specific properties.
     private Client client = null;
     private UUID id = null;
+    private Pair<String, Integer> redirectTarget = null;
+    private int redirectCount = 0;
+    private long lastRedirectTime = 0;
 
     //Shared properties.
     private Boolean isHost = true;
     private ConcurrentHashMap<UUID, Peer> peers = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<UUID, ManualResetEvent> pendingMessages = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<UUID, PendingMessage> pendingMessages = new ConcurrentHashMap<>();
+    //The next sequence number to use for each recipient (or INVALID_UUID for broadcasts).
+    private ConcurrentHashMap<UUID, AtomicLong> sequenceNumbers = new ConcurrentHashMap<>();
+    private final MessageOrderer messageOrderer = new MessageOrderer(payload -> this.onMessageReceived.Invoke(payload));
+    private final FileTransferManager fileTransferManager = new FileTransferManager(this::SendFileTransferMessage);
 
     //Events.
     public final Event<Peer> onPeerConnected = new Event<>();
     public final Event<Peer> onPeerDisconnected = new Event<>();
     public final Event<MessagePayload> onMessageReceived = new Event<>();
+
+    /**
+     * A message that is waiting to be acknowledged by the server.
+     */
+    private static class PendingMessage
+    {
+        public final long sentAt;
+        public final CompletableFuture<Ack> future = new CompletableFuture<>();
+
+        public PendingMessage(long sentAt)
+        {
+            this.sentAt = sentAt;
+        }
+    }
     //#endregion
 
     //#region Startup/Shutdown
     public ChatManager(String initialServerAddress, int port, String desiredUsername)
+    {
+        this(initialServerAddress, port, desiredUsername, TCPTransport.INSTANCE);
+    }
+
+    /**
+     * @param transport The network to connect over, i.e. an {@link InMemoryTransport} shared by every chat manager in this process.
+     */
+    public ChatManager(String initialServerAddress, int port, String desiredUsername, ITransport transport)
     {
         fallbackServerIPAddress = initialServerAddress;
         this.port = port;
         this.desiredUsername = desiredUsername; //If null, will be resolved to "Anonymous" later on.
+        this.transport = transport;
     }
 
     @Override
@@ -84,6 +165,11 @@ public class ChatManager implements IDisposable
             isDisposed = true;
 
             Cleanup();
+
+            //Any messages still waiting on an ack will never receive one now.
+            for (PendingMessage pendingMessage : pendingMessages.values())
+                pendingMessage.future.cancel(false);
+            pendingMessages.clear();
         }
     }
 
@@ -101,14 +187,14 @@ public class ChatManager implements IDisposable
     {
         isCleaningUp = true;
 
+        //Unsubscribe before disposing so that the close events raised while shutting down aren't handled.
+        for (Subscription subscription : netSubscriptions)
+            subscription.close();
+        netSubscriptions.clear();
+
         //Server related.
         if (serverManager != null)
         {
-            serverManager.onConnect.Remove(this::OnNetConnect);
-            serverManager.onMessage.Remove(this::OnNetMessage);
-            serverManager.onClose.Remove(this::OnNetClose);
-            serverManager.onError.Remove(this::OnNetError);
-
             serverManager.Dispose();
 
             // //Wait for the thread to finish.
@@ -127,15 +213,29 @@ public class ChatManager implements IDisposable
 
             pingPong = null;
         }
+        if (ackBatcher != null)
+        {
+            ackBatcher.interrupt();
+            ackBatcher = null;
+        }
+
+        if (hostAnnouncer != null)
+        {
+            hostAnnouncer.interrupt();
+            hostAnnouncer = null;
+        }
+
+        if (federation != null)
+        {
+            federation.Dispose();
+            federation = null;
+        }
+        remotePeerHosts.clear();
+        peerRooms.clear();
 
         //Client related.
         if (client != null)
         {
-            client.onConnect.Remove(nul -> OnNetConnect(ServerManager.SERVER_UUID));
-            client.onMessage.Remove(data -> OnNetMessage(new Pair<>(ServerManager.SERVER_UUID, data)));
-            client.onClose.Remove(nul -> OnNetClose(ServerManager.SERVER_UUID));
-            client.onError.Remove(error -> OnNetError(new Pair<>(ServerManager.SERVER_UUID, error)));
-
             client.Dispose();
 
             // //Wait for the thread to finish.
@@ -148,6 +248,13 @@ public class ChatManager implements IDisposable
         //Shared.
         id = null;
         peers.clear();
+        //Our ID and everyone else's will change, so the message ordering has to start again.
+        sequenceNumbers.clear();
+        messageOrderer.Clear();
+        if (rateLimiter != null)
+            rateLimiter.Clear();
+        //Transfers are between peer IDs that are no longer valid, so they can't be continued.
+        fileTransferManager.Clear();
 
         isCleaningUp = false;
     }
@@ -163,6 +270,11 @@ public class ChatManager implements IDisposable
 
             UUID oldClientID = id;
             List<Peer> oldPeers = new ArrayList<>(peers.values());
+            //A redirect is only followed once, if the host can't be reached we go back to looking for one as normal.
+            Pair<String, Integer> redirect = redirectTarget;
+            redirectTarget = null;
+            if (redirect == null)
+                redirectCount = 0;
 
             Cleanup();
 
@@ -171,8 +283,8 @@ public class ChatManager implements IDisposable
             *Two servers get made and the clients are split across servers which is not desirable.*/
             /*In the future I think I would like to have this delay be based on the connection index (or GUID).
             *Or if the server had a clean exit, tell which clients who will be the next host.*/
-            //We can skip this wait of the peersList was empty.
-            if (!oldPeers.isEmpty() && oldClientID != null)
+            //We can skip this wait of the peersList was empty (or if we have been told where to go).
+            if (!oldPeers.isEmpty() && oldClientID != null && redirect == null)
             {
                 //In order for the calculations below to work properly, at least one of the values needs to be a float.
                 //To make things easier however, I will make them all floats.
@@ -197,19 +309,42 @@ public class ChatManager implements IDisposable
             }
 
             String hostAddress = null;
-            //Look for a host.
-            for (Peer peer : oldPeers)
+            int hostPort = port;
+
+            //If we have been redirected then the host that owns our room is already known.
+            if (redirect != null)
             {
-                UUID peerUUID = peer.GetUUID();
-                if (peerUUID.equals(ServerManager.INVALID_UUID) //We don't include the server ID as a check as we may have accidentally lost connection.
-                    || (oldClientID != null && peerUUID.equals(oldClientID))) //We don't check ourself.
-                    continue;
+                hostAddress = redirect.item1;
+                hostPort = redirect.item2;
+            }
 
-                String peerAddress = peer.GetIPAddress();
-                if (FindHost(hostAddress, port))
+            //If discovery is enabled then the current host (if any) will be announcing itself, so there is no need to probe for it.
+            if (hostAddress == null && discoveryEnabled)
+            {
+                HostBeacon beacon = HostDiscovery.FindHost(discoveryInterface, port, hostEpoch, HostDiscovery.DISCOVERY_TIMEOUT_MS);
+                if (beacon != null)
                 {
-                    hostAddress = peerAddress;
-                    break;
+                    Logger.Trace("Discovered host: " + beacon);
+                    hostAddress = beacon.GetAddress();
+                }
+            }
+
+            //Look for a host on one of the previous peers (this isn't needed with discovery as the host would have been announcing itself).
+            if (hostAddress == null && !discoveryEnabled)
+            {
+                for (Peer peer : oldPeers)
+                {
+                    UUID peerUUID = peer.GetUUID();
+                    if (peerUUID.equals(ServerManager.INVALID_UUID) //We don't include the server ID as a check as we may have accidentally lost connection.
+                        || (oldClientID != null && peerUUID.equals(oldClientID))) //We don't check ourself.
+                        continue;
+
+                    String peerAddress = peer.GetIPAddress();
+                    if (FindHost(hostAddress, port))
+                    {
+                        hostAddress = peerAddress;
+                        break;
+                    }
                 }
             }
 
@@ -224,11 +359,17 @@ public class ChatManager implements IDisposable
                 Logger.Trace("No host found, starting server...");
 
                 //Start the server.
-                serverManager = new ServerManager(port);
-                serverManager.onConnect.Add(this::OnNetConnect);
-                serverManager.onMessage.Add(this::OnNetMessage);
-                serverManager.onClose.Add(this::OnNetClose);
-                serverManager.onError.Add(this::OnNetError);
+                serverManager = new ServerManager(port, transport);
+                netSubscriptions.add(serverManager.onConnect.Add(this::OnNetConnect));
+                netSubscriptions.add(serverManager.onMessage.Add(this::OnNetMessage));
+                netSubscriptions.add(serverManager.onClose.Add(this::OnNetClose));
+                netSubscriptions.add(serverManager.onError.Add(this::OnNetError));
+                if (compressionOptions != null)
+                    serverManager.EnableCompression(compressionOptions);
+                if (unixSocketPath != null)
+                    serverManager.EnableUnixSocket(unixSocketPath);
+                if (admissionOptions != null)
+                    serverManager.SetAdmissionOptions(admissionOptions);
 
                 String serverAddress;
                 try { serverAddress = Inet4Address.getLocalHost().getHostAddress(); }
@@ -260,17 +401,36 @@ public class ChatManager implements IDisposable
                 pingPong = new PingPong(serverManager);
                 pingPong.start();
                 Logger.Trace(GetLogPrefix() + "PingPong started.");
+
+                ackBatcher = new AckBatcher(serverManager);
+                ackBatcher.start();
+
+                if (discoveryEnabled)
+                {
+                    final String announcedAddress = serverAddress;
+                    final long epoch = hostEpoch = System.currentTimeMillis();
+                    hostAnnouncer = new HostAnnouncer(discoveryInterface, () -> new HostBeacon(announcedAddress, port, GetConnectedPeerCount(), epoch));
+                    hostAnnouncer.start();
+                    Logger.Trace(GetLogPrefix() + "Announcing on the LAN.");
+                }
+
+                if (federationPort > 0)
+                    StartFederation();
             }
             else
             {
-                Logger.Trace("Host found at " + hostAddress + ":" + port + ". Connecting...");
+                Logger.Trace("Host found at " + hostAddress + ":" + hostPort + ". Connecting...");
 
                 //Connect to the server.
-                client = new Client(hostAddress, port);
-                client.onConnect.Add(nul -> OnNetConnect(ServerManager.SERVER_UUID));
-                client.onMessage.Add(data -> OnNetMessage(new Pair<>(ServerManager.SERVER_UUID, data)));
-                client.onClose.Add(nul -> OnNetClose(ServerManager.SERVER_UUID));
-                client.onError.Add(error -> OnNetError(new Pair<>(ServerManager.SERVER_UUID, error)));
+                client = new Client(hostAddress, hostPort, transport);
+                netSubscriptions.add(client.onConnect.Add(nul -> OnNetConnect(ServerManager.SERVER_UUID)));
+                netSubscriptions.add(client.onMessage.Add(data -> OnNetMessage(new Pair<>(ServerManager.SERVER_UUID, data))));
+                netSubscriptions.add(client.onClose.Add(nul -> OnNetClose(ServerManager.SERVER_UUID)));
+                netSubscriptions.add(client.onError.Add(error -> OnNetError(new Pair<>(ServerManager.SERVER_UUID, error))));
+                if (compressionOptions != null)
+                    client.EnableCompression(compressionOptions);
+                if (unixSocketPath != null)
+                    client.SetUnixSocketPath(unixSocketPath);
 
                 if (!client.Start())
                 {
@@ -293,6 +453,28 @@ public class ChatManager implements IDisposable
         }
     }
 
+    private void StartFederation()
+    {
+        //Every host's own ID is SERVER_UUID, so the other hosts need a unique ID to know us by.
+        federation = new Federation(UUID.randomUUID(), federationPort, transport, ((ServerPeer)peers.get(ServerManager.SERVER_UUID)).GetIPAddress(), port, federationSecret);
+        federation.onLinkUp.Add(this::OnFederationLinkUp);
+        federation.onLinkDown.Add(this::OnFederationLinkDown);
+        federation.onMessage.Add(this::OnFederationMessage);
+
+        if (!federation.Start())
+        {
+            Logger.Error(GetLogPrefix() + "Failed to start federation on port: " + federationPort);
+            return;
+        }
+
+        //Hosts that haven't started yet will link to us when they do.
+        for (Pair<String, Integer> federatedHost : federatedHosts)
+            if (!federation.Connect(federatedHost.item1, federatedHost.item2))
+                Logger.Trace(GetLogPrefix() + "Federated host not reachable: " + federatedHost.item1 + ":" + federatedHost.item2);
+
+        Logger.Trace(GetLogPrefix() + "Federation started.");
+    }
+
     private Boolean FindHost(String ipAddress, int port)
     {
         if (ipAddress == null)
@@ -302,7 +484,7 @@ public class ChatManager implements IDisposable
 
         ManualResetEvent resetEvent = new ManualResetEvent(false);
 
-        Client dummyClient = new Client(ipAddress, port);
+        Client dummyClient = new Client(ipAddress, port, transport);
         dummyClient.onConnect.Add(nul -> resetEvent.Set());
         if (!dummyClient.Start())
             return false;
@@ -328,11 +510,17 @@ public class ChatManager implements IDisposable
 
         if (isHost)
         {
+            //The connection may have already closed (this is common for server lookups).
+            ServerClientHost serverClientHost = serverManager.GetClientHosts().get(uuid);
+            String address = serverClientHost == null ? null : serverClientHost.GetLocalAddress();
+            if (address == null)
+                return;
+
             /*When a new client connects, we add them to the list of peers however we don't,
              *indicate that the client is ready yet, we must wait for the handshake first.*/
             peers.put(uuid, new ServerPeer(
                 uuid,
-                serverManager.GetClientHosts().get(uuid).GetSocket().getLocalAddress().getHostAddress(),
+                address,
                 desiredUsername,
                 EPeerStatus.UNINITIALIZED));
         }
@@ -363,7 +551,9 @@ public class ChatManager implements IDisposable
         if (!isHost && castData.item2.type != EType.MESSAGE && !data.item1.equals(ServerManager.SERVER_UUID))
             return;
 
-        Logger.Trace(GetLogPrefix() + "Message received: " + castData.item1 + " | " + castData.item2.type);
+        //Only build the log line when it will be shown, turning the IDs into strings costs more than routing the message.
+        if (Logger.logLevel >= ELogLevel.TRACE)
+            Logger.Trace(GetLogPrefix() + "Message received: " + castData.item1 + " | " + castData.item2.type);
 
         switch (castData.item2.type)
         {
@@ -404,6 +594,29 @@ public class ChatManager implements IDisposable
                 HandleMessageData((Pair<UUID, NetMessage<MessagePayload>>)(Object)castData);
                 break;
             }
+            case ACK:
+            {
+                // @SuppressWarnings("unchecked")
+                HandleAckData((Pair<UUID, NetMessage<AckPayload>>)(Object)castData);
+                break;
+            }
+            case FILE_OFFER:
+            case FILE_ACCEPT:
+            case FILE_CHUNK:
+            case FILE_ACK:
+            case FILE_CANCEL:
+            {
+                // @SuppressWarnings("unchecked")
+                HandleFileTransferData((Pair<UUID, NetMessage<FileTransferPayload>>)(Object)castData);
+                break;
+            }
+            case ROOM:
+            case REDIRECT:
+            {
+                // @SuppressWarnings("unchecked")
+                HandleRoomData((Pair<UUID, NetMessage<RoomPayload>>)(Object)castData);
+                break;
+            }
             default:
                 //Invalid message type, ignore the request.
                 break;
@@ -462,17 +675,21 @@ public class ChatManager implements IDisposable
             //Return the server-validated handshake data back to the client.
             NetMessage<Peer> response = new NetMessage<>();
             response.type = EType.HANDSHAKE;
-            response.payload = peer;
+            //Copies are sent as the peer is modified later on and messages shouldn't be modified once sent (in memory the receiver gets the same instance).
+            response.payload = ServerPeer.ToPeer(peer);
             serverManager.SendMessage(data.item1, response);
             ///See: OnNetMessage > Client > HANDSHAKE
 
             //Broadcast the new peer to all other peers.
             NetMessage<Peer> peerBroadcast = new NetMessage<>();
             peerBroadcast.type = EType.PEER;
-            peerBroadcast.payload = peer;
+            peerBroadcast.payload = ServerPeer.ToPeer(peer);
             serverManager.BroadcastMessage(peerBroadcast);
             ///See: OnNetMessage > Client > PEER
 
+            //Let the other hosts know about the new peer.
+            SendFederationDirectory(null, new Peer[] { peerBroadcast.payload });
+
             onPeerConnected.Invoke(ServerPeer.ToPeer(peer));
         }
         else
@@ -492,6 +709,16 @@ public class ChatManager implements IDisposable
             client.SendMessage(response);
 
             ///See: OnNetMessage > Host > PEERS
+
+            //Let the host know which room we want so that it can send us to the host that owns it.
+            if (room != null)
+            {
+                NetMessage<RoomPayload> roomRequest = new NetMessage<>();
+                roomRequest.type = EType.ROOM;
+                roomRequest.payload = new RoomPayload(room);
+                client.SendMessage(roomRequest);
+                ///See: OnNetMessage > Host > ROOM
+            }
         }
     }
 
@@ -520,8 +747,6 @@ public class ChatManager implements IDisposable
         }
         else
         {
-            /*It is more efficient to store this value in a local variable rather than call
-             *the method multiple times as it converts a string value every time.*/
             UUID payloadID = data.item2.payload.GetUUID();
 
             switch (data.item2.payload.GetStatus())
@@ -622,36 +847,69 @@ public class ChatManager implements IDisposable
             if (peers.get(data.item1).GetStatus() != EPeerStatus.CONNECTED)
                 return;
 
-            data.item2.payload.SetSender(data.item1);
+            //The sender is set on a copy as the received message may be the same instance that the sender still holds.
+            data = new Pair<>(data.item1, CopyMessage(data.item2, data.item2.payload.ForSender(data.item1)));
+
+            //Enforce the sender's rate limit before any fan-out happens, as a single message can be amplified to every peer.
+            if (rateLimiter != null && !data.item1.equals(ServerManager.SERVER_UUID) && !rateLimiter.AdmitConnection(data.item1))
+                return;
+
+            //Group messages are fanned out to each recipient here so that the sender only has to upload the message once.
+            if (data.item2.payload.IsGroupMessage())
+            {
+                HandleGroupMessageData(data);
+                return;
+            }
+
             UUID recipient = data.item2.payload.GetRecipient();
 
             /*If the recipient is `INVALID_UUID` then broadcast the message to all peers.
                 *Otherwise check if the message is available to be sent to the specified peer.*/
             if (recipient.equals(ServerManager.INVALID_UUID))
             {
-                //Broadcast the message to all peers.
+                if (!AdmitToRoom(data.item1, ServerManager.INVALID_UUID))
+                    return;
+
+                //Broadcast the message to all other peers, the sender is sent a lightweight ack instead of a copy of its own message.
                 NetMessage<MessagePayload> message = new NetMessage<>();
                 message.type = EType.MESSAGE;
                 message.payload = data.item2.payload;
-                serverManager.BroadcastMessage(message);
+                serverManager.BroadcastMessage(message, data.item1);
                 //See: OnNetMessage > Host/Client > MESSAGE
 
-                //If we (the server) are the sender then remove the message from the queue.
-                //Otherwise invoke the OnMessageReceived event.
-                if (data.item2.payload.GetSender().equals(ServerManager.SERVER_UUID))
-                    ClearPendingMessage(data.item2.payload.GetMessageID());
-                else
-                    onMessageReceived.Invoke(data.item2.payload);
+                //If we (the server) aren't the sender then invoke the OnMessageReceived event.
+                if (!data.item1.equals(ServerManager.SERVER_UUID))
+                    messageOrderer.Receive(data.item2.payload);
+
+                //Peers on the other hosts need a copy too.
+                if (federation != null)
+                    federation.BroadcastMessage(CreateFederatedMessage(data.item2.payload));
+
+                AcknowledgeMessage(data.item1, data.item2.payload.GetMessageID());
+            }
+            else if (remotePeerHosts.containsKey(recipient))
+            {
+                if (!AdmitToRoom(data.item1, recipient))
+                    return;
+
+                //The recipient is on another host, so only that host is sent the message.
+                if (!federation.SendMessage(remotePeerHosts.get(recipient), CreateFederatedMessage(data.item2.payload)))
+                    return;
+
+                AcknowledgeMessage(data.item1, data.item2.payload.GetMessageID());
             }
             else if (peers.containsKey(recipient) && peers.get(recipient).GetStatus() == EPeerStatus.CONNECTED)
             {
+                if (!AdmitToRoom(data.item1, recipient))
+                    return;
+
                 //If the sender is us, forward the message to the recipient and remove the message from the queue.
                 if (data.item2.payload.GetSender().equals(ServerManager.SERVER_UUID))
                 {
                     serverManager.SendMessage(recipient, data.item2);
                     //See: OnNetMessage > Client > MESSAGE > else
 
-                    ClearPendingMessage(data.item2.payload.GetMessageID());
+                    AcknowledgeMessage(data.item1, data.item2.payload.GetMessageID());
                     return;
                 }
 
@@ -659,17 +917,16 @@ public class ChatManager implements IDisposable
                 //Otherwise forward the message to the specified peer.
                 if (recipient.equals(ServerManager.SERVER_UUID))
                 {
-                    onMessageReceived.Invoke(data.item2.payload);
+                    messageOrderer.Receive(data.item2.payload);
                 }
                 else
                 {
-                    serverManager.SendMessage(recipient, data.item2.payload);
+                    serverManager.SendMessage(recipient, data.item2);
                     //See: OnNetMessage > Client > MESSAGE > else
                 }
 
-                //Also send the message back to the sender to indicate that the message has been acknowledged.
-                serverManager.SendMessage(data.item1, data.item2);
-                //See: OnNetMessage > Client > MESSAGE > if
+                //Also let the sender know that the message has been acknowledged.
+                AcknowledgeMessage(data.item1, data.item2.payload.GetMessageID());
             }
             //Otherwise ignore the request.
         }
@@ -679,12 +936,424 @@ public class ChatManager implements IDisposable
             UUID messageID = data.item2.payload.GetMessageID();
             UUID sender = data.item2.payload.GetSender();
 
-            //If the sender is us, we can use this response to verify that the message was sent.
+            //If the sender is us (hosts are no longer expected to echo our messages, see ACK), we can use this response to verify that the message was sent.
             //Otherwise we can invoke the message event.
             if (sender.equals(id))
                 ClearPendingMessage(messageID);
             else
-                onMessageReceived.Invoke(data.item2.payload);
+                messageOrderer.Receive(data.item2.payload);
+        }
+    }
+
+    private void HandleGroupMessageData(Pair<UUID, NetMessage<MessagePayload>> data)
+    {
+        //Host only, from: HandleMessageData > Host
+
+        MessagePayload payload = data.item2.payload;
+        UUID sender = payload.GetSender();
+        //A set is used so that duplicate recipients only receive the message once.
+        Set<UUID> recipients = new HashSet<>(Arrays.asList(payload.GetRecipients()));
+        Boolean delivered = false;
+        List<UUID> droppedRecipients = new ArrayList<>();
+
+        for (UUID recipient : recipients)
+        {
+            //Skip the sender and any peers that are not (or are no longer) connected.
+            Peer peer = peers.get(recipient);
+            if (recipient.equals(sender) || peer == null || peer.GetStatus() != EPeerStatus.CONNECTED)
+                continue;
+
+            //Recipients whose room is over its limit miss out on this message.
+            if (!AdmitToRoom(sender, recipient))
+            {
+                droppedRecipients.add(recipient);
+                continue;
+            }
+
+            //Each recipient gets its own copy addressed to them so that the client can tell which conversation it belongs to.
+            MessagePayload recipientPayload = payload.ForRecipient(recipient);
+            delivered = true;
+
+            //Recipients on other hosts are sent their copy via the host that they are connected to.
+            UUID remoteHost = remotePeerHosts.get(recipient);
+            if (remoteHost != null)
+            {
+                federation.SendMessage(remoteHost, CreateFederatedMessage(recipientPayload));
+            }
+            else if (recipient.equals(ServerManager.SERVER_UUID))
+            {
+                messageOrderer.Receive(recipientPayload);
+            }
+            else
+            {
+                NetMessage<MessagePayload> message = new NetMessage<>();
+                message.type = EType.MESSAGE;
+                message.payload = recipientPayload;
+                serverManager.SendMessage(recipient, message);
+                //See: OnNetMessage > Client > MESSAGE > else
+            }
+        }
+
+        //If none of the recipients could be reached then ignore the request (the same as a private message).
+        if (!delivered)
+            return;
+
+        //The ack tells the sender that everyone got the message, so a partial delivery isn't acknowledged (the same as a rate limited private message).
+        if (!droppedRecipients.isEmpty())
+        {
+            Logger.Warn(GetLogPrefix() + "Group message " + payload.GetMessageID() + " from " + sender + " was not delivered to: " + droppedRecipients);
+            return;
+        }
+
+        //Acknowledge the whole group once rather than once per recipient.
+        AcknowledgeMessage(data.item1, payload.GetMessageID());
+    }
+
+    private void HandleAckData(Pair<UUID, NetMessage<AckPayload>> data)
+    {
+        if (isHost)
+        {
+            //Acks are only sent by the host, ignore the request.
+        }
+        else
+        {
+            //From: AckBatcher
+
+            //Occurs when the server has acknowledged one or more of our messages.
+            for (UUID messageID : data.item2.payload.GetMessageIDs())
+                ClearPendingMessage(messageID);
+        }
+    }
+
+    private void HandleFileTransferData(Pair<UUID, NetMessage<FileTransferPayload>> data)
+    {
+        if (isHost)
+        {
+            //Ignore messages from clients who have not connected yet.
+            Peer senderPeer = peers.get(data.item1);
+            if (senderPeer == null || senderPeer.GetStatus() != EPeerStatus.CONNECTED)
+                return;
+
+            //The sender is set on a copy as the received message may be the same instance that the sender still holds.
+            data = new Pair<>(data.item1, CopyMessage(data.item2, data.item2.payload.ForSender(data.item1)));
+            UUID recipient = data.item2.payload.GetRecipient();
+
+            //If the message is for us then handle it, otherwise relay it as-is (chunks are passed straight through and never stored).
+            if (recipient.equals(ServerManager.SERVER_UUID))
+            {
+                fileTransferManager.OnMessage(data.item2);
+            }
+            else if (peers.containsKey(recipient) && peers.get(recipient).GetStatus() == EPeerStatus.CONNECTED)
+            {
+                serverManager.SendMessage(recipient, data.item2);
+                //See: OnNetMessage > Client > FILE_*
+            }
+            //Otherwise ignore the request, the transfer will stall and can be resumed later.
+        }
+        else
+        {
+            //From: OnNetMessage > Host > FILE_*
+            fileTransferManager.OnMessage(data.item2);
+        }
+    }
+
+    private void HandleRoomData(Pair<UUID, NetMessage<RoomPayload>> data)
+    {
+        if (isHost)
+        {
+            //From: OnNetMessage > Client > HANDSHAKE
+
+            //Ignore messages from clients who have not connected yet, and redirects (which only we can send).
+            Peer senderPeer = peers.get(data.item1);
+            if (senderPeer == null || senderPeer.GetStatus() != EPeerStatus.CONNECTED || data.item2.type != EType.ROOM)
+                return;
+
+            peerRooms.put(data.item1, data.item2.payload.GetRoom());
+
+            //If the room is owned by another host then send the client there.
+            RedirectIfNotOwner(data.item1, data.item2.payload.GetRoom());
+        }
+        else
+        {
+            //From: RedirectIfNotOwner
+
+            if (data.item2.type != EType.REDIRECT || client == null)
+                return;
+
+            //A redirect long after the last one means that we had settled with the owning host, so start counting again.
+            long now = System.currentTimeMillis();
+            if (now - lastRedirectTime > REDIRECT_WINDOW_MS)
+                redirectCount = 0;
+
+            //If the hosts can't agree who owns the room then stay where we are.
+            if (redirectCount >= MAX_REDIRECTS)
+            {
+                Logger.Warn(GetLogPrefix() + "Ignoring redirect, too many redirects.");
+                return;
+            }
+            redirectCount++;
+            lastRedirectTime = now;
+
+            Logger.Info(GetLogPrefix() + "Redirected to " + data.item2.payload.GetAddress() + ":" + data.item2.payload.GetPort() + ".");
+
+            //Closing the connection restarts us, which will connect to the new host (see OnNetClose).
+            redirectTarget = new Pair<>(data.item2.payload.GetAddress(), data.item2.payload.GetPort());
+            client.Dispose();
+        }
+    }
+
+    /**
+     * Tells one of our clients to reconnect to another host if that host owns its room.
+     */
+    private void RedirectIfNotOwner(UUID peerID, UUID peerRoom)
+    {
+        if (federation == null)
+            return;
+
+        UUID owner = federation.GetOwner(peerRoom);
+        Pair<String, Integer> ownerAddress = federation.GetHostAddress(owner);
+        if (owner.equals(federation.GetHostID()) || ownerAddress == null)
+            return;
+
+        NetMessage<RoomPayload> redirect = new NetMessage<>();
+        redirect.type = EType.REDIRECT;
+        redirect.payload = new RoomPayload(peerRoom, ownerAddress.item1, ownerAddress.item2);
+        try { serverManager.SendMessage(peerID, redirect); }
+        catch (NullPointerException ex) { /*The client has already disconnected.*/ }
+        ///See: OnNetMessage > Client > REDIRECT
+    }
+
+    //#region Federation specific methods.
+    private void OnFederationLinkUp(UUID remoteHostID)
+    {
+        if (isDisposed || isCleaningUp)
+            return;
+
+        //The new host may own some of our clients' rooms now.
+        for (Map.Entry<UUID, UUID> entry : peerRooms.entrySet())
+            RedirectIfNotOwner(entry.getKey(), entry.getValue());
+
+        //Send the new host everyone that is connected to us, after this it is only sent the changes.
+        List<Peer> localPeers = new ArrayList<>();
+        for (Peer peer : GetReadyPeers())
+            if (!remotePeerHosts.containsKey(peer.GetUUID()))
+                localPeers.add(peer);
+        SendFederationDirectory(remoteHostID, localPeers.toArray(new Peer[localPeers.size()]));
+    }
+
+    private void OnFederationLinkDown(UUID remoteHostID)
+    {
+        if (isDisposed || isCleaningUp)
+            return;
+
+        //Everyone connected to the host can no longer be reached.
+        for (Map.Entry<UUID, UUID> entry : remotePeerHosts.entrySet())
+            if (entry.getValue().equals(remoteHostID))
+                RemoveRemotePeer(entry.getKey());
+
+        //The rooms that the host owned have moved to the hosts next to it on the ring, which may include some of our clients' rooms.
+        for (Map.Entry<UUID, UUID> entry : peerRooms.entrySet())
+            RedirectIfNotOwner(entry.getKey(), entry.getValue());
+    }
+
+    private void OnFederationMessage(Pair<UUID, NetMessage<?>> data)
+    {
+        if (isDisposed || isCleaningUp || !isHost)
+            return;
+
+        Logger.Trace(GetLogPrefix() + "Federated message received: " + data.item1 + " | " + data.item2.type);
+
+        switch (data.item2.type)
+        {
+            case FEDERATION_DIRECTORY:
+            {
+                // @SuppressWarnings("unchecked")
+                HandleFederationDirectoryData((Pair<UUID, NetMessage<FederationPayload>>)(Object)data);
+                break;
+            }
+            case MESSAGE:
+            {
+                // @SuppressWarnings("unchecked")
+                HandleFederatedMessageData((Pair<UUID, NetMessage<MessagePayload>>)(Object)data);
+                break;
+            }
+            default:
+                //Other message types aren't relayed between hosts, ignore the request.
+                break;
+        }
+    }
+
+    private void HandleFederationDirectoryData(Pair<UUID, NetMessage<FederationPayload>> data)
+    {
+        for (Peer peer : data.item2.payload.GetPeers())
+        {
+            if (peer == null)
+                continue;
+
+            UUID peerID = peer.GetUUID();
+
+            switch (peer.GetStatus())
+            {
+                case CONNECTED:
+                {
+                    //Ignore peers that we already know about.
+                    if (peers.containsKey(peerID) || remotePeerHosts.putIfAbsent(peerID, data.item1) != null)
+                        break;
+
+                    ServerPeer remotePeer = new ServerPeer(peerID, peer.GetIPAddress(), peer.GetUsername(), EPeerStatus.CONNECTED);
+                    peers.put(peerID, remotePeer);
+
+                    Logger.Info(GetLogPrefix() + "Federated peer connected: " + remotePeer.GetUsername());
+
+                    //Our clients see remote peers the same as any other peer.
+                    NetMessage<Peer> peerBroadcast = new NetMessage<>();
+                    peerBroadcast.type = EType.PEER;
+                    peerBroadcast.payload = ServerPeer.ToPeer(remotePeer);
+                    serverManager.BroadcastMessage(peerBroadcast);
+                    ///See: OnNetMessage > Client > PEER
+
+                    onPeerConnected.Invoke(peerBroadcast.payload);
+                    break;
+                }
+                case DISCONNECTED:
+                {
+                    //Only the host that the peer is connected to can remove it.
+                    if (data.item1.equals(remotePeerHosts.get(peerID)))
+                        RemoveRemotePeer(peerID);
+                    break;
+                }
+                default:
+                {
+                    //Ignore the peer.
+                    break;
+                }
+            }
+        }
+    }
+
+    private void HandleFederatedMessageData(Pair<UUID, NetMessage<MessagePayload>> data)
+    {
+        //From: HandleMessageData > Host (on another host)
+
+        /*The sender's host has already rate limited, fanned out and acknowledged the message,
+         *so all that is left to do is deliver it to our own peers (it is never passed on to another host).*/
+        MessagePayload payload = data.item2.payload;
+        UUID recipient = payload.GetRecipient();
+        if (recipient == null)
+            return;
+
+        if (recipient.equals(ServerManager.INVALID_UUID))
+        {
+            serverManager.BroadcastMessage(data.item2);
+            //See: OnNetMessage > Client > MESSAGE > else
+            messageOrderer.Receive(payload);
+        }
+        else if (recipient.equals(federation.GetHostID()))
+        {
+            messageOrderer.Receive(payload);
+        }
+        else if (!remotePeerHosts.containsKey(recipient) && peers.containsKey(recipient) && peers.get(recipient).GetStatus() == EPeerStatus.CONNECTED)
+        {
+            serverManager.SendMessage(recipient, data.item2);
+            //See: OnNetMessage > Client > MESSAGE > else
+        }
+        //Otherwise the recipient has since disconnected, ignore the request.
+    }
+
+    private void RemoveRemotePeer(UUID peerID)
+    {
+        remotePeerHosts.remove(peerID);
+        Peer oldPeer = peers.remove(peerID);
+        if (oldPeer == null)
+            return;
+        messageOrderer.RemoveSender(peerID);
+        if (rateLimiter != null)
+            rateLimiter.RemovePeer(peerID);
+
+        //Remote peers are always a ServerPeer at this level.
+        ((ServerPeer)oldPeer).SetStatus(EPeerStatus.DISCONNECTED);
+
+        Logger.Info(GetLogPrefix() + "Federated peer disconnected: " + oldPeer.GetUsername());
+
+        NetMessage<Peer> peerBroadcast = new NetMessage<>();
+        peerBroadcast.type = EType.PEER;
+        peerBroadcast.payload = ServerPeer.ToPeer((ServerPeer)oldPeer);
+        //Links can close from their own threads while the host is being cleaned up.
+        ServerManager serverManager = this.serverManager;
+        if (serverManager != null)
+            serverManager.BroadcastMessage(peerBroadcast);
+        ///See: OnNetMessage > Client > PEER
+
+        onPeerDisconnected.Invoke(oldPeer);
+    }
+
+    /**
+     * Sends changes to our peers to the other hosts.
+     * @param remoteHostID The host to send the changes to, or {@code null} for every host.
+     */
+    private void SendFederationDirectory(UUID remoteHostID, Peer[] changedPeers)
+    {
+        if (federation == null)
+            return;
+
+        //Our own peer is known to the other hosts by our federation ID.
+        Peer[] directoryPeers = new Peer[changedPeers.length];
+        for (int i = 0; i < changedPeers.length; i++)
+        {
+            Peer peer = changedPeers[i];
+            directoryPeers[i] = !peer.GetUUID().equals(ServerManager.SERVER_UUID) ? peer : ServerPeer.ToPeer(new ServerPeer(
+                federation.GetHostID(),
+                peer.GetIPAddress(),
+                peer.GetUsername(),
+                peer.GetStatus()));
+        }
+
+        NetMessage<FederationPayload> message = new NetMessage<>();
+        message.type = EType.FEDERATION_DIRECTORY;
+        message.payload = new FederationPayload(federation.GetHostID(), directoryPeers);
+
+        if (remoteHostID == null)
+            federation.BroadcastMessage(message);
+        else
+            federation.SendMessage(remoteHostID, message);
+        ///See: OnFederationMessage > FEDERATION_DIRECTORY
+    }
+
+    /**
+     * Creates the copy of a message that is sent to the other hosts, messages from us are sent under our federation ID.
+     */
+    private NetMessage<MessagePayload> CreateFederatedMessage(MessagePayload payload)
+    {
+        NetMessage<MessagePayload> message = new NetMessage<>();
+        message.type = EType.MESSAGE;
+        message.payload = payload.GetSender().equals(ServerManager.SERVER_UUID) ? payload.ForSender(federation.GetHostID()) : payload;
+        return message;
+    }
+    //#endregion
+
+    /**
+     * Checks a message against the rate limit of the room it is being delivered to, messages from us (the server) are not limited.
+     */
+    private Boolean AdmitToRoom(UUID sender, UUID room)
+    {
+        return rateLimiter == null || sender.equals(ServerManager.SERVER_UUID) || rateLimiter.AdmitRoom(sender, room);
+    }
+
+    /**
+     * Lets the sender of a message know that the server has processed it.
+     */
+    private void AcknowledgeMessage(UUID sender, UUID messageID)
+    {
+        //If we (the server) are the sender then remove the message from the queue directly.
+        //Otherwise queue a batched ack for the sender.
+        if (sender.equals(ServerManager.SERVER_UUID))
+        {
+            ClearPendingMessage(messageID);
+        }
+        else
+        {
+            ackBatcher.Queue(sender, messageID);
+            ///See: OnNetMessage > Client > ACK
         }
     }
     //#endregion
@@ -695,6 +1364,23 @@ public class ChatManager implements IDisposable
             return;
 
         Logger.Trace(GetLogPrefix() + "Connection closed: " + uuid);
+
+        //The host was too busy to let us in, so wait as long as it asked before trying again (rather than taking over as the host).
+        if (!isHost && uuid.equals(ServerManager.SERVER_UUID) && client != null && client.GetRetryAfterMilliseconds() > 0)
+        {
+            long retryAfter = client.GetRetryAfterMilliseconds();
+            Logger.Info(GetLogPrefix() + "Host is busy, retrying in " + retryAfter + "ms.");
+            CompletableFuture.delayedExecutor(retryAfter, TimeUnit.MILLISECONDS).execute(this::Restart);
+            return;
+        }
+
+        //We have been sent to the host that owns our room.
+        if (!isHost && uuid.equals(ServerManager.SERVER_UUID) && redirectTarget != null)
+        {
+            CompletableFuture.runAsync(this::Restart);
+            return;
+        }
+
         Peer oldPeer = peers.get(uuid);
         if (oldPeer == null)
             return;
@@ -707,6 +1393,10 @@ public class ChatManager implements IDisposable
 
             //Client has disconnected.
             peers.remove(uuid);
+            peerRooms.remove(uuid);
+            messageOrderer.RemoveSender(uuid);
+            if (rateLimiter != null)
+                rateLimiter.RemovePeer(uuid);
 
             //If the client wasn't a connected peer then don't broadcast the disconnect (this can occur for handshake requests).
             if (oldPeer.GetStatus() != EPeerStatus.CONNECTED)
@@ -722,7 +1412,14 @@ public class ChatManager implements IDisposable
             NetMessage<Peer> peerBroadcast = new NetMessage<>();
             peerBroadcast.type = EType.PEER;
             peerBroadcast.payload = ServerPeer.ToPeer(((ServerPeer)oldPeer));
+            //The close can be raised from a client's thread while the host is being cleaned up.
+            ServerManager serverManager = this.serverManager;
+            if (serverManager == null)
+                return;
             serverManager.BroadcastMessage(peerBroadcast);
+
+            //Let the other hosts know that the peer has gone.
+            SendFederationDirectory(null, new Peer[] { peerBroadcast.payload });
         }
         else
         {
@@ -740,6 +1437,7 @@ public class ChatManager implements IDisposable
             if (!peers.containsKey(uuid))
                 return;
             peers.remove(uuid);
+            messageOrderer.RemoveSender(uuid);
 
             Logger.Trace(GetLogPrefix() + "Peer disconnected: " + uuid + " (" + oldPeer.GetUsername() + ")");
             Logger.Info(GetLogPrefix() + "Peer disconnected: " + oldPeer.GetUsername());
@@ -825,6 +1523,177 @@ public class ChatManager implements IDisposable
         return id;
     }
 
+    /**
+     * Returns the manager used to send and receive files.
+     */
+    public FileTransferManager GetFileTransferManager()
+    {
+        return fileTransferManager;
+    }
+
+    /**
+     * Sets the compression to use for connections, this takes effect the next time the chat manager (re)starts.
+     * Compression is only used between peers that have both enabled it with the same dictionary.
+     * @param compressionOptions The options to use (typically with {@link CompressionDictionary#Get()}), or {@code null} to disable compression.
+     */
+    public void SetCompressionOptions(CompressionOptions compressionOptions)
+    {
+        this.compressionOptions = compressionOptions;
+    }
+
+    /**
+     * Sets the Unix domain socket to use alongside TCP when the host is on the same machine, this takes effect the next time the chat manager (re)starts.
+     * @param unixSocketPath The path to use (typically {@link ServerManager#GetDefaultUnixSocketPath(int)}), or {@code null} to only use TCP.
+     */
+    public void SetUnixSocketPath(Path unixSocketPath)
+    {
+        this.unixSocketPath = unixSocketPath;
+    }
+
+    /**
+     * Sets how new connections are admitted when we are the host, this takes effect the next time the chat manager (re)starts.
+     * @param admissionOptions The options to use, or {@code null} to admit connections as soon as they are accepted.
+     * @see ServerManager#SetAdmissionOptions(AdmissionOptions)
+     */
+    public void SetAdmissionOptions(AdmissionOptions admissionOptions)
+    {
+        this.admissionOptions = admissionOptions;
+    }
+
+    /**
+     * Enables finding the host through multicast beacons instead of probing previous peers, this takes effect the next time the chat manager (re)starts.
+     * When we are the host we will also announce ourselves.
+     * @param networkInterface The interface to use for discovery, or {@code null} for the system default.
+     * @see HostDiscovery
+     */
+    public void EnableDiscovery(NetworkInterface networkInterface)
+    {
+        discoveryEnabled = true;
+        discoveryInterface = networkInterface;
+    }
+
+    public void DisableDiscovery()
+    {
+        discoveryEnabled = false;
+        discoveryInterface = null;
+    }
+
+    /**
+     * Enables linking with other hosts when we are the host, so that one chat can be spread across several hosts that each own a subset of the clients.
+     * This takes effect the next time the chat manager (re)starts.
+     * @param federationPort The port to listen for links from the other hosts on.
+     * @see Federation
+     */
+    public void EnableFederation(int federationPort)
+    {
+        this.federationPort = federationPort;
+    }
+
+    /**
+     * Sets the secret that every federated host must share, links from hosts that don't know it are refused.
+     * This takes effect the next time the chat manager (re)starts.
+     * @param secret The shared secret, or {@code null} to link with any host.
+     */
+    public void SetFederationSecret(String secret)
+    {
+        this.federationSecret = secret;
+    }
+
+    /**
+     * Adds a host to link with when federation is enabled, the host may also link to us instead if it starts after we do.
+     * @param port The other host's federation port.
+     */
+    public void AddFederatedHost(String address, int port)
+    {
+        federatedHosts.add(new Pair<>(address, port));
+    }
+
+    /**
+     * Sets the room that we want to join when we are a client, this takes effect the next time the chat manager (re)starts.
+     * When the hosts are federated we will be sent to the host that owns the room, so that everyone in a busy room shares one host.
+     * @param room The room (or conversation) ID, or {@code null} to stay on whichever host we find.
+     */
+    public void SetRoom(UUID room)
+    {
+        this.room = room;
+    }
+
+    /**
+     * Returns the federated host that owns the specified room, or {@code null} if we are not a federated host.
+     */
+    public UUID GetRoomOwner(UUID room)
+    {
+        Federation currentFederation = federation;
+        return currentFederation != null ? currentFederation.GetOwner(room) : null;
+    }
+
+    /**
+     * Returns the room that each of our clients asked to join when we are the host.
+     */
+    public Map<UUID, UUID> GetClientRooms()
+    {
+        return new HashMap<>(peerRooms);
+    }
+
+    /**
+     * Returns the ID that the other federated hosts know us by, or {@code null} if we are not a federated host.
+     */
+    public UUID GetFederationHostID()
+    {
+        return federation != null ? federation.GetHostID() : null;
+    }
+
+    private int GetConnectedPeerCount()
+    {
+        int count = 0;
+        for (Peer peer : peers.values())
+            if (peer.GetStatus() == EPeerStatus.CONNECTED)
+                count++;
+        return count;
+    }
+
+    /**
+     * Returns {@code true} if we are a client connected to the host over a Unix domain socket.
+     */
+    public Boolean IsUsingUnixSocket()
+    {
+        return !isHost && client != null && client.IsUnixDomainSocket();
+    }
+
+    /**
+     * Returns the compression stats for our current connection(s), or {@code null} if compression is not in use.
+     */
+    public CompressionStats GetCompressionStats()
+    {
+        if (compressionOptions == null)
+            return null;
+        else if (isHost)
+            return serverManager != null ? serverManager.GetCompressionStats() : null;
+        else
+            return client != null ? client.GetCompressionStats() : null;
+    }
+
+    /**
+     * Returns the rate limiter used when we are the host, this can be used to read the number of limited messages per peer.
+     * @return The rate limiter, or {@code null} if rate limiting is off.
+     */
+    public RateLimiter GetRateLimiter()
+    {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets the rate limits that are applied to incoming messages when we are the host, or {@code null} (the default) to turn rate limiting off.
+     * <br></br>
+     * A message that is dropped by {@link ERateLimitAction#DROP} has already been given a sequence number by its sender,
+     * so the recipients hold back that sender's later messages for up to {@link MessageOrderer#GAP_TIMEOUT_MS} waiting for it.
+     * {@link ERateLimitAction#THROTTLE} doesn't leave gaps.
+     */
+    public void SetRateLimiter(RateLimiter rateLimiter)
+    {
+        this.rateLimiter = rateLimiter;
+    }
+
     /**
      * Returns whether or not the server has been disposed.
      */
@@ -839,7 +1708,7 @@ public class ChatManager implements IDisposable
      */
     public Boolean SendMessageSync(UUID recipient, String message)
     {
-        return SendMessageInternal(recipient, message, true);
+        return WaitForAck(SendMessageAsync(recipient, message));
     }
 
     /**
@@ -847,22 +1716,87 @@ public class ChatManager implements IDisposable
      */
     public void SendMessage(UUID recipient, String message)
     {
-        SendMessageInternal(recipient, message, false);
+        SendMessageInternal(new MessagePayload(recipient, message), false);
+    }
+
+    /**
+     * Sends a message to the specified recipient without blocking the calling thread.
+     * Any number of messages can be in flight at once.
+     * @return A future that is completed when the server acknowledges the message, or completed exceptionally with a {@link TimeoutException} if it does not.
+     */
+    public CompletableFuture<Ack> SendMessageAsync(UUID recipient, String message)
+    {
+        return SendMessageInternal(new MessagePayload(recipient, message), true);
+    }
+
+    /**
+     * Sends a message to a group of recipients and waits for the server to acknowledge the message.
+     * The message is only uploaded once, the server relays it to each recipient.
+     * @return {@code true} if the message was sent successfully, otherwise {@code false}.
+     */
+    public Boolean SendMessageSync(UUID[] recipients, String message)
+    {
+        return WaitForAck(SendMessageAsync(recipients, message));
+    }
+
+    /**
+     * Sends a message to a group of recipients and does not wait for the server to acknowledge the message.
+     * The message is only uploaded once, the server relays it to each recipient.
+     */
+    public void SendMessage(UUID[] recipients, String message)
+    {
+        SendMessageInternal(new MessagePayload(recipients, message), false);
+    }
+
+    /**
+     * Sends a message to a group of recipients without blocking the calling thread.
+     * @see #SendMessageAsync(UUID, String)
+     */
+    public CompletableFuture<Ack> SendMessageAsync(UUID[] recipients, String message)
+    {
+        return SendMessageInternal(new MessagePayload(recipients, message), true);
     }
 
-    private Boolean SendMessageInternal(UUID recipient, String message, Boolean sendSync)
+    private CompletableFuture<Ack> SendMessageInternal(MessagePayload payload, Boolean trackAck)
     {
-        MessagePayload payload = new MessagePayload(recipient, message);
         NetMessage<MessagePayload> netMessage = new NetMessage<>();
         netMessage.type = EType.MESSAGE;
         netMessage.payload = payload;
 
-        //If we want to send the message synchronously, setup the ManualResetEvent to wait on.
-        ManualResetEvent messageSentEvent = null; //Required to satisfy the compiler, the bang nullable operator would've been nice here (C# feature).
-        if (sendSync)
+        //Assign the sequence numbers so that the recipients can restore the order we sent our messages in.
+        if (payload.IsGroupMessage())
         {
-            messageSentEvent = new ManualResetEvent(false);
-            pendingMessages.put(payload.GetMessageID(), messageSentEvent);
+            UUID[] recipients = payload.GetRecipients();
+            long[] recipientSequenceNumbers = new long[recipients.length];
+            for (int i = 0; i < recipients.length; i++)
+                recipientSequenceNumbers[i] = NextSequenceNumber(recipients[i]);
+            payload.SetSequenceNumbers(recipientSequenceNumbers);
+        }
+        else
+        {
+            payload.SetSequenceNumber(NextSequenceNumber(payload.GetRecipient()));
+        }
+
+        //If we want to know when the message has been acknowledged, register the future before sending so that the ack can't be missed.
+        CompletableFuture<Ack> ackFuture = null;
+        if (trackAck)
+        {
+            UUID messageID = payload.GetMessageID();
+            PendingMessage pendingMessage = new PendingMessage(System.currentTimeMillis());
+            pendingMessages.put(messageID, pendingMessage);
+
+            /*orTimeout schedules the timeout on a single delay thread shared by every future in the JVM,
+             *so no thread is blocked per message while waiting for the server to respond.*/
+            ackFuture = pendingMessage.future;
+            ackFuture
+                .orTimeout(COMMON_TIMEOUT, TimeUnit.MILLISECONDS)
+                .whenComplete((ack, ex) ->
+                {
+                    //Remove the message from the pending messages list regardless of the outcome.
+                    pendingMessages.remove(messageID);
+                    if (ex instanceof TimeoutException)
+                        Logger.Warn("Failed to send message: " + messageID);
+                });
         }
 
         if (isHost)
@@ -876,34 +1810,64 @@ public class ChatManager implements IDisposable
             ///See: OnNetMessage > Host > MESSAGE
         }
 
-        //If we are not sending the message synchronously, return true here.
-        if (!sendSync)
-            return true;
+        return ackFuture;
+    }
+
+    private void SendFileTransferMessage(NetMessage<FileTransferPayload> message)
+    {
+        if (isHost)
+        {
+            //As with chat messages, we (the server) handle our own messages directly.
+            OnNetMessage(new Pair<>(ServerManager.SERVER_UUID, message));
+        }
+        else if (client != null)
+        {
+            client.SendMessage(message);
+            //See: OnNetMessage > Host > FILE_*
+        }
+    }
+
+    /**
+     * Returns a new message of the same type with a different payload, so that a received message can be changed without modifying the original.
+     */
+    private static <T extends Serializable> NetMessage<T> CopyMessage(NetMessage<T> message, T payload)
+    {
+        NetMessage<T> copy = new NetMessage<>();
+        copy.type = message.type;
+        copy.payload = payload;
+        return copy;
+    }
 
-        //Otherwise wait for the server to acknowledge the message (within the time limit, currently hardcoded).
+    private long NextSequenceNumber(UUID recipient)
+    {
+        return sequenceNumbers.computeIfAbsent(recipient, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    private Boolean WaitForAck(CompletableFuture<Ack> ackFuture)
+    {
+        //The timeout is already applied to the future so we don't need to specify one here.
         try
         {
-            messageSentEvent.WaitOne(COMMON_TIMEOUT);
+            ackFuture.get();
             return true;
         }
-        catch (TimeoutException e)
+        catch (ExecutionException | CancellationException ex)
         {
-            Logger.Warn("Failed to send message: " + payload.GetMessageID());
             return false;
         }
-        finally
+        catch (InterruptedException ex)
         {
-            //Remove the message from the pending messages list.
-            pendingMessages.remove(payload.GetMessageID());
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
     private void ClearPendingMessage(UUID messageID)
     {
-        if (!pendingMessages.containsKey(messageID))
+        PendingMessage pendingMessage = pendingMessages.remove(messageID);
+        if (pendingMessage == null)
             return;
-        pendingMessages.get(messageID).Set();
-        pendingMessages.remove(messageID);
+        pendingMessage.future.complete(new Ack(messageID, System.currentTimeMillis() - pendingMessage.sentAt));
     }
     //#endregion
 }
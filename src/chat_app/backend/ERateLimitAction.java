@@ -0,0 +1,17 @@
+package chat_app.backend;
+
+/**
+ * What the host should do with a message that exceeds a rate limit.
+ */
+public enum ERateLimitAction
+{
+    /**
+     * The message is discarded and not acknowledged.
+     */
+    DROP,
+    /**
+     * Processing of the sender's connection is paused until the message is within the limit.
+     * Because each connection is read on its own thread, this pushes back on the sender without affecting other peers.
+     */
+    THROTTLE
+}
@@ -0,0 +1,369 @@
+package chat_app.backend;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import readiefur.console.Logger;
+import readiefur.misc.Event;
+import readiefur.misc.IDisposable;
+import readiefur.misc.Pair;
+import readiefur.sockets.Client;
+import readiefur.sockets.ITransport;
+import readiefur.sockets.ServerManager;
+
+import chat_app.backend.net_data.EType;
+import chat_app.backend.net_data.FederationPayload;
+import chat_app.backend.net_data.NetMessage;
+
+/**
+ * Manages the server-to-server links between federated hosts.
+ * <br></br>
+ * Each host listens for links on its own federation port and connects out to the hosts it has been told about,
+ * a link is only used once both ends have identified themselves with a {@link EType#FEDERATION_HELLO}.
+ * If a shared secret has been set then hellos must prove that the sender knows it, otherwise any host that can reach the federation port can join.
+ * A hello that claims the ID of a host we are already linked to is ignored unless it gives the same address (i.e. both hosts connected to each other),
+ * so that another host can't take over a linked host's ID to have its clients redirected elsewhere.
+ * The hosts are expected to form a full mesh, so messages received over a link are never passed on over another.
+ * <br></br>
+ * Every host keeps a {@link HashRing} of itself and the hosts it is linked to, which decides the host that owns each room.
+ * As the hosts are fully meshed they all end up with the same ring.
+ */
+public class Federation implements IDisposable
+{
+    /**
+     * An identified link to another host.
+     */
+    private static class Link
+    {
+        public final UUID remoteHostID;
+        //Where the remote host accepts clients.
+        public final Pair<String, Integer> address;
+        public final Consumer<Object> send;
+
+        public Link(FederationPayload hello, Consumer<Object> send)
+        {
+            this.remoteHostID = hello.GetHostID();
+            this.address = new Pair<>(hello.GetAddress(), hello.GetPort());
+            this.send = send;
+        }
+    }
+
+    private final Object lock = new Object();
+    private Boolean isDisposed = false;
+    private final UUID hostID;
+    private final int port;
+    private final ITransport transport;
+    private final String clientAddress;
+    private final int clientPort;
+    private final byte[] secret;
+    private final HashRing ring = new HashRing();
+    //Where each linked host accepts clients.
+    private final ConcurrentHashMap<UUID, Pair<String, Integer>> hostAddresses = new ConcurrentHashMap<>();
+    private ServerManager linkServer = null;
+    private final List<Client> outgoingClients = new ArrayList<>();
+    private final ConcurrentHashMap<UUID, Link> links = new ConcurrentHashMap<>();
+    //Links that have identified themselves, by the link server's connection ID or by the client that we connected with.
+    private final ConcurrentHashMap<UUID, Link> incomingLinks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Client, Link> outgoingLinks = new ConcurrentHashMap<>();
+
+    public final Event<UUID> onLinkUp = new Event<>();
+    public final Event<UUID> onLinkDown = new Event<>();
+    /**
+     * Fired for every message received over a link, the pair contains the remote host's ID and the message.
+     */
+    public final Event<Pair<UUID, NetMessage<?>>> onMessage = new Event<>();
+
+    /**
+     * @param hostID The ID that identifies us to the other hosts.
+     * @param port The port to listen for links from other hosts on.
+     * @param clientAddress The address that our clients connect to, used by the other hosts to redirect clients to us.
+     * @param clientPort The port that our clients connect to.
+     * @param secret The secret shared by every host in the federation, or {@code null} to link with any host.
+     */
+    public Federation(UUID hostID, int port, ITransport transport, String clientAddress, int clientPort, String secret)
+    {
+        this.hostID = hostID;
+        this.port = port;
+        this.transport = transport;
+        this.clientAddress = clientAddress;
+        this.clientPort = clientPort;
+        this.secret = secret != null ? secret.getBytes(StandardCharsets.UTF_8) : null;
+        ring.AddNode(hostID);
+    }
+
+    public Boolean Start()
+    {
+        linkServer = new ServerManager(port, transport);
+        linkServer.onMessage.Add(this::OnIncomingLinkMessage);
+        linkServer.onClose.Add(uuid ->
+        {
+            Link link = incomingLinks.remove(uuid);
+            if (link != null)
+                OnLinkClosed(link);
+        });
+        return linkServer.Start();
+    }
+
+    /**
+     * Opens a link to another host's federation port.
+     * @return {@code false} if the host couldn't be reached, it may still link to us once it has started.
+     */
+    public Boolean Connect(String address, int port)
+    {
+        Client client = new Client(address, port, transport);
+        client.onConnect.Add(nul -> client.SendMessage(CreateHello()));
+        client.onMessage.Add(data -> OnOutgoingLinkMessage(client, data));
+        client.onClose.Add(nul ->
+        {
+            Link link = outgoingLinks.remove(client);
+            if (link != null)
+                OnLinkClosed(link);
+        });
+
+        synchronized (lock)
+        {
+            if (isDisposed)
+                return false;
+            outgoingClients.add(client);
+        }
+        return client.Start();
+    }
+
+    /**
+     * Sends a message to the specified host.
+     * @return {@code false} if we are not linked to the host.
+     */
+    public Boolean SendMessage(UUID remoteHostID, Object message)
+    {
+        Link link = remoteHostID != null ? links.get(remoteHostID) : null;
+        if (link == null)
+            return false;
+        link.send.accept(message);
+        return true;
+    }
+
+    public void BroadcastMessage(Object message)
+    {
+        for (Link link : links.values())
+            link.send.accept(message);
+    }
+
+    /**
+     * Returns the IDs of the hosts that we are currently linked to.
+     */
+    public Set<UUID> GetLinkedHosts()
+    {
+        return links.keySet();
+    }
+
+    public UUID GetHostID()
+    {
+        return hostID;
+    }
+
+    /**
+     * Returns the host that owns the specified room.
+     */
+    public UUID GetOwner(UUID room)
+    {
+        return ring.GetOwner(room);
+    }
+
+    /**
+     * Returns where the specified host accepts clients, or {@code null} if we are not linked to it.
+     */
+    public Pair<String, Integer> GetHostAddress(UUID remoteHostID)
+    {
+        return remoteHostID != null ? hostAddresses.get(remoteHostID) : null;
+    }
+
+    @Override
+    public void Dispose()
+    {
+        synchronized (lock)
+        {
+            if (isDisposed)
+                return;
+            isDisposed = true;
+
+            for (Client client : outgoingClients)
+                client.Dispose();
+            outgoingClients.clear();
+
+            if (linkServer != null)
+                linkServer.Dispose();
+
+            links.clear();
+            incomingLinks.clear();
+            outgoingLinks.clear();
+        }
+    }
+
+    private NetMessage<FederationPayload> CreateHello()
+    {
+        NetMessage<FederationPayload> hello = new NetMessage<>();
+        hello.type = EType.FEDERATION_HELLO;
+        hello.payload = new FederationPayload(hostID, clientAddress, clientPort, CreateProof(hostID, clientAddress, clientPort));
+        return hello;
+    }
+
+    /**
+     * Signs the contents of a hello with the shared secret.
+     * The proof is tied to the host's ID and address, so a copied hello can only be used to send clients to the host that it came from.
+     * @return {@code null} if no secret has been set.
+     */
+    private byte[] CreateProof(UUID helloHostID, String address, int port)
+    {
+        if (secret == null)
+            return null;
+
+        try
+        {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            return mac.doFinal((helloHostID + "|" + address + "|" + port).getBytes(StandardCharsets.UTF_8));
+        }
+        catch (GeneralSecurityException ex)
+        {
+            //HmacSHA256 is required to be supported by every Java platform.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Checks that a hello can be accepted, see the class description.
+     */
+    private Boolean IsHelloAccepted(FederationPayload hello)
+    {
+        Link linked = links.get(hello.GetHostID());
+        if (linked != null && !(Objects.equals(linked.address.item1, hello.GetAddress()) && linked.address.item2 == hello.GetPort()))
+        {
+            Logger.Warn("[FEDERATION] Ignored hello from a different address for a host that is already linked: " + hello.GetHostID());
+            return false;
+        }
+
+        byte[] expectedProof = CreateProof(hello.GetHostID(), hello.GetAddress(), hello.GetPort());
+        if (expectedProof != null && (hello.GetProof() == null || !MessageDigest.isEqual(expectedProof, hello.GetProof())))
+        {
+            Logger.Warn("[FEDERATION] Rejected hello with an invalid proof from host: " + hello.GetHostID());
+            return false;
+        }
+
+        return true;
+    }
+
+    private void OnIncomingLinkMessage(Pair<UUID, Object> data)
+    {
+        if (isDisposed || !(data.item2 instanceof NetMessage<?>))
+            return;
+        NetMessage<?> message = (NetMessage<?>)data.item2;
+
+        if (message.type == EType.FEDERATION_HELLO)
+        {
+            UUID connectionID = data.item1;
+            FederationPayload hello = (FederationPayload)message.payload;
+            if (incomingLinks.containsKey(connectionID) || !IsHelloAccepted(hello))
+                return;
+
+            Link link = new Link(hello, msg ->
+            {
+                try { linkServer.SendMessage(connectionID, msg); }
+                catch (NullPointerException ex) { /*The link has closed, the close event will clean it up.*/ }
+            });
+            incomingLinks.put(connectionID, link);
+            //Incoming links reply to the hello, outgoing links sent theirs as soon as they connected.
+            link.send.accept(CreateHello());
+            OnLinkIdentified(link);
+            return;
+        }
+
+        //Anything sent before the link has been identified is ignored.
+        Link link = incomingLinks.get(data.item1);
+        if (link != null)
+            onMessage.Invoke(new Pair<>(link.remoteHostID, message));
+    }
+
+    private void OnOutgoingLinkMessage(Client client, Object data)
+    {
+        if (isDisposed || !(data instanceof NetMessage<?>))
+            return;
+        NetMessage<?> message = (NetMessage<?>)data;
+
+        if (message.type == EType.FEDERATION_HELLO)
+        {
+            FederationPayload hello = (FederationPayload)message.payload;
+            if (outgoingLinks.containsKey(client) || !IsHelloAccepted(hello))
+                return;
+
+            //Like the host's own clients (see ServerManager), a linked host that has fallen behind is dropped rather than holding up the fan-out.
+            Link link = new Link(hello, msg ->
+            {
+                if (client.TrySendMessage(msg))
+                    return;
+                Logger.Warn("[FEDERATION] Host " + hello.GetHostID() + " is not keeping up and its send queue is full, closing the link.");
+                client.Abort();
+            });
+            outgoingLinks.put(client, link);
+            OnLinkIdentified(link);
+            return;
+        }
+
+        Link link = outgoingLinks.get(client);
+        if (link != null)
+            onMessage.Invoke(new Pair<>(link.remoteHostID, message));
+    }
+
+    private void OnLinkIdentified(Link link)
+    {
+        //Ignore links to ourself.
+        if (link.remoteHostID.equals(hostID))
+            return;
+
+        //If both hosts connected to each other then the first link to be identified is used and the other is left idle.
+        if (links.putIfAbsent(link.remoteHostID, link) != null)
+            return;
+        hostAddresses.put(link.remoteHostID, link.address);
+
+        //The ring is updated before anyone is told so that they see the new owners.
+        ring.AddNode(link.remoteHostID);
+
+        Logger.Info("[FEDERATION] Linked to host: " + link.remoteHostID);
+        onLinkUp.Invoke(link.remoteHostID);
+    }
+
+    private void OnLinkClosed(Link link)
+    {
+        //Only the link in use counts, an idle duplicate closing doesn't affect anything.
+        if (isDisposed || !links.remove(link.remoteHostID, link))
+            return;
+
+        //If the other host also linked to us then carry on over that link instead.
+        List<Link> identifiedLinks = new ArrayList<>(incomingLinks.values());
+        identifiedLinks.addAll(outgoingLinks.values());
+        for (Link otherLink : identifiedLinks)
+        {
+            if (otherLink.remoteHostID.equals(link.remoteHostID) && links.putIfAbsent(link.remoteHostID, otherLink) == null)
+            {
+                hostAddresses.put(link.remoteHostID, otherLink.address);
+                return;
+            }
+        }
+
+        ring.RemoveNode(link.remoteHostID);
+        hostAddresses.remove(link.remoteHostID);
+
+        Logger.Info("[FEDERATION] Lost link to host: " + link.remoteHostID);
+        onLinkDown.Invoke(link.remoteHostID);
+    }
+}
@@ -0,0 +1,351 @@
+package chat_app.backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import readiefur.console.Logger;
+import readiefur.misc.Event;
+import readiefur.misc.Pair;
+
+import chat_app.backend.net_data.EType;
+import chat_app.backend.net_data.FileTransferPayload;
+import chat_app.backend.net_data.NetMessage;
+
+/**
+ * Handles sending and receiving files in chunks between peers.
+ * <br></br>
+ * Files are streamed straight from and to disk so a whole file is never held in memory,
+ * and the sender only has a limited number of chunks in flight at once (the window) so a transfer can't flood the connection.
+ */
+public class FileTransferManager
+{
+    public static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * The maximum number of chunks that can be sent before the recipient has acknowledged them.
+     */
+    public static final int WINDOW_CHUNKS = 8;
+
+    /**
+     * A file that we are sending.
+     */
+    private static class OutgoingTransfer
+    {
+        public final UUID recipient;
+        public final Path path;
+        public final long fileSize;
+        public FileChannel channel = null;
+        public long sentOffset = 0;
+
+        public OutgoingTransfer(UUID recipient, Path path, long fileSize)
+        {
+            this.recipient = recipient;
+            this.path = path;
+            this.fileSize = fileSize;
+        }
+    }
+
+    /**
+     * A file that we are receiving (or have been offered).
+     */
+    private static class IncomingTransfer
+    {
+        public final FileTransferPayload offer;
+        public FileChannel channel = null;
+        public Path path = null;
+        public long receivedOffset = 0;
+
+        public IncomingTransfer(FileTransferPayload offer)
+        {
+            this.offer = offer;
+        }
+    }
+
+    private final Consumer<NetMessage<FileTransferPayload>> sendMessage;
+    private final ConcurrentHashMap<UUID, OutgoingTransfer> outgoingTransfers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, IncomingTransfer> incomingTransfers = new ConcurrentHashMap<>();
+
+    /**
+     * Fired when a peer offers us a file, call {@link #AcceptFile(UUID, Path)} or {@link #CancelTransfer(UUID)} to respond.
+     */
+    public final Event<FileTransferPayload> onFileOffered = new Event<>();
+    /**
+     * Fired when a file has been fully received, the pair contains the transfer ID and where the file was saved.
+     */
+    public final Event<Pair<UUID, Path>> onFileReceived = new Event<>();
+    /**
+     * Fired when a transfer is cancelled by either side.
+     */
+    public final Event<UUID> onTransferCancelled = new Event<>();
+
+    /**
+     * @param sendMessage Used to send messages to the server to be relayed.
+     */
+    public FileTransferManager(Consumer<NetMessage<FileTransferPayload>> sendMessage)
+    {
+        this.sendMessage = sendMessage;
+    }
+
+    /**
+     * Offers a file to the specified peer, the file will be sent if they accept.
+     * @return The ID of the transfer.
+     */
+    public UUID OfferFile(UUID recipient, Path path) throws IOException
+    {
+        UUID transferID = UUID.randomUUID();
+        long fileSize = Files.size(path);
+        outgoingTransfers.put(transferID, new OutgoingTransfer(recipient, path, fileSize));
+
+        Send(EType.FILE_OFFER, FileTransferPayload.CreateOffer(transferID, recipient, path.getFileName().toString(), fileSize));
+        return transferID;
+    }
+
+    /**
+     * Accepts a file that has been offered to us.
+     * If the destination already exists it is treated as a partial download and the transfer will resume from the end of it.
+     */
+    public void AcceptFile(UUID transferID, Path destination) throws IOException
+    {
+        IncomingTransfer transfer = incomingTransfers.get(transferID);
+        if (transfer == null)
+            throw new IllegalArgumentException("No file has been offered with the ID: " + transferID);
+
+        synchronized (transfer)
+        {
+            transfer.path = destination;
+            transfer.channel = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            //Anything beyond the size of the file being sent can't be valid, so ignore it.
+            transfer.receivedOffset = Math.min(transfer.channel.size(), transfer.offer.GetFileSize());
+        }
+
+        Send(EType.FILE_ACCEPT, FileTransferPayload.CreateProgress(transferID, transfer.offer.GetSender(), transfer.receivedOffset));
+
+        //The file may have been fully downloaded already.
+        CompleteIfFinished(transferID, transfer);
+    }
+
+    /**
+     * Declines an offer or stops a transfer that is in progress (in either direction).
+     */
+    public void CancelTransfer(UUID transferID)
+    {
+        OutgoingTransfer outgoing = outgoingTransfers.remove(transferID);
+        if (outgoing != null)
+        {
+            CloseOutgoing(outgoing);
+            Send(EType.FILE_CANCEL, FileTransferPayload.CreateProgress(transferID, outgoing.recipient, 0));
+        }
+
+        IncomingTransfer incoming = incomingTransfers.remove(transferID);
+        if (incoming != null)
+        {
+            CloseIncoming(incoming);
+            Send(EType.FILE_CANCEL, FileTransferPayload.CreateProgress(transferID, incoming.offer.GetSender(), 0));
+        }
+    }
+
+    /**
+     * Stops all transfers without notifying the other peers, used when the connection is lost.
+     */
+    public void Clear()
+    {
+        for (OutgoingTransfer transfer : outgoingTransfers.values())
+            CloseOutgoing(transfer);
+        outgoingTransfers.clear();
+
+        for (IncomingTransfer transfer : incomingTransfers.values())
+            CloseIncoming(transfer);
+        incomingTransfers.clear();
+    }
+
+    /**
+     * Handles a file transfer message that was sent to us.
+     */
+    public void OnMessage(NetMessage<FileTransferPayload> message)
+    {
+        FileTransferPayload payload = message.payload;
+        UUID transferID = payload.GetTransferID();
+
+        switch (message.type)
+        {
+            case FILE_OFFER:
+            {
+                incomingTransfers.put(transferID, new IncomingTransfer(payload));
+                onFileOffered.Invoke(payload);
+                break;
+            }
+            case FILE_ACCEPT:
+            case FILE_ACK:
+            {
+                //Both of these tell us how much the recipient has, an accept also (re)sets where we send from.
+                OutgoingTransfer transfer = outgoingTransfers.get(transferID);
+                if (transfer == null || !transfer.recipient.equals(payload.GetSender()))
+                    break;
+                SendChunks(transferID, transfer, payload.GetOffset(), message.type == EType.FILE_ACCEPT);
+                break;
+            }
+            case FILE_CHUNK:
+            {
+                IncomingTransfer transfer = incomingTransfers.get(transferID);
+                if (transfer == null || !transfer.offer.GetSender().equals(payload.GetSender()))
+                    break;
+                WriteChunk(transferID, transfer, payload);
+                break;
+            }
+            case FILE_CANCEL:
+            {
+                OutgoingTransfer outgoing = outgoingTransfers.remove(transferID);
+                if (outgoing != null)
+                    CloseOutgoing(outgoing);
+                IncomingTransfer incoming = incomingTransfers.remove(transferID);
+                if (incoming != null)
+                    CloseIncoming(incoming);
+
+                if (outgoing != null || incoming != null)
+                    onTransferCancelled.Invoke(transferID);
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private void SendChunks(UUID transferID, OutgoingTransfer transfer, long acknowledgedOffset, Boolean restart)
+    {
+        synchronized (transfer)
+        {
+            try
+            {
+                if (transfer.channel == null)
+                    transfer.channel = FileChannel.open(transfer.path, StandardOpenOption.READ);
+
+                //An accept tells us where to start from (which may be part way through the file if this is a resume).
+                if (restart)
+                    transfer.sentOffset = acknowledgedOffset;
+
+                //Only send up to the end of the window, the rest will be sent as the recipient acknowledges what it has received.
+                long windowEnd = Math.min(transfer.fileSize, acknowledgedOffset + (long)WINDOW_CHUNKS * CHUNK_SIZE);
+                while (transfer.sentOffset < windowEnd)
+                {
+                    /*Each chunk is read straight into the array that is sent, rather than into a buffer and then copied out.
+                     *The array can't be reused for the next chunk as it is still queued to be sent (or, in process, handed to the recipient).*/
+                    byte[] data = new byte[(int)Math.min(CHUNK_SIZE, transfer.fileSize - transfer.sentOffset)];
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    int read = 0;
+                    while (read < data.length)
+                    {
+                        int count = transfer.channel.read(buffer, transfer.sentOffset + read);
+                        if (count <= 0)
+                            break;
+                        read += count;
+                    }
+                    if (read <= 0)
+                        break;
+                    //The file was shortened while we were sending it.
+                    if (read < data.length)
+                        data = Arrays.copyOf(data, read);
+
+                    Send(EType.FILE_CHUNK, FileTransferPayload.CreateChunk(transferID, transfer.recipient, transfer.sentOffset, data));
+                    transfer.sentOffset += read;
+                }
+            }
+            catch (IOException ex)
+            {
+                Logger.Error("[FILE_TRANSFER] Failed to read file for transfer: " + transferID + " | " + ex.getMessage());
+                CancelTransfer(transferID);
+                return;
+            }
+
+            //Once the recipient has everything we are done.
+            if (acknowledgedOffset >= transfer.fileSize)
+            {
+                outgoingTransfers.remove(transferID);
+                CloseOutgoing(transfer);
+            }
+        }
+    }
+
+    private void WriteChunk(UUID transferID, IncomingTransfer transfer, FileTransferPayload chunk)
+    {
+        synchronized (transfer)
+        {
+            //Ignore chunks that arrive before we have accepted or that we already have.
+            if (transfer.channel == null || chunk.GetOffset() != transfer.receivedOffset)
+                return;
+
+            try
+            {
+                ByteBuffer data = ByteBuffer.wrap(chunk.GetData());
+                while (data.hasRemaining())
+                    transfer.channel.write(data, transfer.receivedOffset + data.position());
+                transfer.receivedOffset += chunk.GetData().length;
+            }
+            catch (IOException ex)
+            {
+                Logger.Error("[FILE_TRANSFER] Failed to write file for transfer: " + transferID + " | " + ex.getMessage());
+                CancelTransfer(transferID);
+                return;
+            }
+        }
+
+        //Let the sender know how much we have so that it can move its window along.
+        Send(EType.FILE_ACK, FileTransferPayload.CreateProgress(transferID, transfer.offer.GetSender(), transfer.receivedOffset));
+
+        CompleteIfFinished(transferID, transfer);
+    }
+
+    private void CompleteIfFinished(UUID transferID, IncomingTransfer transfer)
+    {
+        synchronized (transfer)
+        {
+            if (transfer.receivedOffset < transfer.offer.GetFileSize() || incomingTransfers.remove(transferID) == null)
+                return;
+
+            //Trim anything left over from a previous, larger, partial file.
+            try { transfer.channel.truncate(transfer.offer.GetFileSize()); }
+            catch (IOException ex) {}
+            CloseIncoming(transfer);
+        }
+
+        onFileReceived.Invoke(new Pair<>(transferID, transfer.path));
+    }
+
+    private void Send(EType type, FileTransferPayload payload)
+    {
+        NetMessage<FileTransferPayload> message = new NetMessage<>();
+        message.type = type;
+        message.payload = payload;
+        sendMessage.accept(message);
+    }
+
+    private void CloseOutgoing(OutgoingTransfer transfer)
+    {
+        synchronized (transfer)
+        {
+            if (transfer.channel == null)
+                return;
+            try { transfer.channel.close(); }
+            catch (IOException ex) {}
+            transfer.channel = null;
+        }
+    }
+
+    private void CloseIncoming(IncomingTransfer transfer)
+    {
+        synchronized (transfer)
+        {
+            if (transfer.channel == null)
+                return;
+            try { transfer.channel.close(); }
+            catch (IOException ex) {}
+            transfer.channel = null;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package chat_app.backend;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A consistent hashing ring used to pick which federated host owns each room.
+ * <br></br>
+ * Each host is placed on the ring at several points (virtual nodes) so that rooms are spread evenly,
+ * and adding or removing a host only moves the rooms between it and its neighbours rather than reshuffling everything.
+ * Lookups are lock-free, the ring is rebuilt as a new pair of sorted arrays whenever the hosts change.
+ */
+public class HashRing
+{
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    /**
+     * An immutable copy of the ring, sorted by position.
+     */
+    private static class Snapshot
+    {
+        public final long[] positions;
+        public final UUID[] owners;
+
+        public Snapshot(long[] positions, UUID[] owners)
+        {
+            this.positions = positions;
+            this.owners = owners;
+        }
+    }
+
+    private final int virtualNodes;
+    private final Set<UUID> nodes = new LinkedHashSet<>();
+    private volatile Snapshot snapshot = new Snapshot(new long[0], new UUID[0]);
+
+    public HashRing()
+    {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes The number of points on the ring for each node, more points give a more even spread at the cost of memory.
+     */
+    public HashRing(int virtualNodes)
+    {
+        if (virtualNodes < 1)
+            throw new IllegalArgumentException("There must be at least one virtual node per node.");
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * @return {@code false} if the node was already on the ring.
+     */
+    public synchronized Boolean AddNode(UUID node)
+    {
+        if (!nodes.add(node))
+            return false;
+        Rebuild();
+        return true;
+    }
+
+    /**
+     * @return {@code false} if the node was not on the ring.
+     */
+    public synchronized Boolean RemoveNode(UUID node)
+    {
+        if (!nodes.remove(node))
+            return false;
+        Rebuild();
+        return true;
+    }
+
+    public synchronized Set<UUID> GetNodes()
+    {
+        return new LinkedHashSet<>(nodes);
+    }
+
+    /**
+     * Returns the node that owns the specified key, or {@code null} if the ring is empty.
+     */
+    public UUID GetOwner(UUID key)
+    {
+        Snapshot current = snapshot;
+        if (current.positions.length == 0)
+            return null;
+
+        //The owner is the first node at or after the key's position, wrapping around to the start of the ring.
+        int index = Arrays.binarySearch(current.positions, Hash(key.getMostSignificantBits(), key.getLeastSignificantBits()));
+        if (index < 0)
+            index = -index - 1;
+        if (index == current.positions.length)
+            index = 0;
+        return current.owners[index];
+    }
+
+    private void Rebuild()
+    {
+        int count = nodes.size() * virtualNodes;
+        long[] positions = new long[count];
+        UUID[] owners = new UUID[count];
+
+        //Sort the points by position, pairing each with its owner.
+        long[][] points = new long[count][];
+        int i = 0;
+        UUID[] nodeArray = nodes.toArray(new UUID[nodes.size()]);
+        for (int n = 0; n < nodeArray.length; n++)
+            for (int v = 0; v < virtualNodes; v++)
+                points[i++] = new long[] { Hash(nodeArray[n].getMostSignificantBits(), nodeArray[n].getLeastSignificantBits() + v), n };
+        Arrays.sort(points, (a, b) -> Long.compare(a[0], b[0]));
+
+        for (i = 0; i < count; i++)
+        {
+            positions[i] = points[i][0];
+            owners[i] = nodeArray[(int)points[i][1]];
+        }
+
+        snapshot = new Snapshot(positions, owners);
+    }
+
+    /**
+     * Mixes the two halves of an ID into a well distributed position on the ring (the SplitMix64 finalizer).
+     */
+    private static long Hash(long high, long low)
+    {
+        long hash = high ^ Long.rotateLeft(low, 32) ^ 0x9E3779B97F4A7C15L;
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+}
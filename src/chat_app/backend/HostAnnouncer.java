@@ -0,0 +1,62 @@
+package chat_app.backend;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.util.function.Supplier;
+
+import readiefur.console.Logger;
+
+/**
+ * Periodically multicasts a {@link HostBeacon} so that clients on the LAN can find the host without probing for it.
+ * @see HostDiscovery
+ */
+public class HostAnnouncer extends Thread
+{
+    private final NetworkInterface networkInterface;
+    private final Supplier<HostBeacon> beaconSupplier;
+
+    /**
+     * @param networkInterface The interface to send beacons on, or {@code null} for the system default.
+     * @param beaconSupplier Called for each beacon so that it is always up to date.
+     */
+    public HostAnnouncer(NetworkInterface networkInterface, Supplier<HostBeacon> beaconSupplier)
+    {
+        this.networkInterface = networkInterface;
+        this.beaconSupplier = beaconSupplier;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+        //Try to set the thread name to the class name, not required but useful for debugging.
+        try { setName(getClass().getSimpleName()); }
+        catch (Exception e) {}
+
+        try (MulticastSocket socket = new MulticastSocket())
+        {
+            //Beacons should never leave the local network.
+            socket.setTimeToLive(1);
+            if (networkInterface != null)
+                socket.setNetworkInterface(networkInterface);
+            InetAddress group = InetAddress.getByName(HostDiscovery.MULTICAST_GROUP);
+
+            //The first beacon is sent straight away so that clients that are already waiting find us as soon as possible.
+            while (!isInterrupted())
+            {
+                byte[] data = beaconSupplier.get().ToBytes();
+                try { socket.send(new DatagramPacket(data, data.length, group, HostDiscovery.DISCOVERY_PORT)); }
+                catch (Exception ex) { Logger.Warn("[HOST_ANNOUNCER] Failed to send beacon: " + ex.getMessage()); }
+
+                Thread.sleep(HostDiscovery.BEACON_INTERVAL_MS);
+            }
+        }
+        catch (InterruptedException ex) { /*Stopped.*/ }
+        catch (Exception ex)
+        {
+            Logger.Error("[HOST_ANNOUNCER] Failed to start announcing: " + ex.getMessage());
+        }
+    }
+}
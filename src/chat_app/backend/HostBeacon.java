@@ -0,0 +1,99 @@
+package chat_app.backend;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The details a host advertises about itself over multicast, see {@link HostDiscovery}.
+ * <br></br>
+ * Beacons are written in a small fixed format rather than with object serialization as they are sent frequently and may be received by unrelated programs.
+ */
+public class HostBeacon
+{
+    //Used to ignore any packets on the discovery port that weren't sent by us.
+    private static final int MAGIC = 0x52434842; //RCHB
+    private static final byte VERSION = 1;
+
+    private final String address;
+    private final int port;
+    private final int peerCount;
+    private final long epoch;
+
+    /**
+     * @param epoch Identifies this run of the host, a host that restarts (or a new host that takes over) will have a different epoch.
+     */
+    public HostBeacon(String address, int port, int peerCount, long epoch)
+    {
+        this.address = address;
+        this.port = port;
+        this.peerCount = peerCount;
+        this.epoch = epoch;
+    }
+
+    public String GetAddress()
+    {
+        return address;
+    }
+
+    public int GetPort()
+    {
+        return port;
+    }
+
+    public int GetPeerCount()
+    {
+        return peerCount;
+    }
+
+    public long GetEpoch()
+    {
+        return epoch;
+    }
+
+    public byte[] ToBytes()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes))
+        {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeUTF(address);
+            output.writeInt(port);
+            output.writeInt(peerCount);
+            output.writeLong(epoch);
+        }
+        catch (IOException ex)
+        {
+            //This can't happen when writing to memory.
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a beacon from a received packet.
+     * @return The beacon, or {@code null} if the data isn't a valid beacon.
+     */
+    public static HostBeacon FromBytes(byte[] data, int offset, int length)
+    {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data, offset, length)))
+        {
+            if (input.readInt() != MAGIC || input.readByte() != VERSION)
+                return null;
+            return new HostBeacon(input.readUTF(), input.readInt(), input.readInt(), input.readLong());
+        }
+        catch (IOException ex)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return address + ":" + port + " (peers: " + peerCount + ", epoch: " + epoch + ")";
+    }
+}
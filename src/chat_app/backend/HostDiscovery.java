@@ -0,0 +1,69 @@
+package chat_app.backend;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+
+import readiefur.console.Logger;
+
+/**
+ * Finds a host on the LAN by listening for the beacons sent by a {@link HostAnnouncer}.
+ * <br></br>
+ * This takes at most a couple of beacon intervals and needs no connections, unlike probing possible hosts over TCP one at a time.
+ */
+public class HostDiscovery
+{
+    /**
+     * An administratively scoped (organisation local) multicast group.
+     */
+    public static final String MULTICAST_GROUP = "239.255.42.99";
+    /**
+     * Beacons for every chat port are sent to this one port and told apart by the port in the beacon.
+     */
+    public static final int DISCOVERY_PORT = 8079;
+    public static final int BEACON_INTERVAL_MS = 250;
+    /**
+     * How long to listen for before assuming there is no host, long enough for one beacon to be lost.
+     */
+    public static final int DISCOVERY_TIMEOUT_MS = BEACON_INTERVAL_MS * 2;
+
+    private HostDiscovery() {}
+
+    /**
+     * Listens for a host that is running on the specified port.
+     * @param networkInterface The interface to listen on, or {@code null} for the system default.
+     * @param ignoredEpoch Beacons with this epoch are ignored, i.e. our own from when we were the host.
+     * @return The first matching beacon, or {@code null} if none was received in time.
+     */
+    public static HostBeacon FindHost(NetworkInterface networkInterface, int port, long ignoredEpoch, int timeoutMs)
+    {
+        //Multicast sockets allow the port to be shared, so several instances on one machine can listen at once.
+        try (MulticastSocket socket = new MulticastSocket(DISCOVERY_PORT))
+        {
+            socket.joinGroup(new InetSocketAddress(InetAddress.getByName(MULTICAST_GROUP), DISCOVERY_PORT), networkInterface);
+
+            byte[] buffer = new byte[512];
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0)
+            {
+                socket.setSoTimeout((int)remaining);
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try { socket.receive(packet); }
+                catch (SocketTimeoutException ex) { break; }
+
+                HostBeacon beacon = HostBeacon.FromBytes(packet.getData(), packet.getOffset(), packet.getLength());
+                if (beacon != null && beacon.GetPort() == port && beacon.GetEpoch() != ignoredEpoch)
+                    return beacon;
+            }
+        }
+        catch (Exception ex)
+        {
+            Logger.Warn("[HOST_DISCOVERY] Failed to listen for beacons: " + ex.getMessage());
+        }
+        return null;
+    }
+}
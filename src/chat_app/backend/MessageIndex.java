@@ -0,0 +1,385 @@
+package chat_app.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A full-text index over chat messages, built incrementally as messages arrive.
+ * <br></br>
+ * Each message is given a document number in the order it was added, and every term, sender and conversation
+ * has a {@link PostingList} of the documents it appears in. A search intersects the lists for everything asked for,
+ * starting from the shortest, so a query is only as expensive as its rarest part rather than the size of the history.
+ * <br></br>
+ * The index only stores where each message is (its conversation and row), not the text itself, which stays in the history.
+ */
+public class MessageIndex
+{
+    /**
+     * A message that matched a search.
+     */
+    public static class Hit
+    {
+        public final UUID messageID;
+        public final UUID sender;
+        public final UUID conversation;
+        //The row of the message in the conversation's history.
+        public final int row;
+
+        public Hit(UUID messageID, UUID sender, UUID conversation, int row)
+        {
+            this.messageID = messageID;
+            this.sender = sender;
+            this.conversation = conversation;
+            this.row = row;
+        }
+    }
+
+    //Anything longer is more likely to be a link or a pasted blob than something that would be searched for.
+    public static final int MAX_TERM_LENGTH = 64;
+    private static final int FILE_MAGIC = 0x43484958; //"CHIX"
+    private static final int FILE_VERSION = 1;
+
+    //The per-document fields, indexed by document number.
+    private int documentCount = 0;
+    private long[] messageIDs = new long[32];
+    private int[] senders = new int[16];
+    private int[] conversations = new int[16];
+    private int[] rows = new int[16];
+
+    //Senders and conversations are stored by their position in this table rather than by UUID.
+    private final List<UUID> participants = new ArrayList<>();
+    private final Map<UUID, Integer> participantIndexes = new HashMap<>();
+
+    private final Map<String, PostingList> terms = new HashMap<>();
+    private final Map<Integer, PostingList> senderPostings = new HashMap<>();
+    private final Map<Integer, PostingList> conversationPostings = new HashMap<>();
+
+    /**
+     * Adds a message to the index.
+     * @param row The row of the message in the conversation's history, returned with any search that matches it.
+     * @return The document number of the message.
+     */
+    public synchronized int Add(UUID messageID, UUID sender, UUID conversation, int row, String text)
+    {
+        int doc = documentCount++;
+        if (doc == senders.length)
+        {
+            messageIDs = Arrays.copyOf(messageIDs, messageIDs.length * 2);
+            senders = Arrays.copyOf(senders, senders.length * 2);
+            conversations = Arrays.copyOf(conversations, conversations.length * 2);
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+
+        messageIDs[doc * 2] = messageID.getMostSignificantBits();
+        messageIDs[doc * 2 + 1] = messageID.getLeastSignificantBits();
+        senders[doc] = GetParticipant(sender);
+        conversations[doc] = GetParticipant(conversation);
+        rows[doc] = row;
+
+        senderPostings.computeIfAbsent(senders[doc], k -> new PostingList()).Append(doc);
+        conversationPostings.computeIfAbsent(conversations[doc], k -> new PostingList()).Append(doc);
+        //Appending the same document twice is ignored, so repeated words don't need filtering out first.
+        for (String term : Tokenize(text))
+            terms.computeIfAbsent(term, k -> new PostingList()).Append(doc);
+
+        return doc;
+    }
+
+    /**
+     * Removes every message in a conversation from the index, i.e. when its history has been discarded.
+     * <br></br>
+     * The remaining messages are renumbered so that the space used by the removed ones is freed,
+     * which means the whole index is rewritten, so this shouldn't be called often.
+     */
+    public synchronized void RemoveConversation(UUID conversation)
+    {
+        Integer participant = participantIndexes.get(conversation);
+        if (participant == null || !conversationPostings.containsKey(participant))
+            return;
+
+        //The kept documents are numbered in the same order as before, so every posting list stays sorted.
+        int[] newDocs = new int[documentCount];
+        int kept = 0;
+        for (int doc = 0; doc < documentCount; doc++)
+        {
+            if (conversations[doc] == participant)
+            {
+                newDocs[doc] = -1;
+                continue;
+            }
+
+            //A document can only move down, so it is never overwritten before it has been moved.
+            newDocs[doc] = kept;
+            messageIDs[kept * 2] = messageIDs[doc * 2];
+            messageIDs[kept * 2 + 1] = messageIDs[doc * 2 + 1];
+            senders[kept] = senders[doc];
+            conversations[kept] = conversations[doc];
+            rows[kept] = rows[doc];
+            kept++;
+        }
+        documentCount = kept;
+
+        for (Iterator<Map.Entry<String, PostingList>> iterator = terms.entrySet().iterator(); iterator.hasNext();)
+        {
+            Map.Entry<String, PostingList> term = iterator.next();
+            PostingList list = new PostingList();
+            PostingList.Cursor cursor = term.getValue().GetCursor();
+            for (int doc = cursor.Next(); doc != PostingList.END; doc = cursor.Next())
+                if (newDocs[doc] != -1)
+                    list.Append(newDocs[doc]);
+
+            if (list.Size() == 0)
+                iterator.remove();
+            else
+                term.setValue(list);
+        }
+
+        //The sender and conversation lists are rebuilt from the documents, as they are when loading.
+        senderPostings.clear();
+        conversationPostings.clear();
+        for (int doc = 0; doc < documentCount; doc++)
+        {
+            senderPostings.computeIfAbsent(senders[doc], k -> new PostingList()).Append(doc);
+            conversationPostings.computeIfAbsent(conversations[doc], k -> new PostingList()).Append(doc);
+        }
+    }
+
+    /**
+     * Finds the messages that contain every term in the query.
+     * @param query The words to look for, matched whole and case-insensitively. Can be empty to match on the sender or conversation alone.
+     * @param sender Only match messages from this sender, or {@code null} for any sender.
+     * @param conversation Only match messages in this conversation, or {@code null} for any conversation.
+     * @param limit The maximum number of results.
+     * @return The matching messages, newest first.
+     */
+    public synchronized List<Hit> Search(String query, UUID sender, UUID conversation, int limit)
+    {
+        List<PostingList> lists = new ArrayList<>();
+        for (String term : Tokenize(query))
+            lists.add(terms.get(term));
+        if (sender != null)
+            lists.add(participantIndexes.containsKey(sender) ? senderPostings.get(participantIndexes.get(sender)) : null);
+        if (conversation != null)
+            lists.add(participantIndexes.containsKey(conversation) ? conversationPostings.get(participantIndexes.get(conversation)) : null);
+
+        //Nothing to match on, or something that was asked for doesn't appear anywhere.
+        if (lists.isEmpty() || lists.contains(null) || limit < 1)
+            return new ArrayList<>();
+
+        //Lead with the rarest list as every match has to be in it.
+        lists.sort((a, b) -> Integer.compare(a.Size(), b.Size()));
+        PostingList lead = lists.get(0);
+
+        /*The lists can only be read forwards, but only the newest matches are wanted,
+         *so the lead list is worked through a block at a time from the end, stopping once there are enough matches.*/
+        List<Hit> hits = new ArrayList<>();
+        List<Integer> blockMatches = new ArrayList<>();
+        int blockEnd = PostingList.END;
+        for (int block = lead.GetSkipCount() - 1; block >= 0 && hits.size() < limit; block--)
+        {
+            int blockStart = lead.GetSkipDoc(block);
+            PostingList.Cursor[] cursors = new PostingList.Cursor[lists.size()];
+            for (int i = 0; i < cursors.length; i++)
+                cursors[i] = lists.get(i).GetCursor();
+
+            blockMatches.clear();
+            int doc = cursors[0].Advance(blockStart);
+            while (doc < blockEnd)
+            {
+                int i = 1;
+                for (; i < cursors.length; i++)
+                {
+                    int other = cursors[i].Advance(doc);
+                    if (other != doc)
+                    {
+                        //Skip the lead ahead to where this list got to, nothing between can match.
+                        doc = cursors[0].Advance(other);
+                        break;
+                    }
+                }
+
+                if (i == cursors.length)
+                {
+                    blockMatches.add(doc);
+                    doc = cursors[0].Next();
+                }
+            }
+
+            for (int i = blockMatches.size() - 1; i >= 0 && hits.size() < limit; i--)
+                hits.add(GetHit(blockMatches.get(i)));
+            blockEnd = blockStart;
+        }
+        return hits;
+    }
+
+    public synchronized int Size()
+    {
+        return documentCount;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the index.
+     */
+    public synchronized long GetMemoryUsage()
+    {
+        long usage = messageIDs.length * 8L + (senders.length + conversations.length + rows.length) * 4L;
+        for (Map.Entry<String, PostingList> term : terms.entrySet())
+            usage += term.getKey().length() * 2L + 64 + term.getValue().GetMemoryUsage();
+        for (PostingList list : senderPostings.values())
+            usage += list.GetMemoryUsage();
+        for (PostingList list : conversationPostings.values())
+            usage += list.GetMemoryUsage();
+        return usage;
+    }
+
+    /**
+     * Writes the index to a file, replacing it if it already exists.
+     * The file is written in full to a temporary file first so a failed save doesn't lose the previous one.
+     */
+    public synchronized void Save(Path path) throws IOException
+    {
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath))))
+        {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+
+            output.writeInt(participants.size());
+            for (UUID participant : participants)
+            {
+                output.writeLong(participant.getMostSignificantBits());
+                output.writeLong(participant.getLeastSignificantBits());
+            }
+
+            output.writeInt(documentCount);
+            for (int doc = 0; doc < documentCount; doc++)
+            {
+                output.writeLong(messageIDs[doc * 2]);
+                output.writeLong(messageIDs[doc * 2 + 1]);
+                output.writeInt(senders[doc]);
+                output.writeInt(conversations[doc]);
+                output.writeInt(rows[doc]);
+            }
+
+            //The sender and conversation lists aren't written as they can be rebuilt from the documents.
+            output.writeInt(terms.size());
+            for (Map.Entry<String, PostingList> term : terms.entrySet())
+            {
+                output.writeUTF(term.getKey());
+                term.getValue().Write(output);
+            }
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads an index written by {@link #Save(Path)}.
+     */
+    public static MessageIndex Load(Path path) throws IOException
+    {
+        MessageIndex index = new MessageIndex();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path))))
+        {
+            if (input.readInt() != FILE_MAGIC)
+                throw new IOException("The file is not a message index.");
+            int version = input.readInt();
+            if (version != FILE_VERSION)
+                throw new IOException("Unsupported message index version: " + version);
+
+            int participantCount = input.readInt();
+            for (int i = 0; i < participantCount; i++)
+                index.GetParticipant(new UUID(input.readLong(), input.readLong()));
+
+            int documentCount = input.readInt();
+            int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, documentCount)) * 2);
+            index.messageIDs = new long[capacity * 2];
+            index.senders = new int[capacity];
+            index.conversations = new int[capacity];
+            index.rows = new int[capacity];
+            for (int doc = 0; doc < documentCount; doc++)
+            {
+                index.messageIDs[doc * 2] = input.readLong();
+                index.messageIDs[doc * 2 + 1] = input.readLong();
+                index.senders[doc] = input.readInt();
+                index.conversations[doc] = input.readInt();
+                index.rows[doc] = input.readInt();
+                if (index.senders[doc] >= participantCount || index.conversations[doc] >= participantCount)
+                    throw new IOException("The message index is corrupt.");
+
+                index.senderPostings.computeIfAbsent(index.senders[doc], k -> new PostingList()).Append(doc);
+                index.conversationPostings.computeIfAbsent(index.conversations[doc], k -> new PostingList()).Append(doc);
+            }
+            index.documentCount = documentCount;
+
+            int termCount = input.readInt();
+            for (int i = 0; i < termCount; i++)
+                index.terms.put(input.readUTF(), PostingList.Read(input));
+        }
+        return index;
+    }
+
+    /**
+     * Splits text into lower case terms on anything that isn't a letter or digit, each term is only returned once.
+     */
+    private static Set<String> Tokenize(String text)
+    {
+        if (text == null || text.isEmpty())
+            return Collections.emptySet();
+
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++)
+        {
+            Boolean isTermCharacter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (isTermCharacter && start == -1)
+            {
+                start = i;
+            }
+            else if (!isTermCharacter && start != -1)
+            {
+                if (i - start <= MAX_TERM_LENGTH)
+                    tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private int GetParticipant(UUID id)
+    {
+        Integer participant = participantIndexes.get(id);
+        if (participant == null)
+        {
+            participant = participants.size();
+            participants.add(id);
+            participantIndexes.put(id, participant);
+        }
+        return participant;
+    }
+
+    private Hit GetHit(int doc)
+    {
+        return new Hit(
+            new UUID(messageIDs[doc * 2], messageIDs[doc * 2 + 1]),
+            participants.get(senders[doc]),
+            participants.get(conversations[doc]),
+            rows[doc]);
+    }
+}
@@ -0,0 +1,195 @@
+package chat_app.backend;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import readiefur.console.Logger;
+import readiefur.sockets.ServerManager;
+
+import chat_app.backend.net_data.MessagePayload;
+
+/**
+ * Restores the order that a sender sent their messages in using the sequence numbers on each {@link MessagePayload}.
+ * <br></br>
+ * Messages that arrive early are held in a small buffer until the missing messages arrive,
+ * if a gap isn't filled in time (or the buffer fills up) then the missing messages are skipped.
+ */
+public class MessageOrderer
+{
+    /**
+     * The maximum number of out of order messages held per sender before the gap is skipped.
+     */
+    public static final int MAX_BUFFERED_MESSAGES = 64;
+    /**
+     * How long to wait for a missing message before skipping it.
+     */
+    public static final int GAP_TIMEOUT_MS = 500;
+
+    /**
+     * The ordering state for the messages from one sender to one conversation.
+     */
+    private static class Stream
+    {
+        /**
+         * The next expected sequence number, or {@code -1} if no messages have been received yet (broadcast streams only).
+         */
+        public long nextSequenceNumber = -1;
+        public final TreeMap<Long, MessagePayload> buffer = new TreeMap<>();
+        /**
+         * The sequence number that the current gap check is waiting on, or {@code -1} if there is no check scheduled.
+         */
+        public long gapCheckSequenceNumber = -1;
+    }
+
+    private final Object lock = new Object();
+    private final Consumer<MessagePayload> onDeliver;
+    //Broadcast and direct messages are counted separately by the sender so they are ordered separately too.
+    private final Map<UUID, Stream> broadcastStreams = new HashMap<>();
+    private final Map<UUID, Stream> directStreams = new HashMap<>();
+    private long skippedMessages = 0;
+
+    /**
+     * @param onDeliver Called with each message once it is in order, calls are never made concurrently.
+     */
+    public MessageOrderer(Consumer<MessagePayload> onDeliver)
+    {
+        this.onDeliver = onDeliver;
+    }
+
+    /**
+     * Passes a received message to the orderer, the message (and any buffered messages it was blocking) will be delivered once they are in order.
+     */
+    public void Receive(MessagePayload payload)
+    {
+        synchronized (lock)
+        {
+            long sequenceNumber = payload.GetSequenceNumber();
+
+            //Unsequenced messages can't be ordered so deliver them straight away.
+            if (sequenceNumber <= 0)
+            {
+                onDeliver.accept(payload);
+                return;
+            }
+
+            UUID sender = payload.GetSender();
+            Boolean isBroadcast = ServerManager.INVALID_UUID.equals(payload.GetRecipient());
+            Stream stream = (isBroadcast ? broadcastStreams : directStreams).computeIfAbsent(sender, key -> new Stream());
+
+            if (stream.nextSequenceNumber == -1)
+            {
+                //We may have joined part way through a broadcast conversation, so the first message we see sets the starting point.
+                //Direct messages are numbered per recipient from the first message sent to us, so they always start at 1.
+                stream.nextSequenceNumber = isBroadcast ? sequenceNumber : 1;
+            }
+
+            //Ignore duplicates or messages that have already been skipped.
+            if (sequenceNumber < stream.nextSequenceNumber)
+                return;
+
+            stream.buffer.put(sequenceNumber, payload);
+            Drain(stream);
+
+            if (stream.buffer.isEmpty())
+                return;
+
+            //There is a gap, if the buffer is full then skip it now, otherwise give the missing messages a chance to arrive.
+            if (stream.buffer.size() >= MAX_BUFFERED_MESSAGES)
+                SkipGap(sender, stream);
+            if (!stream.buffer.isEmpty() && stream.gapCheckSequenceNumber != stream.nextSequenceNumber)
+                ScheduleGapCheck(sender, stream);
+        }
+    }
+
+    /**
+     * Discards the ordering state for a sender, i.e. when they have disconnected.
+     */
+    public void RemoveSender(UUID sender)
+    {
+        synchronized (lock)
+        {
+            broadcastStreams.remove(sender);
+            directStreams.remove(sender);
+        }
+    }
+
+    /**
+     * Discards all ordering state, this should be called when the sender IDs are no longer valid (i.e. after a restart).
+     */
+    public void Clear()
+    {
+        synchronized (lock)
+        {
+            broadcastStreams.clear();
+            directStreams.clear();
+        }
+    }
+
+    /**
+     * Returns the total number of messages that were never received and so were skipped over.
+     */
+    public long GetSkippedMessageCount()
+    {
+        synchronized (lock)
+        {
+            return skippedMessages;
+        }
+    }
+
+    //Must be called while holding the lock.
+    private void Drain(Stream stream)
+    {
+        while (!stream.buffer.isEmpty() && stream.buffer.firstKey() == stream.nextSequenceNumber)
+        {
+            onDeliver.accept(stream.buffer.pollFirstEntry().getValue());
+            stream.nextSequenceNumber++;
+        }
+    }
+
+    //Must be called while holding the lock.
+    private void SkipGap(UUID sender, Stream stream)
+    {
+        long firstBuffered = stream.buffer.firstKey();
+        long missing = firstBuffered - stream.nextSequenceNumber;
+        skippedMessages += missing;
+        Logger.Warn("[MESSAGE_ORDERER] Skipping " + missing + " missing message(s) from: " + sender);
+
+        stream.nextSequenceNumber = firstBuffered;
+        Drain(stream);
+    }
+
+    //Must be called while holding the lock.
+    private void ScheduleGapCheck(UUID sender, Stream stream)
+    {
+        //Any previously scheduled check is now stale as it was for a gap that has since been filled.
+        long expectedSequenceNumber = stream.nextSequenceNumber;
+        stream.gapCheckSequenceNumber = expectedSequenceNumber;
+
+        //The delayed executor shares one timer thread across the JVM so there is no thread per gap.
+        CompletableFuture.delayedExecutor(GAP_TIMEOUT_MS, TimeUnit.MILLISECONDS).execute(() ->
+        {
+            synchronized (lock)
+            {
+                //If this check has been superseded or the stream was removed then there is nothing to do.
+                if (stream.gapCheckSequenceNumber != expectedSequenceNumber
+                    || (broadcastStreams.get(sender) != stream && directStreams.get(sender) != stream))
+                    return;
+                stream.gapCheckSequenceNumber = -1;
+
+                if (stream.buffer.isEmpty() || stream.nextSequenceNumber != expectedSequenceNumber)
+                    return;
+
+                SkipGap(sender, stream);
+
+                //The skipped messages may have been blocking a later gap.
+                if (!stream.buffer.isEmpty())
+                    ScheduleGapCheck(sender, stream);
+            }
+        });
+    }
+}
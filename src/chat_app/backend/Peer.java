@@ -9,7 +9,7 @@ import chat_app.backend.net_data.EPeerStatus;
 
 public class Peer implements Serializable
 {
-    protected String uuid = ServerManager.INVALID_UUID.toString(); //UUID is not serializable so we must store it as an alternate type (i.e. String).
+    protected UUID uuid = ServerManager.INVALID_UUID; //UUID is serializable, storing it directly saves parsing a string every time it is read.
     protected String ipAddress = "";
     protected EPeerStatus status = EPeerStatus.UNINITIALIZED;
     protected String username = "";
@@ -29,7 +29,7 @@ public class Peer implements Serializable
 
     public UUID GetUUID()
     {
-        return UUID.fromString(uuid);
+        return uuid;
     }
 
     public String GetIPAddress()
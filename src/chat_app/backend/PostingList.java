@@ -0,0 +1,204 @@
+package chat_app.backend;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An ascending list of document numbers, stored as variable length deltas so that common terms only take a byte or two per entry.
+ * <br></br>
+ * Every {@link #SKIP_INTERVAL}'th entry is also recorded uncompressed so that a cursor can jump close to a target
+ * rather than decoding everything before it, which keeps intersections with a rare term cheap.
+ */
+class PostingList
+{
+    public static final int SKIP_INTERVAL = 64;
+    public static final int END = Integer.MAX_VALUE;
+
+    /**
+     * Reads through a posting list, the list must not be appended to while a cursor is in use.
+     */
+    class Cursor
+    {
+        private int doc = -1;
+        private int index = 0;
+        private int offset = 0;
+
+        /**
+         * Returns the current document, {@code -1} before the first call to {@link #Next()} and {@link #END} once the list is exhausted.
+         */
+        public int Doc()
+        {
+            return doc;
+        }
+
+        /**
+         * Moves to the next document.
+         * @return The document, or {@link #END} if there are no more.
+         */
+        public int Next()
+        {
+            if (index >= count)
+                return doc = END;
+
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do
+            {
+                b = data[offset++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+
+            index++;
+            return doc = doc + delta;
+        }
+
+        /**
+         * Moves to the first document that is greater than or equal to the target.
+         * @return The document, or {@link #END} if there are no more.
+         */
+        public int Advance(int target)
+        {
+            if (doc >= target)
+                return doc;
+            if (target == END)
+                return doc = END;
+
+            //Jump to the last skip point before the target, if it is ahead of where we are.
+            int skip = Arrays.binarySearch(skipDocs, 0, skipCount, target);
+            if (skip < 0)
+                skip = -skip - 2;
+            if (skip >= 0 && skip * SKIP_INTERVAL + 1 > index)
+            {
+                doc = skipDocs[skip];
+                offset = skipOffsets[skip];
+                index = skip * SKIP_INTERVAL + 1;
+                if (doc >= target)
+                    return doc;
+            }
+
+            while (Next() < target);
+            return doc;
+        }
+    }
+
+    private byte[] data = new byte[4];
+    private int length = 0;
+    private int count = 0;
+    private int last = -1;
+    //The document and the offset just past it for every SKIP_INTERVAL'th entry.
+    private int[] skipDocs = new int[1];
+    private int[] skipOffsets = new int[1];
+    private int skipCount = 0;
+
+    /**
+     * Adds a document, documents must be added in ascending order and adding the last document again has no effect.
+     */
+    public void Append(int doc)
+    {
+        if (doc <= last)
+        {
+            if (doc == last)
+                return;
+            throw new IllegalArgumentException("Documents must be added in ascending order.");
+        }
+
+        if (length + 5 > data.length)
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+        int delta = doc - last;
+        while ((delta & ~0x7F) != 0)
+        {
+            data[length++] = (byte)((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        data[length++] = (byte)delta;
+
+        if (count % SKIP_INTERVAL == 0)
+        {
+            if (skipCount == skipDocs.length)
+            {
+                skipDocs = Arrays.copyOf(skipDocs, skipCount * 2);
+                skipOffsets = Arrays.copyOf(skipOffsets, skipCount * 2);
+            }
+            skipDocs[skipCount] = doc;
+            skipOffsets[skipCount] = length;
+            skipCount++;
+        }
+
+        count++;
+        last = doc;
+    }
+
+    public int Size()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the number of skip points, which split the list into blocks that can be read independently.
+     */
+    public int GetSkipCount()
+    {
+        return skipCount;
+    }
+
+    /**
+     * Returns the first document in the specified block.
+     */
+    public int GetSkipDoc(int skip)
+    {
+        return skipDocs[skip];
+    }
+
+    public Cursor GetCursor()
+    {
+        return new Cursor();
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the list.
+     */
+    public long GetMemoryUsage()
+    {
+        return data.length + (skipDocs.length + skipOffsets.length) * 4L;
+    }
+
+    public void Write(DataOutputStream output) throws IOException
+    {
+        output.writeInt(count);
+        output.writeInt(length);
+        output.write(data, 0, length);
+    }
+
+    public static PostingList Read(DataInputStream input) throws IOException
+    {
+        PostingList list = new PostingList();
+        list.count = input.readInt();
+        list.length = input.readInt();
+        list.data = new byte[list.length];
+        input.readFully(list.data);
+
+        //The skip points aren't written as they can be rebuilt by reading through the list.
+        list.skipDocs = new int[list.count / SKIP_INTERVAL + 1];
+        list.skipOffsets = new int[list.count / SKIP_INTERVAL + 1];
+        Cursor cursor = list.GetCursor();
+        for (int i = 0; i < list.count; i++)
+        {
+            cursor.Next();
+            if (i % SKIP_INTERVAL == 0)
+            {
+                list.skipDocs[list.skipCount] = cursor.doc;
+                list.skipOffsets[list.skipCount] = cursor.offset;
+                list.skipCount++;
+            }
+        }
+        if (cursor.offset != list.length)
+            throw new IOException("The posting list is corrupt.");
+        list.last = cursor.doc;
+        return list;
+    }
+}
@@ -0,0 +1,129 @@
+package chat_app.backend;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import readiefur.console.Logger;
+import readiefur.misc.TokenBucket;
+
+/**
+ * Used by the host to limit how fast messages are accepted, both from each connection and into each room.
+ * <br></br>
+ * A room is the conversation a message is delivered to, i.e. the global room for broadcasts or a peer for direct messages.
+ */
+public class RateLimiter
+{
+    public static final double DEFAULT_CONNECTION_RATE = 50;
+    public static final double DEFAULT_CONNECTION_BURST = 200;
+    public static final double DEFAULT_ROOM_RATE = 200;
+    public static final double DEFAULT_ROOM_BURST = 500;
+
+    private final double connectionRate;
+    private final double connectionBurst;
+    private final double roomRate;
+    private final double roomBurst;
+    private final ERateLimitAction action;
+
+    private final ConcurrentHashMap<UUID, TokenBucket> connectionBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, TokenBucket> roomBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, AtomicLong> limitedFrames = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a rate limiter with the default limits that drops messages over the limit.
+     */
+    public RateLimiter()
+    {
+        this(DEFAULT_CONNECTION_RATE, DEFAULT_CONNECTION_BURST, DEFAULT_ROOM_RATE, DEFAULT_ROOM_BURST, ERateLimitAction.DROP);
+    }
+
+    /**
+     * @param connectionRate The number of messages per second each connection may send.
+     * @param connectionBurst The number of messages each connection may send in a single burst.
+     * @param roomRate The number of messages per second that may be sent into each room.
+     * @param roomBurst The number of messages that may be sent into each room in a single burst.
+     * @param action What to do with messages that exceed the limits.
+     */
+    public RateLimiter(double connectionRate, double connectionBurst, double roomRate, double roomBurst, ERateLimitAction action)
+    {
+        this.connectionRate = connectionRate;
+        this.connectionBurst = connectionBurst;
+        this.roomRate = roomRate;
+        this.roomBurst = roomBurst;
+        this.action = action;
+    }
+
+    /**
+     * Checks a message from the specified peer against their connection limit.
+     * @return {@code true} if the message should be processed, otherwise {@code false}.
+     */
+    public Boolean AdmitConnection(UUID peer)
+    {
+        return Admit(peer, connectionBuckets.computeIfAbsent(peer, key -> new TokenBucket(connectionRate, connectionBurst)));
+    }
+
+    /**
+     * Checks a message from the specified peer against the limit of the room it is being sent to.
+     * @return {@code true} if the message should be delivered to the room, otherwise {@code false}.
+     */
+    public Boolean AdmitRoom(UUID peer, UUID room)
+    {
+        return Admit(peer, roomBuckets.computeIfAbsent(room, key -> new TokenBucket(roomRate, roomBurst)));
+    }
+
+    /**
+     * Returns the number of messages from the specified peer that have been dropped or throttled.
+     */
+    public long GetLimitedFrameCount(UUID peer)
+    {
+        AtomicLong count = limitedFrames.get(peer);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Discards the state for a peer, this should be called when they disconnect.
+     */
+    public void RemovePeer(UUID peer)
+    {
+        connectionBuckets.remove(peer);
+        roomBuckets.remove(peer);
+        limitedFrames.remove(peer);
+    }
+
+    /**
+     * Discards all state, this should be called when the peer IDs are no longer valid (i.e. after a restart).
+     */
+    public void Clear()
+    {
+        connectionBuckets.clear();
+        roomBuckets.clear();
+        limitedFrames.clear();
+    }
+
+    private Boolean Admit(UUID peer, TokenBucket bucket)
+    {
+        if (bucket.TryConsume())
+            return true;
+
+        limitedFrames.computeIfAbsent(peer, key -> new AtomicLong()).incrementAndGet();
+
+        if (action == ERateLimitAction.DROP)
+        {
+            Logger.Warn("[RATE_LIMITER] Dropped message from: " + peer);
+            return false;
+        }
+
+        //Throttle by waiting on the calling (connection) thread until a token is available.
+        while (!bucket.TryConsume())
+        {
+            try { Thread.sleep(Math.max(1, bucket.GetWaitMilliseconds())); }
+            catch (InterruptedException ex)
+            {
+                //The connection is closing, so drop the message.
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
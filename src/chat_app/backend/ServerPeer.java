@@ -15,7 +15,7 @@ public class ServerPeer extends Peer
      */
     public ServerPeer(UUID uuid, String ipAddress, String username, EPeerStatus status)
     {
-        this.uuid = uuid.toString();
+        this.uuid = uuid;
         this.ipAddress = ipAddress;
         this.username = username;
         this.status = status;
@@ -0,0 +1,24 @@
+package chat_app.backend.net_data;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * A payload containing the IDs of messages that have been acknowledged by the server.
+ * <br></br>
+ * This is sent in place of echoing the whole message back to the sender.
+ */
+public class AckPayload implements Serializable
+{
+    private UUID[] messageIDs;
+
+    public AckPayload(UUID[] messageIDs)
+    {
+        this.messageIDs = messageIDs;
+    }
+
+    public UUID[] GetMessageIDs()
+    {
+        return messageIDs;
+    }
+}
@@ -0,0 +1,90 @@
+package chat_app.backend.net_data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import readiefur.sockets.ServerManager;
+
+import chat_app.backend.Peer;
+
+/**
+ * Builds the preset dictionary used to compress chat traffic.
+ * <br></br>
+ * The dictionary is made up of the serialized form of each of our network messages (which is mostly class descriptors that repeat in every message)
+ * and a list of common words. Everything in here must be deterministic as both ends of a connection need to build the exact same dictionary.
+ */
+public class CompressionDictionary
+{
+    //Words are placed at the start of the dictionary as deflate favours data towards the end, which is where the protocol bytes go.
+    private static final String COMMON_WORDS =
+        "the be to of and a in that have I it for not on with he as you do at this but his by from they we say her she or an will my one all "
+        + "would there their what so up out if about who get which go me when make can like time no just him know take people into year your "
+        + "good some could them see other than then now look only come its over think also back after use two how our work first well way even "
+        + "new want because any these give day most us hello hi hey thanks thank please yes yeah ok okay lol sorry sure great cool nice "
+        + "http https www .com .png .jpg .txt .log ";
+
+    private static byte[] dictionary = null;
+
+    private CompressionDictionary() {}
+
+    /**
+     * Returns the preset dictionary, this is built once and then cached.
+     */
+    public static synchronized byte[] Get()
+    {
+        if (dictionary != null)
+            return dictionary;
+
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        byte[] words = COMMON_WORDS.getBytes(StandardCharsets.UTF_8);
+        byteStream.write(words, 0, words.length);
+
+        try
+        {
+            //Fixed values are used so that the serialized output is the same every time.
+            UUID sampleID = ServerManager.SERVER_UUID;
+
+            NetMessage<Peer> peerMessage = new NetMessage<>();
+            peerMessage.type = EType.PEER;
+            peerMessage.payload = new Peer("");
+            WriteObject(byteStream, peerMessage);
+
+            NetMessage<PeersPayload> peersMessage = new NetMessage<>();
+            peersMessage.type = EType.PEERS;
+            peersMessage.payload = new PeersPayload();
+            peersMessage.payload.peers = new Peer[] { new Peer("") };
+            WriteObject(byteStream, peersMessage);
+
+            NetMessage<AckPayload> ackMessage = new NetMessage<>();
+            ackMessage.type = EType.ACK;
+            ackMessage.payload = new AckPayload(new UUID[] { sampleID });
+            WriteObject(byteStream, ackMessage);
+
+            //Chat messages are by far the most common so they go last.
+            NetMessage<MessagePayload> chatMessage = new NetMessage<>();
+            chatMessage.type = EType.MESSAGE;
+            chatMessage.payload = new MessagePayload(sampleID, ServerManager.INVALID_UUID, "");
+            chatMessage.payload.SetSender(sampleID);
+            WriteObject(byteStream, chatMessage);
+        }
+        catch (IOException ex)
+        {
+            //Writing to a byte array can't fail, but if it somehow does the words alone still make a usable dictionary.
+        }
+
+        dictionary = byteStream.toByteArray();
+        return dictionary;
+    }
+
+    private static void WriteObject(ByteArrayOutputStream byteStream, Serializable object) throws IOException
+    {
+        //A new object stream is used for each object as this matches how messages are serialized before compression.
+        ObjectOutputStream objectStream = new ObjectOutputStream(byteStream);
+        objectStream.writeObject(object);
+        objectStream.flush();
+    }
+}
@@ -46,5 +46,65 @@ public enum EType
      * <br></br>
      * Payload: {@link MessagePayload}
      */
-    MESSAGE
+    MESSAGE,
+    /**
+     * Used by the server to acknowledge one or more messages sent by a client.
+     * <br></br>
+     * Payload: {@link AckPayload}
+     */
+    ACK,
+    /**
+     * Used to offer a file to a peer, the peer responds with {@link #FILE_ACCEPT} or {@link #FILE_CANCEL}.
+     * <br></br>
+     * Payload: {@link FileTransferPayload}
+     */
+    FILE_OFFER,
+    /**
+     * Used to accept a file offer, the offset is the number of bytes the recipient already has which allows a transfer to be resumed.
+     * <br></br>
+     * Payload: {@link FileTransferPayload}
+     */
+    FILE_ACCEPT,
+    /**
+     * Used to send part of a file.
+     * <br></br>
+     * Payload: {@link FileTransferPayload}
+     */
+    FILE_CHUNK,
+    /**
+     * Used by the recipient to report how many bytes it has received, this allows the sender to send more chunks (flow control).
+     * <br></br>
+     * Payload: {@link FileTransferPayload}
+     */
+    FILE_ACK,
+    /**
+     * Used by either side to decline or stop a transfer.
+     * <br></br>
+     * Payload: {@link FileTransferPayload}
+     */
+    FILE_CANCEL,
+    /**
+     * Sent by both ends of a link between federated hosts to identify themselves.
+     * <br></br>
+     * Payload: {@link FederationPayload}
+     */
+    FEDERATION_HELLO,
+    /**
+     * Used by a federated host to tell the other hosts about changes to the peers connected to it.
+     * <br></br>
+     * Payload: {@link FederationPayload}
+     */
+    FEDERATION_DIRECTORY,
+    /**
+     * Sent by a client to tell a federated host which room it wants to join.
+     * <br></br>
+     * Payload: {@link RoomPayload}
+     */
+    ROOM,
+    /**
+     * Sent by a federated host to tell a client to reconnect to the host that owns its room.
+     * <br></br>
+     * Payload: {@link RoomPayload}
+     */
+    REDIRECT
 }
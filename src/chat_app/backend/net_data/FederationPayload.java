@@ -0,0 +1,78 @@
+package chat_app.backend.net_data;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+import chat_app.backend.Peer;
+
+/**
+ * A payload sent between federated hosts.
+ */
+public class FederationPayload implements Serializable
+{
+    /**
+     * The ID of the host that sent the payload.
+     */
+    private UUID hostID;
+    /**
+     * Peers that have connected to or disconnected from the sending host, see {@link Peer#GetStatus()}.
+     * <br></br>
+     * The sending host's own peer is listed under its host ID as every host's own peer ID is {@code readiefur.sockets.ServerManager.SERVER_UUID}.
+     */
+    private Peer[] peers;
+    /**
+     * The address that the sending host accepts clients on, only sent with a {@link EType#FEDERATION_HELLO}.
+     */
+    private String address = null;
+    /**
+     * The port that the sending host accepts clients on, only sent with a {@link EType#FEDERATION_HELLO}.
+     */
+    private int port = -1;
+    /**
+     * Proves that the sending host knows the federation's shared secret, only sent with a {@link EType#FEDERATION_HELLO}.
+     * {@code null} when no secret has been set.
+     */
+    private byte[] proof = null;
+
+    public FederationPayload(UUID hostID, Peer[] peers)
+    {
+        this.hostID = hostID;
+        this.peers = peers;
+    }
+
+    /**
+     * Creates a hello, which tells the other host where our clients connect to us.
+     */
+    public FederationPayload(UUID hostID, String address, int port, byte[] proof)
+    {
+        this(hostID, new Peer[0]);
+        this.address = address;
+        this.port = port;
+        this.proof = proof;
+    }
+
+    public UUID GetHostID()
+    {
+        return hostID;
+    }
+
+    public Peer[] GetPeers()
+    {
+        return peers;
+    }
+
+    public String GetAddress()
+    {
+        return address;
+    }
+
+    public int GetPort()
+    {
+        return port;
+    }
+
+    public byte[] GetProof()
+    {
+        return proof;
+    }
+}
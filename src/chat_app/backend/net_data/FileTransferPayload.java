@@ -0,0 +1,132 @@
+package chat_app.backend.net_data;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * A payload used for every stage of a file transfer, the fields that are set depend on the message type.
+ * <br></br>
+ * The server only reads the routing fields and relays the message as-is, so files are never held by the server.
+ * @see EType#FILE_OFFER
+ */
+public class FileTransferPayload implements Serializable
+{
+    /**
+     * An ID used to identify the transfer, chosen by the sender of the file.
+     */
+    private UUID transferID;
+    /**
+     * The UUID of the peer that sent this message (resolved by the server).
+     */
+    private UUID sender;
+    /**
+     * The UUID of the peer that this message is for.
+     */
+    private UUID recipient;
+    /**
+     * The name of the file (offer only).
+     */
+    private String fileName = null;
+    /**
+     * The total size of the file in bytes (offer only).
+     */
+    private long fileSize = 0;
+    /**
+     * For an accept or ack this is the number of bytes the recipient has, for a chunk this is where the data belongs in the file.
+     */
+    private long offset = 0;
+    /**
+     * The chunk data (chunk only).
+     */
+    private byte[] data = null;
+
+    private FileTransferPayload(UUID transferID, UUID recipient)
+    {
+        this.transferID = transferID;
+        this.sender = null;
+        this.recipient = recipient;
+    }
+
+    public static FileTransferPayload CreateOffer(UUID transferID, UUID recipient, String fileName, long fileSize)
+    {
+        FileTransferPayload payload = new FileTransferPayload(transferID, recipient);
+        payload.fileName = fileName;
+        payload.fileSize = fileSize;
+        return payload;
+    }
+
+    /**
+     * Used for accepts, acks and cancellations.
+     */
+    public static FileTransferPayload CreateProgress(UUID transferID, UUID recipient, long offset)
+    {
+        FileTransferPayload payload = new FileTransferPayload(transferID, recipient);
+        payload.offset = offset;
+        return payload;
+    }
+
+    public static FileTransferPayload CreateChunk(UUID transferID, UUID recipient, long offset, byte[] data)
+    {
+        FileTransferPayload payload = new FileTransferPayload(transferID, recipient);
+        payload.offset = offset;
+        payload.data = data;
+        return payload;
+    }
+
+    /**
+     * Creates a copy of this payload with a different sender, used by the host when relaying the payload.
+     */
+    //TODO: Hide this for server use only.
+    public FileTransferPayload ForSender(UUID sender)
+    {
+        FileTransferPayload copy = new FileTransferPayload(transferID, recipient);
+        copy.sender = sender;
+        copy.fileName = fileName;
+        copy.fileSize = fileSize;
+        copy.offset = offset;
+        //The chunk data isn't modified once created so it is shared rather than copied.
+        copy.data = data;
+        return copy;
+    }
+
+    public UUID GetTransferID()
+    {
+        return transferID;
+    }
+
+    //TODO: Hide this for server use only.
+    public void SetSender(UUID sender)
+    {
+        this.sender = sender;
+    }
+
+    public UUID GetSender()
+    {
+        return sender;
+    }
+
+    public UUID GetRecipient()
+    {
+        return recipient;
+    }
+
+    public String GetFileName()
+    {
+        return fileName;
+    }
+
+    public long GetFileSize()
+    {
+        return fileSize;
+    }
+
+    public long GetOffset()
+    {
+        return offset;
+    }
+
+    public byte[] GetData()
+    {
+        return data;
+    }
+}
@@ -1,8 +1,13 @@
 package chat_app.backend.net_data;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.UUID;
 
+import readiefur.sockets.ServerManager;
+
 /**
  * A payload containing a message to send.
  */
@@ -11,15 +16,31 @@ public class MessagePayload implements Serializable
     /**
      * An ID used to identify the message.
      */
-    private String messageID;
+    private UUID messageID;
     /**
      * The sender's UUID (resolved by the server).
      */
-    private String sender;
+    private UUID sender;
     /**
      * The recipient's UUID or {@code readiefur.sockets.ServerManager.INVALID_UUID} for broadcast.
      */
-    private String recipient;
+    private UUID recipient;
+    /**
+     * The recipients' UUIDs for a group message, or {@code null} for a broadcast/single recipient message.
+     * <br></br>
+     * The server fans the message out to each recipient, setting {@link #recipient} on each copy.
+     */
+    private UUID[] recipients;
+    /**
+     * The sender assigned sequence number, counted separately for each recipient (or for broadcasts).
+     * <br></br>
+     * {@code 0} indicates that the message is not sequenced.
+     */
+    private long sequenceNumber = 0;
+    /**
+     * The sequence numbers for each of the {@link #recipients} of a group message.
+     */
+    private long[] sequenceNumbers = null;
     /**
      * The message to send.
      */
@@ -27,31 +48,136 @@ public class MessagePayload implements Serializable
 
     public MessagePayload(UUID recipient, String message)
     {
-        this.messageID = UUID.randomUUID().toString();
+        this.messageID = UUID.randomUUID();
+        this.sender = null;
+        this.recipient = recipient;
+        this.recipients = null;
+        this.message = message;
+    }
+
+    /**
+     * Creates a message with a known ID, used to build data that must be the same across processes.
+     * @see CompressionDictionary
+     */
+    MessagePayload(UUID messageID, UUID recipient, String message)
+    {
+        this(recipient, message);
+        this.messageID = messageID;
+    }
+
+    /**
+     * Creates a group message that is uploaded once and then relayed by the server to each of the specified recipients.
+     */
+    public MessagePayload(UUID[] recipients, String message)
+    {
+        this.messageID = UUID.randomUUID();
         this.sender = null;
-        this.recipient = recipient.toString();
+        this.recipient = null;
+        //Duplicates are removed so that each recipient is only sent (and sequenced for) the message once.
+        Set<UUID> uniqueRecipients = new LinkedHashSet<>(Arrays.asList(recipients));
+        this.recipients = uniqueRecipients.toArray(new UUID[uniqueRecipients.size()]);
         this.message = message;
     }
 
+    /**
+     * Creates a copy of this message addressed to a single member of the group.
+     */
+    //TODO: Hide this for server use only.
+    public MessagePayload ForRecipient(UUID recipient)
+    {
+        MessagePayload copy = new MessagePayload(recipient, message);
+        copy.messageID = messageID;
+        copy.sender = sender;
+        copy.recipients = recipients;
+
+        //Pick out the sequence number that was assigned for this recipient.
+        if (sequenceNumbers != null)
+        {
+            for (int i = 0; i < recipients.length; i++)
+            {
+                if (recipients[i].equals(recipient))
+                {
+                    copy.sequenceNumber = sequenceNumbers[i];
+                    break;
+                }
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Creates a copy of this message with a different sender, used when relaying a message between federated hosts.
+     */
+    //TODO: Hide this for server use only.
+    public MessagePayload ForSender(UUID sender)
+    {
+        MessagePayload copy = new MessagePayload(messageID, ServerManager.INVALID_UUID, message);
+        copy.sender = sender;
+        copy.recipient = recipient;
+        copy.recipients = recipients;
+        copy.sequenceNumber = sequenceNumber;
+        copy.sequenceNumbers = sequenceNumbers;
+        return copy;
+    }
+
     public UUID GetMessageID()
     {
-        return UUID.fromString(this.messageID);
+        return this.messageID;
     }
 
     //TODO: Hide this for server use only.
     public void SetSender(UUID sender)
     {
-        this.sender = sender.toString();
+        this.sender = sender;
     }
 
     public UUID GetSender()
     {
-        return UUID.fromString(this.sender);
+        return this.sender;
     }
 
+    /**
+     * Returns the recipient of this message, or {@code null} for a group message that has not yet been relayed by the server.
+     */
     public UUID GetRecipient()
     {
-        return UUID.fromString(this.recipient);
+        return this.recipient;
+    }
+
+    /**
+     * Returns whether this message was sent to a group of recipients.
+     */
+    public Boolean IsGroupMessage()
+    {
+        return this.recipients != null;
+    }
+
+    /**
+     * Returns the recipients of a group message, or an empty array if this is not a group message.
+     */
+    public UUID[] GetRecipients()
+    {
+        //A copy is returned as the array is shared between the copies made for each recipient.
+        return this.recipients == null ? new UUID[0] : this.recipients.clone();
+    }
+
+    public void SetSequenceNumber(long sequenceNumber)
+    {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * Sets the sequence numbers for a group message, in the same order as {@link #GetRecipients()}.
+     */
+    public void SetSequenceNumbers(long[] sequenceNumbers)
+    {
+        this.sequenceNumbers = sequenceNumbers;
+    }
+
+    public long GetSequenceNumber()
+    {
+        return this.sequenceNumber;
     }
 
     public String GetMessage()
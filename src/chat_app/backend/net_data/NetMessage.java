@@ -2,10 +2,13 @@ package chat_app.backend.net_data;
 
 import java.io.Serializable;
 
+import readiefur.sockets.ESendPriority;
+import readiefur.sockets.IPrioritisedMessage;
+
 /**
  * An generic message object that is used to communicate between peers.
  */
-public class NetMessage<TPayload extends Serializable> implements Serializable
+public class NetMessage<TPayload extends Serializable> implements Serializable, IPrioritisedMessage
 {
     /**
      * The message type.
@@ -17,6 +20,24 @@ public class NetMessage<TPayload extends Serializable> implements Serializable
      */
     public TPayload payload = null;
 
+    /**
+     * Chat messages are sent as data and file chunks as bulk so that transfers don't hold up the chat,
+     * everything else is a control message that should not wait behind either.
+     */
+    @Override
+    public ESendPriority GetSendPriority()
+    {
+        switch (type)
+        {
+            case MESSAGE:
+                return ESendPriority.DATA;
+            case FILE_CHUNK:
+                return ESendPriority.BULK;
+            default:
+                return ESendPriority.CONTROL;
+        }
+    }
+
     // /**
     //  * Creates a new {@link NetMessage} with the specified type and payload.
     //  * @param type The message type.
@@ -0,0 +1,56 @@
+package chat_app.backend.net_data;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * A payload used to place a client on the federated host that owns its room.
+ */
+public class RoomPayload implements Serializable
+{
+    /**
+     * The room (or conversation) ID that the client wants to join.
+     */
+    private UUID room;
+    /**
+     * The address of the host that owns the room, or {@code null} when the client is joining.
+     */
+    private String address;
+    /**
+     * The port of the host that owns the room.
+     */
+    private int port;
+
+    /**
+     * Creates a request to join a room.
+     */
+    public RoomPayload(UUID room)
+    {
+        this(room, null, -1);
+    }
+
+    /**
+     * Creates a redirect to the host that owns a room.
+     */
+    public RoomPayload(UUID room, String address, int port)
+    {
+        this.room = room;
+        this.address = address;
+        this.port = port;
+    }
+
+    public UUID GetRoom()
+    {
+        return room;
+    }
+
+    public String GetAddress()
+    {
+        return address;
+    }
+
+    public int GetPort()
+    {
+        return port;
+    }
+}
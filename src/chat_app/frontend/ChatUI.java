@@ -1,19 +1,23 @@
 package chat_app.frontend;
 
 import java.awt.Color;
-import java.awt.GridBagConstraints;
+import java.awt.event.KeyEvent;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
-import javax.swing.plaf.InsetsUIResource;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.xml.sax.SAXException;
 
+import readiefur.console.Logger;
+import readiefur.misc.Subscription;
 import readiefur.sockets.ServerManager;
+import readiefur.xml_ui.FrameDispatcher;
 import readiefur.xml_ui.Observable;
 import readiefur.xml_ui.XMLUI;
 import readiefur.xml_ui.attributes.BindingAttribute;
@@ -22,28 +26,33 @@ import readiefur.xml_ui.attributes.NamedComponentAttribute;
 import readiefur.xml_ui.controls.Button;
 import readiefur.xml_ui.controls.Scrollable;
 import readiefur.xml_ui.controls.StackPanel;
-import readiefur.xml_ui.controls.TextBlock;
 import readiefur.xml_ui.controls.TextBox;
+import readiefur.xml_ui.controls.Transcript;
+import readiefur.xml_ui.controls.TranscriptModel;
 import readiefur.xml_ui.controls.Window;
 import readiefur.xml_ui.exceptions.InvalidXMLException;
 import chat_app.backend.ChatManager;
+import chat_app.backend.MessageIndex;
 import chat_app.backend.Peer;
 import chat_app.backend.net_data.MessagePayload;
 
 public class ChatUI extends XMLUI<Window>
 {
+    //Styles for the chat box rows, rows with no style use the primary foreground colour.
+    private static final String STYLE_SECONDARY = "secondary";
+    private static final String STYLE_ERROR = "error";
+    //The number of recent messages kept in memory for each chat, older messages are spilled to disk and loaded back in when scrolled to.
+    private static final int HISTORY_WINDOW = 500;
+    private static final int SEARCH_RESULT_LIMIT = 200;
+
     //#region UI fields
-    @BindingAttribute(DefaultValue = Themes.LIGHT_BACKGROUND_PRIMARY) private Observable<String> backgroundColourPrimary;
-    @BindingAttribute(DefaultValue = Themes.LIGHT_BACKGROUND_SECONDARY) private Observable<String> backgroundColourSecondary;
-    @BindingAttribute(DefaultValue = Themes.LIGHT_BACKGROUND_TERTIARY) private Observable<String> backgroundColourTertiary;
-    @BindingAttribute(DefaultValue = Themes.LIGHT_FOREGROUND_PRIMARY) private Observable<String> foregroundColourPrimary;
-    @BindingAttribute(DefaultValue = Themes.LIGHT_FOREGROUND_SECONDARY) private Observable<String> foregroundColourSecondary;
     @BindingAttribute(DefaultValue = "false") private Observable<String> connectedToServer;
 
     @NamedComponentAttribute private Scrollable clientListContainer;
     @NamedComponentAttribute private StackPanel clientList;
     @NamedComponentAttribute private Scrollable chatBoxContainer;
-    @NamedComponentAttribute private StackPanel chatBox;
+    @NamedComponentAttribute private TextBox searchBox;
+    @NamedComponentAttribute private Transcript chatBox;
     @NamedComponentAttribute private TextBox inputBox;
     @NamedComponentAttribute private Button sendButton;
     //#endregion
@@ -56,8 +65,18 @@ public class ChatUI extends XMLUI<Window>
      *And if I were to store the chats by username, after a server reset, the clients can "spoof" their name and impersonate the original sender.
      *So for these reasons, I will clear private messages between server resets, however the global message room will remain.*/
     //TODO: A future fix for this would be to have some sort of public/private key messaging to help with verification.
-    private final ConcurrentHashMap<UUID, List<TextBlock>> messageGroups = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, TranscriptModel> messageGroups = new ConcurrentHashMap<>();
     private UUID activeChat = ServerManager.INVALID_UUID;
+    //Indexes the chat messages (but not the system messages) so that the history can be searched without scrolling through it.
+    private final MessageIndex messageIndex = new MessageIndex();
+
+    /*The chat manager's events are raised on its network threads, so rather than touching the UI from there they are queued
+     *and handled together on the UI thread at most once per frame, which also means a burst of messages only causes one layout.*/
+    private final FrameDispatcher frameDispatcher = new FrameDispatcher();
+    //The chat manager can outlive the window, so its listeners are removed when the window is closed.
+    private final List<Subscription> chatManagerSubscriptions = new ArrayList<>();
+    //Messages are sent from here rather than the UI thread, so typing quickly doesn't freeze the window.
+    private final MessageOutbox outbox;
 
     public ChatUI(ChatManager chatManager)
         throws IllegalArgumentException, IllegalAccessException, IOException, ParserConfigurationException, SAXException, InvalidXMLException
@@ -65,29 +84,39 @@ public class ChatUI extends XMLUI<Window>
         super();
 
         this.chatManager = chatManager;
+        outbox = new MessageOutbox(chatManager::SendMessageAsync);
+        outbox.start();
+
+        //The chat box colours for the styles are bound once here rather than per message.
+        theme.AddListener(newTheme -> chatBox.SetStyleColour(STYLE_SECONDARY, newTheme.GetColour(Themes.FOREGROUND_SECONDARY)));
+        chatBox.SetStyleColour(STYLE_ERROR, Color.decode("#FF0000"));
+        SetDarkTheme(false);
 
         //Create the broadcast chat entry.
-        messageGroups.put(ServerManager.INVALID_UUID, new ArrayList<>());
-        ClientEntry broadcastClientEntry = new ClientEntry("Global", "", backgroundColourTertiary, foregroundColourPrimary);
+        chatBox.SetModel(GetMessageGroup(ServerManager.INVALID_UUID));
+        ClientEntry broadcastClientEntry = new ClientEntry("Global", "", theme);
         broadcastClientEntry.onMouseClicked.Add(e -> SetActiveChat(ServerManager.INVALID_UUID));
         clientEntries.put(ServerManager.INVALID_UUID, broadcastClientEntry);
         clientList.AddChild(broadcastClientEntry, broadcastClientEntry.containerConstraints);
-        broadcastClientEntry.setBackground(Color.decode(Themes.ACCENT_PRIMARY));
+        theme.BindBackground(broadcastClientEntry, Themes.ACCENT);
         //No need to call the SetActiveChat as the active chat is already set to the broadcast chat and there will be no messages to add at this point.
         broadcastClientEntry.setEnabled(false);
         connectedToServer.AddListener(newValue -> broadcastClientEntry.setEnabled(Boolean.parseBoolean(newValue)));
 
-        this.chatManager.onPeerConnected.Add(this::ChatManager_OnPeerConnected);
-        this.chatManager.onPeerDisconnected.Add(this::ChatManager_OnPeerDisconnected);
-        this.chatManager.onMessageReceived.Add(this::ChatManager_OnMessageReceived);
+        chatManagerSubscriptions.add(this.chatManager.onPeerConnected.Add(peer -> frameDispatcher.Post(() -> ChatManager_OnPeerConnected(peer))));
+        chatManagerSubscriptions.add(this.chatManager.onPeerDisconnected.Add(peer -> frameDispatcher.Post(() -> ChatManager_OnPeerDisconnected(peer))));
+        chatManagerSubscriptions.add(this.chatManager.onMessageReceived.Add(this::QueueMessageReceived));
 
         //Normally in C# I would use the discard operator but Java doesn't have that.
         rootComponent.onWindowClosed.Add(e ->
         {
             //It is a good practice to unsubscribe from the events.
-            this.chatManager.onPeerConnected.Remove(this::ChatManager_OnPeerConnected);
-            this.chatManager.onPeerDisconnected.Remove(this::ChatManager_OnPeerDisconnected);
-            this.chatManager.onMessageReceived.Remove(this::ChatManager_OnMessageReceived);
+            for (Subscription subscription : chatManagerSubscriptions)
+                subscription.close();
+            outbox.Dispose();
+            frameDispatcher.Dispose();
+            for (TranscriptModel messageGroup : messageGroups.values())
+                messageGroup.Dispose();
         });
 
         inputBox.onKeyPressed.Add(e ->
@@ -98,12 +127,28 @@ public class ChatUI extends XMLUI<Window>
                 SendButton_OnClick(null);
         });
 
+        searchBox.onKeyPressed.Add(e ->
+        {
+            if (e.getKeyCode() == 10)
+                Search(searchBox.getText());
+            else if (e.getKeyCode() == KeyEvent.VK_ESCAPE)
+                Search("");
+        });
+
         //Add existing clients to the client list (some will be missed between the time of the ChatManager starting and the UI being created).
         for (Peer peer : chatManager.GetPeers().values())
-            ChatManager_OnPeerConnected(peer);
+            frameDispatcher.Post(() -> ChatManager_OnPeerConnected(peer));
     }
 
     //#region Window methods
+    /**
+     * Switches between the light and dark colours, can be called from any thread.
+     */
+    public void SetDarkTheme(Boolean dark)
+    {
+        theme.SetColours(dark ? Themes.Dark() : Themes.Light());
+    }
+
     public void Show()
     {
         rootComponent.Show();
@@ -150,8 +195,10 @@ public class ChatUI extends XMLUI<Window>
             //Revert back to the broadcast chat.
             SetActiveChat(ServerManager.INVALID_UUID);
 
-            for (UUID id : chatManager.GetPeers().keySet())
-                RemoveClientEntry(id);
+            //By the time this runs the chat manager may have already reconnected, so remove our own entries rather than its current peers.
+            for (UUID id : clientEntries.keySet())
+                if (!id.equals(ServerManager.INVALID_UUID))
+                    RemoveClientEntry(id);
 
             //Clear the private chats, read the comment on the deceleration of messageGroups for more information.
             for (UUID id : messageGroups.keySet())
@@ -160,14 +207,9 @@ public class ChatUI extends XMLUI<Window>
                 if (id.equals(ServerManager.INVALID_UUID))
                     continue;
 
-                for (TextBlock textBlock : messageGroups.get(id))
-                {
-                    //Unbind events.
-                    backgroundColourTertiary.RemoveListener(newValue -> textBlock.setBackground(Color.decode(newValue)));
-                    foregroundColourPrimary.RemoveListener(newValue -> textBlock.setForeground(Color.decode(newValue)));
-                }
-
-                messageGroups.remove(id);
+                messageGroups.remove(id).Dispose();
+                //The history is gone, so search results can't point into it.
+                messageIndex.RemoveConversation(id);
             }
         }
         else
@@ -179,27 +221,31 @@ public class ChatUI extends XMLUI<Window>
         }
     }
 
-    private void ChatManager_OnMessageReceived(MessagePayload message)
+    private void QueueMessageReceived(MessagePayload message)
     {
-        UUID senderID = message.GetSender();
+        //Peer status updates are prioritised over chat messages, so the sender may have already been removed by the time their last messages arrive.
+        //The name is looked up now as the sender is even less likely to still be around by the time the UI thread gets to the message.
+        Peer sender = chatManager.GetPeers().get(message.GetSender());
+        String senderName = sender != null ? sender.GetUsername() : "Unknown";
+        frameDispatcher.Post(() -> ChatManager_OnMessageReceived(message, senderName));
+    }
 
-        TextBlock chatEntry = CreateChatMessage(chatManager.GetPeers().get(senderID).GetUsername(), message.GetMessage());
+    private void ChatManager_OnMessageReceived(MessagePayload message, String senderName)
+    {
+        UUID senderID = message.GetSender();
 
         //If the recipient is "invalid" (the broadcast ID), then set the group ID to the broadcast ID, otherwise set it to the sender ID.
         UUID groupID = message.GetRecipient().equals(ServerManager.INVALID_UUID) ? ServerManager.INVALID_UUID : senderID;
-        if (!messageGroups.containsKey(groupID))
-            messageGroups.put(groupID, new ArrayList<>());
-        messageGroups.get(groupID).add(chatEntry);
+        //The chat box picks up the new message by itself if this chat is the one being shown.
+        int row = GetMessageGroup(groupID).Add(FormatChatMessage(senderName, message.GetMessage()), null);
+        messageIndex.Add(message.GetMessageID(), senderID, groupID, row, message.GetMessage());
 
-        if (activeChat.equals(groupID))
+        if (!activeChat.equals(groupID))
         {
-            AddChatEntry(chatEntry);
-            RefreshChatBox();
-        }
-        else
-        {
-            //Update the unreads count for this chat.
-            clientEntries.get(groupID).IncrementUnreads();
+            //Update the unreads count for this chat (if the chat still exists).
+            ClientEntry clientEntry = clientEntries.get(groupID);
+            if (clientEntry != null)
+                clientEntry.IncrementUnreads();
         }
     }
     //#endregion
@@ -215,28 +261,31 @@ public class ChatUI extends XMLUI<Window>
         if (message.isEmpty())
             return;
 
-        TextBlock chatEntry = CreateChatMessage(chatManager.GetPeers().get(chatManager.GetID()).GetUsername(), message);
-        chatEntry.setForeground(Color.decode(foregroundColourSecondary.Get()));
-
-        if (!messageGroups.containsKey(activeChat))
-            messageGroups.put(activeChat, new ArrayList<>());
-        messageGroups.get(activeChat).add(chatEntry);
-
-        AddChatEntry(chatEntry);
-        RefreshChatBox();
-
-        Boolean success = chatManager.SendMessageSync(activeChat, message);
+        //The message is shown in the secondary colour until the server has acknowledged it.
+        UUID groupID = activeChat;
+        UUID senderID = chatManager.GetID();
+        TranscriptModel messageGroup = GetMessageGroup(groupID);
+        int row = messageGroup.Add(FormatChatMessage(chatManager.GetPeers().get(senderID).GetUsername(), message), STYLE_SECONDARY);
+        //If a search is being shown, go back to the chat so the message can be seen.
+        if (chatBox.GetModel() != messageGroup)
+        {
+            searchBox.setText("");
+            chatBox.SetModel(messageGroup);
+        }
+        chatBox.ScrollToEnd();
 
-        if (success)
+        //The message is shown as pending straight away, the outbox sends it and the result is applied with the next frame.
+        outbox.Send(groupID, message).whenComplete((ack, ex) -> frameDispatcher.Post(() ->
         {
             //If the message sent successfully, change the colour back to the default.
             //TODO: Move the message to the bottom of the chat box as this is where it will be for the rest of the clients.
-            chatEntry.setForeground(Color.decode(foregroundColourPrimary.Get()));
-        }
-        else
-        {
-            chatEntry.setForeground(Color.decode("#FF0000"));
-        }
+            messageGroup.SetStyle(row, ex == null ? null : STYLE_ERROR);
+
+            //Only messages that made it to the server are indexed, the rest aren't part of anyone else's history.
+            //The chat may also have been cleared (on reconnect) while the message was being sent.
+            if (ex == null && messageGroups.get(groupID) == messageGroup)
+                messageIndex.Add(ack.GetMessageID(), senderID, groupID, row, message);
+        }));
     }
     //#endregion
 
@@ -266,8 +315,7 @@ public class ChatUI extends XMLUI<Window>
             ClientEntry entry = new ClientEntry(
                 username,
                 peer.GetIPAddress(),
-                backgroundColourTertiary,
-                foregroundColourPrimary);
+                theme);
             entry.ShowHostControls(chatManager.IsHost()); //Change to true to always show the IP address.
             entry.onMouseClicked.Add(e -> SetActiveChat(peerID));
 
@@ -301,54 +349,34 @@ public class ChatUI extends XMLUI<Window>
         }
     }
 
-    private TextBlock CreateSystemMessage(String message)
+    private void CreateSystemMessage(String message)
     {
-        TextBlock textBlock = CreateChatEntry("==== " + message + " ====");
-
-        foregroundColourPrimary.RemoveListener(newValue -> textBlock.setForeground(Color.decode(newValue)));
-
-        textBlock.setForeground(Color.decode(foregroundColourSecondary.Get()));
-        foregroundColourSecondary.AddListener(newValue -> textBlock.setForeground(Color.decode(newValue)));
-
         //For now only log these messages into the global chat.
-        messageGroups.get(ServerManager.INVALID_UUID).add(textBlock);
-        if (activeChat.equals(ServerManager.INVALID_UUID))
-            AddChatEntry(textBlock);
-
-        return textBlock;
-    }
-
-    private TextBlock CreateChatMessage(String sender, String message)
-    {
-        return CreateChatEntry("[" + sender + "]: " + message);
+        messageGroups.get(ServerManager.INVALID_UUID).Add("==== " + message + " ====", STYLE_SECONDARY);
     }
 
-    private TextBlock CreateChatEntry(String message)
+    private String FormatChatMessage(String sender, String message)
     {
-        TextBlock textBlock = new TextBlock();
-        textBlock.SetContent(message);
-        textBlock.setEditable(false);
-        textBlock.setLineWrap(true);
-        textBlock.setBackground(Color.decode(backgroundColourTertiary.Get()));
-        backgroundColourTertiary.AddListener(newValue -> textBlock.setBackground(Color.decode(newValue)));
-        textBlock.setForeground(Color.decode(foregroundColourPrimary.Get()));
-        foregroundColourPrimary.AddListener(newValue -> textBlock.setForeground(Color.decode(newValue)));
-
-        return textBlock;
+        return "[" + sender + "]: " + message;
     }
 
-    private void AddChatEntry(TextBlock entry)
+    private TranscriptModel GetMessageGroup(UUID groupID)
     {
-        GridBagConstraints constraints = new GridBagConstraints();
-        constraints.insets = new InsetsUIResource(0, 0, 2, 0);
-        chatBox.AddChild(entry, constraints);
-    }
-
-    private void RefreshChatBox()
-    {
-        //It is also important to refresh the scroll pane so that if needed, the scroll bar will be updated. Then also scroll to the bottom.
-        chatBoxContainer.revalidate();
-        chatBoxContainer.getVerticalScrollBar().setValue(chatBoxContainer.getVerticalScrollBar().getMaximum());
+        return messageGroups.computeIfAbsent(groupID, id ->
+        {
+            try
+            {
+                Path spillPath = Files.createTempFile("chat_history_", ".bin");
+                spillPath.toFile().deleteOnExit();
+                return new TranscriptModel(HISTORY_WINDOW, spillPath);
+            }
+            catch (IOException ex)
+            {
+                //Without somewhere to spill to, keep the whole history in memory.
+                Logger.Warn("[CHAT_UI] Failed to create a history file: " + ex.getMessage());
+                return new TranscriptModel();
+            }
+        });
     }
 
     private void SetActiveChat(UUID chatID)
@@ -361,29 +389,69 @@ public class ChatUI extends XMLUI<Window>
         if (clientEntries.containsKey(activeChat))
         {
             //We need to make sure if the old chat entry is valid as this can change if the old chat peer has disconnected.
-            clientEntries.get(activeChat).setBackground(Color.decode(backgroundColourTertiary.Get()));
+            theme.BindBackground(clientEntries.get(activeChat), Themes.BACKGROUND_TERTIARY);
         }
 
         activeChat = chatID;
-        chatBox.removeAll();
 
         ClientEntry clientEntry = clientEntries.get(chatID);
         //Update the new chat entry's background colour.
-        clientEntry.setBackground(Color.decode(Themes.ACCENT_PRIMARY));
+        theme.BindBackground(clientEntry, Themes.ACCENT);
         //Reset the unreads count.
         clientEntry.ClearUnreads();
 
-        //Add the messages for the selected client.
-        if (messageGroups.containsKey(chatID))
+        //Show the messages for the selected client.
+        searchBox.setText("");
+        chatBox.SetModel(GetMessageGroup(chatID));
+    }
+
+    /**
+     * Shows the messages in the active chat that match the query in place of the chat, or the chat itself if the query is empty.
+     * Words prefixed with "from:" match the sender's username rather than the message.
+     */
+    private void Search(String query)
+    {
+        TranscriptModel messageGroup = GetMessageGroup(activeChat);
+        if (query.isBlank())
+        {
+            searchBox.setText("");
+            chatBox.SetModel(messageGroup);
+            return;
+        }
+
+        StringBuilder terms = new StringBuilder();
+        UUID senderID = null;
+        Boolean unknownSender = false;
+        for (String word : query.trim().split("\\s+"))
+        {
+            if (!word.toLowerCase().startsWith("from:"))
+            {
+                terms.append(word).append(' ');
+                continue;
+            }
+
+            String username = word.substring(5);
+            senderID = null;
+            for (Peer peer : chatManager.GetPeers().values())
+                if (peer.GetUsername().equalsIgnoreCase(username))
+                    senderID = peer.GetUUID();
+            unknownSender |= senderID == null;
+        }
+
+        List<MessageIndex.Hit> hits = unknownSender ? new ArrayList<>() : messageIndex.Search(terms.toString(), senderID, activeChat, SEARCH_RESULT_LIMIT);
+
+        //The hits are newest first, the results are shown oldest first like the chat.
+        TranscriptModel results = new TranscriptModel();
+        for (int i = hits.size() - 1; i >= 0; i--)
         {
-            for (TextBlock entry : messageGroups.get(chatID))
-                AddChatEntry(entry);
+            TranscriptModel.Row row = messageGroup.Read(hits.get(i).row);
+            if (row != null)
+                results.Add(row.GetText(), null);
         }
+        results.Add("==== " + (results.Size() == 0 ? "No" : results.Size()) + " messages found, press escape to go back ====", STYLE_SECONDARY);
 
-        //We need to redraw it in this case as we have removed items.
-        chatBox.repaint();
-        //Refresh the chat box container, we don't do this during the removal of the entries as it would just be wasting CPU cycles.
-        RefreshChatBox();
+        chatBox.SetModel(results);
+        chatBox.ScrollToEnd();
     }
     //#endregion
 
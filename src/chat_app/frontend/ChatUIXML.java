@@ -0,0 +1,42 @@
+//Generated from ChatUI.xml by readiefur.xml_ui.XMLUIGenerator, changes will be lost when it is regenerated.
+package chat_app.frontend;
+
+import readiefur.xml_ui.XMLNode;
+import readiefur.xml_ui.interfaces.IGeneratedXML;
+
+public final class ChatUIXML implements IGeneratedXML
+{
+    @Override
+    public long GetChecksum()
+    {
+        return 2163641329L;
+    }
+
+    @Override
+    public XMLNode GetRootNode()
+    {
+        return new XMLNode("Window", new String[] { "Background", "{Theme backgroundPrimary}", "Height", "720", "Title", "ChatApp | Starting...", "Width", "1080", "xmlns", "readiefur.xml_ui.controls" },
+            new XMLNode("Window.Resources", new String[] {},
+                new XMLNode("Resource", new String[] { "Key", "clientEntryTextMargin", "Value", "4,4,4,4" })),
+            new XMLNode("Grid", new String[] {},
+                new XMLNode("Grid.ColumnDefinitions", new String[] {},
+                    new XMLNode("ColumnDefinition", new String[] {}),
+                    new XMLNode("ColumnDefinition", new String[] { "Width", "0.7" })),
+                new XMLNode("Scrollable", new String[] { "Grid.Column", "0", "Margin", "4,4,4,2", "Name", "clientListContainer" },
+                    new XMLNode("StackPanel", new String[] { "Background", "{Theme backgroundSecondary}", "Name", "clientList" })),
+                new XMLNode("Grid", new String[] { "Background", "{Theme backgroundSecondary}", "Grid.Column", "1", "Margin", "4,4,4,4" },
+                    new XMLNode("Grid.RowDefinitions", new String[] {},
+                        new XMLNode("RowDefinition", new String[] { "Height", "10px" }),
+                        new XMLNode("RowDefinition", new String[] {}),
+                        new XMLNode("RowDefinition", new String[] { "Height", "10px" })),
+                    new XMLNode("TextBox", new String[] { "Background", "{Theme backgroundTertiary}", "Grid.Row", "0", "Margin", "4,4,4,0", "Name", "searchBox" }),
+                    new XMLNode("Scrollable", new String[] { "Grid.Row", "1", "Margin", "4,4,2,4", "Name", "chatBoxContainer" },
+                        new XMLNode("Transcript", new String[] { "Background", "{Theme backgroundTertiary}", "Foreground", "{Theme foregroundPrimary}", "Name", "chatBox" })),
+                    new XMLNode("Grid", new String[] { "Grid.Row", "2", "Margin", "4,4,4,4" },
+                        new XMLNode("Grid.ColumnDefinitions", new String[] {},
+                            new XMLNode("ColumnDefinition", new String[] {}),
+                            new XMLNode("ColumnDefinition", new String[] { "Width", "4px" })),
+                        new XMLNode("TextBox", new String[] { "Background", "{Theme backgroundTertiary}", "Enabled", "{Binding connectedToServer}", "Grid.Column", "0", "Name", "inputBox" }),
+                        new XMLNode("Button", new String[] { "Background", "{Theme backgroundTertiary}", "Click", "SendButton_OnClick", "Content", "Send", "Enabled", "{Binding connectedToServer}", "Foreground", "{Theme foregroundPrimary}", "Grid.Column", "1", "Name", "sendButton" })))));
+    }
+}
@@ -6,7 +6,7 @@ import java.awt.GridBagConstraints;
 import javax.swing.plaf.InsetsUIResource;
 
 import readiefur.misc.IDisposable;
-import readiefur.xml_ui.Observable;
+import readiefur.xml_ui.Theme;
 import readiefur.xml_ui.controls.Grid;
 import readiefur.xml_ui.controls.Label;
 import readiefur.xml_ui.controls.StackPanel;
@@ -18,8 +18,7 @@ import readiefur.xml_ui.exceptions.InvalidXMLException;
  */
 public class ClientEntry extends Grid implements IDisposable
 {
-    private final Observable<String> backgroundColour;
-    private final Observable<String> foregroundColour;
+    private final Theme theme;
 
     public final GridBagConstraints containerConstraints;
     public final Label usernameLabel;
@@ -29,19 +28,17 @@ public class ClientEntry extends Grid implements IDisposable
     private Boolean isDisposed = false;
     private int unreads = 0;
 
-    public ClientEntry(String username, String ipAddress, Observable<String> backgroundColour, Observable<String> foregroundColour)
+    public ClientEntry(String username, String ipAddress, Theme theme)
     {
         super();
 
-        this.backgroundColour = backgroundColour;
-        this.foregroundColour = foregroundColour;
+        this.theme = theme;
 
         //#region Container
         //TODO: Get XML pages working and expose more generic setter methods on the Control classes.
         //The grid container is this object.
         setOpaque(true);
-        setBackground(Color.decode(this.backgroundColour.Get()));
-        backgroundColour.AddListener(newValue -> setBackground(Color.decode(newValue)));
+        theme.BindBackground(this, Themes.BACKGROUND_TERTIARY);
 
         containerConstraints = new GridBagConstraints();
         containerConstraints.insets = new InsetsUIResource(4, 4, 2, 4);
@@ -56,8 +53,7 @@ public class ClientEntry extends Grid implements IDisposable
         //#region Username
         usernameLabel = new Label();
         usernameLabel.setText(username);
-        usernameLabel.setForeground(Color.decode(this.foregroundColour.Get()));
-        this.foregroundColour.AddListener(newValue -> usernameLabel.setForeground(Color.decode(newValue)));
+        theme.BindForeground(usernameLabel, Themes.FOREGROUND_PRIMARY);
         childConstraints.anchor = GridBagConstraints.WEST;
         add(usernameLabel, childConstraints);
         //#endregion
@@ -72,8 +68,7 @@ public class ClientEntry extends Grid implements IDisposable
         //IP label.
         ipLabel = new Label();
         ipLabel.setText("[ " + ipAddress + " ]");
-        ipLabel.setForeground(Color.decode(this.foregroundColour.Get()));
-        this.foregroundColour.AddListener(newValue -> ipLabel.setForeground(Color.decode(newValue)));
+        theme.BindForeground(ipLabel, Themes.FOREGROUND_PRIMARY);
         statsPanel.AddChild(ipLabel, null);
 
         //Unreads label.
@@ -94,10 +89,10 @@ public class ClientEntry extends Grid implements IDisposable
                 return;
             isDisposed = true;
 
-            //Unbind the events.
-            this.backgroundColour.RemoveListener(newValue -> setBackground(Color.decode(newValue)));
-            this.foregroundColour.RemoveListener(newValue -> usernameLabel.setForeground(Color.decode(newValue)));
-            this.foregroundColour.RemoveListener(newValue -> ipLabel.setForeground(Color.decode(newValue)));
+            //Unbind from the theme.
+            theme.Unbind(this);
+            theme.Unbind(usernameLabel);
+            theme.Unbind(ipLabel);
         }
     }
 
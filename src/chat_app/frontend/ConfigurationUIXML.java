@@ -0,0 +1,37 @@
+//Generated from ConfigurationUI.xml by readiefur.xml_ui.XMLUIGenerator, changes will be lost when it is regenerated.
+package chat_app.frontend;
+
+import readiefur.xml_ui.XMLNode;
+import readiefur.xml_ui.interfaces.IGeneratedXML;
+
+public final class ConfigurationUIXML implements IGeneratedXML
+{
+    @Override
+    public long GetChecksum()
+    {
+        return 2184730552L;
+    }
+
+    @Override
+    public XMLNode GetRootNode()
+    {
+        return new XMLNode("Window", new String[] { "Background", "{Binding backgroundColour}", "MinHeight", "200", "MinWidth", "350", "Resizable", "false", "Title", "Chat App | Configuration", "xmlns", "readiefur.xml_ui.controls" },
+            new XMLNode("Grid", new String[] {},
+                new XMLNode("Grid", new String[] { "Margin", "4,4,4,4" },
+                    new XMLNode("Grid.RowDefinitions", new String[] {},
+                        new XMLNode("RowDefinition", new String[] {}),
+                        new XMLNode("RowDefinition", new String[] {}),
+                        new XMLNode("RowDefinition", new String[] {}),
+                        new XMLNode("RowDefinition", new String[] {})),
+                    new XMLNode("StackPanel", new String[] { "Grid.Row", "0" },
+                        new XMLNode("Label", new String[] { "Foreground", "{Binding foregroundColour}", "Text", "Initial server address:" }),
+                        new XMLNode("TextBox", new String[] { "Background", "{Binding backgroundColourAlt}", "Foreground", "{Binding foregroundColour}", "Name", "serverAddress" })),
+                    new XMLNode("StackPanel", new String[] { "Grid.Row", "1" },
+                        new XMLNode("Label", new String[] { "Foreground", "{Binding foregroundColour}", "Text", "Port:" }),
+                        new XMLNode("TextBox", new String[] { "Background", "{Binding backgroundColourAlt}", "Foreground", "{Binding foregroundColour}", "Name", "port" })),
+                    new XMLNode("StackPanel", new String[] { "Grid.Row", "2" },
+                        new XMLNode("Label", new String[] { "Foreground", "{Binding foregroundColour}", "Text", "Username:" }),
+                        new XMLNode("TextBox", new String[] { "Background", "{Binding backgroundColourAlt}", "Foreground", "{Binding foregroundColour}", "Name", "username" })),
+                    new XMLNode("Button", new String[] { "Click", "Connect_Click", "Content", "Connect", "Grid.Row", "3", "HorizontalAlignment", "Center" }))));
+    }
+}
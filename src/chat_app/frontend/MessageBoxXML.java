@@ -0,0 +1,35 @@
+//Generated from MessageBox.xml by readiefur.xml_ui.XMLUIGenerator, changes will be lost when it is regenerated.
+package chat_app.frontend;
+
+import readiefur.xml_ui.XMLNode;
+import readiefur.xml_ui.interfaces.IGeneratedXML;
+
+public final class MessageBoxXML implements IGeneratedXML
+{
+    @Override
+    public long GetChecksum()
+    {
+        return 1074810271L;
+    }
+
+    @Override
+    public XMLNode GetRootNode()
+    {
+        return new XMLNode("Window", new String[] { "Background", "{Binding backgroundColour}", "MinHeight", "150", "MinWidth", "300", "Resizable", "false", "xmlns", "readiefur.xml_ui.controls" },
+            new XMLNode("Window.Resources", new String[] {},
+                new XMLNode("Resource", new String[] { "Key", "buttonMargin", "Value", "0,4,0,0" })),
+            new XMLNode("Grid", new String[] {},
+                new XMLNode("Grid", new String[] { "Margin", "4,4,4,4" },
+                    new XMLNode("Grid.RowDefinitions", new String[] {},
+                        new XMLNode("RowDefinition", new String[] {}),
+                        new XMLNode("RowDefinition", new String[] { "Height", "0px" })),
+                    new XMLNode("StackPanel", new String[] { "Grid.Row", "0" },
+                        new XMLNode("Label", new String[] { "Foreground", "{Binding foregroundColour}", "Name", "header" }),
+                        new XMLNode("Label", new String[] { "Foreground", "{Binding foregroundColour}", "Name", "message" })),
+                    new XMLNode("StackPanel", new String[] { "Grid.Row", "1", "HorizontalAlignment", "Right", "Name", "buttons", "Orientation", "RightToLeft", "VerticalAlignment", "Bottom" },
+                        new XMLNode("Button", new String[] { "Click", "yesButton_Click", "Content", "Yes", "Margin", "{Resource buttonMargin}", "Name", "yesButton", "Visible", "false" }),
+                        new XMLNode("Button", new String[] { "Click", "noButton_Click", "Content", "No", "Margin", "{Resource buttonMargin}", "Name", "noButton", "Visible", "false" }),
+                        new XMLNode("Button", new String[] { "Click", "okButton_Click", "Content", "Ok", "Margin", "{Resource buttonMargin}", "Name", "okButton", "Visible", "false" }),
+                        new XMLNode("Button", new String[] { "Click", "cancelButton_Click", "Content", "Cancel", "Margin", "{Resource buttonMargin}", "Name", "cancelButton", "Visible", "false" })))));
+    }
+}
@@ -0,0 +1,119 @@
+package chat_app.frontend;
+
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiFunction;
+
+import readiefur.console.Logger;
+import readiefur.misc.IDisposable;
+
+import chat_app.backend.Ack;
+
+/**
+ * Sends messages typed into the UI from its own thread, so the UI thread only has to queue them.
+ * <br></br>
+ * Sending can do a fair amount of work on the calling thread (as the host every message is routed before the call returns),
+ * so doing it here means the window keeps responding however quickly messages are sent.
+ * Messages are sent one at a time in the order they were queued, so they keep the order they were typed in.
+ */
+public class MessageOutbox extends Thread implements IDisposable
+{
+    /**
+     * A message waiting to be sent.
+     */
+    private static class OutgoingMessage
+    {
+        public final UUID recipient;
+        public final String message;
+        public final CompletableFuture<Ack> result = new CompletableFuture<>();
+
+        public OutgoingMessage(UUID recipient, String message)
+        {
+            this.recipient = recipient;
+            this.message = message;
+        }
+    }
+
+    private final BiFunction<UUID, String, CompletableFuture<Ack>> sender;
+    private final LinkedBlockingQueue<OutgoingMessage> queue = new LinkedBlockingQueue<>();
+    private volatile Boolean isDisposed = false;
+
+    /**
+     * @param sender Sends a message and returns a future that completes when it has been acknowledged, i.e. {@code chatManager::SendMessageAsync}.
+     */
+    public MessageOutbox(BiFunction<UUID, String, CompletableFuture<Ack>> sender)
+    {
+        this.sender = sender;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+        //Try to set the thread name to the class name, not required but useful for debugging.
+        try { setName(getClass().getSimpleName()); }
+        catch (Exception e) {}
+
+        while (!isDisposed)
+        {
+            OutgoingMessage outgoingMessage;
+            try { outgoingMessage = queue.take(); }
+            catch (InterruptedException e) { break; }
+
+            try
+            {
+                CompletableFuture<Ack> ackFuture = sender.apply(outgoingMessage.recipient, outgoingMessage.message);
+                ackFuture.whenComplete((ack, ex) ->
+                {
+                    if (ex == null)
+                        outgoingMessage.result.complete(ack);
+                    else
+                        outgoingMessage.result.completeExceptionally(ex);
+                });
+            }
+            catch (Exception ex)
+            {
+                //i.e. the chat manager is part way through reconnecting.
+                Logger.Warn("[OUTBOX] Failed to send message: " + ex);
+                outgoingMessage.result.completeExceptionally(ex);
+            }
+        }
+
+        //Anything left over won't be sent now.
+        for (OutgoingMessage outgoingMessage : queue)
+            outgoingMessage.result.completeExceptionally(new CancellationException("The outbox was disposed."));
+        queue.clear();
+    }
+
+    /**
+     * Queues a message to be sent, this does not block the calling thread.
+     * @return A future that is completed when the message has been acknowledged, or completed exceptionally if it could not be sent.
+     */
+    public CompletableFuture<Ack> Send(UUID recipient, String message)
+    {
+        OutgoingMessage outgoingMessage = new OutgoingMessage(recipient, message);
+        queue.add(outgoingMessage);
+
+        //If the outbox was disposed in the meantime the thread may have already gone, in which case nothing would complete the message.
+        if (isDisposed && queue.remove(outgoingMessage))
+            outgoingMessage.result.completeExceptionally(new CancellationException("The outbox was disposed."));
+        return outgoingMessage.result;
+    }
+
+    /**
+     * Returns the number of messages that have been queued but not sent yet.
+     */
+    public int GetQueuedCount()
+    {
+        return queue.size();
+    }
+
+    @Override
+    public void Dispose()
+    {
+        isDisposed = true;
+        interrupt();
+    }
+}
@@ -1,9 +1,20 @@
 package chat_app.frontend;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class Themes
 {
     private Themes(){}
 
+    //Keys for the colours in a readiefur.xml_ui.Theme, referenced from the XML with {Theme key}.
+    public static final String BACKGROUND_PRIMARY = "backgroundPrimary";
+    public static final String BACKGROUND_SECONDARY = "backgroundSecondary";
+    public static final String BACKGROUND_TERTIARY = "backgroundTertiary";
+    public static final String FOREGROUND_PRIMARY = "foregroundPrimary";
+    public static final String FOREGROUND_SECONDARY = "foregroundSecondary";
+    public static final String ACCENT = "accent";
+
     public static final String LIGHT_BACKGROUND_PRIMARY = "#FFFFFF";
     public static final String LIGHT_BACKGROUND_SECONDARY = "#DADADA";
     public static final String LIGHT_BACKGROUND_TERTIARY = "#BDBDBD";
@@ -17,4 +28,28 @@ public class Themes
     public static final String DARK_FOREGROUND_SECONDARY = "#BDBDBD";
 
     public static final String ACCENT_PRIMARY = "#00A4EF";
+
+    public static Map<String, String> Light()
+    {
+        Map<String, String> colours = new HashMap<>();
+        colours.put(BACKGROUND_PRIMARY, LIGHT_BACKGROUND_PRIMARY);
+        colours.put(BACKGROUND_SECONDARY, LIGHT_BACKGROUND_SECONDARY);
+        colours.put(BACKGROUND_TERTIARY, LIGHT_BACKGROUND_TERTIARY);
+        colours.put(FOREGROUND_PRIMARY, LIGHT_FOREGROUND_PRIMARY);
+        colours.put(FOREGROUND_SECONDARY, LIGHT_FOREGROUND_SECONDARY);
+        colours.put(ACCENT, ACCENT_PRIMARY);
+        return colours;
+    }
+
+    public static Map<String, String> Dark()
+    {
+        Map<String, String> colours = new HashMap<>();
+        colours.put(BACKGROUND_PRIMARY, DARK_BACKGROUND_PRIMARY);
+        colours.put(BACKGROUND_SECONDARY, DARK_BACKGROUND_SECONDARY);
+        colours.put(BACKGROUND_TERTIARY, DARK_BACKGROUND_TERTIARY);
+        colours.put(FOREGROUND_PRIMARY, DARK_FOREGROUND_PRIMARY);
+        colours.put(FOREGROUND_SECONDARY, DARK_FOREGROUND_SECONDARY);
+        colours.put(ACCENT, ACCENT_PRIMARY);
+        return colours;
+    }
 }
@@ -1,26 +1,103 @@
 package readiefur.misc;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 
 public class Event<T>
 {
-    private List<Consumer<T>> event = new ArrayList<>();
+    /**
+     * A listener held either strongly or weakly.
+     */
+    private static class Listener<T>
+    {
+        private final Consumer<T> strongListener;
+        private final WeakReference<Consumer<T>> weakListener;
+
+        public Listener(Consumer<T> listener, Boolean weak)
+        {
+            strongListener = weak ? null : listener;
+            weakListener = weak ? new WeakReference<>(listener) : null;
+        }
+
+        /**
+         * Returns the listener, or {@code null} if it was held weakly and has been collected.
+         */
+        public Consumer<T> Get()
+        {
+            return strongListener != null ? strongListener : weakListener.get();
+        }
+    }
+
+    /*Listeners are often added or removed from within another listener, i.e. a one-off listener removing itself,
+     *so a copy-on-write list is used which lets Invoke iterate over a snapshot without locking.
+     *Events are invoked far more often than listeners are changed so the copies are cheap overall.*/
+    private final CopyOnWriteArrayList<Listener<T>> event = new CopyOnWriteArrayList<>();
+
+    /**
+     * Adds a listener which is held until it is removed.
+     * @return A handle that removes the listener when closed.
+     */
+    public Subscription Add(Consumer<T> event)
+    {
+        return AddListener(event, false);
+    }
 
-    public void Add(Consumer<T> event)
+    /**
+     * Adds a listener which is only held weakly, so it doesn't keep the listener (or anything it captures) alive.
+     * The returned handle holds the listener strongly, so the listener stays subscribed for as long as the handle is kept.
+     * @return A handle that removes the listener when closed.
+     */
+    public Subscription AddWeak(Consumer<T> event)
     {
-        this.event.add(event);
+        return AddListener(event, true);
     }
 
+    /**
+     * Removes a listener, it must be the same instance that was added.
+     * Prefer closing the handle returned when the listener was added.
+     */
     public void Remove(Consumer<T> event)
     {
-        this.event.remove(event);
+        //Only the first match is removed, so a listener that was added twice has to be removed twice. Collected listeners are left for Invoke.
+        for (Listener<T> listener : this.event)
+        {
+            if (event.equals(listener.Get()))
+            {
+                this.event.remove(listener);
+                return;
+            }
+        }
     }
 
     public void Invoke(T message)
     {
-        for (Consumer<T> e : event)
-            e.accept(message);
+        Boolean hasCollectedListeners = false;
+        for (Listener<T> listener : event)
+        {
+            Consumer<T> consumer = listener.Get();
+            if (consumer != null)
+                consumer.accept(message);
+            else
+                hasCollectedListeners = true;
+        }
+
+        if (hasCollectedListeners)
+            event.removeIf(listener -> listener.Get() == null);
+    }
+
+    /**
+     * Returns the number of listeners, including any weak listeners that have been collected but not yet removed.
+     */
+    public int Size()
+    {
+        return event.size();
+    }
+
+    private Subscription AddListener(Consumer<T> event, Boolean weak)
+    {
+        Listener<T> listener = new Listener<>(event, weak);
+        this.event.add(listener);
+        return new Subscription(() -> this.event.remove(listener), weak ? event : null);
     }
 }
@@ -0,0 +1,51 @@
+package readiefur.misc;
+
+/**
+ * A handle returned when adding a listener, closing it removes the listener.
+ * <br></br>
+ * This avoids having to keep hold of the exact listener instance to remove it later,
+ * which is easy to get wrong as a lambda or method reference written out again is a different instance.
+ */
+public class Subscription implements AutoCloseable, IDisposable
+{
+    private Runnable unsubscribe;
+    //Keeps a weakly held listener alive for as long as the handle is.
+    @SuppressWarnings("unused")
+    private final Object listener;
+
+    Subscription(Runnable unsubscribe, Object listener)
+    {
+        this.unsubscribe = unsubscribe;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns {@code true} if the listener has not been removed through this handle yet.
+     */
+    public synchronized Boolean IsActive()
+    {
+        return unsubscribe != null;
+    }
+
+    /**
+     * Removes the listener, closing the handle more than once has no effect.
+     */
+    @Override
+    public void close()
+    {
+        Runnable currentUnsubscribe;
+        synchronized (this)
+        {
+            currentUnsubscribe = unsubscribe;
+            unsubscribe = null;
+        }
+        if (currentUnsubscribe != null)
+            currentUnsubscribe.run();
+    }
+
+    @Override
+    public void Dispose()
+    {
+        close();
+    }
+}
@@ -0,0 +1,58 @@
+package readiefur.misc;
+
+/**
+ * A thread-safe token bucket, tokens are refilled at a constant rate up to a maximum burst size.
+ */
+public class TokenBucket
+{
+    private final double tokensPerSecond;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param tokensPerSecond The rate at which tokens are refilled.
+     * @param capacity The maximum number of tokens that can be held, this is the largest burst allowed.
+     */
+    public TokenBucket(double tokensPerSecond, double capacity)
+    {
+        if (tokensPerSecond <= 0 || capacity < 1)
+            throw new IllegalArgumentException("The rate must be positive and the capacity must be at least 1.");
+
+        this.tokensPerSecond = tokensPerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a token from the bucket if one is available.
+     * @return {@code true} if a token was taken, otherwise {@code false}.
+     */
+    public synchronized Boolean TryConsume()
+    {
+        Refill();
+        if (tokens < 1)
+            return false;
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Returns how long it will be until a token is available.
+     */
+    public synchronized long GetWaitMilliseconds()
+    {
+        Refill();
+        if (tokens >= 1)
+            return 0;
+        return (long)Math.ceil(((1 - tokens) / tokensPerSecond) * 1000);
+    }
+
+    private void Refill()
+    {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + ((now - lastRefillNanos) / 1_000_000_000d) * tokensPerSecond);
+        lastRefillNanos = now;
+    }
+}
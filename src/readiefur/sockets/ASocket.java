@@ -1,10 +1,10 @@
 package readiefur.sockets;
 
 import java.io.EOFException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import readiefur.misc.Event;
 import readiefur.misc.IDisposable;
@@ -12,27 +12,65 @@ import readiefur.misc.IDisposable;
 //Most of the abstract class contains more virtual members, though it is still abstract and should therefore not be instantiated on it's own.
 public abstract class ASocket extends Thread implements IDisposable
 {
+    /**
+     * The most data messages that can be waiting to be sent before {@link #SendMessage(Object)} blocks.
+     */
+    public static final int DATA_QUEUE_CAPACITY = 1024;
+    /**
+     * The most bulk messages (i.e. file chunks) that can be waiting to be sent before {@link #SendMessage(Object)} blocks.
+     */
+    public static final int BULK_QUEUE_CAPACITY = 64;
+    //How long a sender is blocked waiting for space before the message is dropped, so a stalled receiver can't hold up the sender forever.
+    public static final long SEND_BLOCK_TIMEOUT_MS = 5000;
+    //How long Dispose waits for queued messages to be written before closing the connection.
+    public static final long FLUSH_TIMEOUT_MS = 1000;
+
     protected final Object lock = new Object();
     protected Boolean isDisposed = false;
-    protected Socket socket;
+    protected IConnection connection;
     protected Boolean threadHasRun = false;
-    //The two following object streams are initialized when required, this is because they would hang until the first message was received.
-    //I also store them globally as opposed to creating a new one each time, as I read that only one object stream should be instantiated per stream, see: https://stackoverflow.com/questions/2393179/streamcorruptedexception-invalid-type-code-ac
-    protected ObjectInputStream inputStream = null;
-    protected ObjectOutputStream outputStream = null;
+
+    //Outgoing messages are queued into one of three lanes and written by a separate thread, see SendMessage.
+    private final Object sendLock = new Object();
+    private final Queue<Object> controlQueue = new ArrayDeque<>();
+    private final Queue<Object> dataQueue = new ArrayDeque<>();
+    private final Queue<Object> bulkQueue = new ArrayDeque<>();
+    private Thread senderThread = null;
+    //Set while the sender thread is writing a message it has taken off a queue.
+    private Boolean isWriting = false;
+    private final AtomicLong droppedMessages = new AtomicLong();
+    //Only set when compression has been enabled for this connection.
+    private FrameCompressor compressor = null;
+    private CompressionStats compressionStats = null;
+    private volatile long retryAfterMilliseconds = 0;
 
     public final Event<Void> onConnect = new Event<>();
     public final Event<Object> onMessage = new Event<>();
     public final Event<Void> onClose = new Event<>();
     public final Event<Exception> onError = new Event<>();
 
-    protected ASocket(Socket socket)
+    protected ASocket(IConnection connection)
     {
-        this.socket = socket;
+        this.connection = connection;
     }
 
     @Override
     public void Dispose()
+    {
+        Close(true);
+    }
+
+    /**
+     * Closes the connection straight away, discarding anything that is still queued to be sent rather than waiting for it to be written.
+     * <br></br>
+     * Used to drop a peer that has fallen too far behind, where waiting for its queue to drain would hold up the caller.
+     */
+    public void Abort()
+    {
+        Close(false);
+    }
+
+    private void Close(Boolean flush)
     {
         //Prevent race conditions.
         synchronized (lock)
@@ -41,47 +79,106 @@ public abstract class ASocket extends Thread implements IDisposable
                 return;
             isDisposed = true;
 
-            //Close the socket.
-            if (socket != null)
+            //Write anything that was queued before the connection is closed, i.e. a reply sent just before closing.
+            if (flush)
+                Flush();
+
+            //Close the connection.
+            if (connection != null)
             {
-                try { socket.close(); }
+                try { connection.Close(); }
                 catch (Exception ex) { onError.Invoke(ex); }
-                socket = null;
+                connection = null;
 
-                //If the socket was open, we can fire the onClose event.
+                //If the connection was open, we can fire the onClose event.
                 if (threadHasRun)
                     onClose.Invoke(null);
             }
 
-            //While GC will close the streams when this object goes out of scope, closing them manually is always more efficient.
-            if (inputStream != null)
+            //If the thread is still running, interrupt it.
+            if (this.isAlive())
             {
-                try { inputStream.close(); }
-                catch (SocketException ex) { /*Ignore, this is expected when the socket is closed from the other end.*/ }
+                try { this.interrupt(); }
                 catch (Exception ex) { onError.Invoke(ex); }
-                inputStream = null;
             }
 
-            if (outputStream != null)
+            if (compressor != null)
+                compressor.Dispose();
+
+            //Discard anything that couldn't be sent in time and wake the sender thread so that it can exit.
+            synchronized (sendLock)
             {
-                try { outputStream.close(); }
-                catch (SocketException ex) { /*See above.*/ }
-                catch (Exception ex) { onError.Invoke(ex); }
-                outputStream = null;
+                controlQueue.clear();
+                dataQueue.clear();
+                bulkQueue.clear();
+                sendLock.notifyAll();
             }
+        }
+    }
 
-            //If the thread is still running, interrupt it.
-            if (this.isAlive())
+    /**
+     * Waits (for at most {@link #FLUSH_TIMEOUT_MS}) for the sender thread to write everything that has been queued.
+     */
+    private void Flush()
+    {
+        synchronized (sendLock)
+        {
+            //The sender thread can't wait on itself.
+            if (senderThread == null || senderThread == Thread.currentThread())
+                return;
+
+            long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MS;
+            while (isWriting || !controlQueue.isEmpty() || !dataQueue.isEmpty() || !bulkQueue.isEmpty())
             {
-                try { this.interrupt(); }
-                catch (Exception ex) { onError.Invoke(ex); }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    break;
+
+                try { sendLock.wait(remaining); }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
             }
         }
     }
 
+    /**
+     * Enables compression for this connection, this must be called before the connection is started.
+     * <br></br>
+     * Compression is negotiated when the connection opens and is only used if the other end has also enabled it with the same dictionary.
+     */
+    public void EnableCompression(CompressionOptions options)
+    {
+        EnableCompression(options, new CompressionStats());
+    }
+
+    /**
+     * Enables compression for this connection, recording the results into the specified (possibly shared) stats.
+     * @see #EnableCompression(CompressionOptions)
+     */
+    public void EnableCompression(CompressionOptions options, CompressionStats stats)
+    {
+        if (threadHasRun)
+            throw new IllegalStateException("Compression must be enabled before the connection is started.");
+
+        compressionStats = stats;
+        compressor = new FrameCompressor(options, stats);
+    }
+
+    /**
+     * Returns the compression stats for this connection, or {@code null} if compression is not enabled.
+     */
+    public CompressionStats GetCompressionStats()
+    {
+        return compressionStats;
+    }
+
     public Boolean IsConnected()
     {
-        return !isDisposed && socket != null && socket.isConnected();
+        IConnection connection = this.connection;
+        return !isDisposed && connection != null && connection.IsOpen();
     }
 
     @Override
@@ -91,24 +188,43 @@ public abstract class ASocket extends Thread implements IDisposable
             return;
         threadHasRun = true;
 
-        //We should never reach this state with a null socket, if we do then something has gone wrong.
-        if (socket == null)
-            throw new IllegalStateException("Socket is null.");
+        //We should never reach this state with a null connection, if we do then something has gone wrong.
+        if (connection == null)
+            throw new IllegalStateException("Connection is null.");
 
         onConnect.Invoke(null);
 
-        //While the socket is open, read messages from the input stream.
-        while (!isDisposed && !socket.isClosed())
+        //Let the other end know that we can receive compressed messages (there is nothing to gain if messages aren't serialized).
+        if (compressor != null && connection.IsSerialized())
+            SendMessage(compressor.CreateOffer());
+
+        //While the connection is open, read messages from it.
+        while (!isDisposed && connection != null && connection.IsOpen())
         {
             try
             {
-                if (inputStream == null)
+                //This will hang until a message is received.
+                Object message = connection.ReadMessage();
+
+                //Compression messages are handled at this level and aren't passed on.
+                if (message instanceof FrameCompressor.Offer)
+                {
+                    if (compressor != null)
+                        compressor.OnOfferReceived((FrameCompressor.Offer)message);
+                    continue;
+                }
+                //The other end has refused us, it will close the connection but we don't need to wait for that.
+                if (message instanceof RetryAfter)
                 {
-                    //This will hang until a message is received.
-                    inputStream = new ObjectInputStream(socket.getInputStream());
+                    retryAfterMilliseconds = ((RetryAfter)message).GetRetryAfterMilliseconds();
+                    break;
+                }
+                if (message instanceof FrameCompressor.CompressedFrame)
+                {
+                    //We will only ever be sent compressed messages if we offered to receive them.
+                    message = compressor.Decompress((FrameCompressor.CompressedFrame)message);
                 }
 
-                Object message = inputStream.readObject();
                 onMessage.Invoke(message);
             }
             catch (SocketException | EOFException | NullPointerException ex)
@@ -134,22 +250,190 @@ public abstract class ASocket extends Thread implements IDisposable
         Dispose();
     }
 
-    public Socket GetSocket()
+    /**
+     * Returns how long the other end asked us to wait before reconnecting, or {@code 0} if it didn't refuse the connection.
+     * @see RetryAfter
+     */
+    public long GetRetryAfterMilliseconds()
+    {
+        return retryAfterMilliseconds;
+    }
+
+    public IConnection GetConnection()
+    {
+        return connection;
+    }
+
+    /**
+     * Returns the address of this end of the connection, or {@code null} if the connection has closed.
+     */
+    public String GetLocalAddress()
+    {
+        IConnection connection = this.connection;
+        return connection == null ? null : connection.GetLocalAddress();
+    }
+
+    /**
+     * Returns {@code true} if this connection is over a Unix domain socket rather than TCP.
+     */
+    public Boolean IsUnixDomainSocket()
     {
-        return socket;
+        return connection instanceof SocketConnection && ((SocketConnection)connection).GetSocket() instanceof ChannelSocket;
     }
 
+    /**
+     * Returns the number of messages that were dropped because their lane was full,
+     * either for longer than {@link #SEND_BLOCK_TIMEOUT_MS} or at all for {@link #TrySendMessage(Object)}.
+     */
+    public long GetDroppedMessageCount()
+    {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Queues a message to be sent.
+     * <br></br>
+     * Messages that implement {@link IPrioritisedMessage} as {@link ESendPriority#CONTROL} are sent before any queued data messages,
+     * so that (for example) a ping is never stuck behind a backlog of chat traffic, the same applies to data over {@link ESendPriority#BULK} messages.
+     * Messages within the same lane are sent in order.
+     * <br></br>
+     * The data and bulk lanes are bounded, if the other end falls behind and the lane is full the calling thread is blocked until there is space,
+     * which slows the sender down to the rate the other end can read at. If the lane stays full for longer than {@link #SEND_BLOCK_TIMEOUT_MS}
+     * the message is dropped and counted, see {@link #GetDroppedMessageCount()}. Control messages are never blocked.
+     * @see #TrySendMessage(Object)
+     */
     public void SendMessage(Object message)
     {
-        if (isDisposed || socket == null || socket.isClosed())
+        Enqueue(message, SEND_BLOCK_TIMEOUT_MS);
+    }
+
+    /**
+     * Queues a message to be sent without ever blocking the calling thread.
+     * <br></br>
+     * This is for threads that send on behalf of others (i.e. a host forwarding a message to each client in a room),
+     * where waiting on one slow connection would hold up every other recipient.
+     * @return {@code false} if the message's lane was full and the message was dropped, otherwise {@code true}.
+     * @see #SendMessage(Object)
+     */
+    public Boolean TrySendMessage(Object message)
+    {
+        return Enqueue(message, 0);
+    }
+
+    //Returns false only if the message was dropped because its lane stayed full for longer than blockTimeout.
+    private Boolean Enqueue(Object message, long blockTimeout)
+    {
+        if (!IsConnected())
+            return true;
+
+        ESendPriority priority = message instanceof IPrioritisedMessage
+            ? ((IPrioritisedMessage)message).GetSendPriority()
+            : ESendPriority.DATA;
+
+        synchronized (sendLock)
+        {
+            //The sender thread is started lazily as not every socket will send messages (i.e. host lookups).
+            if (senderThread == null)
+            {
+                senderThread = new Thread(this::SendLoop);
+                senderThread.setName(getName() + "_Sender");
+                senderThread.setDaemon(true);
+                senderThread.start();
+            }
+
+            Queue<Object> queue;
+            int capacity;
+            if (priority == ESendPriority.CONTROL)
+            {
+                queue = controlQueue;
+                capacity = Integer.MAX_VALUE;
+            }
+            else if (priority == ESendPriority.BULK)
+            {
+                queue = bulkQueue;
+                capacity = BULK_QUEUE_CAPACITY;
+            }
+            else
+            {
+                queue = dataQueue;
+                capacity = DATA_QUEUE_CAPACITY;
+            }
+
+            long deadline = System.currentTimeMillis() + blockTimeout;
+            while (queue.size() >= capacity && !isDisposed)
+            {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    droppedMessages.incrementAndGet();
+                    return false;
+                }
+
+                try { sendLock.wait(remaining); }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    droppedMessages.incrementAndGet();
+                    return false;
+                }
+            }
+            if (isDisposed)
+                return true;
+
+            queue.add(message);
+            sendLock.notifyAll();
+            return true;
+        }
+    }
+
+    private void SendLoop()
+    {
+        while (true)
+        {
+            Object message;
+            synchronized (sendLock)
+            {
+                isWriting = false;
+                //Wakes Dispose if it is waiting for the queues to empty, and any senders waiting for space.
+                sendLock.notifyAll();
+
+                //Once disposed, keep going until the queues are empty (or cleared by Dispose) so that they are flushed.
+                while (controlQueue.isEmpty() && dataQueue.isEmpty() && bulkQueue.isEmpty())
+                {
+                    if (isDisposed)
+                        return;
+
+                    try { sendLock.wait(); }
+                    catch (InterruptedException ex) { return; }
+                }
+
+                //Strict priority, data is only sent when there are no control messages waiting and bulk only when there is no data waiting.
+                if (!controlQueue.isEmpty())
+                    message = controlQueue.poll();
+                else if (!dataQueue.isEmpty())
+                    message = dataQueue.poll();
+                else
+                    message = bulkQueue.poll();
+                isWriting = true;
+            }
+
+            WriteMessage(message);
+        }
+    }
+
+    private void WriteMessage(Object message)
+    {
+        //Messages are still written after the socket has been disposed while the queues are being flushed, until the connection is closed.
+        IConnection connection = this.connection;
+        if (connection == null)
             return;
 
         try
         {
-            if (outputStream == null)
-                outputStream = new ObjectOutputStream(socket.getOutputStream());
+            if (compressor != null)
+                message = compressor.Compress(message);
 
-            outputStream.writeObject(message);
+            connection.WriteMessage(message);
         }
         catch (SocketException | NullPointerException ex)
         {
@@ -0,0 +1,55 @@
+package readiefur.sockets;
+
+/**
+ * Configures how a {@link ServerManager} admits new connections, this is used to smooth out bursts of connections
+ * (i.e. every client reconnecting at once after the previous host has gone).
+ */
+public class AdmissionOptions
+{
+    /**
+     * The accept backlog used when no options are set (the same as {@link java.net.ServerSocket}'s default).
+     */
+    public static final int DEFAULT_BACKLOG = 50;
+
+    private final int backlog;
+    private final double admissionsPerSecond;
+    private final int maxConnections;
+    private final int retryAfterMilliseconds;
+
+    /**
+     * @param backlog How many connections the OS will hold before they are accepted, this is also the size of the admission queue.
+     * @param admissionsPerSecond How many queued connections are admitted (and so start their handshake) per second.
+     * @param maxConnections The most clients that can be connected at once, any more are told to retry later.
+     * @param retryAfterMilliseconds The delay given to rejected clients, a random amount up to the same again is added so that they don't all retry at once.
+     */
+    public AdmissionOptions(int backlog, double admissionsPerSecond, int maxConnections, int retryAfterMilliseconds)
+    {
+        if (backlog < 1 || admissionsPerSecond <= 0 || maxConnections < 1 || retryAfterMilliseconds < 0)
+            throw new IllegalArgumentException("The backlog, rate and maximum connections must be positive and the retry delay can't be negative.");
+
+        this.backlog = backlog;
+        this.admissionsPerSecond = admissionsPerSecond;
+        this.maxConnections = maxConnections;
+        this.retryAfterMilliseconds = retryAfterMilliseconds;
+    }
+
+    public int GetBacklog()
+    {
+        return backlog;
+    }
+
+    public double GetAdmissionsPerSecond()
+    {
+        return admissionsPerSecond;
+    }
+
+    public int GetMaxConnections()
+    {
+        return maxConnections;
+    }
+
+    public int GetRetryAfterMilliseconds()
+    {
+        return retryAfterMilliseconds;
+    }
+}
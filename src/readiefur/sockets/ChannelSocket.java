@@ -0,0 +1,124 @@
+package readiefur.sockets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Wraps a connected {@link SocketChannel} (i.e. a Unix domain socket) so that it can be used anywhere a {@link Socket} is expected.
+ * <br></br>
+ * Only the members that {@link ASocket} relies on are implemented.
+ */
+class ChannelSocket extends Socket
+{
+    private final SocketChannel channel;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+
+    public ChannelSocket(SocketChannel channel)
+    {
+        this.channel = channel;
+
+        /*Channels.newInputStream/newOutputStream can't be used here as they share a lock on the channel,
+         *meaning a blocked read would also block every write (and ASocket reads and writes on separate threads).
+         *The channel itself has separate read and write locks so these streams call it directly.*/
+        inputStream = new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                byte[] buffer = new byte[1];
+                int read = read(buffer, 0, 1);
+                return read == -1 ? -1 : buffer[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException
+            {
+                if (length == 0)
+                    return 0;
+
+                try { return channel.read(ByteBuffer.wrap(buffer, offset, length)); }
+                catch (ClosedChannelException ex) { throw new SocketException("Socket closed"); }
+            }
+        };
+
+        outputStream = new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[] { (byte)b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException
+            {
+                ByteBuffer data = ByteBuffer.wrap(buffer, offset, length);
+                try
+                {
+                    while (data.hasRemaining())
+                        channel.write(data);
+                }
+                catch (ClosedChannelException ex) { throw new SocketException("Socket closed"); }
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream()
+    {
+        return outputStream;
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return channel.isConnected();
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Unix domain sockets only exist on the local machine, so the loopback address is the closest equivalent.
+     */
+    @Override
+    public InetAddress getLocalAddress()
+    {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public InetAddress getInetAddress()
+    {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ChannelSocket[" + channel + "]";
+    }
+}
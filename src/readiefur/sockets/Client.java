@@ -1,6 +1,12 @@
 package readiefur.sockets;
 
-import java.net.Socket;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import readiefur.misc.ManualResetEvent;
 
@@ -8,20 +14,42 @@ public class Client extends ASocket
 {
     private String address;
     private int port;
+    private final ITransport transport;
+    private Path unixSocketPath = null;
     private ManualResetEvent startEvent = new ManualResetEvent(false);
 
     public Client(String address, int port)
+    {
+        this(address, port, TCPTransport.INSTANCE);
+    }
+
+    public Client(String address, int port, ITransport transport)
     {
         super(null); //We initialize the socket to null as we will be creating it in the thread. While this isn't great practice, we are fortunate enough that the virtual methods have no critical uses for this variable being initialized (that is before we start the thread method which we will override).
         this.address = address;
         this.port = port;
+        this.transport = transport;
+    }
+
+    /**
+     * Sets the Unix domain socket to prefer when the host is on this machine, this must be called before the client is started.
+     * <br></br>
+     * If the host isn't local or the socket can't be connected to, the client falls back to TCP.
+     * This is ignored when using a transport other than {@link TCPTransport}.
+     * @see ServerManager#EnableUnixSocket(Path)
+     */
+    public void SetUnixSocketPath(Path path)
+    {
+        if (threadHasRun)
+            throw new IllegalStateException("The Unix socket path must be set before the client is started.");
+        unixSocketPath = path;
     }
 
     public Boolean Start()
     {
         super.start();
         startEvent.WaitOne();
-        return socket != null;
+        return connection != null;
     }
 
     @Override
@@ -34,16 +62,43 @@ public class Client extends ASocket
         if (isDisposed)
             return;
 
-        try { socket = new Socket(address, port); }
+        try { connection = ConnectUnixSocket(); }
+        catch (Exception ex) { connection = null; /*Fall back to TCP.*/ }
+
+        try
+        {
+            if (connection == null)
+                connection = transport.Connect(address, port);
+        }
         catch (Exception ex)
         {
-            socket = null;
+            connection = null;
             onError.Invoke(ex);
             Dispose();
         }
         finally { startEvent.Set(); }
 
-        if (socket != null)
+        if (connection != null)
             super.run();
     }
+
+    private IConnection ConnectUnixSocket() throws Exception
+    {
+        if (unixSocketPath == null || transport != TCPTransport.INSTANCE || !Files.exists(unixSocketPath))
+            return null;
+
+        //A Unix domain socket can only reach a host on this machine.
+        InetAddress hostAddress = InetAddress.getByName(address);
+        if (!hostAddress.isLoopbackAddress() && !hostAddress.isAnyLocalAddress() && NetworkInterface.getByInetAddress(hostAddress) == null)
+            return null;
+
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try { channel.connect(UnixDomainSocketAddress.of(unixSocketPath)); }
+        catch (Exception ex)
+        {
+            channel.close();
+            throw ex;
+        }
+        return new SocketConnection(new ChannelSocket(channel));
+    }
 }
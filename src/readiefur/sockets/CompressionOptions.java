@@ -0,0 +1,58 @@
+package readiefur.sockets;
+
+import java.util.zip.Adler32;
+
+/**
+ * Configures the optional compression of messages sent over a socket.
+ * <br></br>
+ * Compression is only used on a connection when both ends have enabled it with the same dictionary.
+ */
+public class CompressionOptions
+{
+    /**
+     * Messages smaller than this (once serialized) are sent uncompressed, as the CPU cost outweighs the few bytes saved.
+     */
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    private final byte[] dictionary;
+    private final int threshold;
+    private final long dictionaryChecksum;
+
+    /**
+     * @param dictionary A preset dictionary of bytes that are common in the messages being sent, or {@code null} for no dictionary.
+     * @param threshold The minimum serialized size, in bytes, of a message that will be compressed.
+     */
+    public CompressionOptions(byte[] dictionary, int threshold)
+    {
+        this.dictionary = dictionary;
+        this.threshold = threshold;
+
+        Adler32 checksum = new Adler32();
+        if (dictionary != null)
+            checksum.update(dictionary);
+        this.dictionaryChecksum = checksum.getValue();
+    }
+
+    public CompressionOptions(byte[] dictionary)
+    {
+        this(dictionary, DEFAULT_THRESHOLD);
+    }
+
+    public byte[] GetDictionary()
+    {
+        return dictionary;
+    }
+
+    public int GetThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Used during negotiation to check that both ends are using the same dictionary.
+     */
+    public long GetDictionaryChecksum()
+    {
+        return dictionaryChecksum;
+    }
+}
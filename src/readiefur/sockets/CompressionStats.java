@@ -0,0 +1,93 @@
+package readiefur.sockets;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters used to measure how effective compression is on one or more connections.
+ */
+public class CompressionStats
+{
+    private final AtomicLong framesCompressed = new AtomicLong();
+    private final AtomicLong framesSkipped = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong compressionNanos = new AtomicLong();
+    private final AtomicLong decompressionNanos = new AtomicLong();
+
+    void RecordCompressed(long uncompressedSize, long compressedSize, long nanos)
+    {
+        framesCompressed.incrementAndGet();
+        uncompressedBytes.addAndGet(uncompressedSize);
+        compressedBytes.addAndGet(compressedSize);
+        compressionNanos.addAndGet(nanos);
+    }
+
+    void RecordSkipped()
+    {
+        framesSkipped.incrementAndGet();
+    }
+
+    void RecordDecompressed(long nanos)
+    {
+        decompressionNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Returns the number of messages that were sent compressed.
+     */
+    public long GetFramesCompressed()
+    {
+        return framesCompressed.get();
+    }
+
+    /**
+     * Returns the number of messages that were sent uncompressed because they were below the size threshold.
+     */
+    public long GetFramesSkipped()
+    {
+        return framesSkipped.get();
+    }
+
+    /**
+     * Returns the number of bytes that compression has saved.
+     */
+    public long GetBytesSaved()
+    {
+        return uncompressedBytes.get() - compressedBytes.get();
+    }
+
+    /**
+     * Returns the compressed size as a fraction of the uncompressed size (lower is better).
+     */
+    public double GetCompressionRatio()
+    {
+        long uncompressed = uncompressedBytes.get();
+        return uncompressed == 0 ? 1 : (double)compressedBytes.get() / uncompressed;
+    }
+
+    /**
+     * Returns the total CPU time spent compressing messages, in nanoseconds.
+     */
+    public long GetCompressionNanos()
+    {
+        return compressionNanos.get();
+    }
+
+    /**
+     * Returns the total CPU time spent decompressing messages, in nanoseconds.
+     */
+    public long GetDecompressionNanos()
+    {
+        return decompressionNanos.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Compressed: " + GetFramesCompressed()
+            + ", Skipped: " + GetFramesSkipped()
+            + ", Saved: " + GetBytesSaved() + "B"
+            + ", Ratio: " + String.format("%.2f", GetCompressionRatio())
+            + ", CPU: " + (GetCompressionNanos() + GetDecompressionNanos()) / 1000 + "us";
+    }
+}
@@ -0,0 +1,20 @@
+package readiefur.sockets;
+
+/**
+ * The lane a message is sent through, each lane is only sent from when all of the higher priority lanes are empty.
+ */
+public enum ESendPriority
+{
+    /**
+     * Small messages that keep the connection healthy (i.e. pings and status updates).
+     */
+    CONTROL,
+    /**
+     * Regular messages (default).
+     */
+    DATA,
+    /**
+     * Large background transfers that should only use the connection when nothing else is waiting.
+     */
+    BULK
+}
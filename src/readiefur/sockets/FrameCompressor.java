@@ -0,0 +1,196 @@
+package readiefur.sockets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Handles the compression of messages for a single connection.
+ * <br></br>
+ * A single deflate stream is used for the lifetime of the connection (flushed after every message),
+ * so later messages can reference data from earlier ones as well as the preset dictionary.
+ */
+class FrameCompressor
+{
+    /**
+     * Sent by each end when the connection opens to indicate that it can receive compressed messages.
+     */
+    static class Offer implements Serializable, IPrioritisedMessage
+    {
+        public final long dictionaryChecksum;
+
+        public Offer(long dictionaryChecksum)
+        {
+            this.dictionaryChecksum = dictionaryChecksum;
+        }
+
+        @Override
+        public ESendPriority GetSendPriority()
+        {
+            return ESendPriority.CONTROL;
+        }
+    }
+
+    /**
+     * Wraps a compressed message.
+     */
+    static class CompressedFrame implements Serializable
+    {
+        public final byte[] data;
+
+        public CompressedFrame(byte[] data)
+        {
+            this.data = data;
+        }
+    }
+
+    private final CompressionOptions options;
+    private final CompressionStats stats;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final Inflater inflater = new Inflater();
+    //Separate buffers are used as compression and decompression happen on different threads.
+    private final byte[] deflateBuffer = new byte[4096];
+    private final byte[] inflateBuffer = new byte[4096];
+    private volatile Boolean negotiated = false;
+
+    public FrameCompressor(CompressionOptions options, CompressionStats stats)
+    {
+        this.options = options;
+        this.stats = stats;
+
+        if (options.GetDictionary() != null)
+            deflater.setDictionary(options.GetDictionary());
+    }
+
+    public Offer CreateOffer()
+    {
+        return new Offer(options.GetDictionaryChecksum());
+    }
+
+    /**
+     * Called when the other end sends its offer, compression is only used if both ends share the same dictionary.
+     */
+    public void OnOfferReceived(Offer offer)
+    {
+        negotiated = offer.dictionaryChecksum == options.GetDictionaryChecksum();
+    }
+
+    public Boolean IsNegotiated()
+    {
+        return negotiated;
+    }
+
+    /**
+     * Compresses a message if compression has been negotiated and the message is large enough.
+     * Must only be called from the sending thread.
+     * @return A {@link CompressedFrame} or the original message.
+     */
+    public Object Compress(Object message) throws IOException
+    {
+        if (!negotiated || message instanceof Offer)
+            return message;
+
+        synchronized (deflater)
+        {
+            return CompressInternal(message);
+        }
+    }
+
+    private Object CompressInternal(Object message) throws IOException
+    {
+        byte[] serialized = Serialize(message);
+        if (serialized.length < options.GetThreshold())
+        {
+            stats.RecordSkipped();
+            return message;
+        }
+
+        long start = System.nanoTime();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(serialized.length / 2);
+        deflater.setInput(serialized);
+        //A sync flush writes everything out without ending the stream, so the receiver can decode this message straight away.
+        int length;
+        do
+        {
+            length = deflater.deflate(deflateBuffer, 0, deflateBuffer.length, Deflater.SYNC_FLUSH);
+            compressed.write(deflateBuffer, 0, length);
+        }
+        while (length == deflateBuffer.length);
+
+        byte[] data = compressed.toByteArray();
+        stats.RecordCompressed(serialized.length, data.length, System.nanoTime() - start);
+
+        return new CompressedFrame(data);
+    }
+
+    /**
+     * Decompresses a received frame. Must only be called from the receiving thread.
+     */
+    public Object Decompress(CompressedFrame frame) throws IOException, ClassNotFoundException
+    {
+        byte[] decompressed;
+        synchronized (inflater)
+        {
+            decompressed = Inflate(frame);
+        }
+
+        try (ObjectInputStream objectStream = new ObjectInputStream(new ByteArrayInputStream(decompressed)))
+        {
+            return objectStream.readObject();
+        }
+    }
+
+    private byte[] Inflate(CompressedFrame frame) throws IOException
+    {
+        long start = System.nanoTime();
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream(frame.data.length * 2);
+        inflater.setInput(frame.data);
+        try
+        {
+            //Keep inflating until no more output is produced, as output can still be pending after all of the input has been consumed.
+            while (true)
+            {
+                int length = inflater.inflate(inflateBuffer);
+                if (length > 0)
+                    decompressed.write(inflateBuffer, 0, length);
+                else if (inflater.needsDictionary())
+                    inflater.setDictionary(options.GetDictionary());
+                else
+                    break;
+            }
+        }
+        catch (DataFormatException ex)
+        {
+            throw new IOException("Failed to decompress message.", ex);
+        }
+
+        stats.RecordDecompressed(System.nanoTime() - start);
+
+        return decompressed.toByteArray();
+    }
+
+    public void Dispose()
+    {
+        //Synchronized so that the native resources aren't freed while they are still in use by the sending or receiving thread.
+        synchronized (deflater) { deflater.end(); }
+        synchronized (inflater) { inflater.end(); }
+    }
+
+    private static byte[] Serialize(Object message) throws IOException
+    {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(byteStream))
+        {
+            objectStream.writeObject(message);
+        }
+        return byteStream.toByteArray();
+    }
+}
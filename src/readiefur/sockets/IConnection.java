@@ -0,0 +1,34 @@
+package readiefur.sockets;
+
+import java.io.IOException;
+
+/**
+ * A single open connection that messages can be sent over, provided by an {@link ITransport}.
+ * <br></br>
+ * Reads and writes are made from separate threads and must not block each other.
+ * When the connection is closed (from either end) reads should end with a {@link java.net.SocketException} or {@link java.io.EOFException}.
+ */
+public interface IConnection
+{
+    /**
+     * Blocks until the next message is received.
+     */
+    Object ReadMessage() throws IOException, ClassNotFoundException;
+
+    void WriteMessage(Object message) throws IOException;
+
+    Boolean IsOpen();
+
+    void Close() throws IOException;
+
+    /**
+     * Returns the address of this end of the connection.
+     */
+    String GetLocalAddress();
+
+    /**
+     * Returns {@code true} if messages are serialized when sent (i.e. they leave the process),
+     * if not then the receiver is given the same instance that was sent and so messages should not be modified once sent.
+     */
+    Boolean IsSerialized();
+}
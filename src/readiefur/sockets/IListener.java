@@ -0,0 +1,18 @@
+package readiefur.sockets;
+
+import java.io.IOException;
+
+/**
+ * Accepts incoming connections for a {@link ServerManager}, provided by an {@link ITransport}.
+ */
+public interface IListener
+{
+    /**
+     * Blocks until a client connects, throws once the listener has been closed.
+     */
+    IConnection Accept() throws IOException;
+
+    Boolean IsClosed();
+
+    void Close() throws IOException;
+}
@@ -0,0 +1,9 @@
+package readiefur.sockets;
+
+/**
+ * Allows a message to specify which lane it should be sent through, messages that don't implement this are sent as {@link ESendPriority#DATA}.
+ */
+public interface IPrioritisedMessage
+{
+    ESendPriority GetSendPriority();
+}
@@ -0,0 +1,20 @@
+package readiefur.sockets;
+
+import java.io.IOException;
+
+/**
+ * Creates the connections used by {@link ServerManager} and {@link Client}, this allows the underlying network to be swapped out.
+ * @see TCPTransport
+ * @see InMemoryTransport
+ */
+public interface ITransport
+{
+    /**
+     * Starts listening for connections on the specified port.
+     * @param backlog The maximum number of connections that can be waiting to be accepted.
+     * @throws java.net.BindException If the port is already in use.
+     */
+    IListener Listen(int port, int backlog) throws IOException;
+
+    IConnection Connect(String address, int port) throws IOException;
+}
@@ -0,0 +1,170 @@
+package readiefur.sockets;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedTransferQueue;
+
+/**
+ * A transport for when every peer is in the same process (i.e. simulations and tests).
+ * <br></br>
+ * Messages are passed between the two ends through lock-free queues without being serialized.
+ * Each instance is its own isolated network, so peers can only reach each other if they share an instance, the address is ignored.
+ */
+public class InMemoryTransport implements ITransport
+{
+    //Placed into a queue to wake up and end any thread waiting on it.
+    private static final Object CLOSED = new Object();
+    private static final String ADDRESS = InetAddress.getLoopbackAddress().getHostAddress();
+
+    private final ConcurrentHashMap<Integer, Listener> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * The backlog is ignored as connections are queued in memory.
+     */
+    @Override
+    public IListener Listen(int port, int backlog) throws IOException
+    {
+        Listener listener = new Listener(port);
+        if (listeners.putIfAbsent(port, listener) != null)
+            throw new BindException("Address already in use");
+        return listener;
+    }
+
+    @Override
+    public IConnection Connect(String address, int port) throws IOException
+    {
+        Listener listener = listeners.get(port);
+        if (listener == null || listener.IsClosed())
+            throw new ConnectException("Connection refused");
+
+        Connection clientEnd = new Connection();
+        Connection serverEnd = new Connection();
+        clientEnd.remote = serverEnd;
+        serverEnd.remote = clientEnd;
+        listener.pending.add(serverEnd);
+
+        //The listener may have closed while we were connecting, in which case our end would never be accepted.
+        if (listener.IsClosed())
+        {
+            clientEnd.Close();
+            throw new ConnectException("Connection refused");
+        }
+        return clientEnd;
+    }
+
+    private class Listener implements IListener
+    {
+        private final int port;
+        //Holds either a Connection to be accepted or CLOSED.
+        private final LinkedTransferQueue<Object> pending = new LinkedTransferQueue<>();
+        private volatile Boolean isClosed = false;
+
+        public Listener(int port)
+        {
+            this.port = port;
+        }
+
+        @Override
+        public IConnection Accept() throws IOException
+        {
+            Object connection;
+            try { connection = pending.take(); }
+            catch (InterruptedException ex) { throw new SocketException("Socket closed"); }
+
+            if (connection == CLOSED)
+            {
+                pending.add(CLOSED);
+                throw new SocketException("Socket closed");
+            }
+            return (IConnection)connection;
+        }
+
+        @Override
+        public Boolean IsClosed()
+        {
+            return isClosed;
+        }
+
+        @Override
+        public void Close()
+        {
+            if (isClosed)
+                return;
+            isClosed = true;
+            listeners.remove(port, this);
+
+            //Refuse anything that connected but was never accepted.
+            for (Object connection; (connection = pending.poll()) != null;)
+                if (connection instanceof Connection)
+                    ((Connection)connection).Close();
+            pending.add(CLOSED);
+        }
+    }
+
+    private static class Connection implements IConnection
+    {
+        //Holds messages sent to this end, or CLOSED once either end has closed.
+        private final LinkedTransferQueue<Object> inbound = new LinkedTransferQueue<>();
+        private Connection remote;
+        private volatile Boolean isClosed = false;
+
+        @Override
+        public Object ReadMessage() throws IOException
+        {
+            if (isClosed)
+                throw new SocketException("Socket closed");
+
+            Object message;
+            try { message = inbound.take(); }
+            catch (InterruptedException ex) { throw new SocketException("Socket closed"); }
+
+            if (message == CLOSED)
+            {
+                isClosed = true;
+                throw new EOFException();
+            }
+            return message;
+        }
+
+        @Override
+        public void WriteMessage(Object message) throws IOException
+        {
+            if (isClosed || remote.isClosed)
+                throw new SocketException("Socket closed");
+            remote.inbound.add(message);
+        }
+
+        @Override
+        public Boolean IsOpen()
+        {
+            return !isClosed;
+        }
+
+        @Override
+        public void Close()
+        {
+            if (isClosed)
+                return;
+            isClosed = true;
+            inbound.add(CLOSED);
+            remote.inbound.add(CLOSED);
+        }
+
+        @Override
+        public String GetLocalAddress()
+        {
+            return ADDRESS;
+        }
+
+        @Override
+        public Boolean IsSerialized()
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package readiefur.sockets;
+
+import java.io.Serializable;
+
+/**
+ * Sent by a {@link ServerManager} to a connection that it can't admit, the connection is then closed.
+ * <br></br>
+ * This is handled by {@link ASocket} and isn't passed on, see {@link ASocket#GetRetryAfterMilliseconds()}.
+ */
+public class RetryAfter implements Serializable, IPrioritisedMessage
+{
+    private final long retryAfterMilliseconds;
+
+    public RetryAfter(long retryAfterMilliseconds)
+    {
+        this.retryAfterMilliseconds = retryAfterMilliseconds;
+    }
+
+    public long GetRetryAfterMilliseconds()
+    {
+        return retryAfterMilliseconds;
+    }
+
+    @Override
+    public ESendPriority GetSendPriority()
+    {
+        return ESendPriority.CONTROL;
+    }
+}
@@ -10,11 +10,25 @@ public class ServerClientHost extends ASocket
 
     public ServerClientHost(Socket socket, UUID uuid)
     {
-        super(socket);
-        this.uuid = uuid;
+        this(new SocketConnection(socket), uuid, null, null);
         start();
     }
 
+    /**
+     * Unlike {@link #ServerClientHost(Socket, UUID)} this does not start the connection, call {@link #start()} once the events have been subscribed to,
+     * otherwise messages that are already waiting on the connection could be missed.
+     * @param compressionOptions The compression to offer to the client, or {@code null} to disable compression.
+     * @param compressionStats The stats to record compression results into (can be shared between hosts).
+     */
+    public ServerClientHost(IConnection connection, UUID uuid, CompressionOptions compressionOptions, CompressionStats compressionStats)
+    {
+        super(connection);
+        this.uuid = uuid;
+        //Compression has to be enabled before the thread starts as the offer is sent when the connection opens.
+        if (compressionOptions != null)
+            EnableCompression(compressionOptions, compressionStats);
+    }
+
     @Override
     public void run()
     {
@@ -1,14 +1,26 @@
 package readiefur.sockets;
 
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+import readiefur.console.Logger;
 import readiefur.misc.Event;
 import readiefur.misc.IDisposable;
 import readiefur.misc.ManualResetEvent;
 import readiefur.misc.Pair;
+import readiefur.misc.TokenBucket;
 
 //This is taking inspiration from my CSharpTools.Pipes project as the way Java handles networking is similar: https://github.com/ReadieFur/CSharpTools/blob/main/src/CSharpTools.Pipes
 public class ServerManager extends Thread implements IDisposable
@@ -18,10 +30,21 @@ public class ServerManager extends Thread implements IDisposable
 
     private final Object lock = new Object();
     private int port;
+    private final ITransport transport;
     private ManualResetEvent startEvent = new ManualResetEvent(false);
+    private CompressionOptions compressionOptions = null;
+    private final CompressionStats compressionStats = new CompressionStats();
+    private Path unixSocketPath = null;
+    private ServerSocketChannel unixServer = null;
+    //Only set when admission control has been enabled.
+    private AdmissionOptions admissionOptions = null;
+    private LinkedBlockingQueue<IConnection> admissionQueue = null;
+    private Thread admissionThread = null;
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    private final Random random = new Random();
 
     protected Boolean isDisposed = false;
-    protected ServerSocket server = null;
+    protected IListener server = null;
     protected ConcurrentHashMap<UUID, ServerClientHost> servers = new ConcurrentHashMap<>();
     /*I can use the final keyword here to make the instance readonly,
      *The only reason I wouldn't like to do this is inherited classes wouldn't be able to override this I don't believe.*/
@@ -33,8 +56,14 @@ public class ServerManager extends Thread implements IDisposable
     public final Event<Pair<UUID, Exception>> onError = new Event<>();
 
     public ServerManager(int port)
+    {
+        this(port, TCPTransport.INSTANCE);
+    }
+
+    public ServerManager(int port, ITransport transport)
     {
         this.port = port;
+        this.transport = transport;
     }
 
     public void Dispose()
@@ -57,11 +86,34 @@ public class ServerManager extends Thread implements IDisposable
             //Close the server.
             if (server != null)
             {
-                try { server.close(); }
+                try { server.Close(); }
                 catch (Exception ex) { onError.Invoke(new Pair<>(SERVER_UUID, ex)); }
                 server = null;
             }
 
+            //Close the Unix socket listener and remove its file so that clients don't try to connect to it.
+            if (unixServer != null)
+            {
+                try
+                {
+                    unixServer.close();
+                    Files.deleteIfExists(unixSocketPath);
+                }
+                catch (Exception ex) { onError.Invoke(new Pair<>(SERVER_UUID, ex)); }
+                unixServer = null;
+            }
+
+            //Stop admitting clients and close any that were still waiting.
+            if (admissionThread != null)
+            {
+                admissionThread.interrupt();
+                for (IConnection connection; (connection = admissionQueue.poll()) != null;)
+                {
+                    try { connection.Close(); }
+                    catch (Exception ex) {}
+                }
+            }
+
             //Stop the thread.
             if (this.isAlive())
             {
@@ -85,7 +137,7 @@ public class ServerManager extends Thread implements IDisposable
 
         try
         {
-            try { server = new ServerSocket(port); }
+            try { server = transport.Listen(port, admissionOptions != null ? admissionOptions.GetBacklog() : AdmissionOptions.DEFAULT_BACKLOG); }
             catch (Exception ex)
             {
                 server = null;
@@ -94,51 +146,168 @@ public class ServerManager extends Thread implements IDisposable
             }
             finally
             {
+                //The Unix socket is only an addition to TCP, so it is only started if TCP succeeded and failing to start it is not fatal.
+                if (server != null && unixSocketPath != null && transport == TCPTransport.INSTANCE)
+                    StartUnixServer();
+                if (server != null && admissionOptions != null)
+                    StartAdmission();
                 startEvent.Set();
             }
 
-            while (server != null && !isDisposed && !server.isClosed())
+            while (server != null && !isDisposed && !server.IsClosed())
+            {
+                try { OnAccepted(server.Accept()); }
+                catch (Exception ex)
+                {
+                    if (isDisposed || server == null || server.IsClosed())
+                        break;
+                    onError.Invoke(new Pair<>(SERVER_UUID, ex));
+                }
+            }
+        }
+        catch (Exception ex) { onError.Invoke(new Pair<>(SERVER_UUID, ex)); }
+
+        /*In my previous tests I had this close the connection and thread as opposed to disposing of the this instance.
+         *The reason I don't do this anymore is because after a quick look, I found you cannot reuse threads in java.
+         *I could work around this by creating another wrapper instance but that can be done later if needs be.
+         *I will be leaving the code for closure in the deconstructor though for good practice and if I need to reimplement it again later.*/
+        Dispose();
+    }
+
+    private void StartUnixServer()
+    {
+        //The accept loop uses its own reference to the channel as Dispose clears the field.
+        ServerSocketChannel channel;
+        try
+        {
+            //A file left behind by a host that didn't shut down cleanly would stop us from binding.
+            Files.deleteIfExists(unixSocketPath);
+            channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.bind(UnixDomainSocketAddress.of(unixSocketPath));
+        }
+        catch (Exception ex)
+        {
+            onError.Invoke(new Pair<>(SERVER_UUID, ex));
+            return;
+        }
+        unixServer = channel;
+
+        Thread unixThread = new Thread(() ->
+        {
+            while (!isDisposed && channel.isOpen())
             {
                 try
                 {
-                    Socket socket = server.accept();
+                    SocketChannel socketChannel = channel.accept();
+                    OnAccepted(new SocketConnection(new ChannelSocket(socketChannel)));
+                }
+                catch (Exception ex)
+                {
+                    if (isDisposed || !channel.isOpen())
+                        break;
+                    onError.Invoke(new Pair<>(SERVER_UUID, ex));
+                }
+            }
+        });
+        unixThread.setName(getClass().getSimpleName() + "_Unix");
+        unixThread.setDaemon(true);
+        unixThread.start();
+    }
 
-                    final UUID uuid = GenerateUUID();
+    //Called from both the transport and Unix socket accept loops.
+    private void OnAccepted(IConnection connection) throws IOException
+    {
+        if (admissionOptions == null)
+        {
+            AcceptClient(connection);
+            return;
+        }
 
-                    ServerClientHost serverClientHost = new ServerClientHost(socket, uuid);
+        //Accepting is kept as cheap as possible, the connection just waits in the queue until it is admitted.
+        if (servers.size() + admissionQueue.size() >= admissionOptions.GetMaxConnections() || !admissionQueue.offer(connection))
+            RejectClient(connection);
+    }
 
-                    if (servers.putIfAbsent(uuid, serverClientHost) != null)
-                    {
-                        socket.close();
-                        onError.Invoke(new Pair<>(SERVER_UUID, new Exception("Failed to add client to list.")));
-                    }
+    private void StartAdmission()
+    {
+        admissionQueue = new LinkedBlockingQueue<>(admissionOptions.GetBacklog());
+        //Allow roughly a tenth of a second's worth of admissions at once.
+        TokenBucket admissions = new TokenBucket(admissionOptions.GetAdmissionsPerSecond(), Math.max(1, admissionOptions.GetAdmissionsPerSecond() / 10));
+
+        admissionThread = new Thread(() ->
+        {
+            while (!isDisposed)
+            {
+                try
+                {
+                    IConnection connection = admissionQueue.take();
+
+                    //Pace the admissions so that the handshakes (and their threads) are spread out.
+                    while (!admissions.TryConsume())
+                        Thread.sleep(Math.max(1, admissions.GetWaitMilliseconds()));
 
-                    //We manually fire this event as the constructor for the ServerClientHost class starts the thread immediately and so the registration of the event could be missed.
-                    onConnect.Invoke(uuid);
+                    //The client may have given up while it was waiting.
+                    if (!connection.IsOpen())
+                        continue;
 
-                    //These may need encapsulating to maintain access to instance variables.
-                    /*A new limitation has been found, I don't think java has such encapsulation
-                    *and so reading a scoped variable that is not readonly causes an error.
-                    *To work around this I have made the UUID final and then created an external method that generates the UUID as required.*/
-                    serverClientHost.onMessage.Add(obj -> OnMessage(uuid, obj));
-                    serverClientHost.onClose.Add(nul -> OnClose(uuid));
-                    serverClientHost.onError.Add(ex -> OnError(uuid, ex));
+                    if (servers.size() >= admissionOptions.GetMaxConnections())
+                        RejectClient(connection);
+                    else
+                        AcceptClient(connection);
                 }
+                catch (InterruptedException ex) { break; }
                 catch (Exception ex)
                 {
-                    if (isDisposed || server == null || server.isClosed())
+                    if (isDisposed)
                         break;
                     onError.Invoke(new Pair<>(SERVER_UUID, ex));
                 }
             }
+        });
+        admissionThread.setName(getClass().getSimpleName() + "_Admission");
+        admissionThread.setDaemon(true);
+        admissionThread.start();
+    }
+
+    private void RejectClient(IConnection connection)
+    {
+        rejectedConnections.incrementAndGet();
+
+        //Add some jitter so that the rejected clients don't all come back at the same time.
+        long retryAfter = admissionOptions.GetRetryAfterMilliseconds();
+        synchronized (random) { retryAfter += (long)(random.nextDouble() * retryAfter); }
+
+        //The host isn't started as nothing needs to be read from the client, Dispose writes the reply before closing the connection.
+        ServerClientHost rejectedClient = new ServerClientHost(connection, null, null, null);
+        rejectedClient.SendMessage(new RetryAfter(retryAfter));
+        rejectedClient.Dispose();
+    }
+
+    private void AcceptClient(IConnection connection) throws IOException
+    {
+        final UUID uuid = GenerateUUID();
+
+        ServerClientHost serverClientHost = new ServerClientHost(connection, uuid, compressionOptions, compressionStats);
+
+        if (servers.putIfAbsent(uuid, serverClientHost) != null)
+        {
+            connection.Close();
+            onError.Invoke(new Pair<>(SERVER_UUID, new Exception("Failed to add client to list.")));
         }
-        catch (Exception ex) { onError.Invoke(new Pair<>(SERVER_UUID, ex)); }
 
-        /*In my previous tests I had this close the connection and thread as opposed to disposing of the this instance.
-         *The reason I don't do this anymore is because after a quick look, I found you cannot reuse threads in java.
-         *I could work around this by creating another wrapper instance but that can be done later if needs be.
-         *I will be leaving the code for closure in the deconstructor though for good practice and if I need to reimplement it again later.*/
-        Dispose();
+        //We manually fire this event as the connection thread fires its own onConnect as soon as it starts, before we could register for it.
+        onConnect.Invoke(uuid);
+
+        //These may need encapsulating to maintain access to instance variables.
+        /*A new limitation has been found, I don't think java has such encapsulation
+        *and so reading a scoped variable that is not readonly causes an error.
+        *To work around this I have made the UUID final and then created an external method that generates the UUID as required.*/
+        serverClientHost.onMessage.Add(obj -> OnMessage(uuid, obj));
+        serverClientHost.onClose.Add(nul -> OnClose(uuid));
+        serverClientHost.onError.Add(ex -> OnError(uuid, ex));
+
+        //The connection is only started now so that no messages arrive before we are subscribed to them.
+        serverClientHost.start();
     }
 
     public Boolean Start()
@@ -148,6 +317,61 @@ public class ServerManager extends Thread implements IDisposable
         return server != null;
     }
 
+    /**
+     * Enables compression for all clients that connect after this call (and that have also enabled compression).
+     * @see ASocket#EnableCompression(CompressionOptions)
+     */
+    public void EnableCompression(CompressionOptions options)
+    {
+        compressionOptions = options;
+    }
+
+    /**
+     * Enables admission control, this must be called before the server is started.
+     * <br></br>
+     * Accepted connections are queued and admitted at a steady rate, any that don't fit in the queue or would exceed the maximum
+     * number of connections are sent a {@link RetryAfter} and closed.
+     */
+    public void SetAdmissionOptions(AdmissionOptions options)
+    {
+        admissionOptions = options;
+    }
+
+    /**
+     * Returns the number of connections that have been refused by admission control.
+     */
+    public long GetRejectedConnectionCount()
+    {
+        return rejectedConnections.get();
+    }
+
+    /**
+     * Additionally listens on a Unix domain socket at the specified path, this must be called before the server is started.
+     * <br></br>
+     * Clients on the same machine can connect over this instead of TCP loopback, see {@link Client#SetUnixSocketPath(Path)}.
+     * This is ignored when using a transport other than {@link TCPTransport}.
+     */
+    public void EnableUnixSocket(Path path)
+    {
+        unixSocketPath = path;
+    }
+
+    /**
+     * Returns the Unix domain socket path that hosts on the specified port use by default.
+     */
+    public static Path GetDefaultUnixSocketPath(int port)
+    {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "readiefur_" + port + ".sock");
+    }
+
+    /**
+     * Returns the compression stats combined across all client connections.
+     */
+    public CompressionStats GetCompressionStats()
+    {
+        return compressionStats;
+    }
+
     public Boolean IsDisposed()
     {
         return isDisposed;
@@ -190,13 +414,35 @@ public class ServerManager extends Thread implements IDisposable
         ServerClientHost serverClientHost = servers.getOrDefault(uuid, null);
         if (serverClientHost == null)
             throw new NullPointerException("The client was not found.");
-        serverClientHost.SendMessage(data);
+        SendToClient(uuid, serverClientHost, data);
     }
 
     public void BroadcastMessage(Object data)
     {
-        for (ServerClientHost serverClientHost : servers.values())
-            serverClientHost.SendMessage(data);
+        for (Map.Entry<UUID, ServerClientHost> entry : servers.entrySet())
+            SendToClient(entry.getKey(), entry.getValue(), data);
+    }
+
+    /**
+     * Broadcasts a message to every client except the specified one.
+     */
+    public void BroadcastMessage(Object data, UUID excluded)
+    {
+        for (Map.Entry<UUID, ServerClientHost> entry : servers.entrySet())
+            if (!entry.getKey().equals(excluded))
+                SendToClient(entry.getKey(), entry.getValue(), data);
+    }
+
+    /*Messages to clients are sent from whichever thread is handling the message being forwarded (i.e. the sender's receive thread),
+     *so they must never block, otherwise one slow client would hold up every other recipient and stop the sender from being read.
+     *A client that has let its send queue fill up is too far behind to catch up, so it is disconnected rather than silently missing messages.*/
+    private void SendToClient(UUID uuid, ServerClientHost serverClientHost, Object data)
+    {
+        if (serverClientHost.TrySendMessage(data))
+            return;
+
+        Logger.Warn("[SERVER_MANAGER] Client " + uuid + " is not keeping up and its send queue is full, disconnecting it.");
+        serverClientHost.Abort();
     }
 
     public void DisconnectClient(UUID uuid) throws NullPointerException
@@ -0,0 +1,89 @@
+package readiefur.sockets;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * A connection over a {@link Socket} (TCP or a Unix domain socket via {@link ChannelSocket}), messages are serialized with object streams.
+ */
+class SocketConnection implements IConnection
+{
+    private final Socket socket;
+    //The two following object streams are initialized when required, this is because they would hang until the first message was received.
+    //I also store them globally as opposed to creating a new one each time, as I read that only one object stream should be instantiated per stream, see: https://stackoverflow.com/questions/2393179/streamcorruptedexception-invalid-type-code-ac
+    private ObjectInputStream inputStream = null;
+    private ObjectOutputStream outputStream = null;
+
+    public SocketConnection(Socket socket)
+    {
+        this.socket = socket;
+    }
+
+    @Override
+    public Object ReadMessage() throws IOException, ClassNotFoundException
+    {
+        if (inputStream == null)
+        {
+            //This will hang until a message is received.
+            inputStream = new ObjectInputStream(socket.getInputStream());
+        }
+
+        return inputStream.readObject();
+    }
+
+    @Override
+    public void WriteMessage(Object message) throws IOException
+    {
+        if (outputStream == null)
+            outputStream = new ObjectOutputStream(socket.getOutputStream());
+
+        outputStream.writeObject(message);
+    }
+
+    @Override
+    public Boolean IsOpen()
+    {
+        return socket.isConnected() && !socket.isClosed();
+    }
+
+    @Override
+    public void Close() throws IOException
+    {
+        socket.close();
+
+        //While GC will close the streams when this object goes out of scope, closing them manually is always more efficient.
+        if (inputStream != null)
+        {
+            try { inputStream.close(); }
+            catch (SocketException ex) { /*Ignore, this is expected when the socket is closed from the other end.*/ }
+            inputStream = null;
+        }
+
+        if (outputStream != null)
+        {
+            try { outputStream.close(); }
+            catch (SocketException ex) { /*See above.*/ }
+            outputStream = null;
+        }
+    }
+
+    @Override
+    public String GetLocalAddress()
+    {
+        return socket.getLocalAddress().getHostAddress();
+    }
+
+    @Override
+    public Boolean IsSerialized()
+    {
+        return true;
+    }
+
+    public Socket GetSocket()
+    {
+        return socket;
+    }
+}
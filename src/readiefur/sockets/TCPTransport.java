@@ -0,0 +1,50 @@
+package readiefur.sockets;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * The default transport, connections are made over TCP and messages are serialized with object streams.
+ */
+public class TCPTransport implements ITransport
+{
+    /**
+     * The transport has no state so a single instance is shared.
+     */
+    public static final TCPTransport INSTANCE = new TCPTransport();
+
+    private TCPTransport() {}
+
+    @Override
+    public IListener Listen(int port, int backlog) throws IOException
+    {
+        ServerSocket server = new ServerSocket(port, backlog);
+        return new IListener()
+        {
+            @Override
+            public IConnection Accept() throws IOException
+            {
+                return new SocketConnection(server.accept());
+            }
+
+            @Override
+            public Boolean IsClosed()
+            {
+                return server.isClosed();
+            }
+
+            @Override
+            public void Close() throws IOException
+            {
+                server.close();
+            }
+        };
+    }
+
+    @Override
+    public IConnection Connect(String address, int port) throws IOException
+    {
+        return new SocketConnection(new Socket(address, port));
+    }
+}
@@ -0,0 +1,104 @@
+package readiefur.xml_ui;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.Timer;
+
+import readiefur.console.Logger;
+import readiefur.misc.IDisposable;
+
+/**
+ * Runs updates posted from any thread on the UI thread, in the order they were posted, at most once per frame.
+ * <br></br>
+ * Everything that was posted since the last frame is run within a single UI event,
+ * so any revalidate or repaint calls that the updates make are coalesced by Swing into one layout and paint.
+ */
+public class FrameDispatcher implements IDisposable
+{
+    public static final int DEFAULT_FRAME_INTERVAL = 16;
+
+    private final ConcurrentLinkedQueue<Runnable> pendingUpdates = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+    private final Timer frameTimer;
+    private volatile Boolean isDisposed = false;
+    private volatile long frameCount = 0;
+    private final AtomicLong postedUpdates = new AtomicLong(0);
+    //Only accessed on the UI thread.
+    private long ranUpdates = 0;
+
+    public FrameDispatcher()
+    {
+        this(DEFAULT_FRAME_INTERVAL);
+    }
+
+    /**
+     * @param frameInterval The minimum time between frames, in milliseconds.
+     */
+    public FrameDispatcher(int frameInterval)
+    {
+        frameTimer = new Timer(frameInterval, e -> RunFrame());
+        frameTimer.setRepeats(false);
+        //A coalescing timer drops a tick that fires while the previous one is still running,
+        //which would leave frameScheduled set with no frame coming to clear it.
+        frameTimer.setCoalesce(false);
+    }
+
+    /**
+     * Queues an update to be run on the UI thread in the next frame, this method does not block and can be called from any thread.
+     */
+    public void Post(Runnable update)
+    {
+        if (isDisposed)
+            return;
+
+        pendingUpdates.add(update);
+        postedUpdates.incrementAndGet();
+
+        //Only the first update since the last frame needs to schedule the next one.
+        if (!frameScheduled.getAndSet(true))
+            frameTimer.restart();
+    }
+
+    /**
+     * Returns the number of frames that have run updates so far.
+     */
+    public long GetFrameCount()
+    {
+        return frameCount;
+    }
+
+    @Override
+    public void Dispose()
+    {
+        isDisposed = true;
+        frameTimer.stop();
+        pendingUpdates.clear();
+    }
+
+    private void RunFrame()
+    {
+        //Cleared before draining so that an update posted while draining schedules another frame rather than being missed.
+        frameScheduled.set(false);
+        if (isDisposed || pendingUpdates.isEmpty())
+            return;
+        frameCount++;
+
+        //Only run what had been posted when the frame started, so that a steady stream of updates can't hold up the UI thread.
+        long frameEnd = postedUpdates.get();
+        while (!isDisposed && ranUpdates < frameEnd)
+        {
+            Runnable update = pendingUpdates.poll();
+            ranUpdates++;
+
+            //One failed update shouldn't stop the rest of the frame.
+            try { update.run(); }
+            catch (Exception ex) { Logger.Error("[UI] Update failed: " + ex); }
+        }
+
+        //Anything posted during the frame that was left for the next one must have a frame scheduled for it.
+        if (!isDisposed && !pendingUpdates.isEmpty() && !frameScheduled.getAndSet(true))
+            frameTimer.restart();
+    }
+}
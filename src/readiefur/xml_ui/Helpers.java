@@ -3,6 +3,7 @@ package readiefur.xml_ui;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.w3c.dom.Node;
 
@@ -10,6 +11,9 @@ import readiefur.xml_ui.exceptions.InvalidXMLException;
 
 public class Helpers
 {
+    //Class.forName is relatively slow and is otherwise called for every element every time a UI is built.
+    private static final Map<String, Class<?>> xmlComponentClasses = new ConcurrentHashMap<>();
+
     private Helpers(){}
 
     public static List<Node> GetElementNodes(Node node)
@@ -46,10 +50,14 @@ public class Helpers
             xmlComponentClassPath = namespaceValue + "." + rootComponentNameParts[0];
         }
 
-        Class<?> xmlComponentClass;
+        Class<?> xmlComponentClass = xmlComponentClasses.get(xmlComponentClassPath);
+        if (xmlComponentClass != null)
+            return xmlComponentClass;
+
         try { xmlComponentClass = Class.forName(xmlComponentClassPath); }
         catch (ClassNotFoundException e) { throw new InvalidXMLException("The root XML component '" + xmlComponentClassPath + "' does not exist."); }
 
+        xmlComponentClasses.put(xmlComponentClassPath, xmlComponentClass);
         return xmlComponentClass;
     }
 }
@@ -1,18 +1,20 @@
 package readiefur.xml_ui;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Objects;
 import java.util.function.Consumer;
 
+import readiefur.misc.Event;
+import readiefur.misc.Subscription;
+
 /**
  * A class that wraps a value which can be observed.
  */
 public class Observable<T>
 {
     //Consumer allows for side effects which is what we want for this class.
-    private final List<Consumer<T>> listeners = new ArrayList<>();
+    private final Event<T> listeners = new Event<>();
 
-    private T value;
+    private volatile T value;
 
     public Observable(T value)
     {
@@ -24,20 +26,40 @@ public class Observable<T>
         return value;
     }
 
+    /**
+     * Sets the value and notifies the listeners, unless the new value is equal to the current one.
+     * Bound components are often set to the same value repeatedly, so skipping these saves re-applying and re-painting them.
+     */
     public void Set(T value)
     {
-        this.value = value;
-        for (Consumer<T> listener : listeners)
-            listener.accept(value);
+        synchronized (listeners)
+        {
+            if (Objects.equals(this.value, value))
+                return;
+            this.value = value;
+        }
+        listeners.Invoke(value);
+    }
+
+    /**
+     * @return A handle that removes the listener when closed.
+     */
+    public Subscription AddListener(Consumer<T> listener)
+    {
+        return listeners.Add(listener);
     }
 
-    public void AddListener(Consumer<T> listener)
+    /**
+     * Adds a listener that is only held weakly, see {@link Event#AddWeak(Consumer)}.
+     * @return A handle that keeps the listener alive and removes it when closed.
+     */
+    public Subscription AddWeakListener(Consumer<T> listener)
     {
-        listeners.add(listener);
+        return listeners.AddWeak(listener);
     }
 
     public void RemoveListener(Consumer<T> listener)
     {
-        listeners.remove(listener);
+        listeners.Remove(listener);
     }
 }
@@ -0,0 +1,196 @@
+package readiefur.xml_ui;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * A set of named colours that components can reference, i.e. from XML with {@code Background="{Theme backgroundPrimary}"}.
+ * <br></br>
+ * Components are registered with the theme once rather than each adding their own listener,
+ * so changing the theme is a single pass over the registered components with each colour only decoded once,
+ * and as the pass is made within one UI event Swing repaints everything that changed together.
+ * Components are held weakly so that one that is thrown away without being unbound doesn't leak.
+ */
+public class Theme
+{
+    /**
+     * A colour key bound to one of a component's properties.
+     */
+    private static class Binding
+    {
+        public final String key;
+        //The setter is given the component rather than capturing it, otherwise the weak map's values would keep the components alive.
+        public final BiConsumer<Component, Color> setter;
+
+        public Binding(String key, BiConsumer<Component, Color> setter)
+        {
+            this.key = key;
+            this.setter = setter;
+        }
+    }
+
+    public static final String BACKGROUND = "Background";
+    public static final String FOREGROUND = "Foreground";
+
+    private final Map<String, Color> colours = new ConcurrentHashMap<>();
+    //The bindings for each component, by property name.
+    private final Map<Component, Map<String, Binding>> boundComponents = new WeakHashMap<>();
+    private final List<Consumer<Theme>> listeners = new ArrayList<>();
+
+    /**
+     * Returns the colour for the specified key, or {@code null} if the key has not been set.
+     */
+    public Color GetColour(String key)
+    {
+        return colours.get(key);
+    }
+
+    /**
+     * Sets a single colour, use {@link #SetColours(Map)} to change several at once.
+     * @param colour The colour as a hex string, i.e. {@code #FFFFFF}.
+     */
+    public void SetColour(String key, String colour)
+    {
+        Map<String, String> changes = new HashMap<>();
+        changes.put(key, colour);
+        SetColours(changes);
+    }
+
+    /**
+     * Changes several colours in one pass, i.e. when switching between light and dark themes.
+     * Can be called from any thread, the components are updated on the UI thread.
+     * @param changes The colours as hex strings, by key.
+     */
+    public void SetColours(Map<String, String> changes)
+    {
+        Set<String> changedKeys = new HashSet<>();
+        for (Map.Entry<String, String> change : changes.entrySet())
+        {
+            Color colour = Color.decode(change.getValue());
+            if (!colour.equals(colours.put(change.getKey(), colour)))
+                changedKeys.add(change.getKey());
+        }
+
+        if (changedKeys.isEmpty())
+            return;
+
+        if (SwingUtilities.isEventDispatchThread())
+            Apply(changedKeys);
+        else
+            SwingUtilities.invokeLater(() -> Apply(changedKeys));
+    }
+
+    /**
+     * Sets the component's background to the colour for the key, now and whenever the theme changes.
+     * Rebinding a component replaces its previous background key.
+     */
+    public void BindBackground(Component component, String key)
+    {
+        Bind(component, BACKGROUND, key, Component::setBackground);
+    }
+
+    /**
+     * Sets the component's foreground to the colour for the key, now and whenever the theme changes.
+     * Rebinding a component replaces its previous foreground key.
+     */
+    public void BindForeground(Component component, String key)
+    {
+        Bind(component, FOREGROUND, key, Component::setForeground);
+    }
+
+    /**
+     * Calls the setter with the colour for the key, now and whenever the theme changes.
+     * @param property The name of the property being set, rebinding the same property on a component replaces its previous key.
+     * @param setter Given the component to set the colour on, it must not capture the component itself.
+     */
+    public void Bind(Component component, String property, String key, BiConsumer<Component, Color> setter)
+    {
+        synchronized (boundComponents)
+        {
+            boundComponents.computeIfAbsent(component, c -> new HashMap<>()).put(property, new Binding(key, setter));
+        }
+
+        //If the key hasn't been set yet the component will be updated when it is.
+        Color colour = colours.get(key);
+        if (colour != null)
+            setter.accept(component, colour);
+    }
+
+    /**
+     * Stops the theme from updating the component.
+     */
+    public void Unbind(Component component)
+    {
+        synchronized (boundComponents)
+        {
+            boundComponents.remove(component);
+        }
+    }
+
+    /**
+     * Returns the number of components that are bound to the theme.
+     */
+    public int GetBoundCount()
+    {
+        synchronized (boundComponents)
+        {
+            return boundComponents.size();
+        }
+    }
+
+    /**
+     * Adds a listener that is called on the UI thread after the bound components have been updated,
+     * for anything that uses the colours in some other way than as a background or foreground.
+     */
+    public void AddListener(Consumer<Theme> listener)
+    {
+        synchronized (listeners)
+        {
+            listeners.add(listener);
+        }
+    }
+
+    public void RemoveListener(Consumer<Theme> listener)
+    {
+        synchronized (listeners)
+        {
+            listeners.remove(listener);
+        }
+    }
+
+    private void Apply(Set<String> changedKeys)
+    {
+        //Copied so that components can be bound or unbound by the listeners without affecting the pass.
+        Map<Component, List<Binding>> components = new HashMap<>();
+        synchronized (boundComponents)
+        {
+            for (Map.Entry<Component, Map<String, Binding>> entry : boundComponents.entrySet())
+                components.put(entry.getKey(), new ArrayList<>(entry.getValue().values()));
+        }
+
+        for (Map.Entry<Component, List<Binding>> entry : components.entrySet())
+            for (Binding binding : entry.getValue())
+                if (changedKeys.contains(binding.key))
+                    binding.setter.accept(entry.getKey(), colours.get(binding.key));
+
+        List<Consumer<Theme>> currentListeners;
+        synchronized (listeners)
+        {
+            currentListeners = new ArrayList<>(listeners);
+        }
+        for (Consumer<Theme> listener : currentListeners)
+            listener.accept(this);
+    }
+}
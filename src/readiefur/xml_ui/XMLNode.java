@@ -0,0 +1,350 @@
+package readiefur.xml_ui;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.UserDataHandler;
+
+/**
+ * A lightweight, immutable XML element (or attribute) that the UI can be built from in place of a parsed DOM node.
+ * <br></br>
+ * Only the parts of the {@link Node} interface that the factory and child builders use are supported, which is enough
+ * to walk the element tree and read attributes. Text, comments and anything that would modify the tree are not supported.
+ * Because the nodes can't be modified, a single tree can be shared by every instance of a UI.
+ * <br></br>
+ * Trees are either converted from a parsed document with {@link #FromDOM(Node)} or built directly by classes generated by {@link XMLUIGenerator}.
+ */
+public class XMLNode implements Node
+{
+    /**
+     * The child or attribute nodes of an element.
+     */
+    private static class XMLNodeList implements NodeList, NamedNodeMap
+    {
+        private final XMLNode[] nodes;
+
+        public XMLNodeList(XMLNode[] nodes)
+        {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public XMLNode item(int index)
+        {
+            return index >= 0 && index < nodes.length ? nodes[index] : null;
+        }
+
+        @Override
+        public int getLength()
+        {
+            return nodes.length;
+        }
+
+        @Override
+        public XMLNode getNamedItem(String name)
+        {
+            for (XMLNode node : nodes)
+                if (node.name.equals(name))
+                    return node;
+            return null;
+        }
+
+        @Override
+        public Node getNamedItemNS(String namespaceURI, String localName) { return getNamedItem(localName); }
+
+        @Override
+        public Node setNamedItem(Node arg) { throw ReadOnlyException(); }
+
+        @Override
+        public Node removeNamedItem(String name) { throw ReadOnlyException(); }
+
+        @Override
+        public Node setNamedItemNS(Node arg) { throw ReadOnlyException(); }
+
+        @Override
+        public Node removeNamedItemNS(String namespaceURI, String localName) { throw ReadOnlyException(); }
+    }
+
+    private static final XMLNode[] EMPTY = new XMLNode[0];
+
+    private final short type;
+    private final String name;
+    private final String value;
+    private final XMLNodeList attributes;
+    private final XMLNodeList children;
+
+    /**
+     * Creates an element.
+     * @param attributes The names and values of the attributes, one after the other, i.e. {@code { "Name", "inputBox", "Grid.Column", "0" }}.
+     */
+    public XMLNode(String name, String[] attributes, XMLNode... children)
+    {
+        if (attributes.length % 2 != 0)
+            throw new IllegalArgumentException("Every attribute must have a name and a value.");
+
+        XMLNode[] attributeNodes = new XMLNode[attributes.length / 2];
+        for (int i = 0; i < attributeNodes.length; i++)
+            attributeNodes[i] = new XMLNode(attributes[i * 2], attributes[i * 2 + 1]);
+
+        this.type = ELEMENT_NODE;
+        this.name = name;
+        this.value = null;
+        this.attributes = new XMLNodeList(attributeNodes);
+        this.children = new XMLNodeList(children.clone());
+    }
+
+    /**
+     * Creates an attribute.
+     */
+    private XMLNode(String name, String value)
+    {
+        this.type = ATTRIBUTE_NODE;
+        this.name = name;
+        this.value = value;
+        this.attributes = null;
+        this.children = new XMLNodeList(EMPTY);
+    }
+
+    private XMLNode(String name, XMLNode[] attributes, XMLNode[] children)
+    {
+        this.type = ELEMENT_NODE;
+        this.name = name;
+        this.value = null;
+        this.attributes = new XMLNodeList(attributes);
+        this.children = new XMLNodeList(children);
+    }
+
+    /**
+     * Copies an element and the elements below it from a parsed document, anything that isn't an element or attribute is left out.
+     */
+    public static XMLNode FromDOM(Node element)
+    {
+        if (element.getNodeType() != ELEMENT_NODE)
+            throw new IllegalArgumentException("Only elements can be converted.");
+
+        NamedNodeMap elementAttributes = element.getAttributes();
+        XMLNode[] attributes = new XMLNode[elementAttributes.getLength()];
+        for (int i = 0; i < attributes.length; i++)
+            attributes[i] = new XMLNode(elementAttributes.item(i).getNodeName(), elementAttributes.item(i).getNodeValue());
+
+        return new XMLNode(
+            element.getNodeName(),
+            attributes,
+            Helpers.GetElementNodes(element).stream().map(XMLNode::FromDOM).toArray(XMLNode[]::new));
+    }
+
+    /**
+     * Returns a copy of the tree with every attribute value passed through the mapper, i.e. to substitute resources.
+     */
+    public XMLNode MapAttributeValues(UnaryOperator<String> mapper)
+    {
+        XMLNode[] mappedAttributes = new XMLNode[attributes.nodes.length];
+        for (int i = 0; i < mappedAttributes.length; i++)
+            mappedAttributes[i] = new XMLNode(attributes.nodes[i].name, mapper.apply(attributes.nodes[i].value));
+
+        XMLNode[] mappedChildren = new XMLNode[children.nodes.length];
+        for (int i = 0; i < mappedChildren.length; i++)
+            mappedChildren[i] = children.nodes[i].MapAttributeValues(mapper);
+
+        return new XMLNode(name, mappedAttributes, mappedChildren);
+    }
+
+    private static DOMException ReadOnlyException()
+    {
+        return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "XML nodes cannot be modified.");
+    }
+
+    private static DOMException NotSupportedException()
+    {
+        return new DOMException(DOMException.NOT_SUPPORTED_ERR, "This operation is not supported by XML nodes.");
+    }
+
+    //#region Supported
+    @Override
+    public String getNodeName()
+    {
+        return name;
+    }
+
+    @Override
+    public String getNodeValue()
+    {
+        return value;
+    }
+
+    @Override
+    public short getNodeType()
+    {
+        return type;
+    }
+
+    @Override
+    public NodeList getChildNodes()
+    {
+        return children;
+    }
+
+    @Override
+    public NamedNodeMap getAttributes()
+    {
+        return attributes;
+    }
+
+    @Override
+    public boolean hasChildNodes()
+    {
+        return children.nodes.length != 0;
+    }
+
+    @Override
+    public boolean hasAttributes()
+    {
+        return attributes != null && attributes.nodes.length != 0;
+    }
+
+    @Override
+    public Node getFirstChild()
+    {
+        return children.item(0);
+    }
+
+    @Override
+    public Node getLastChild()
+    {
+        return children.item(children.nodes.length - 1);
+    }
+
+    @Override
+    public String getLocalName()
+    {
+        return name;
+    }
+
+    @Override
+    public String getTextContent()
+    {
+        return type == ATTRIBUTE_NODE ? value : "";
+    }
+
+    @Override
+    public boolean isSameNode(Node other)
+    {
+        return this == other;
+    }
+
+    @Override
+    public boolean isEqualNode(Node other)
+    {
+        if (!(other instanceof XMLNode))
+            return false;
+
+        XMLNode otherNode = (XMLNode)other;
+        return type == otherNode.type
+            && name.equals(otherNode.name)
+            && (value == null ? otherNode.value == null : value.equals(otherNode.value))
+            && (attributes == null ? otherNode.attributes == null : NodesEqual(attributes.nodes, otherNode.attributes.nodes))
+            && NodesEqual(children.nodes, otherNode.children.nodes);
+    }
+
+    private static Boolean NodesEqual(XMLNode[] a, XMLNode[] b)
+    {
+        if (a.length != b.length)
+            return false;
+        for (int i = 0; i < a.length; i++)
+            if (!a[i].isEqualNode(b[i]))
+                return false;
+        return true;
+    }
+
+    @Override
+    public Node cloneNode(boolean deep)
+    {
+        //The nodes can't be modified so there is no need to copy them.
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return type == ATTRIBUTE_NODE
+            ? name + "=\"" + value + "\""
+            : "<" + name + " " + Arrays.toString(attributes.nodes) + ">";
+    }
+    //#endregion
+
+    //#region Not supported
+    @Override
+    public void setNodeValue(String nodeValue) { throw ReadOnlyException(); }
+
+    @Override
+    public Node getParentNode() { return null; }
+
+    @Override
+    public Node getPreviousSibling() { return null; }
+
+    @Override
+    public Node getNextSibling() { return null; }
+
+    @Override
+    public Document getOwnerDocument() { return null; }
+
+    @Override
+    public Node insertBefore(Node newChild, Node refChild) { throw ReadOnlyException(); }
+
+    @Override
+    public Node replaceChild(Node newChild, Node oldChild) { throw ReadOnlyException(); }
+
+    @Override
+    public Node removeChild(Node oldChild) { throw ReadOnlyException(); }
+
+    @Override
+    public Node appendChild(Node newChild) { throw ReadOnlyException(); }
+
+    @Override
+    public void normalize() {}
+
+    @Override
+    public boolean isSupported(String feature, String version) { return false; }
+
+    @Override
+    public String getNamespaceURI() { return null; }
+
+    @Override
+    public String getPrefix() { return null; }
+
+    @Override
+    public void setPrefix(String prefix) { throw ReadOnlyException(); }
+
+    @Override
+    public String getBaseURI() { return null; }
+
+    @Override
+    public short compareDocumentPosition(Node other) { throw NotSupportedException(); }
+
+    @Override
+    public void setTextContent(String textContent) { throw ReadOnlyException(); }
+
+    @Override
+    public String lookupPrefix(String namespaceURI) { return null; }
+
+    @Override
+    public boolean isDefaultNamespace(String namespaceURI) { return false; }
+
+    @Override
+    public String lookupNamespaceURI(String prefix) { return null; }
+
+    @Override
+    public Object getFeature(String feature, String version) { return null; }
+
+    @Override
+    public Object setUserData(String key, Object data, UserDataHandler handler) { throw NotSupportedException(); }
+
+    @Override
+    public Object getUserData(String key) { return null; }
+    //#endregion
+}
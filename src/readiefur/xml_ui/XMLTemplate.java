@@ -0,0 +1,355 @@
+package readiefur.xml_ui;
+
+import java.awt.Component;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import readiefur.console.Logger;
+import readiefur.misc.Pair;
+import readiefur.xml_ui.attributes.BindingAttribute;
+import readiefur.xml_ui.attributes.EventCallbackAttribute;
+import readiefur.xml_ui.attributes.NamedComponentAttribute;
+import readiefur.xml_ui.exceptions.InvalidXMLException;
+import readiefur.xml_ui.factory.UIBuilderFactory;
+import readiefur.xml_ui.interfaces.IGeneratedXML;
+
+/**
+ * The compiled form of an XMLUI class's XML file, which can be used to build any number of component trees.
+ * <br></br>
+ * Compiling reads and parses the XML file (or loads the class generated from it by {@link XMLUIGenerator}),
+ * collects the namespaces and resources, substitutes the resource references and finds the annotated members on the class.
+ * None of that changes between instances of the class, so templates are cached per class by {@link #Get(Class)} and each instance only has to build its components.
+ * <br></br>
+ * The template is not modified after it has been compiled.
+ */
+public class XMLTemplate
+{
+    /**
+     * Set this system property to {@code false} to always parse the XML files, even for classes that have an up to date generated class.
+     */
+    public static final String USE_GENERATED_PROPERTY = "readiefur.xml_ui.useGenerated";
+
+    private static final Map<Class<?>, XMLTemplate> cache = new ConcurrentHashMap<>();
+    private static final MethodType EVENT_CALLBACK_TYPE = MethodType.methodType(void.class, Object.class, Object[].class);
+
+    private final Class<?> contextClass;
+    //The XML file with the resources substituted, the nodes can't be modified so every instance is built from the same tree.
+    private final XMLNode rootNode;
+    private final Map<String, String> xmlNamespaces;
+    private final Map<String, String> resources;
+    private final List<Pair<Field, String>> bindingFields = new ArrayList<>();
+    private final List<Pair<String, MethodHandle>> eventCallbackMethods = new ArrayList<>();
+    private final List<Field> namedComponentFields = new ArrayList<>();
+
+    /**
+     * Returns the template for the specified class, compiling it the first time it is used.
+     * @param contextClass The class that the XML file belongs to, the file is loaded from {@code <class name>.xml} next to the class.
+     */
+    public static XMLTemplate Get(Class<?> contextClass) throws IOException, ParserConfigurationException, SAXException, InvalidXMLException
+    {
+        XMLTemplate template = cache.get(contextClass);
+        if (template != null)
+            return template;
+
+        //If two threads get here at the same time they will both compile the template, but only the first one is kept.
+        template = Compile(contextClass);
+        XMLTemplate existingTemplate = cache.putIfAbsent(contextClass, template);
+        return existingTemplate != null ? existingTemplate : template;
+    }
+
+    /**
+     * Compiles the template for the specified class without using or adding to the cache.
+     * <br></br>
+     * If {@link XMLUIGenerator} has generated a class for the XML file, and the XML file hasn't changed since, the tree is taken from that class.
+     * Otherwise the XML file is parsed.
+     * @see #Get(Class)
+     */
+    public static XMLTemplate Compile(Class<?> contextClass) throws IOException, ParserConfigurationException, SAXException, InvalidXMLException
+    {
+        byte[] xmlFile;
+        try (InputStream xmlFileStream = contextClass.getResourceAsStream(contextClass.getSimpleName() + ".xml"))
+        {
+            if (xmlFileStream == null)
+                throw new IOException("The XML file for '" + contextClass.getName() + "' could not be found.");
+            xmlFile = xmlFileStream.readAllBytes();
+        }
+
+        IGeneratedXML generatedXML = GetGeneratedXML(contextClass);
+        if (generatedXML != null && generatedXML.GetChecksum() == XMLUIGenerator.GetChecksum(xmlFile))
+            return new XMLTemplate(contextClass, generatedXML.GetRootNode());
+        if (generatedXML != null)
+            Logger.Warn("[XMLUI] The generated class for '" + contextClass.getSimpleName() + ".xml' is out of date, the XML file will be parsed instead.");
+
+        return new XMLTemplate(contextClass, Parse(new ByteArrayInputStream(xmlFile)));
+    }
+
+    /**
+     * Parses an XML file into a tree of {@link XMLNode}s.
+     */
+    public static XMLNode Parse(InputStream xmlFileStream) throws IOException, ParserConfigurationException, SAXException
+    {
+        //Setup the XML parser.
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newDefaultInstance();
+        DocumentBuilder builder = factory.newDocumentBuilder();
+
+        //Parse the XML file.
+        Document document = builder.parse(xmlFileStream);
+        return XMLNode.FromDOM(document.getDocumentElement());
+    }
+
+    /**
+     * Returns an instance of the class generated for the context class, or {@code null} if it doesn't have one.
+     */
+    private static IGeneratedXML GetGeneratedXML(Class<?> contextClass)
+    {
+        if (!Boolean.parseBoolean(System.getProperty(USE_GENERATED_PROPERTY, "true")))
+            return null;
+
+        //Generated classes are top level classes in the same package as the XML file, so nested context classes are supported too.
+        String generatedClassName = contextClass.getPackageName() + "." + contextClass.getSimpleName() + XMLUIGenerator.CLASS_SUFFIX;
+        Class<?> generatedClass;
+        try { generatedClass = Class.forName(generatedClassName, true, contextClass.getClassLoader()); }
+        catch (ClassNotFoundException ex) { return null; }
+
+        if (!IGeneratedXML.class.isAssignableFrom(generatedClass))
+            return null;
+
+        try { return (IGeneratedXML)generatedClass.getDeclaredConstructor().newInstance(); }
+        catch (ReflectiveOperationException ex)
+        {
+            Logger.Warn("[XMLUI] Failed to create the generated class '" + generatedClassName + "': " + ex);
+            return null;
+        }
+    }
+
+    private XMLTemplate(Class<?> contextClass, XMLNode xmlRootElement) throws IOException, InvalidXMLException
+    {
+        this.contextClass = contextClass;
+
+        if (!xmlRootElement.hasAttributes())
+            throw new IOException("The root element of the XML file does not have any attributes. (The root element must have a namespace defined).");
+
+        Map<String, String> xmlNamespaces = new HashMap<>();
+        Map<String, String> resources = new HashMap<>();
+
+        //#region Get the namespaces
+        for (int i = 0; i < xmlRootElement.getAttributes().getLength(); i++)
+        {
+            String attributeName = xmlRootElement.getAttributes().item(i).getNodeName();
+            if (attributeName.startsWith("xmlns"))
+            {
+                String namespaceName;
+                if (attributeName.startsWith("xmlns:"))
+                {
+                    namespaceName = attributeName.substring(6);
+                    if (namespaceName.isEmpty())
+                        throw new InvalidXMLException("A key'd namespace cannot be empty.");
+                }
+                else
+                {
+                    namespaceName = "";
+                }
+
+                String namespaceValue = xmlRootElement.getAttributes().item(i).getNodeValue();
+
+                if (xmlNamespaces.containsKey(namespaceName))
+                    throw new InvalidXMLException("The namespace '" + namespaceName + "' is defined more than once.");
+                xmlNamespaces.put(namespaceName, namespaceValue);
+            }
+        }
+        //#endregion
+
+        //#region Get the resources
+        for (Node node : Helpers.GetElementNodes(xmlRootElement))
+        {
+            if (!node.getNodeName().equals(xmlRootElement.getNodeName() + ".Resources"))
+                continue;
+
+            for (Node resourceNode : Helpers.GetElementNodes(node))
+            {
+                if (!resourceNode.getNodeName().equals("Resource"))
+                    throw new InvalidXMLException("The Resources group can only contain 'Resource' elements.");
+
+                if (!resourceNode.hasAttributes())
+                    throw new InvalidXMLException("The Resource element does not have any attributes.");
+
+                if (resourceNode.hasChildNodes())
+                    throw new InvalidXMLException("The Resource element cannot have any child nodes.");
+
+                Node resourceKey = resourceNode.getAttributes().getNamedItem("Key");
+                Node resourceValue = resourceNode.getAttributes().getNamedItem("Value");
+
+                if (resourceKey == null || resourceKey.getNodeValue() == null
+                    || resourceValue == null || resourceValue.getNodeValue() == null)
+                    throw new InvalidXMLException("The Resource element must have a 'Key' and 'Value' attribute.");
+
+                String resourceKeyString = resourceKey.getNodeValue();
+                String resourceValueString = resourceValue.getNodeValue();
+
+                if (resources.containsKey(resourceKeyString))
+                    throw new InvalidXMLException("The resource '" + resourceKeyString + "' is defined more than once.");
+                resources.put(resourceKeyString, resourceValueString);
+            }
+
+            break;
+        }
+        //#endregion
+
+        this.xmlNamespaces = Collections.unmodifiableMap(xmlNamespaces);
+        this.resources = Collections.unmodifiableMap(resources);
+
+        //Resources are constant so they can be substituted once here rather than every time the tree is built.
+        this.rootNode = xmlRootElement.MapAttributeValues(this::ReplaceResourceReference);
+
+        //#region Preprocess class fields
+        for (Field field : contextClass.getDeclaredFields())
+        {
+            //We won't need to check for duplicate attributes because by default only one is allowed per member.
+            //Attributes that can be repeated appear under their own @Repeatable annotation.
+            for (Annotation attribute : field.getAnnotations())
+            {
+                if (attribute instanceof BindingAttribute)
+                {
+                    //Make sure that the method constrains to the requirements of ({@see BindingAttribute}).
+                    if (field.getType() != Observable.class)
+                        throw new IllegalArgumentException(
+                            "Binding fields must be of type Observable<String>. (" + contextClass.getSimpleName() + "::" + field.getName() + ")");
+
+                    field.setAccessible(true);
+                    bindingFields.add(new Pair<>(field, ((BindingAttribute)attribute).DefaultValue()));
+                }
+                else if (attribute instanceof NamedComponentAttribute)
+                {
+                    if (!Component.class.isAssignableFrom(field.getType()))
+                        throw new IllegalArgumentException(
+                            "Named component fields must be of type Component. (" + contextClass.getSimpleName() + "::" + field.getName() + ")");
+
+                    field.setAccessible(true);
+                    namedComponentFields.add(field);
+                }
+            }
+        }
+        //#endregion
+
+        //#region Preprocess class methods
+        for (Method method : contextClass.getDeclaredMethods())
+        {
+            for (Annotation attribute : method.getAnnotations())
+            {
+                if (!(attribute instanceof EventCallbackAttribute))
+                    continue;
+
+                //Make sure that the method constrains to the requirements of ({@see EventCallbackAttribute}).
+                if (method.getParameterCount() != 1
+                    || method.getParameterTypes()[0] != Object[].class)
+                    throw new IllegalArgumentException(
+                        "Event callback methods must have exactly one parameter of type Object[]. (" + contextClass.getSimpleName() + "::" + method.getName() + ")");
+
+                method.setAccessible(true);
+                try
+                {
+                    MethodHandle handle = MethodHandles.lookup().unreflect(method).asType(EVENT_CALLBACK_TYPE);
+                    eventCallbackMethods.add(new Pair<>(method.getName(), handle));
+                }
+                catch (IllegalAccessException ex)
+                {
+                    //Shouldn't happen as the method has been made accessible.
+                    throw new IllegalArgumentException(ex);
+                }
+            }
+        }
+        //#endregion
+    }
+
+    private String ReplaceResourceReference(String value)
+    {
+        //A resource can refer to another resource, the limit stops resources that refer to each other from looping forever.
+        for (int i = 0; i <= resources.size(); i++)
+        {
+            if (!(value.startsWith("{Resource ") && value.endsWith("}")))
+                break;
+
+            String resourceName = value.substring(10, value.length() - 1);
+            if (!resources.containsKey(resourceName))
+                break;
+            value = resources.get(resourceName);
+        }
+        return value;
+    }
+
+    /**
+     * Builds a new component tree from the template.
+     * <br></br>
+     * The context's binding fields are given new {@link Observable}s, its event callbacks are hooked up
+     * and its named component fields are set to the components that were built.
+     * @param context The object the tree is being built for, must be an instance of the template's class.
+     * @param theme The theme that {@code {Theme key}} references are bound to.
+     * @return The root component and the named components.
+     */
+    public Pair<Component, Map<String, Component>> Instantiate(Object context, Theme theme) throws InvalidXMLException, IllegalAccessException
+    {
+        if (!contextClass.isInstance(context))
+            throw new IllegalArgumentException("The context must be an instance of '" + contextClass.getName() + "'.");
+
+        Map<String, Observable<String>> bindableMembers = new HashMap<>();
+        for (Pair<Field, String> bindingField : bindingFields)
+        {
+            //We must also construct them at this stage as in Java class members are initialized after the constructor is called (unlike C#).
+            Observable<String> observable = new Observable<>(bindingField.item2);
+            bindingField.item1.set(context, observable);
+            bindableMembers.put(bindingField.item1.getName(), observable);
+        }
+
+        Map<String, Consumer<Object[]>> eventCallbacks = new HashMap<>();
+        for (Pair<String, MethodHandle> eventCallbackMethod : eventCallbackMethods)
+        {
+            final MethodHandle handle = eventCallbackMethod.item2;
+            eventCallbacks.put(eventCallbackMethod.item1, args ->
+            {
+                try { handle.invokeExact(context, args); }
+                catch (RuntimeException | Error ex) { throw ex; }
+                catch (Throwable ex) { throw new RuntimeException(ex); }
+            });
+        }
+
+        UIBuilderFactory uiBuilderFactory = new UIBuilderFactory(
+            xmlNamespaces,
+            bindableMembers,
+            eventCallbacks,
+            theme);
+        uiBuilderFactory.SetDoRootComponentCheckForNextCall(false);
+        Component rootComponent = uiBuilderFactory.ParseXMLNode(rootNode);
+        Map<String, Component> namedComponents = uiBuilderFactory.GetNamedComponents();
+
+        for (Field field : namedComponentFields)
+        {
+            if (!namedComponents.containsKey(field.getName()))
+                throw new InvalidXMLException("The named component '" + field.getName() + "' is not defined in the XML document.");
+            field.set(context, namedComponents.get(field.getName()));
+        }
+
+        return new Pair<>(rootComponent, namedComponents);
+    }
+}
@@ -0,0 +1,182 @@
+package readiefur.xml_ui;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import readiefur.console.Logger;
+import readiefur.xml_ui.interfaces.IGeneratedXML;
+
+/**
+ * Converts the XML files of XMLUI classes into Java classes that build the same {@link XMLNode} tree,
+ * so that the XML parser doesn't need to be loaded or run when the application starts.
+ * <br></br>
+ * Only reading and parsing the XML is replaced, the components are still created from the tree by the {@link readiefur.xml_ui.factory.UIBuilderFactory}
+ * and the context class's annotated members are still found at runtime (both of which are cached per class by {@link XMLTemplate}).
+ * <br></br>
+ * Usage (after compiling, the output directory defaults to the source directory):
+ * <br></br>
+ * {@code java -cp bin readiefur.xml_ui.XMLUIGenerator src [output directory]}
+ * <br></br>
+ * For every {@code <Name>.xml} file next to a {@code <Name>.java} file, a {@code <Name>XML} class is written to the same package.
+ * {@link XMLTemplate} uses the generated class when there is one and falls back to parsing the XML file when there isn't,
+ * or when the XML file has been changed since the class was generated.
+ * The classes generated for the app's windows are committed next to their XML files, so they need to be regenerated whenever one of those files is changed,
+ * otherwise that window goes back to being parsed (with a warning) until they are.
+ */
+public class XMLUIGenerator
+{
+    public static final String CLASS_SUFFIX = "XML";
+
+    private XMLUIGenerator(){}
+
+    public static void main(String[] args) throws IOException, ParserConfigurationException, SAXException
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            Logger.Error("Usage: XMLUIGenerator <source directory> [output directory]");
+            System.exit(1);
+            return;
+        }
+
+        Path sourceDirectory = Paths.get(args[0]);
+        Path outputDirectory = args.length == 2 ? Paths.get(args[1]) : sourceDirectory;
+
+        List<Path> xmlFiles;
+        try (Stream<Path> files = Files.walk(sourceDirectory))
+        {
+            xmlFiles = files.filter(file -> file.toString().endsWith(".xml")).collect(Collectors.toList());
+        }
+
+        for (Path xmlFile : xmlFiles)
+        {
+            String name = xmlFile.getFileName().toString();
+            name = name.substring(0, name.length() - 4);
+
+            //Only XML files that belong to a class are UIs.
+            if (!Files.exists(xmlFile.resolveSibling(name + ".java")))
+                continue;
+
+            Path packageDirectory = sourceDirectory.relativize(xmlFile.getParent());
+            String packageName = packageDirectory.toString().replace(packageDirectory.getFileSystem().getSeparator(), ".");
+
+            Path outputFile = outputDirectory.resolve(packageDirectory).resolve(name + CLASS_SUFFIX + ".java");
+            Files.createDirectories(outputFile.getParent());
+            Files.write(outputFile, Generate(packageName, name, Files.readAllBytes(xmlFile)).getBytes(StandardCharsets.UTF_8));
+            Logger.Info("[XMLUI] Generated " + outputFile);
+        }
+    }
+
+    /**
+     * Returns the checksum stored in generated classes, used to tell if the XML file has changed since.
+     */
+    public static long GetChecksum(byte[] xmlFile)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(xmlFile);
+        return crc.getValue();
+    }
+
+    /**
+     * Generates the source of the class for an XML file.
+     * @param packageName The package the XML file is in, the class is generated in the same package.
+     * @param name The name of the XML file without the extension.
+     */
+    public static String Generate(String packageName, String name, byte[] xmlFile) throws IOException, ParserConfigurationException, SAXException
+    {
+        XMLNode rootNode = XMLTemplate.Parse(new ByteArrayInputStream(xmlFile));
+
+        StringBuilder source = new StringBuilder();
+        source.append("//Generated from ").append(name).append(".xml by ").append(XMLUIGenerator.class.getName()).append(", changes will be lost when it is regenerated.\n");
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+        source.append("import ").append(XMLNode.class.getName()).append(";\n");
+        source.append("import ").append(IGeneratedXML.class.getName()).append(";\n\n");
+        source.append("public final class ").append(name).append(CLASS_SUFFIX).append(" implements ").append(IGeneratedXML.class.getSimpleName()).append("\n");
+        source.append("{\n");
+        source.append("    @Override\n");
+        source.append("    public long GetChecksum()\n");
+        source.append("    {\n");
+        source.append("        return ").append(GetChecksum(xmlFile)).append("L;\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public XMLNode GetRootNode()\n");
+        source.append("    {\n");
+        source.append("        return ");
+        AppendNode(source, rootNode, 2);
+        source.append(";\n");
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static void AppendNode(StringBuilder source, Node node, int depth)
+    {
+        source.append("new XMLNode(").append(Quote(node.getNodeName())).append(", new String[] {");
+        NamedNodeMap attributes = node.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++)
+        {
+            source.append(i == 0 ? " " : ", ");
+            source.append(Quote(attributes.item(i).getNodeName())).append(", ").append(Quote(attributes.item(i).getNodeValue()));
+        }
+        source.append(attributes.getLength() == 0 ? "}" : " }");
+
+        for (Node child : Helpers.GetElementNodes(node))
+        {
+            source.append(",\n");
+            for (int i = 0; i <= depth; i++)
+                source.append("    ");
+            AppendNode(source, child, depth + 1);
+        }
+        source.append(")");
+    }
+
+    /**
+     * Returns the string as a Java string literal.
+     */
+    private static String Quote(String value)
+    {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : value.toCharArray())
+        {
+            switch (c)
+            {
+                case '"':
+                    literal.append("\\\"");
+                    break;
+                case '\\':
+                    literal.append("\\\\");
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                case '\t':
+                    literal.append("\\t");
+                    break;
+                default:
+                    //Anything else outside of printable ASCII is escaped so the file's encoding doesn't matter.
+                    if (c < 0x20 || c > 0x7E)
+                        literal.append(String.format("\\u%04X", (int)c));
+                    else
+                        literal.append(c);
+            }
+        }
+        return literal.append("\"").toString();
+    }
+}
@@ -64,24 +64,16 @@ public class Grid extends JPanel
 
         for (Node child : children)
         {
-            builder.ReplaceResourceReferences(child);
-
             if (child.getNodeName().equals("Grid.RowDefinitions"))
             {
                 //I would normally make these one liners without braces but in this instance I have kept some to improve readability.
                 for (Node rowDefinition : Helpers.GetElementNodes(child))
-                {
-                    builder.ReplaceResourceReferences(rowDefinition);
                     rowDefinitions.add(GetWeightValue(rowDefinition, "RowDefinition", "Height"));
-                }
             }
             else if (child.getNodeName().equals("Grid.ColumnDefinitions"))
             {
                 for (Node columnDefinition : Helpers.GetElementNodes(child))
-                {
-                    builder.ReplaceResourceReferences(columnDefinition);
                     columnDefinitions.add(GetWeightValue(columnDefinition, "ColumnDefinition", "Width"));
-                }
             }
             else
             {
@@ -57,8 +57,6 @@ public class StackPanel extends JPanel
         {
             final Node child = children.get(i);
 
-            builder.ReplaceResourceReferences(child);
-
             //Build constraints for the child.
             GridBagConstraints constraints = GetConstraintsForOrientation(orientation, i);
             Grid.SetMarginFromNode(constraints, child);
@@ -0,0 +1,492 @@
+package readiefur.xml_ui.controls;
+
+import java.awt.Color;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+
+/**
+ * A read-only, bottom aligned list of wrapped text rows, intended to be placed inside a {@link Scrollable}.
+ * <br></br>
+ * Unlike a {@link StackPanel} of {@link TextBlock}s, no component is created per row,
+ * the rows are kept in a {@link TranscriptModel} and only the rows inside the visible area are wrapped and drawn.
+ * The height of each row is measured once (and again only if the width changes) and kept as a running total,
+ * so finding the first visible row is a binary search no matter how many rows there are.
+ */
+public class Transcript extends JComponent implements javax.swing.Scrollable
+{
+    private static final int ROW_GAP = 2;
+    private static final int PADDING = 2;
+
+    private final Map<String, Color> styleColours = new HashMap<>();
+    private final AtomicBoolean updateQueued = new AtomicBoolean(false);
+    private Boolean historyUpdateQueued = false;
+    private final Consumer<TranscriptModel> modelListener = model -> QueueUpdate();
+    private TranscriptModel model = new TranscriptModel();
+
+    //Measurements, only accessed on the UI thread.
+    //The arrays only cover the rows that are in memory, the first of which is the model's row at measuredFirst.
+    private int measuredFirst = 0;
+    private int measuredCount = 0;
+    private int measuredWidth = -1;
+    private int lineHeight = 0;
+    //The width of each row when drawn on one line, or -1 if the row contains line breaks, so that a resize only re-wraps the long rows.
+    private int[] rowWidths = new int[64];
+    private int[] rowLines = new int[64];
+    //The bottom edge of each row, relative to the top of the first row.
+    private long[] rowBottoms = new long[64];
+
+    public Transcript()
+    {
+        super();
+        setOpaque(true);
+        setFont(UIManager.getFont("TextArea.font"));
+        model.AddListener(modelListener);
+    }
+
+    /**
+     * Changes the rows that are shown, i.e. when switching to a different chat.
+     */
+    public void SetModel(TranscriptModel model)
+    {
+        if (model == this.model)
+            return;
+
+        this.model.RemoveListener(modelListener);
+        //Any history that was loaded for the old model isn't needed anymore.
+        this.model.Trim();
+        this.model = model;
+        model.AddListener(modelListener);
+
+        measuredFirst = -1;
+        measuredCount = 0;
+        revalidate();
+        repaint();
+        ScrollToEnd();
+    }
+
+    public TranscriptModel GetModel()
+    {
+        return model;
+    }
+
+    /**
+     * Sets the colour used for rows with the specified style, rows with no style or an unknown style use the foreground colour.
+     */
+    public void SetStyleColour(String style, Color colour)
+    {
+        styleColours.put(style, colour);
+        repaint();
+    }
+
+    /**
+     * Scrolls to the last row once any pending updates have been made.
+     */
+    public void ScrollToEnd()
+    {
+        SwingUtilities.invokeLater(() -> ScrollTo(Long.MAX_VALUE));
+    }
+
+    @Override
+    public void setFont(Font font)
+    {
+        super.setFont(font);
+        //All of the measurements depend on the font.
+        measuredWidth = -1;
+        revalidate();
+        repaint();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void reshape(int x, int y, int width, int height)
+    {
+        //setBounds and setSize both end up here.
+        Boolean widthChanged = width != getWidth();
+        super.reshape(x, y, width, height);
+        //The rows wrap differently at the new width, so the height needs to be recalculated.
+        if (widthChanged)
+            revalidate();
+    }
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        if (isPreferredSizeSet())
+            return super.getPreferredSize();
+
+        Measure();
+        return new Dimension(PADDING * 2, (int)Math.min(Integer.MAX_VALUE, GetContentHeight()));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        Measure();
+
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+
+        if (isOpaque())
+        {
+            g.setColor(getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }
+
+        if (measuredCount == 0)
+            return;
+
+        //When there are not enough rows to fill the view, they sit at the bottom of it.
+        long offset = Math.max(0, getHeight() - GetContentHeight());
+        long top = clip.y - offset;
+        long bottom = top + clip.height;
+
+        FontMetrics metrics = g.getFontMetrics(getFont());
+        g.setFont(getFont());
+        int wrapWidth = GetWrapWidth();
+        List<String> lines = new ArrayList<>();
+
+        for (int i = GetRowAt(top); i < measuredCount; i++)
+        {
+            long rowTop = i == 0 ? 0 : rowBottoms[i - 1];
+            if (rowTop >= bottom)
+                break;
+
+            //The row may have been spilled since it was measured, the update for that will be along shortly.
+            TranscriptModel.Row row = model.Get(measuredFirst + i);
+            if (row == null)
+                continue;
+            String style = row.GetStyle();
+            Color colour = style != null ? styleColours.get(style) : null;
+            g.setColor(colour != null ? colour : getForeground());
+
+            lines.clear();
+            if (rowWidths[i] != -1 && rowWidths[i] <= wrapWidth)
+                lines.add(row.GetText());
+            else
+                Wrap(row.GetText(), metrics, wrapWidth, lines);
+
+            int baseline = (int)(rowTop + offset) + metrics.getAscent();
+            for (String line : lines)
+            {
+                g.drawString(line, PADDING, baseline);
+                baseline += lineHeight;
+            }
+        }
+
+        QueueHistoryUpdate();
+    }
+
+    //#region javax.swing.Scrollable
+    @Override
+    public Dimension getPreferredScrollableViewportSize()
+    {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction)
+    {
+        return Math.max(1, lineHeight);
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction)
+    {
+        return Math.max(1, visibleRect.height - lineHeight);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth()
+    {
+        //The rows wrap rather than scroll horizontally.
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight()
+    {
+        //Fill the view when the rows don't, so that they can be drawn at the bottom of it.
+        Container parent = getParent();
+        return parent instanceof JViewport && parent.getHeight() > getPreferredSize().height;
+    }
+    //#endregion
+
+    /**
+     * Called from any thread when the model changes, multiple changes before the UI thread gets to the update are handled together.
+     */
+    private void QueueUpdate()
+    {
+        if (updateQueued.getAndSet(true))
+            return;
+
+        SwingUtilities.invokeLater(() ->
+        {
+            updateQueued.set(false);
+
+            //Only follow new rows if the view was already at the bottom, otherwise the user is reading back through the history.
+            Rectangle visible = getVisibleRect();
+            Boolean atEnd = visible.y + visible.height >= getHeight() - lineHeight;
+
+            //Once back at the bottom any history that was loaded can be dropped again.
+            if (atEnd)
+                model.Trim();
+
+            int previousFirst = measuredFirst;
+            int previousCount = measuredCount;
+            long shift = Measure();
+            if (measuredFirst != previousFirst || measuredCount != previousCount)
+            {
+                revalidate();
+                if (atEnd)
+                    ScrollToEnd();
+                else if (shift != 0)
+                    KeepViewSteady(shift);
+            }
+            repaint();
+        });
+    }
+
+    /**
+     * Loads older rows once the view gets near the top of the rows in memory.
+     */
+    private void QueueHistoryUpdate()
+    {
+        Rectangle visible = getVisibleRect();
+        if (historyUpdateQueued || visible.y >= visible.height || model.GetFirstLoaded() == 0)
+            return;
+
+        historyUpdateQueued = true;
+        SwingUtilities.invokeLater(() ->
+        {
+            historyUpdateQueued = false;
+            //The model's listener will queue the update that lays out the loaded rows.
+            model.LoadOlder(TranscriptModel.PAGE_SIZE);
+        });
+    }
+
+    /**
+     * Moves the view by the height of the rows that were added or removed above it, so that the rows in view don't jump.
+     */
+    private void KeepViewSteady(long shift)
+    {
+        if (getParent() instanceof JViewport)
+            ScrollTo(((JViewport)getParent()).getViewPosition().y + shift);
+    }
+
+    /**
+     * Moves the top of the view to the specified position, or as close to it as the rows allow.
+     */
+    private void ScrollTo(long y)
+    {
+        if (!(getParent() instanceof JViewport))
+            return;
+        JViewport viewport = (JViewport)getParent();
+
+        //Resize now rather than waiting for the layout, as it may not have caught up with the new rows yet and the position would be limited to the old size.
+        setSize(viewport.getWidth(), Math.max(viewport.getHeight(), getPreferredSize().height));
+        viewport.setViewPosition(new Point(0, (int)Math.max(0, Math.min(getHeight() - viewport.getHeight(), y))));
+    }
+
+    /**
+     * Measures any rows that have been added since the last call, or all of the rows if the width or font has changed.
+     * @return The height of the rows that were added (or removed if negative) above the rows that had already been measured.
+     */
+    private long Measure()
+    {
+        Font font = getFont();
+        if (font == null)
+            return 0;
+
+        FontMetrics metrics = getFontMetrics(font);
+        int width = GetWrapWidth();
+        TranscriptModel currentModel = model;
+        int first = currentModel.GetFirstLoaded();
+        int end = currentModel.Size();
+        long shift = 0;
+
+        if (width != measuredWidth)
+        {
+            lineHeight = metrics.getHeight();
+            //The single line widths only depend on the font, so they only need to be recalculated if that was what changed.
+            if (measuredWidth == -1)
+                measuredCount = 0;
+            else
+                Layout(currentModel, metrics, width, 0, measuredCount);
+            measuredWidth = width;
+        }
+
+        int previousFirst = measuredFirst;
+        if (first > measuredFirst && first - measuredFirst <= measuredCount)
+        {
+            //Rows were spilled, which only needs the remaining rows to be moved up.
+            shift = -DropFront(first - measuredFirst);
+        }
+        else if (first != measuredFirst)
+        {
+            //Older rows were loaded (or the model was changed), so everything is measured again.
+            measuredFirst = first;
+            measuredCount = 0;
+        }
+
+        if (end - measuredFirst <= measuredCount)
+            return shift;
+
+        int count = end - measuredFirst;
+        if (count > rowBottoms.length)
+        {
+            int capacity = Math.max(count, rowBottoms.length * 2);
+            rowWidths = Arrays.copyOf(rowWidths, capacity);
+            rowLines = Arrays.copyOf(rowLines, capacity);
+            rowBottoms = Arrays.copyOf(rowBottoms, capacity);
+        }
+
+        for (int i = measuredCount; i < count; i++)
+        {
+            String text = GetText(currentModel, measuredFirst + i);
+            rowWidths[i] = text.indexOf('\n') == -1 ? metrics.stringWidth(text) : -1;
+        }
+        Layout(currentModel, metrics, width, measuredCount, count);
+        measuredCount = count;
+
+        //The previously first row is now further down by the height of the rows before it.
+        if (previousFirst > measuredFirst && previousFirst - measuredFirst <= measuredCount)
+            shift = rowBottoms[previousFirst - measuredFirst - 1];
+        return shift;
+    }
+
+    /**
+     * Forgets the measurements of the first rows.
+     * @return The height of the rows that were removed.
+     */
+    private long DropFront(int count)
+    {
+        if (count == 0)
+            return 0;
+
+        long removedHeight = rowBottoms[count - 1];
+        int remaining = measuredCount - count;
+        System.arraycopy(rowWidths, count, rowWidths, 0, remaining);
+        System.arraycopy(rowLines, count, rowLines, 0, remaining);
+        System.arraycopy(rowBottoms, count, rowBottoms, 0, remaining);
+        for (int i = 0; i < remaining; i++)
+            rowBottoms[i] -= removedHeight;
+
+        measuredFirst += count;
+        measuredCount = remaining;
+        return removedHeight;
+    }
+
+    private static String GetText(TranscriptModel currentModel, int index)
+    {
+        //The row may have been spilled by another thread since the model was checked, it will be dropped in the next update.
+        TranscriptModel.Row row = currentModel.Get(index);
+        return row != null ? row.GetText() : "";
+    }
+
+    /**
+     * Recalculates the line counts and bottom edges of the rows in the specified range, relative to the first row in memory.
+     */
+    private void Layout(TranscriptModel currentModel, FontMetrics metrics, int width, int from, int to)
+    {
+        long bottom = from == 0 ? 0 : rowBottoms[from - 1];
+        for (int i = from; i < to; i++)
+        {
+            if (rowWidths[i] != -1 && rowWidths[i] <= width)
+                rowLines[i] = 1;
+            else
+                rowLines[i] = Wrap(GetText(currentModel, measuredFirst + i), metrics, width, null);
+
+            bottom += (long)rowLines[i] * lineHeight + ROW_GAP;
+            rowBottoms[i] = bottom;
+        }
+    }
+
+    /**
+     * Breaks the text into lines that fit within the width, at spaces where possible.
+     * @param lines The list to add the lines to, or {@code null} to only count them.
+     * @return The number of lines.
+     */
+    private static int Wrap(String text, FontMetrics metrics, int width, List<String> lines)
+    {
+        int count = 0;
+        for (String paragraph : text.split("\n", -1))
+        {
+            int start = 0;
+            int length = paragraph.length();
+            do
+            {
+                //Take as many characters as will fit, always taking at least one so that a narrow view still makes progress.
+                int end = start;
+                int lineWidth = 0;
+                while (end < length)
+                {
+                    lineWidth += metrics.charWidth(paragraph.charAt(end));
+                    if (lineWidth > width && end > start)
+                        break;
+                    end++;
+                }
+
+                //Break at the last space if the line doesn't end the paragraph.
+                int next = end;
+                if (end < length)
+                {
+                    int space = paragraph.lastIndexOf(' ', end);
+                    if (space > start)
+                    {
+                        end = space;
+                        next = space + 1;
+                    }
+                }
+
+                if (lines != null)
+                    lines.add(paragraph.substring(start, end));
+                count++;
+                start = next;
+            }
+            while (start < length);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index of the row that contains the specified position.
+     */
+    private int GetRowAt(long y)
+    {
+        if (y <= 0)
+            return 0;
+        //The first row whose bottom edge is below the position.
+        int index = Arrays.binarySearch(rowBottoms, 0, measuredCount, y);
+        return index < 0 ? -index - 1 : index + 1;
+    }
+
+    private long GetContentHeight()
+    {
+        return measuredCount == 0 ? 0 : rowBottoms[measuredCount - 1];
+    }
+
+    private int GetWrapWidth()
+    {
+        //Before the first layout there is no width to wrap to, so every row is measured as a single line until there is.
+        int width = getWidth() - PADDING * 2;
+        return width > 0 ? width : Integer.MAX_VALUE;
+    }
+}
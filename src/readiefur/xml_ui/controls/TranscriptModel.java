@@ -0,0 +1,388 @@
+package readiefur.xml_ui.controls;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import readiefur.console.Logger;
+import readiefur.misc.IDisposable;
+
+/**
+ * The rows shown by a {@link Transcript}, rows can be appended and restyled but not removed.
+ * <br></br>
+ * The model is thread-safe so rows can be added from any thread, the transcript picks up the changes the next time it lays out or paints.
+ * <br></br>
+ * A model can be given a capacity and a spill file, in which case only the most recent rows are kept in memory
+ * and older rows are written to the file, from where they can be loaded back in with {@link #LoadOlder(int)} when they are needed again.
+ * Rows are written in pages and only the position of each page is kept in memory, so the memory used doesn't grow with the history.
+ */
+public class TranscriptModel implements IDisposable
+{
+    /**
+     * A single row of text.
+     */
+    public static class Row
+    {
+        private final String text;
+        private volatile String style;
+
+        public Row(String text, String style)
+        {
+            this.text = text;
+            this.style = style;
+        }
+
+        public String GetText()
+        {
+            return text;
+        }
+
+        /**
+         * Returns the name of the style used to colour the row, or {@code null} to use the transcript's foreground colour.
+         */
+        public String GetStyle()
+        {
+            return style;
+        }
+    }
+
+    public static final int PAGE_SIZE = 256;
+
+    private final int capacity;
+    private final Path spillPath;
+    private FileChannel spillFile = null;
+    //The rows that are in memory, starting from the row at firstLoaded.
+    private final List<Row> rows = new ArrayList<>();
+    private int firstLoaded = 0;
+    //Rows before this index are in the spill file.
+    private int spilledCount = 0;
+    //The position in the spill file of every PAGE_SIZE'th row.
+    private long[] pageOffsets = new long[16];
+    //The number of rows loaded by LoadOlder, which are kept in addition to the capacity until the model is trimmed.
+    private int loadedOlder = 0;
+    private Boolean isDisposed = false;
+    private final List<Consumer<TranscriptModel>> listeners = new ArrayList<>();
+
+    /**
+     * Creates a model that keeps every row in memory.
+     */
+    public TranscriptModel()
+    {
+        this(Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates a model that keeps a limited number of rows in memory.
+     * @param capacity The number of recent rows to keep in memory.
+     * @param spillPath The file that older rows are written to, it is replaced if it already exists and deleted when the model is disposed.
+     */
+    public TranscriptModel(int capacity, Path spillPath)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity must be at least one row.");
+        this.capacity = capacity;
+        this.spillPath = spillPath;
+    }
+
+    /**
+     * Adds a row to the end of the transcript.
+     * @param style The name of the style used to colour the row, or {@code null} to use the transcript's foreground colour.
+     * @return The index of the new row.
+     */
+    public int Add(String text, String style)
+    {
+        int index;
+        synchronized (rows)
+        {
+            rows.add(new Row(text, style));
+            index = firstLoaded + rows.size() - 1;
+
+            //Rows are spilled a page at a time rather than one by one so that the transcript doesn't need to adjust for every new row.
+            if (spillPath != null && rows.size() > capacity + loadedOlder + PAGE_SIZE)
+                Spill(rows.size() - capacity - loadedOlder);
+        }
+        NotifyListeners();
+        return index;
+    }
+
+    /**
+     * Changes the style of an existing row, i.e. when a sent message has been acknowledged.
+     * <br></br>
+     * Rows that have been spilled keep the style they had when they were written.
+     */
+    public void SetStyle(int index, String style)
+    {
+        Row row = Get(index);
+        if (row == null)
+            return;
+        row.style = style;
+        NotifyListeners();
+    }
+
+    /**
+     * Returns the specified row, or {@code null} if the row has been spilled and not loaded back in.
+     */
+    public Row Get(int index)
+    {
+        synchronized (rows)
+        {
+            if (index < firstLoaded && index >= 0)
+                return null;
+            return rows.get(index - firstLoaded);
+        }
+    }
+
+    /**
+     * Returns the specified row, reading it from the spill file if it isn't in memory.
+     * The row is not kept in memory, use {@link #LoadOlder(int)} to bring rows back in for display.
+     * @return The row, or {@code null} if it could not be read.
+     */
+    public Row Read(int index)
+    {
+        synchronized (rows)
+        {
+            if (index >= firstLoaded)
+                return rows.get(index - firstLoaded);
+            if (spillFile == null)
+                return null;
+
+            try
+            {
+                return ReadSpilled(index, index + 1).get(0);
+            }
+            catch (IOException ex)
+            {
+                Logger.Error("[TRANSCRIPT] Failed to read from the spill file: " + ex.getMessage());
+                return null;
+            }
+        }
+    }
+
+    public int Size()
+    {
+        synchronized (rows)
+        {
+            return firstLoaded + rows.size();
+        }
+    }
+
+    /**
+     * Returns the index of the oldest row that is in memory.
+     */
+    public int GetFirstLoaded()
+    {
+        synchronized (rows)
+        {
+            return firstLoaded;
+        }
+    }
+
+    /**
+     * Loads rows from before the oldest row in memory back in from the spill file.
+     * The rows stay in memory until {@link #Trim()} is called.
+     * @return The number of rows loaded.
+     */
+    public int LoadOlder(int count)
+    {
+        int loaded;
+        synchronized (rows)
+        {
+            if (firstLoaded == 0 || spillFile == null)
+                return 0;
+
+            int from = Math.max(0, firstLoaded - count);
+            List<Row> olderRows;
+            try
+            {
+                olderRows = ReadSpilled(from, firstLoaded);
+            }
+            catch (IOException ex)
+            {
+                Logger.Error("[TRANSCRIPT] Failed to read from the spill file: " + ex.getMessage());
+                return 0;
+            }
+
+            rows.addAll(0, olderRows);
+            firstLoaded = from;
+            loadedOlder += olderRows.size();
+            loaded = olderRows.size();
+        }
+        NotifyListeners();
+        return loaded;
+    }
+
+    /**
+     * Drops any rows loaded by {@link #LoadOlder(int)} from memory, i.e. once they have scrolled out of view.
+     */
+    public void Trim()
+    {
+        synchronized (rows)
+        {
+            if (loadedOlder == 0)
+                return;
+            loadedOlder = 0;
+            if (spillPath == null || rows.size() <= capacity)
+                return;
+            Spill(rows.size() - capacity);
+        }
+        NotifyListeners();
+    }
+
+    /**
+     * Adds a listener that is called (on the thread that made the change) whenever rows are added, restyled, spilled or loaded.
+     */
+    public void AddListener(Consumer<TranscriptModel> listener)
+    {
+        synchronized (listeners)
+        {
+            listeners.add(listener);
+        }
+    }
+
+    public void RemoveListener(Consumer<TranscriptModel> listener)
+    {
+        synchronized (listeners)
+        {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Closes and deletes the spill file, the rows that were in it are lost.
+     */
+    @Override
+    public void Dispose()
+    {
+        synchronized (rows)
+        {
+            if (isDisposed)
+                return;
+            isDisposed = true;
+
+            if (spillFile == null)
+                return;
+
+            try
+            {
+                spillFile.close();
+                Files.deleteIfExists(spillPath);
+            }
+            catch (IOException ex)
+            {
+                Logger.Warn("[TRANSCRIPT] Failed to delete the spill file: " + ex.getMessage());
+            }
+            spillFile = null;
+        }
+    }
+
+    private void NotifyListeners()
+    {
+        List<Consumer<TranscriptModel>> currentListeners;
+        synchronized (listeners)
+        {
+            currentListeners = new ArrayList<>(listeners);
+        }
+        for (Consumer<TranscriptModel> listener : currentListeners)
+            listener.accept(this);
+    }
+
+    /**
+     * Removes the oldest rows in memory, writing any that aren't already in the spill file to it.
+     * Must be called while holding the rows lock.
+     */
+    private void Spill(int count)
+    {
+        if (isDisposed)
+            return;
+
+        try
+        {
+            if (spillFile == null)
+                spillFile = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            //Rows that were loaded back in are still in the file, so only the rows after them need writing.
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(buffer);
+            long fileEnd = spillFile.size();
+            for (int i = spilledCount; i < firstLoaded + count; i++)
+            {
+                if (i % PAGE_SIZE == 0)
+                {
+                    if (i / PAGE_SIZE == pageOffsets.length)
+                        pageOffsets = Arrays.copyOf(pageOffsets, pageOffsets.length * 2);
+                    pageOffsets[i / PAGE_SIZE] = fileEnd + output.size();
+                }
+
+                Row row = rows.get(i - firstLoaded);
+                byte[] text = row.text.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(text.length);
+                output.write(text);
+                output.writeBoolean(row.style != null);
+                if (row.style != null)
+                    output.writeUTF(row.style);
+            }
+
+            ByteBuffer data = ByteBuffer.wrap(buffer.toByteArray());
+            while (data.hasRemaining())
+                spillFile.write(data, fileEnd + data.position());
+        }
+        catch (IOException ex)
+        {
+            //Keep the rows in memory rather than lose them.
+            Logger.Error("[TRANSCRIPT] Failed to write to the spill file: " + ex.getMessage());
+            return;
+        }
+
+        spilledCount = Math.max(spilledCount, firstLoaded + count);
+        rows.subList(0, count).clear();
+        firstLoaded += count;
+    }
+
+    /**
+     * Reads the rows in the specified range from the spill file.
+     * Must be called while holding the rows lock.
+     */
+    private List<Row> ReadSpilled(int from, int to) throws IOException
+    {
+        //Read from the start of the page that the first row is in to the end of the page that the last row is in.
+        int firstPage = from / PAGE_SIZE;
+        int endPage = (to - 1) / PAGE_SIZE + 1;
+        long start = pageOffsets[firstPage];
+        long end = endPage * PAGE_SIZE < spilledCount ? pageOffsets[endPage] : spillFile.size();
+
+        ByteBuffer data = ByteBuffer.allocate((int)(end - start));
+        while (data.hasRemaining())
+            if (spillFile.read(data, start + data.position()) < 0)
+                throw new IOException("The spill file is shorter than expected.");
+        data.flip();
+
+        List<Row> olderRows = new ArrayList<>(to - from);
+        for (int i = firstPage * PAGE_SIZE; i < to; i++)
+        {
+            byte[] text = new byte[data.getInt()];
+            data.get(text);
+            String style = null;
+            if (data.get() != 0)
+            {
+                byte[] styleBytes = new byte[data.getShort() & 0xFFFF];
+                data.get(styleBytes);
+                //Styles are plain names, so the modified UTF-8 written by writeUTF is the same as standard UTF-8.
+                style = new String(styleBytes, StandardCharsets.UTF_8);
+            }
+
+            if (i >= from)
+                olderRows.add(new Row(new String(text, StandardCharsets.UTF_8), style));
+        }
+        return olderRows;
+    }
+}
@@ -2,6 +2,9 @@ package readiefur.xml_ui.factory;
 
 import java.awt.Component;
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -10,6 +13,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 import org.w3c.dom.Node;
@@ -19,28 +23,44 @@ import readiefur.xml_ui.attributes.EventAttribute;
 import readiefur.xml_ui.attributes.SetterAttribute;
 import readiefur.xml_ui.exceptions.InvalidXMLException;
 
+/**
+ * The setters, events, child builder and constructor of a component class, found once and then reused by every factory.
+ * <br></br>
+ * The members are stored as {@link MethodHandle}s rather than reflected methods,
+ * so calling them doesn't repeat the access checks and argument boxing that {@link Method#invoke(Object, Object...)} does.
+ */
 public class FactoryComponentWrapper
 {
-    private static Object InvokeMethod(Component instance, Method method, Object... args)
+    private static final Map<Class<?>, FactoryComponentWrapper> cache = new ConcurrentHashMap<>();
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Component.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Component.class, String.class);
+    private static final MethodType EVENT_TYPE = MethodType.methodType(void.class, Component.class, Consumer.class);
+    private static final MethodType CHILD_BUILDER_TYPE = MethodType.methodType(void.class, Component.class, UIBuilderFactory.class, List.class);
+
+    /**
+     * Returns the wrapper for the specified class, creating it the first time the class is used.
+     * Wrappers are never modified after they are created so they are shared between all factories and threads.
+     */
+    public static FactoryComponentWrapper Get(Class<?> cls)
     {
-        try
-        {
-            if (args.length == 0)
-                return method.invoke(instance);
-            else
-                return method.invoke(instance, args);
-        }
-        catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex)
+        return cache.computeIfAbsent(cls, FactoryComponentWrapper::new);
+    }
+
+    private static MethodHandle Unreflect(Method method, MethodType type)
+    {
+        try { return lookup.unreflect(method).asType(type); }
+        catch (IllegalAccessException ex)
         {
-            //Shouldn't happen but I'm including a throw here to make the compiler happy.
+            //Shouldn't happen as the method has been made accessible.
             throw new UnsupportedOperationException(ex);
         }
     }
 
-    private Constructor<?> constructorMethod; //Must be defined.
-    private Map<String, Method> setterMethods = new HashMap<>();
-    private Map<String, Method> eventMethods = new HashMap<>();
-    private Method childBuilderMethod = null; //Optional.
+    private MethodHandle constructorMethod; //Must be defined.
+    private final Map<String, MethodHandle> setterMethods = new HashMap<>();
+    private final Map<String, MethodHandle> eventMethods = new HashMap<>();
+    private MethodHandle childBuilderMethod = null; //Optional.
 
     public FactoryComponentWrapper(Class<?> cls)
     {
@@ -56,7 +76,8 @@ public class FactoryComponentWrapper
 
             //Set the constructor method.
             constructor.setAccessible(true);
-            constructorMethod = constructor;
+            try { constructorMethod = lookup.unreflectConstructor(constructor).asType(CONSTRUCTOR_TYPE); }
+            catch (IllegalAccessException ex) { throw new UnsupportedOperationException(ex); }
         }
         if (constructorMethod == null)
             throw new UnsupportedOperationException("The class '" + cls.getName() + "' does not have a parameterless constructor.");
@@ -82,7 +103,7 @@ public class FactoryComponentWrapper
 
                     //Add the method to the map.
                     method.setAccessible(true);
-                    setterMethods.put(((SetterAttribute)annotation).value(), method);
+                    setterMethods.put(((SetterAttribute)annotation).value(), Unreflect(method, SETTER_TYPE));
                 }
                 else if (annotation instanceof EventAttribute)
                 {
@@ -102,7 +123,7 @@ public class FactoryComponentWrapper
 
                     //Add the method to the map.
                     method.setAccessible(true);
-                    eventMethods.put(((EventAttribute)annotation).value(), method);
+                    eventMethods.put(((EventAttribute)annotation).value(), Unreflect(method, EVENT_TYPE));
                 }
                 else if (annotation instanceof ChildBuilderAttribute)
                 {
@@ -122,7 +143,7 @@ public class FactoryComponentWrapper
                         throw new IllegalArgumentException(exceptionPrefix + "must take a List<Node> as it's second parameter.");
 
                     method.setAccessible(true);
-                    childBuilderMethod = method;
+                    childBuilderMethod = Unreflect(method, CHILD_BUILDER_TYPE);
                 }
             }
         }
@@ -133,7 +154,10 @@ public class FactoryComponentWrapper
 
     public Component CreateComponent() throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException
     {
-        return (Component)constructorMethod.newInstance();
+        try { return (Component)constructorMethod.invokeExact(); }
+        catch (Error ex) { throw ex; }
+        //Wrapped in the same way as Constructor.newInstance would.
+        catch (Throwable ex) { throw new InvocationTargetException(ex); }
     }
 
     public Set<String> GetSetterNames()
@@ -148,19 +172,25 @@ public class FactoryComponentWrapper
 
     public Boolean TrySetAttribute(Component component, String name, String value)
     {
-        if (!setterMethods.containsKey(name))
+        MethodHandle setterMethod = setterMethods.get(name);
+        if (setterMethod == null)
             return false;
 
-        InvokeMethod(component, setterMethods.get(name), value);
+        try { setterMethod.invokeExact(component, value); }
+        catch (RuntimeException | Error ex) { throw ex; }
+        catch (Throwable ex) { throw new UnsupportedOperationException(ex); }
         return true;
     }
 
     public Boolean TryBindEvent(Component component, String name, Consumer<Object[]> callback)
     {
-        if (!eventMethods.containsKey(name))
+        MethodHandle eventMethod = eventMethods.get(name);
+        if (eventMethod == null)
             return false;
 
-        InvokeMethod(component, eventMethods.get(name), callback);
+        try { eventMethod.invokeExact(component, (Consumer)callback); }
+        catch (RuntimeException | Error ex) { throw ex; }
+        catch (Throwable ex) { throw new UnsupportedOperationException(ex); }
         return true;
     }
 
@@ -169,6 +199,8 @@ public class FactoryComponentWrapper
         if (!childNodes.isEmpty() && childBuilderMethod == null)
             throw new InvalidXMLException("The component '" + parent.getClass().getName() + "' cannot have any children.");
 
-        InvokeMethod(parent, childBuilderMethod, factory, childNodes);
+        try { childBuilderMethod.invokeExact(parent, factory, (List)childNodes); }
+        catch (InvalidXMLException | RuntimeException | Error ex) { throw ex; }
+        catch (Throwable ex) { throw new UnsupportedOperationException(ex); }
     }
 }
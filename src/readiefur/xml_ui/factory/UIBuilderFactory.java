@@ -17,6 +17,7 @@ import org.w3c.dom.Node;
 
 import readiefur.xml_ui.Helpers;
 import readiefur.xml_ui.Observable;
+import readiefur.xml_ui.Theme;
 import readiefur.xml_ui.exceptions.InvalidXMLException;
 import readiefur.xml_ui.interfaces.IRootComponent;
 
@@ -32,10 +33,6 @@ public class UIBuilderFactory
      * Value: Java package name.
      */
     private final Map<String, String> xmlNamespaces;
-    /**
-     * A map of XML resources and their constant values.
-     */
-    private final Map<String, String> resources;
     /**
      * A map of XML binding names to their corresponding {@link Observable} values.
      * Key: XML property name.
@@ -49,10 +46,9 @@ public class UIBuilderFactory
      */
     private final Map<String, Consumer<Object[]>> eventCallbacks;
     /**
-     * Key: {@link Class}.
-     * Value: {@link FactoryComponentWrapper}.
+     * The theme that {@code {Theme key}} colour references are bound to.
      */
-    private final Map<Class<?>, FactoryComponentWrapper> xmlComponentWrappers = new HashMap<>();
+    private final Theme theme;
     /**
      * Used primarily for the first iteration of the recursive method to make sure that root components cannot be used as children.
      * By default, this is set to true.
@@ -66,31 +62,17 @@ public class UIBuilderFactory
     public UIBuilderFactory(
         //Leave these up to the caller to provide.
         Map<String, String> xmlNamespaces,
-        Map<String, String> resources,
         Map<String, Observable<String>> bindableMembers,
-        Map<String, Consumer<Object[]>> eventCallbacks)
+        Map<String, Consumer<Object[]>> eventCallbacks,
+        Theme theme)
     {
         this.xmlNamespaces = xmlNamespaces;
-        this.resources = resources;
         this.bindableMembers = bindableMembers;
         this.eventCallbacks = eventCallbacks;
+        this.theme = theme;
         this.namedComponents = new HashMap<>();
     }
 
-    /*The reason behind having a wrapper class for these properties is that it would be more efficient than querying the class
-     * every time it is needed, but it would be a waste of memory to keep the data throughout the entire lifetime of the program,
-     * hence the data is instanced per-factory.
-     */
-    private FactoryComponentWrapper GetXMLComponentWrapperForClass(Class<?> cls)
-    {
-        if (xmlComponentWrappers.containsKey(cls))
-            return xmlComponentWrappers.get(cls);
-
-        FactoryComponentWrapper componentWrapper = new FactoryComponentWrapper(cls);
-        xmlComponentWrappers.put(cls, componentWrapper);
-        return componentWrapper;
-    }
-
     public void SetDoRootComponentCheckForNextCall(Boolean doRootComponentCheck)
     {
         this.doRootComponentCheck = doRootComponentCheck;
@@ -123,15 +105,15 @@ public class UIBuilderFactory
             doRootComponentCheck = true;
         }
 
-        final FactoryComponentWrapper componentWrapper = GetXMLComponentWrapperForClass(cls);
+        //The wrappers are shared by every factory, so after the first window is built no more reflection is needed to find the members.
+        final FactoryComponentWrapper componentWrapper = FactoryComponentWrapper.Get(cls);
 
         Component component;
         try { component = componentWrapper.CreateComponent(); }
         catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex)
         { throw new InvalidXMLException("Failed to create component '" + cls.getName() + "'.", ex); }
 
-        //Parse the attributes.
-        ReplaceResourceReferences(xmlNode);
+        //Parse the attributes, resource references have already been substituted when the template was compiled.
         if (xmlNode.hasAttributes())
         {
             Set<String> setterNames = componentWrapper.GetSetterNames();
@@ -158,8 +140,13 @@ public class UIBuilderFactory
                 //#region Else if setter is available:
                 if (setterNames.contains(attributeName))
                 {
-                    SetOrBindProperty(attributeValue,
-                        newValue -> componentWrapper.TrySetAttribute(component, attributeName, newValue));
+                    String themeKey = GetThemeKey(attributeValue);
+                    if (themeKey != null)
+                        theme.Bind(component, attributeName, themeKey,
+                            (themedComponent, colour) -> componentWrapper.TrySetAttribute(themedComponent, attributeName, String.format("#%06X", colour.getRGB() & 0xFFFFFF)));
+                    else
+                        SetOrBindProperty(attributeValue,
+                            newValue -> componentWrapper.TrySetAttribute(component, attributeName, newValue));
                 }
                 //#endregion
                 //#region Else if event is available:
@@ -187,16 +174,25 @@ public class UIBuilderFactory
                 }
                 else if (attributeName.equals("Foreground"))
                 {
-                    SetOrBindProperty(attributeValue,
-                        newValue -> component.setForeground(Color.decode(newValue)));
+                    //Theme colours are registered with the theme rather than each component adding a listener.
+                    String themeKey = GetThemeKey(attributeValue);
+                    if (themeKey != null)
+                        theme.BindForeground(component, themeKey);
+                    else
+                        SetOrBindProperty(attributeValue,
+                            newValue -> component.setForeground(Color.decode(newValue)));
                 }
                 else if (attributeName.equals("Background"))
                 {
                     if (component instanceof JComponent)
                         ((JComponent)component).setOpaque(true);
 
-                    SetOrBindProperty(attributeValue,
-                        newValue -> component.setBackground(Color.decode(newValue)));
+                    String themeKey = GetThemeKey(attributeValue);
+                    if (themeKey != null)
+                        theme.BindBackground(component, themeKey);
+                    else
+                        SetOrBindProperty(attributeValue,
+                            newValue -> component.setBackground(Color.decode(newValue)));
                 }
                 else if (attributeName.equals("Weight"))
                 {
@@ -248,6 +244,19 @@ public class UIBuilderFactory
         return component;
     }
 
+    /**
+     * Returns the key of a {@code {Theme key}} reference, or {@code null} if the value isn't one.
+     */
+    private String GetThemeKey(String value) throws InvalidXMLException
+    {
+        if (!(value.startsWith("{Theme ") && value.endsWith("}")))
+            return null;
+
+        if (theme == null)
+            throw new InvalidXMLException("The XML theme reference '" + value + "' cannot be used without a theme.");
+        return value.substring(7, value.length() - 1);
+    }
+
     private void SetOrBindProperty(String value, Consumer<String> setter) throws InvalidXMLException
     {
         //Check if we should bind to a value or just set the value.
@@ -267,30 +276,4 @@ public class UIBuilderFactory
             setter.accept(value);
         }
     }
-
-    /**
-     * Replaces all resource references in the XML node and all of it's children.
-     * @param xmlNode The XML node to replace the resource references in.
-     */
-    //I ideally wouldn't want to do this as it would mean looping over properties twice but I need it for child preprocessing.
-    //This method is also "destructive" in that it changes the XML node's attributes which I don't like but it's also not a problem.
-    public void ReplaceResourceReferences(Node xmlNode)
-    {
-        if (!xmlNode.hasAttributes())
-            return;
-
-        for (int i = 0; i < xmlNode.getAttributes().getLength(); i++)
-        {
-            Node attribute = xmlNode.getAttributes().item(i);
-            String attributeValue = attribute.getNodeValue();
-
-            //If the attribute is a resource, replace it with the resource value.
-            if (!(attributeValue.startsWith("{Resource ") && attributeValue.endsWith("}")))
-                continue;
-
-            String resourceName = attributeValue.substring(10, attributeValue.length() - 1);
-            if (resources.containsKey(resourceName))
-                attribute.setNodeValue(resources.get(resourceName));
-        }
-    }
 }
@@ -0,0 +1,20 @@
+package readiefur.xml_ui.interfaces;
+
+import readiefur.xml_ui.XMLNode;
+
+/**
+ * Implemented by the classes that {@link readiefur.xml_ui.XMLUIGenerator} generates from XML files,
+ * so that the UI can be built without parsing the XML file at runtime.
+ */
+public interface IGeneratedXML
+{
+    /**
+     * Returns the root element of the XML file the class was generated from.
+     */
+    XMLNode GetRootNode();
+
+    /**
+     * Returns the checksum of the XML file the class was generated from, used to tell if the class is out of date.
+     */
+    long GetChecksum();
+}
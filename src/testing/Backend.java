@@ -1,25 +1,68 @@
 package testing;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import org.junit.Test;
 import org.junit.Assert;
 
+import chat_app.backend.Ack;
 import chat_app.backend.ChatManager;
+import chat_app.backend.ERateLimitAction;
+import chat_app.backend.Federation;
+import chat_app.backend.FileTransferManager;
+import chat_app.backend.HashRing;
+import chat_app.backend.HostAnnouncer;
+import chat_app.backend.HostBeacon;
+import chat_app.backend.HostDiscovery;
+import chat_app.backend.MessageIndex;
+import chat_app.backend.MessageOrderer;
 import chat_app.backend.Peer;
 import chat_app.backend.PingPong;
+import chat_app.backend.RateLimiter;
+import chat_app.backend.net_data.CompressionDictionary;
+import chat_app.backend.net_data.EType;
+import chat_app.backend.net_data.EmptyPayload;
 import chat_app.backend.net_data.MessagePayload;
+import chat_app.backend.net_data.NetMessage;
 import readiefur.console.ELogLevel;
 import readiefur.console.Logger;
 import readiefur.misc.ManualResetEvent;
 import readiefur.misc.Pair;
+import readiefur.sockets.ASocket;
+import readiefur.sockets.AdmissionOptions;
 import readiefur.sockets.Client;
+import readiefur.sockets.CompressionOptions;
+import readiefur.sockets.CompressionStats;
+import readiefur.sockets.InMemoryTransport;
 import readiefur.sockets.ServerManager;
 
+//Tests that don't depend on the transport run over an InMemoryTransport, real sockets are only used where the socket behaviour is being tested.
 public class Backend
 {
     public static final String ADDRESS = "127.0.0.1";
@@ -61,9 +104,11 @@ public class Backend
     @Test
     public void SingleClientTest()
     {
+        InMemoryTransport transport = new InMemoryTransport();
+
         //Create two instances of the ChatManager class.
-        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME);
-        ChatManager client = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME);
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager client = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
 
         //Configure each chat manager, one to be a host and the other as a client.
         InstanceChatManagerAs(server, true);
@@ -77,10 +122,12 @@ public class Backend
     @Test
     public void HostMigrationTest()
     {
+        InMemoryTransport transport = new InMemoryTransport();
+
         //Create three instances of the ChatManager class.
-        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME);
-        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME);
-        ChatManager client2 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME);
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+        ChatManager client2 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
 
         //Configure each chat manager, one to be a host and the others as clients.
         InstanceChatManagerAs(server, true);
@@ -141,10 +188,12 @@ public class Backend
     @Test
     public void BroadcastMessageTest()
     {
+        InMemoryTransport transport = new InMemoryTransport();
+
         //Create three instances of the ChatManager class.
-        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME);
-        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME);
-        ChatManager client2 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME);
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+        ChatManager client2 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
 
         //Configure each chat manager, one to be a host and the others as clients.
         InstanceChatManagerAs(server, true);
@@ -195,10 +244,12 @@ public class Backend
     @Test
     public void PrivateMessageTest()
     {
+        InMemoryTransport transport = new InMemoryTransport();
+
         //Create three instances of the ChatManager class.
-        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME);
-        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME);
-        ChatManager client2 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME);
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+        ChatManager client2 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
 
         //Configure each chat manager, one to be a host and the others as clients.
         InstanceChatManagerAs(server, true);
@@ -243,21 +294,1276 @@ public class Backend
     }
 
     @Test
-    public void TimeoutTest()
+    public void GroupMessageTest()
+    {
+        InMemoryTransport transport = new InMemoryTransport();
+
+        //Create four instances of the ChatManager class.
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+        ChatManager client2 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+        ChatManager client3 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+
+        //Configure each chat manager, one to be a host and the others as clients.
+        InstanceChatManagerAs(server, true);
+        InstanceChatManagerAs(client1, false);
+        InstanceChatManagerAs(client2, false);
+        InstanceChatManagerAs(client3, false);
+
+        final String message = "This is a group message!";
+
+        //Configure an event callback to be used by the group members.
+        Consumer<Pair<ManualResetEvent, MessagePayload>> messageEvent = pair ->
+        {
+            //The sender should be client1 and the message should be flagged as a group message.
+            if (pair.item2.GetSender().equals(client1.GetID())
+                && pair.item2.IsGroupMessage()
+                && pair.item2.GetMessage().equals(message))
+                pair.item1.Set();
+        };
+        ManualResetEvent serverReceived = new ManualResetEvent(false);
+        ManualResetEvent client2Received = new ManualResetEvent(false);
+        ManualResetEvent client3Received = new ManualResetEvent(false);
+        server.onMessageReceived.Add(payload -> messageEvent.accept(new Pair<>(serverReceived, payload)));
+        client2.onMessageReceived.Add(payload -> messageEvent.accept(new Pair<>(client2Received, payload)));
+        client3.onMessageReceived.Add(payload -> messageEvent.accept(new Pair<>(client3Received, payload)));
+
+        //Have client 1 send a single message to the server and client 2, this should be acknowledged once by the server.
+        if (!client1.SendMessageSync(new UUID[] { server.GetID(), client2.GetID() }, message))
+            Assert.fail("The group message was not acknowledged by the server.");
+
+        try
+        {
+            //Wait for the group members to receive the message.
+            serverReceived.WaitOne(LONG_TIMEOUT);
+            client2Received.WaitOne(LONG_TIMEOUT);
+        }
+        catch (TimeoutException ex)
+        {
+            Assert.fail("One of the group members did not receive the message in time.");
+        }
+
+        //Make sure that client3 didn't receive the message as it was not part of the group.
+        if (client3Received.IsSet())
+            Assert.fail("A peer received a group message that was not intended for it.");
+
+        //Allow one message per room, then use up client2's with a private message so that only client3 can receive the next group message.
+        server.SetRateLimiter(new RateLimiter(1000, 1000, 0.001, 1, ERateLimitAction.DROP));
+        if (!client1.SendMessageSync(client2.GetID(), message))
+            Assert.fail("The private message was not acknowledged by the server.");
+        if (client1.SendMessageSync(new UUID[] { client2.GetID(), client3.GetID() }, message))
+            Assert.fail("A group message that was only partly delivered was acknowledged by the server.");
+
+        //Dispose of the instances (cleanup).
+        client3.Dispose();
+        client2.Dispose();
+        client1.Dispose();
+        server.Dispose();
+    }
+
+    @Test
+    public void AsyncMessageTest()
+    {
+        InMemoryTransport transport = new InMemoryTransport();
+
+        //Create two instances of the ChatManager class.
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+
+        //Configure each chat manager, one to be a host and the other as a client.
+        InstanceChatManagerAs(server, true);
+        InstanceChatManagerAs(client1, false);
+
+        //Queue up a batch of messages without waiting for each one to be acknowledged.
+        final int messageCount = 100;
+        List<CompletableFuture<Ack>> acks = new ArrayList<>();
+        for (int i = 0; i < messageCount; i++)
+            acks.add(client1.SendMessageAsync(ServerManager.INVALID_UUID, "Message " + i));
+
+        //Every message should be acknowledged while many are in flight at once.
+        try { CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(LONG_TIMEOUT, TimeUnit.MILLISECONDS); }
+        catch (Exception ex) { Assert.fail("Not all of the asynchronous messages were acknowledged in time."); }
+
+        //Dispose of the instances (cleanup).
+        client1.Dispose();
+        server.Dispose();
+    }
+
+    @Test
+    public void MessageOrderTest()
+    {
+        //Collect the order that the messages are delivered in.
+        List<Long> delivered = new ArrayList<>();
+        MessageOrderer orderer = new MessageOrderer(payload -> delivered.add(payload.GetSequenceNumber()));
+
+        //Create a sequence of messages from a single sender and receive them out of order.
+        UUID sender = UUID.randomUUID();
+        long[] receiveOrder = { 1, 3, 4, 2, 6, 5 };
+        for (long sequenceNumber : receiveOrder)
+        {
+            MessagePayload payload = new MessagePayload(ServerManager.INVALID_UUID, "Message " + sequenceNumber);
+            payload.SetSender(sender);
+            payload.SetSequenceNumber(sequenceNumber);
+            orderer.Receive(payload);
+        }
+
+        //The messages should have been delivered in the order they were sent.
+        Assert.assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L), delivered);
+
+        //Now leave a gap that is never filled, the buffered message should be delivered once the gap times out.
+        MessagePayload payload = new MessagePayload(ServerManager.INVALID_UUID, "Message 8");
+        payload.SetSender(sender);
+        payload.SetSequenceNumber(8);
+        orderer.Receive(payload);
+        Assert.assertEquals(6, delivered.size());
+
+        try { Thread.sleep(MessageOrderer.GAP_TIMEOUT_MS * 2); }
+        catch (InterruptedException ex) {}
+
+        Assert.assertEquals(7, delivered.size());
+        Assert.assertEquals(8L, (long)delivered.get(6));
+        Assert.assertEquals(1, orderer.GetSkippedMessageCount());
+
+        //Direct messages always start at 1, so if the first two arrive reversed the second should wait for the first.
+        delivered.clear();
+        UUID directSender = UUID.randomUUID();
+        UUID recipient = UUID.randomUUID();
+        for (long sequenceNumber : new long[] { 2, 1 })
+        {
+            MessagePayload directPayload = new MessagePayload(recipient, "Direct message " + sequenceNumber);
+            directPayload.SetSender(directSender);
+            directPayload.SetSequenceNumber(sequenceNumber);
+            orderer.Receive(directPayload);
+        }
+        Assert.assertEquals(List.of(1L, 2L), delivered);
+        Assert.assertEquals(1, orderer.GetSkippedMessageCount());
+    }
+
+    @Test
+    public void RateLimitTest()
+    {
+        InMemoryTransport transport = new InMemoryTransport();
+
+        //Create two instances of the ChatManager class.
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+
+        //Dropped messages leave gaps that hold up the recipients, so rate limiting has to be turned on.
+        Assert.assertNull(server.GetRateLimiter());
+
+        //Only allow a burst of 5 messages, refilling slowly enough that no more are allowed during the test.
+        final int burst = 5;
+        final int messageCount = 20;
+        server.SetRateLimiter(new RateLimiter(0.1, burst, 1000, 1000, ERateLimitAction.DROP));
+
+        //Configure each chat manager, one to be a host and the other as a client.
+        InstanceChatManagerAs(server, true);
+        InstanceChatManagerAs(client1, false);
+
+        //Count the messages that make it through to the server.
+        AtomicInteger received = new AtomicInteger();
+        server.onMessageReceived.Add(payload -> received.incrementAndGet());
+
+        //Flood the server with broadcast messages.
+        for (int i = 0; i < messageCount; i++)
+            client1.SendMessage(ServerManager.INVALID_UUID, "Message " + i);
+
+        //Give the server time to process the messages.
+        try { Thread.sleep(SHORT_TIMEOUT); }
+        catch (InterruptedException ex) {}
+
+        //Only the burst should have been let through, the rest should have been counted against the client.
+        Assert.assertEquals(burst, received.get());
+        Assert.assertEquals(messageCount - burst, server.GetRateLimiter().GetLimitedFrameCount(client1.GetID()));
+
+        //Dispose of the instances (cleanup).
+        client1.Dispose();
+        server.Dispose();
+    }
+
+    @Test
+    public void PriorityLaneTest()
+    {
+        //Start a raw server and client so that we can control exactly what is queued.
+        ServerManager serverManager = new ServerManager(PORT);
+        Client client = new Client(ADDRESS, PORT);
+
+        List<UUID> clientIDs = new ArrayList<>();
+        ManualResetEvent clientConnected = new ManualResetEvent(false);
+        serverManager.onConnect.Add(uuid ->
+        {
+            clientIDs.add(uuid);
+            clientConnected.Set();
+        });
+
+        if (!serverManager.Start() || !client.Start())
+            Assert.fail("Failed to start the server or client.");
+
+        try { clientConnected.WaitOne(LONG_TIMEOUT); }
+        catch (TimeoutException ex) { Assert.fail("The client did not connect to the server in time."); }
+
+        //Record how many data messages the client receives before the control message.
+        final int dataMessageCount = 1000;
+        AtomicInteger dataReceived = new AtomicInteger();
+        AtomicInteger dataReceivedBeforeControl = new AtomicInteger(-1);
+        ManualResetEvent controlReceived = new ManualResetEvent(false);
+        client.onMessage.Add(obj ->
+        {
+            NetMessage<?> message = (NetMessage<?>)obj;
+            if (message.type == EType.MESSAGE)
+            {
+                dataReceived.incrementAndGet();
+            }
+            else if (message.type == EType.PING)
+            {
+                dataReceivedBeforeControl.set(dataReceived.get());
+                controlReceived.Set();
+            }
+        });
+
+        //Queue a large backlog of chat messages followed by a single ping.
+        String largeMessage = "x".repeat(16 * 1024);
+        for (int i = 0; i < dataMessageCount; i++)
+        {
+            NetMessage<MessagePayload> message = new NetMessage<>();
+            message.type = EType.MESSAGE;
+            //A new string is created for each message so that the object stream can't send it as a back reference.
+            message.payload = new MessagePayload(ServerManager.INVALID_UUID, new String(largeMessage));
+            serverManager.SendMessage(clientIDs.get(0), message);
+        }
+        NetMessage<EmptyPayload> ping = new NetMessage<>();
+        ping.type = EType.PING;
+        ping.payload = new EmptyPayload();
+        serverManager.SendMessage(clientIDs.get(0), ping);
+
+        try { controlReceived.WaitOne(LONG_TIMEOUT); }
+        catch (TimeoutException ex) { Assert.fail("The control message was not received in time."); }
+
+        //The ping should have skipped ahead of the chat messages that were still queued.
+        if (dataReceivedBeforeControl.get() >= dataMessageCount)
+            Assert.fail("The control message was queued behind the chat messages.");
+
+        //Dispose of the instances (cleanup).
+        client.Dispose();
+        serverManager.Dispose();
+    }
+
+    @Test
+    public void SlowClientTest()
+    {
+        //Start a raw server with two clients, one of which stops reading part way through.
+        ServerManager serverManager = new ServerManager(PORT);
+        Client healthyClient = new Client(ADDRESS, PORT);
+        Client stalledClient = new Client(ADDRESS, PORT);
+
+        //The clients are connected one at a time so that we know which ID belongs to which.
+        List<UUID> clientIDs = new ArrayList<>();
+        List<ManualResetEvent> clientConnected = List.of(new ManualResetEvent(false), new ManualResetEvent(false));
+        serverManager.onConnect.Add(uuid ->
+        {
+            clientIDs.add(uuid);
+            clientConnected.get(clientIDs.size() - 1).Set();
+        });
+        ManualResetEvent stalledClientDropped = new ManualResetEvent(false);
+        ManualResetEvent healthyClientDropped = new ManualResetEvent(false);
+
+        if (!serverManager.Start() || !healthyClient.Start())
+            Assert.fail("Failed to start the server or client.");
+        try { clientConnected.get(0).WaitOne(LONG_TIMEOUT); }
+        catch (TimeoutException ex) { Assert.fail("The healthy client did not connect to the server in time."); }
+        if (!stalledClient.Start())
+            Assert.fail("Failed to start the stalled client.");
+        try { clientConnected.get(1).WaitOne(LONG_TIMEOUT); }
+        catch (TimeoutException ex) { Assert.fail("The stalled client did not connect to the server in time."); }
+        UUID healthyClientID = clientIDs.get(0);
+        UUID stalledClientID = clientIDs.get(1);
+        serverManager.onClose.Add(uuid ->
+        {
+            if (uuid.equals(stalledClientID))
+                stalledClientDropped.Set();
+            else if (uuid.equals(healthyClientID))
+                healthyClientDropped.Set();
+        });
+
+        AtomicInteger healthyReceived = new AtomicInteger();
+        healthyClient.onMessage.Add(obj -> healthyReceived.incrementAndGet());
+        //Blocking the receive thread stops the client from reading, so the server's writes back up behind it.
+        ManualResetEvent releaseStalledClient = new ManualResetEvent(false);
+        stalledClient.onMessage.Add(obj ->
+        {
+            try { releaseStalledClient.WaitOne(LONG_TIMEOUT * 4); }
+            catch (TimeoutException ex) {}
+        });
+
+        //Broadcast until the stalled client's queue fills up, keeping pace with the healthy client so that only the stalled one falls behind.
+        String largeMessage = "x".repeat(64 * 1024);
+        int sent = 0;
+        long start = System.currentTimeMillis();
+        while (!stalledClientDropped.IsSet() && sent < ASocket.DATA_QUEUE_CAPACITY * 10)
+        {
+            NetMessage<MessagePayload> message = new NetMessage<>();
+            message.type = EType.MESSAGE;
+            message.payload = new MessagePayload(ServerManager.INVALID_UUID, new String(largeMessage));
+            serverManager.BroadcastMessage(message);
+            sent++;
+
+            while (sent - healthyReceived.get() > 64 && System.currentTimeMillis() - start < LONG_TIMEOUT * 2)
+            {
+                try { Thread.sleep(1); }
+                catch (InterruptedException ex) {}
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        releaseStalledClient.Set();
+        Logger.Info(String.format("The stalled client was dropped after %d broadcasts in %dms.", sent, elapsed));
+
+        //The stalled client should have been dropped as soon as its queue was full, rather than holding up the broadcasts until its messages timed out.
+        if (!stalledClientDropped.IsSet())
+            Assert.fail("The stalled client was never disconnected.");
+        if (healthyClientDropped.IsSet())
+            Assert.fail("The healthy client was disconnected.");
+
+        //The healthy client should still get every message.
+        long deadline = System.currentTimeMillis() + LONG_TIMEOUT;
+        while (healthyReceived.get() < sent && System.currentTimeMillis() < deadline)
+        {
+            try { Thread.sleep(10); }
+            catch (InterruptedException ex) {}
+        }
+        Assert.assertEquals(sent, healthyReceived.get());
+
+        //Dispose of the instances (cleanup).
+        healthyClient.Dispose();
+        stalledClient.Dispose();
+        serverManager.Dispose();
+    }
+
+    @Test
+    public void SaturatedConnectionTest()
     {
         //Create two instances of the ChatManager class.
         ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME);
         ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME);
 
+        //Configure each chat manager, one to be a host and the other as a client.
+        InstanceChatManagerAs(server, true);
+        InstanceChatManagerAs(client1, false);
+
+        //Record if the client is ever disconnected by the server.
+        //The ID is captured now as the client clears it when it notices the disconnect, which can be before the server raises its event.
+        UUID client1ID = client1.GetID();
+        ManualResetEvent serverOnClient1Disconnected = new ManualResetEvent(false);
+        server.onPeerDisconnected.Add(peer ->
+        {
+            if (peer.GetUUID().equals(client1ID))
+                serverOnClient1Disconnected.Set();
+        });
+
+        //Flood the connection with chat traffic for longer than it takes the server to time out a peer.
+        String largeMessage = "x".repeat(8 * 1024);
+        long floodEnd = System.currentTimeMillis() + PingPong.PING_PONG_INTERVAL_MS * 2 + SHORT_TIMEOUT;
+        while (System.currentTimeMillis() < floodEnd)
+        {
+            server.SendMessage(ServerManager.INVALID_UUID, new String(largeMessage));
+            try { Thread.sleep(1); }
+            catch (InterruptedException ex) {}
+        }
+
+        //The pings should have been prioritised over the chat traffic so the client should still be connected.
+        if (serverOnClient1Disconnected.IsSet())
+            Assert.fail("The server disconnected a healthy client while the connection was saturated.");
+
+        //Dispose of the instances (cleanup).
+        client1.Dispose();
+        server.Dispose();
+    }
+
+    @Test
+    public void CompressionTest()
+    {
+        //Create two instances of the ChatManager class, both with compression enabled.
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME);
+        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME);
+        server.SetCompressionOptions(new CompressionOptions(CompressionDictionary.Get()));
+        client1.SetCompressionOptions(new CompressionOptions(CompressionDictionary.Get()));
+
+        //Configure each chat manager, one to be a host and the other as a client.
+        InstanceChatManagerAs(server, true);
+        InstanceChatManagerAs(client1, false);
+
+        //A long message made up of common words should compress well.
+        final String message = "hello there, thanks for the help with the logs, I think we are good to go now. ".repeat(20);
+        ManualResetEvent serverReceived = new ManualResetEvent(false);
+        server.onMessageReceived.Add(payload ->
+        {
+            if (payload.GetMessage().equals(message))
+                serverReceived.Set();
+        });
+
+        //Give the compression negotiation time to complete.
+        if (!client1.SendMessageSync(ServerManager.INVALID_UUID, "Hi"))
+            Assert.fail("The initial message was not acknowledged.");
+
+        client1.SendMessage(ServerManager.INVALID_UUID, message);
+
+        //The message should arrive intact.
+        try { serverReceived.WaitOne(LONG_TIMEOUT); }
+        catch (TimeoutException ex) { Assert.fail("The server did not receive the compressed message in time."); }
+
+        //The client should have compressed the large message.
+        CompressionStats stats = client1.GetCompressionStats();
+        Logger.Info("Client compression stats: " + stats);
+        Assert.assertTrue(stats.GetFramesCompressed() >= 1);
+        Assert.assertTrue(stats.GetBytesSaved() > 0);
+
+        //Dispose of the instances (cleanup).
+        client1.Dispose();
+        server.Dispose();
+    }
+
+    @Test
+    public void UnixSocketTest()
+    {
+        Path socketPath = ServerManager.GetDefaultUnixSocketPath(PORT);
+
+        //Start a raw server that listens on both TCP and a Unix domain socket.
+        ServerManager serverManager = new ServerManager(PORT);
+        serverManager.EnableUnixSocket(socketPath);
+
+        //Reply to pings so that the round trip time can be measured, and count messages so that throughput can be measured.
+        ConcurrentHashMap<UUID, AtomicInteger> receivedCounts = new ConcurrentHashMap<>();
+        serverManager.onMessage.Add(data ->
+        {
+            NetMessage<?> message = (NetMessage<?>)data.item2;
+            if (message.type == EType.PING)
+            {
+                NetMessage<EmptyPayload> pong = new NetMessage<>();
+                pong.type = EType.PONG;
+                pong.payload = new EmptyPayload();
+                serverManager.SendMessage(data.item1, pong);
+            }
+            else if (message.type == EType.MESSAGE)
+            {
+                receivedCounts.computeIfAbsent(data.item1, key -> new AtomicInteger()).incrementAndGet();
+            }
+        });
+
+        if (!serverManager.Start())
+            Assert.fail("Failed to start the server.");
+
+        //The first client should prefer the Unix socket as the host is local, the second only knows about TCP.
+        Client unixClient = new Client(ADDRESS, PORT);
+        unixClient.SetUnixSocketPath(socketPath);
+        Client tcpClient = new Client(ADDRESS, PORT);
+        if (!unixClient.Start() || !tcpClient.Start())
+            Assert.fail("Failed to start the clients.");
+
+        Assert.assertTrue(unixClient.IsUnixDomainSocket());
+        Assert.assertFalse(tcpClient.IsUnixDomainSocket());
+
+        //Compare the two transports (these are logged rather than asserted as timings vary between machines).
+        for (Client client : new Client[] { tcpClient, unixClient })
+        {
+            String transport = client.IsUnixDomainSocket() ? "Unix" : "TCP";
+
+            //Latency: sequential ping/pong round trips.
+            final int roundTrips = 2000;
+            Semaphore pongReceived = new Semaphore(0);
+            client.onMessage.Add(obj ->
+            {
+                if (((NetMessage<?>)obj).type == EType.PONG)
+                    pongReceived.release();
+            });
+            NetMessage<EmptyPayload> ping = new NetMessage<>();
+            ping.type = EType.PING;
+            ping.payload = new EmptyPayload();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < roundTrips; i++)
+            {
+                client.SendMessage(ping);
+                try
+                {
+                    if (!pongReceived.tryAcquire(LONG_TIMEOUT, TimeUnit.MILLISECONDS))
+                        Assert.fail("A pong was not received in time over " + transport + ".");
+                }
+                catch (InterruptedException ex) { Assert.fail("Interrupted."); }
+            }
+            double roundTripMicroseconds = (System.nanoTime() - start) / 1000.0 / roundTrips;
+
+            //Throughput: a burst of 8KB messages.
+            final int messageCount = 4000;
+            String largeMessage = "x".repeat(8 * 1024);
+            int before = receivedCounts.values().stream().mapToInt(AtomicInteger::get).sum();
+            start = System.nanoTime();
+            for (int i = 0; i < messageCount; i++)
+            {
+                NetMessage<MessagePayload> message = new NetMessage<>();
+                message.type = EType.MESSAGE;
+                message.payload = new MessagePayload(ServerManager.SERVER_UUID, new String(largeMessage));
+                client.SendMessage(message);
+            }
+            long deadline = System.currentTimeMillis() + LONG_TIMEOUT * 2;
+            while (receivedCounts.values().stream().mapToInt(AtomicInteger::get).sum() - before < messageCount)
+            {
+                if (System.currentTimeMillis() > deadline)
+                    Assert.fail("The messages were not received in time over " + transport + ".");
+                try { Thread.sleep(1); }
+                catch (InterruptedException ex) {}
+            }
+            double megabytesPerSecond = (messageCount * 8.0 / 1024) / ((System.nanoTime() - start) / 1e9);
+
+            Logger.Info(String.format("%s: %.1fus round trip, %.1fMB/s", transport, roundTripMicroseconds, megabytesPerSecond));
+        }
+
+        //Dispose of the instances (cleanup).
+        unixClient.Dispose();
+        tcpClient.Dispose();
+        serverManager.Dispose();
+
+        //The socket file should be removed when the server shuts down.
+        Assert.assertFalse(Files.exists(socketPath));
+    }
+
+    @Test
+    public void InMemoryTransportTest()
+    {
+        //Every instance in this test shares one in-process network, so nothing goes through the OS.
+        InMemoryTransport transport = new InMemoryTransport();
+
+        //Messages should be handed over as-is rather than being serialized (so even non-serializable objects can be sent).
+        ServerManager serverManager = new ServerManager(PORT, transport);
+        Client client = new Client(ADDRESS, PORT, transport);
+        Object sent = new Object();
+        List<Object> received = new ArrayList<>();
+        ManualResetEvent messageReceived = new ManualResetEvent(false);
+        serverManager.onMessage.Add(data ->
+        {
+            received.add(data.item2);
+            messageReceived.Set();
+        });
+        if (!serverManager.Start() || !client.Start())
+            Assert.fail("Failed to start the server or client.");
+        client.SendMessage(sent);
+
+        try { messageReceived.WaitOne(LONG_TIMEOUT); }
+        catch (TimeoutException ex) { Assert.fail("The message was not received in time."); }
+        Assert.assertSame(sent, received.get(0));
+
+        client.Dispose();
+        serverManager.Dispose();
+
+        //Run a whole chat in process with many more clients than would be practical over real sockets.
+        final int clientCount = 100;
+        long start = System.nanoTime();
+
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        InstanceChatManagerAs(server, true);
+        List<ChatManager> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++)
+        {
+            ChatManager chatClient = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+            InstanceChatManagerAs(chatClient, false);
+            clients.add(chatClient);
+        }
+
+        //A broadcast from the host should reach every client.
+        AtomicInteger receivedCount = new AtomicInteger();
+        ManualResetEvent allReceived = new ManualResetEvent(false);
+        for (ChatManager chatClient : clients)
+        {
+            chatClient.onMessageReceived.Add(payload ->
+            {
+                if (receivedCount.incrementAndGet() == clientCount)
+                    allReceived.Set();
+            });
+        }
+        server.SendMessage(ServerManager.INVALID_UUID, "Hello");
+
+        try { allReceived.WaitOne(LONG_TIMEOUT); }
+        catch (TimeoutException ex) { Assert.fail("Only " + receivedCount.get() + "/" + clientCount + " clients received the message in time."); }
+
+        Logger.Info(String.format("Started %d in-process clients and broadcast to them in %.1fms.", clientCount, (System.nanoTime() - start) / 1e6));
+
+        //Dispose of the instances (cleanup).
+        for (ChatManager chatClient : clients)
+            chatClient.Dispose();
+        server.Dispose();
+    }
+
+    @Test
+    public void DiscoveryTest() throws SocketException
+    {
+        //Multicast over loopback so that the test doesn't depend on (or send anything to) the real network.
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+
+        //A beacon that is being announced should be found within a couple of intervals.
+        HostAnnouncer announcer = new HostAnnouncer(loopback, () -> new HostBeacon(ADDRESS, PORT, 3, 42));
+        announcer.start();
+        long start = System.currentTimeMillis();
+        HostBeacon beacon = HostDiscovery.FindHost(loopback, PORT, -1, HostDiscovery.DISCOVERY_TIMEOUT_MS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        Assert.assertNotNull(beacon);
+        Assert.assertEquals(ADDRESS, beacon.GetAddress());
+        Assert.assertEquals(PORT, beacon.GetPort());
+        Assert.assertEquals(3, beacon.GetPeerCount());
+        Assert.assertEquals(42, beacon.GetEpoch());
+        Assert.assertTrue(elapsed <= HostDiscovery.DISCOVERY_TIMEOUT_MS);
+
+        //Beacons for other ports, or that we have been told to ignore, should not be returned.
+        Assert.assertNull(HostDiscovery.FindHost(loopback, PORT + 1, -1, HostDiscovery.BEACON_INTERVAL_MS));
+        Assert.assertNull(HostDiscovery.FindHost(loopback, PORT, 42, HostDiscovery.BEACON_INTERVAL_MS));
+        announcer.interrupt();
+
+        //Without a fallback address the client can only find the host through discovery.
+        ChatManager server = new ChatManager(null, PORT, SERVER_USERNAME);
+        ChatManager client = new ChatManager(null, PORT, CLIENT_USERNAME);
+        server.EnableDiscovery(loopback);
+        client.EnableDiscovery(loopback);
+
+        InstanceChatManagerAs(server, true);
+        InstanceChatManagerAs(client, false);
+
+        //Dispose of the instances (cleanup).
+        client.Dispose();
+        server.Dispose();
+    }
+
+    @Test
+    public void AdmissionTest()
+    {
+        InMemoryTransport transport = new InMemoryTransport();
+
+        //Allow only two connections at once.
+        ServerManager serverManager = new ServerManager(PORT, transport);
+        serverManager.SetAdmissionOptions(new AdmissionOptions(AdmissionOptions.DEFAULT_BACKLOG, 100, 2, 200));
+        if (!serverManager.Start())
+            Assert.fail("Failed to start the server.");
+
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            Client client = new Client(ADDRESS, PORT, transport);
+            if (!client.Start())
+                Assert.fail("Failed to start client " + i + ".");
+            clients.add(client);
+
+            //Wait for each client to be admitted (or refused) before starting the next so that the order is known.
+            long deadline = System.currentTimeMillis() + LONG_TIMEOUT;
+            while (serverManager.GetClientHosts().size() + serverManager.GetRejectedConnectionCount() <= i)
+            {
+                if (System.currentTimeMillis() > deadline)
+                    Assert.fail("Client " + i + " was not admitted or refused in time.");
+                try { Thread.sleep(1); }
+                catch (InterruptedException ex) {}
+            }
+        }
+
+        //The third client should be told to retry later (with some jitter added) and then disconnected.
+        Client refusedClient = clients.get(2);
+        long deadline = System.currentTimeMillis() + LONG_TIMEOUT;
+        while (refusedClient.IsConnected() && System.currentTimeMillis() < deadline)
+        {
+            try { Thread.sleep(1); }
+            catch (InterruptedException ex) {}
+        }
+        Assert.assertFalse(refusedClient.IsConnected());
+        Assert.assertTrue(refusedClient.GetRetryAfterMilliseconds() >= 200 && refusedClient.GetRetryAfterMilliseconds() <= 400);
+        Assert.assertTrue(clients.get(0).IsConnected() && clients.get(1).IsConnected());
+        Assert.assertEquals(0, clients.get(0).GetRetryAfterMilliseconds());
+
+        for (Client client : clients)
+            client.Dispose();
+        serverManager.Dispose();
+    }
+
+    @Test
+    public void ReconnectStormTest()
+    {
+        /*Simulate every client of a large chat reconnecting to a new host at the same moment.
+         *The admission queue is deliberately smaller than the number of clients so that some have to be told to retry.*/
+        final int clientCount = 2000;
+        ServerManager serverManager = new ServerManager(PORT);
+        serverManager.SetAdmissionOptions(new AdmissionOptions(128, 500, clientCount, 100));
+
+        //Let each client know once it has been admitted.
+        serverManager.onConnect.Add(uuid ->
+        {
+            NetMessage<EmptyPayload> welcome = new NetMessage<>();
+            welcome.type = EType.HANDSHAKE;
+            welcome.payload = new EmptyPayload();
+            serverManager.SendMessage(uuid, welcome);
+        });
+        if (!serverManager.Start())
+            Assert.fail("Failed to start the server.");
+
+        //Clients that are refused reconnect once the host's retry delay has passed.
+        CountDownLatch allAdmitted = new CountDownLatch(clientCount);
+        List<Client> admittedClients = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger retries = new AtomicInteger();
+        Runnable[] connect = new Runnable[1];
+        connect[0] = () ->
+        {
+            Client client = new Client(ADDRESS, PORT);
+            client.onMessage.Add(obj ->
+            {
+                admittedClients.add(client);
+                allAdmitted.countDown();
+            });
+            client.onClose.Add(nul ->
+            {
+                if (client.GetRetryAfterMilliseconds() <= 0)
+                    return;
+                retries.incrementAndGet();
+                CompletableFuture.delayedExecutor(client.GetRetryAfterMilliseconds(), TimeUnit.MILLISECONDS).execute(connect[0]);
+            });
+            client.Start();
+        };
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clientCount; i++)
+            connect[0].run();
+
+        try
+        {
+            if (!allAdmitted.await(60, TimeUnit.SECONDS))
+                Assert.fail("Only " + (clientCount - allAdmitted.getCount()) + "/" + clientCount + " clients reconnected in time.");
+        }
+        catch (InterruptedException ex) { Assert.fail("Interrupted."); }
+
+        Logger.Info(String.format("%d clients reconnected in %.0fms (%d retries).", clientCount, (System.nanoTime() - start) / 1e6, retries.get()));
+
+        //Dispose of the instances (cleanup).
+        for (Client client : admittedClients)
+            client.Dispose();
+        serverManager.Dispose();
+    }
+
+    @Test
+    public void FileTransferTest() throws IOException
+    {
+        InMemoryTransport transport = new InMemoryTransport();
+
+        //Create three instances of the ChatManager class.
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+        ChatManager client2 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+
+        //Configure each chat manager, one to be a host and the others as clients.
+        InstanceChatManagerAs(server, true);
+        InstanceChatManagerAs(client1, false);
+        InstanceChatManagerAs(client2, false);
+
+        //Create a file that spans many chunks (and isn't a multiple of the chunk size).
+        byte[] content = new byte[FileTransferManager.CHUNK_SIZE * 20 + 123];
+        new Random(0).nextBytes(content);
+        Path source = Files.createTempFile("chat_app_source", ".bin");
+        Files.write(source, content);
+
+        //Pretend that part of the file has already been downloaded so that the transfer has to resume from part way through.
+        Path destination = Files.createTempFile("chat_app_destination", ".bin");
+        Files.write(destination, Arrays.copyOf(content, FileTransferManager.CHUNK_SIZE * 3 + 7));
+
+        //Have client2 accept any file it is offered.
+        //The offer is handled on a socket thread so a failure is recorded and checked here rather than failing the test from there.
+        ManualResetEvent fileReceived = new ManualResetEvent(false);
+        AtomicReference<IOException> acceptError = new AtomicReference<>();
+        FileTransferManager client2Transfers = client2.GetFileTransferManager();
+        client2Transfers.onFileOffered.Add(offer ->
+        {
+            try { client2Transfers.AcceptFile(offer.GetTransferID(), destination); }
+            catch (IOException ex)
+            {
+                acceptError.set(ex);
+                fileReceived.Set();
+            }
+        });
+        client2Transfers.onFileReceived.Add(pair -> fileReceived.Set());
+
+        //Have client1 offer the file to client2.
+        client1.GetFileTransferManager().OfferFile(client2.GetID(), source);
+
+        try { fileReceived.WaitOne(LONG_TIMEOUT); }
+        catch (TimeoutException ex) { Assert.fail("The file was not received in time."); }
+        if (acceptError.get() != null)
+            Assert.fail("Failed to accept the file: " + acceptError.get().getMessage());
+
+        //The received file should match the original.
+        Assert.assertArrayEquals(content, Files.readAllBytes(destination));
+
+        //Dispose of the instances (cleanup).
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(destination);
+        client2.Dispose();
+        client1.Dispose();
+        server.Dispose();
+    }
+
+    @Test
+    public void FederationTest()
+    {
+        InMemoryTransport transport = new InMemoryTransport();
+
+        //Two hosts on different ports that link to each other, each with one client of its own.
+        ChatManager hostA = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager hostB = new ChatManager(ADDRESS, PORT + 1, SERVER_USERNAME, transport);
+        ChatManager clientA = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+        ChatManager clientB = new ChatManager(ADDRESS, PORT + 1, CLIENT_USERNAME, transport);
+        hostA.EnableFederation(PORT + 100);
+        hostA.AddFederatedHost(ADDRESS, PORT + 101);
+        hostA.SetFederationSecret("federation secret");
+        hostB.EnableFederation(PORT + 101);
+        hostB.AddFederatedHost(ADDRESS, PORT + 100);
+        hostB.SetFederationSecret("federation secret");
+
+        InstanceChatManagerAs(hostA, true);
+        InstanceChatManagerAs(hostB, true);
+        InstanceChatManagerAs(clientA, false);
+        InstanceChatManagerAs(clientB, false);
+
+        //clientB is only connected to hostB, so clientA can only learn about it from hostB's directory.
+        long deadline = System.currentTimeMillis() + LONG_TIMEOUT;
+        while (!clientA.GetPeers().containsKey(clientB.GetID()))
+        {
+            if (System.currentTimeMillis() > deadline)
+                Assert.fail("clientA was not told about the peer on the other host in time.");
+            try { Thread.sleep(1); }
+            catch (InterruptedException ex) {}
+        }
+        Assert.assertTrue(hostA.GetPeers().containsKey(hostB.GetFederationHostID()));
+
+        //A host that doesn't know the secret shouldn't be able to link, even when claiming to be hostB with its address.
+        Federation intruder = new Federation(hostB.GetFederationHostID(), PORT + 102, transport, ADDRESS, PORT + 1, "wrong secret");
+        Assert.assertTrue(intruder.Start());
+        intruder.Connect(ADDRESS, PORT + 100);
+        try { Thread.sleep(SHORT_TIMEOUT); }
+        catch (InterruptedException ex) {}
+        Assert.assertTrue(intruder.GetLinkedHosts().isEmpty());
+        intruder.Dispose();
+
+        //A private message should be forwarded to the recipient's host and only delivered to the recipient.
+        final String privateMessage = "Hello from the other host!";
+        ManualResetEvent clientBReceived = new ManualResetEvent(false);
+        ManualResetEvent hostBReceived = new ManualResetEvent(false);
+        clientB.onMessageReceived.Add(payload ->
+        {
+            if (payload.GetSender().equals(clientA.GetID()) && payload.GetMessage().equals(privateMessage))
+                clientBReceived.Set();
+        });
+        hostB.onMessageReceived.Add(payload -> hostBReceived.Set());
+
+        Assert.assertTrue(clientA.SendMessageSync(clientB.GetID(), privateMessage));
+        try { clientBReceived.WaitOne(LONG_TIMEOUT); }
+        catch (TimeoutException ex) { Assert.fail("The private message was not forwarded in time."); }
+        Assert.assertFalse("hostB received a private message that was not intended for it.", hostBReceived.IsSet());
+
+        //A broadcast should reach the clients and hosts on both sides.
+        final String broadcastMessage = "Hello everyone!";
+        ManualResetEvent clientAReceived = new ManualResetEvent(false);
+        ManualResetEvent hostAReceived = new ManualResetEvent(false);
+        clientA.onMessageReceived.Add(payload ->
+        {
+            if (payload.GetSender().equals(clientB.GetID()) && payload.GetMessage().equals(broadcastMessage))
+                clientAReceived.Set();
+        });
+        hostA.onMessageReceived.Add(payload ->
+        {
+            if (payload.GetSender().equals(clientB.GetID()) && payload.GetMessage().equals(broadcastMessage))
+                hostAReceived.Set();
+        });
+
+        clientB.SendMessage(ServerManager.INVALID_UUID, broadcastMessage);
+        try
+        {
+            clientAReceived.WaitOne(LONG_TIMEOUT);
+            hostAReceived.WaitOne(LONG_TIMEOUT);
+        }
+        catch (TimeoutException ex) { Assert.fail("The broadcast was not forwarded in time."); }
+
+        //When clientB leaves, hostB should tell hostA who should tell clientA.
+        UUID clientBID = clientB.GetID();
+        ManualResetEvent clientBGone = new ManualResetEvent(false);
+        clientA.onPeerDisconnected.Add(peer -> { if (peer.GetUUID().equals(clientBID)) clientBGone.Set(); });
+        clientB.Dispose();
+        try { clientBGone.WaitOne(LONG_TIMEOUT); }
+        catch (TimeoutException ex) { Assert.fail("clientA was not told that the peer on the other host left in time."); }
+
+        //Dispose of the instances (cleanup).
+        clientA.Dispose();
+        hostB.Dispose();
+        hostA.Dispose();
+    }
+
+    @Test
+    public void RoomShardingTest()
+    {
+        final int nodeCount = 8;
+
+        //Simulate the ring on its own first, rooms should be spread evenly over the nodes.
+        HashRing ring = new HashRing();
+        Random random = new Random(0);
+        UUID[] nodes = new UUID[nodeCount + 1];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = new UUID(random.nextLong(), random.nextLong());
+        for (int i = 0; i < nodeCount; i++)
+            ring.AddNode(nodes[i]);
+
+        final int roomCount = 100000;
+        UUID[] rooms = new UUID[roomCount];
+        UUID[] owners = new UUID[roomCount];
+        Map<UUID, Integer> load = new HashMap<>();
+        for (int i = 0; i < roomCount; i++)
+        {
+            rooms[i] = new UUID(random.nextLong(), random.nextLong());
+            owners[i] = ring.GetOwner(rooms[i]);
+            load.merge(owners[i], 1, Integer::sum);
+        }
+        int maxLoad = Collections.max(load.values());
+        int minLoad = Collections.min(load.values());
+        Logger.Info("Rooms per node: " + load.values() + " (min " + minLoad + ", max " + maxLoad + ", ideal " + roomCount / nodeCount + ").");
+        Assert.assertEquals(nodeCount, load.size());
+        Assert.assertTrue("Rooms were not spread evenly enough.", maxLoad < roomCount / nodeCount * 1.3 && minLoad > roomCount / nodeCount * 0.7);
+
+        //When a node joins, the only rooms that should move are the ones it takes over (roughly 1/n of them).
+        ring.AddNode(nodes[nodeCount]);
+        int moved = 0;
+        for (int i = 0; i < roomCount; i++)
+        {
+            UUID owner = ring.GetOwner(rooms[i]);
+            if (owner.equals(owners[i]))
+                continue;
+            Assert.assertEquals("A room moved between two nodes that were already on the ring.", nodes[nodeCount], owner);
+            moved++;
+        }
+        Logger.Info("Rooms moved when a node joined: " + moved + "/" + roomCount + ".");
+        Assert.assertTrue(moved > 0 && moved < roomCount / (nodeCount + 1) * 1.5);
+
+        //When it leaves again, every room should go back to where it was.
+        ring.RemoveNode(nodes[nodeCount]);
+        for (int i = 0; i < roomCount; i++)
+            Assert.assertEquals(owners[i], ring.GetOwner(rooms[i]));
+
+        //Now run the same over real chat managers, with all but one of the hosts started to begin with.
+        InMemoryTransport transport = new InMemoryTransport();
+        ChatManager[] hosts = new ChatManager[nodeCount];
+        for (int i = 0; i < nodeCount; i++)
+        {
+            hosts[i] = new ChatManager(ADDRESS, PORT + i, SERVER_USERNAME, transport);
+            hosts[i].EnableFederation(PORT + 100 + i);
+            for (int j = 0; j < nodeCount; j++)
+                if (j != i)
+                    hosts[i].AddFederatedHost(ADDRESS, PORT + 100 + j);
+        }
+        for (int i = 0; i < nodeCount - 1; i++)
+            InstanceChatManagerAs(hosts[i], true);
+        WaitForFederation(Arrays.copyOf(hosts, nodeCount - 1));
+
+        //Every client first connects to the same host and is redirected to the host that owns its room.
+        final int clientCount = 48;
+        List<ChatManager> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++)
+        {
+            ChatManager client = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+            client.SetRoom(new UUID(random.nextLong(), random.nextLong()));
+            InstanceChatManagerAs(client, false);
+            clients.add(client);
+        }
+        WaitForRoomOwners(Arrays.copyOf(hosts, nodeCount - 1), clientCount);
+
+        //When the last host joins it should take over some of the rooms, and their clients should move to it.
+        InstanceChatManagerAs(hosts[nodeCount - 1], true);
+        WaitForFederation(hosts);
+        int[] clientsPerHost = WaitForRoomOwners(hosts, clientCount);
+        Logger.Info("Clients per host: " + Arrays.toString(clientsPerHost) + ".");
+        Assert.assertTrue("The new host did not take over any rooms.", clientsPerHost[nodeCount - 1] > 0);
+
+        //Dispose of the instances (cleanup).
+        for (ChatManager client : clients)
+            client.Dispose();
+        for (ChatManager host : hosts)
+            host.Dispose();
+    }
+
+    /**
+     * Waits until each of the hosts knows about every other host.
+     */
+    private void WaitForFederation(ChatManager[] hosts)
+    {
+        long deadline = System.currentTimeMillis() + LONG_TIMEOUT;
+        for (ChatManager host : hosts)
+        {
+            for (ChatManager otherHost : hosts)
+            {
+                while (host != otherHost && !host.GetPeers().containsKey(otherHost.GetFederationHostID()))
+                {
+                    if (System.currentTimeMillis() > deadline)
+                        Assert.fail("The hosts did not link to each other in time.");
+                    try { Thread.sleep(1); }
+                    catch (InterruptedException ex) {}
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until every client is connected to the host that owns its room.
+     * @return The number of clients on each host.
+     */
+    private int[] WaitForRoomOwners(ChatManager[] hosts, int clientCount)
+    {
+        long deadline = System.currentTimeMillis() + LONG_TIMEOUT * 2;
+        while (true)
+        {
+            int[] clientsPerHost = new int[hosts.length];
+            Boolean settled = true;
+            for (int i = 0; i < hosts.length; i++)
+            {
+                for (UUID clientRoom : hosts[i].GetClientRooms().values())
+                {
+                    clientsPerHost[i]++;
+                    if (!hosts[i].GetFederationHostID().equals(hosts[i].GetRoomOwner(clientRoom)))
+                        settled = false;
+                }
+            }
+            if (settled && Arrays.stream(clientsPerHost).sum() == clientCount)
+                return clientsPerHost;
+
+            if (System.currentTimeMillis() > deadline)
+                Assert.fail("The clients were not moved to the hosts that own their rooms in time: " + Arrays.toString(clientsPerHost));
+            try { Thread.sleep(10); }
+            catch (InterruptedException ex) {}
+        }
+    }
+
+    @Test
+    public void RoutingBenchmarkTest() throws ReflectiveOperationException
+    {
+        //Measures the CPU time the host spends routing each private message, without any network or client work.
+        InMemoryTransport transport = new InMemoryTransport();
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+        ChatManager client2 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+        InstanceChatManagerAs(server, true);
+        InstanceChatManagerAs(client1, false);
+        InstanceChatManagerAs(client2, false);
+
+        //Call the host's message handler directly, as if client1's connection had received the messages.
+        Method onNetMessage = ChatManager.class.getDeclaredMethod("OnNetMessage", Pair.class);
+        onNetMessage.setAccessible(true);
+
+        final int messageCount = 400000;
+        List<NetMessage<MessagePayload>> messages = new ArrayList<>();
+        for (int i = 0; i < messageCount; i++)
+        {
+            NetMessage<MessagePayload> message = new NetMessage<>();
+            message.type = EType.MESSAGE;
+            message.payload = new MessagePayload(client2.GetID(), "Hello");
+            messages.add(message);
+        }
+
+        //Count the messages that make it to the recipient, to check that they were all routed.
+        AtomicInteger received = new AtomicInteger();
+        client2.onMessageReceived.Add(payload -> received.incrementAndGet());
+
+        //Per message trace logging would cost far more than the routing itself.
+        int logLevel = Logger.logLevel;
+        Logger.logLevel = ELogLevel.INFO;
+        try
+        {
+            //The best of several rounds is reported, the first rounds also warm up the JIT.
+            //Each round is smaller than the recipient's send queue and is delivered before the next starts,
+            //otherwise the recipient would fall behind and be disconnected like any other client that can't keep up.
+            final int roundSize = ASocket.DATA_QUEUE_CAPACITY / 2;
+            final int rounds = messageCount / roundSize;
+            long best = Long.MAX_VALUE;
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            for (int round = 0; round < rounds; round++)
+            {
+                long start = threadBean.getCurrentThreadCpuTime();
+                for (int i = round * roundSize; i < (round + 1) * roundSize; i++)
+                    onNetMessage.invoke(server, new Pair<UUID, Object>(client1.GetID(), messages.get(i)));
+                best = Math.min(best, threadBean.getCurrentThreadCpuTime() - start);
+
+                long deadline = System.currentTimeMillis() + LONG_TIMEOUT;
+                while (received.get() < (round + 1) * roundSize && System.currentTimeMillis() < deadline)
+                    Thread.onSpinWait();
+            }
+            Logger.Info(String.format("Host routing CPU: %.0fns per private message.", (double)best / roundSize));
+
+            Assert.assertEquals(rounds * roundSize, received.get());
+        }
+        finally
+        {
+            Logger.logLevel = logLevel;
+        }
+
+        //Dispose of the instances (cleanup).
+        client2.Dispose();
+        client1.Dispose();
+        server.Dispose();
+    }
+
+    @Test
+    public void MessageIndexBenchmarkTest() throws IOException
+    {
+        final int messageCount = 1000000;
+        final int limit = 50;
+        UUID[] senders = new UUID[50];
+        UUID[] conversations = new UUID[10];
+        for (int i = 0; i < senders.length; i++)
+            senders[i] = UUID.randomUUID();
+        for (int i = 0; i < conversations.length; i++)
+            conversations[i] = UUID.randomUUID();
+
+        //Build the index as the messages would arrive, with the row being the message's position in the history.
+        MessageIndex index = new MessageIndex();
+        long start = System.nanoTime();
+        for (int i = 0; i < messageCount; i++)
+        {
+            Random random = new Random(i);
+            index.Add(new UUID(random.nextLong(), random.nextLong()), senders[random.nextInt(senders.length)], conversations[random.nextInt(conversations.length)], i, CreateIndexedMessage(random));
+        }
+        Logger.Info(String.format("Indexed %d messages in %.0fms, %.1f bytes per message.",
+            messageCount, (System.nanoTime() - start) / 1e6, (double)index.GetMemoryUsage() / messageCount));
+
+        //A spread of queries, from words in most messages to words in very few, with and without filters.
+        Object[][] queries = new Object[][]
+        {
+            { "w0", null, null },
+            { "w40", null, null },
+            { "w4000", null, null },
+            { "w0 w1", null, null },
+            { "w2 w4000", null, null },
+            { "w3", senders[7], null },
+            { "w3", null, conversations[2] },
+            { "", senders[7], conversations[2] },
+        };
+
+        //Check the results against a scan of every message.
+        for (Object[] query : queries)
+            Assert.assertEquals("Results for '" + query[0] + "'",
+                ScanIndexedMessages(query, messageCount, senders, conversations, null, limit), GetHitRows(index.Search((String)query[0], (UUID)query[1], (UUID)query[2], limit)));
+
+        //Time each query, the first rounds also warm up the JIT.
+        for (Object[] query : queries)
+        {
+            long[] times = new long[200];
+            for (int i = 0; i < times.length; i++)
+            {
+                long queryStart = System.nanoTime();
+                index.Search((String)query[0], (UUID)query[1], (UUID)query[2], limit);
+                times[i] = System.nanoTime() - queryStart;
+            }
+            Arrays.sort(times);
+            Logger.Info(String.format("Query '%s'%s%s: median %.3fms, p99 %.3fms.", query[0], query[1] != null ? " by sender" : "", query[2] != null ? " in conversation" : "",
+                times[times.length / 2] / 1e6, times[times.length * 99 / 100] / 1e6));
+        }
+
+        //The index should come back from disk the same as it was.
+        Path indexPath = Files.createTempFile("message_index_", ".bin");
+        try
+        {
+            start = System.nanoTime();
+            index.Save(indexPath);
+            long saveTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            MessageIndex loadedIndex = MessageIndex.Load(indexPath);
+            Logger.Info(String.format("Saved in %.0fms and loaded in %.0fms, %.1fMB on disk.",
+                saveTime / 1e6, (System.nanoTime() - start) / 1e6, Files.size(indexPath) / 1e6));
+
+            Assert.assertEquals(index.Size(), loadedIndex.Size());
+            for (Object[] query : queries)
+            {
+                List<MessageIndex.Hit> expected = index.Search((String)query[0], (UUID)query[1], (UUID)query[2], limit);
+                List<MessageIndex.Hit> actual = loadedIndex.Search((String)query[0], (UUID)query[1], (UUID)query[2], limit);
+                Assert.assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++)
+                {
+                    Assert.assertEquals(expected.get(i).messageID, actual.get(i).messageID);
+                    Assert.assertEquals(expected.get(i).sender, actual.get(i).sender);
+                    Assert.assertEquals(expected.get(i).conversation, actual.get(i).conversation);
+                    Assert.assertEquals(expected.get(i).row, actual.get(i).row);
+                }
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(indexPath);
+        }
+
+        //Removing a conversation (as happens to private chats on reconnect) should leave the rest of the index as if it had never been added.
+        int sizeBefore = index.Size();
+        start = System.nanoTime();
+        index.RemoveConversation(conversations[2]);
+        Logger.Info(String.format("Removed a conversation in %.0fms.", (System.nanoTime() - start) / 1e6));
+        Assert.assertTrue(index.Size() < sizeBefore);
+        for (Object[] query : queries)
+            Assert.assertEquals("Results for '" + query[0] + "' after removing a conversation",
+                ScanIndexedMessages(query, messageCount, senders, conversations, conversations[2], limit), GetHitRows(index.Search((String)query[0], (UUID)query[1], (UUID)query[2], limit)));
+    }
+
+    /**
+     * Finds the rows that a query should match by checking every message, newest first.
+     * @param removedConversation A conversation whose messages shouldn't match, or {@code null}.
+     */
+    private List<Integer> ScanIndexedMessages(Object[] query, int messageCount, UUID[] senders, UUID[] conversations, UUID removedConversation, int limit)
+    {
+        List<Integer> rows = new ArrayList<>();
+        List<String> queryTerms = Arrays.asList(((String)query[0]).split(" "));
+        for (int i = messageCount - 1; i >= 0 && rows.size() < limit; i--)
+        {
+            Random random = new Random(i);
+            random.nextLong();
+            random.nextLong();
+            UUID sender = senders[random.nextInt(senders.length)];
+            UUID conversation = conversations[random.nextInt(conversations.length)];
+            List<String> words = Arrays.asList(CreateIndexedMessage(random).split(" "));
+            if (!conversation.equals(removedConversation)
+                && (query[1] == null || query[1].equals(sender)) && (query[2] == null || query[2].equals(conversation))
+                && (queryTerms.get(0).isEmpty() || words.containsAll(queryTerms)))
+                rows.add(i);
+        }
+        return rows;
+    }
+
+    private List<Integer> GetHitRows(List<MessageIndex.Hit> hits)
+    {
+        List<Integer> rows = new ArrayList<>();
+        for (MessageIndex.Hit hit : hits)
+            rows.add(hit.row);
+        return rows;
+    }
+
+    private String CreateIndexedMessage(Random random)
+    {
+        //Eight words from a vocabulary of 5000, skewed so that a few words are very common like they are in real text.
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 8; i++)
+            message.append(i == 0 ? "" : " ").append("w").append((int)(Math.pow(random.nextDouble(), 3) * 5000));
+        return message.toString();
+    }
+
+    @Test
+    public void TimeoutTest()
+    {
+        InMemoryTransport transport = new InMemoryTransport();
+
+        //Create two instances of the ChatManager class.
+        ChatManager server = new ChatManager(ADDRESS, PORT, SERVER_USERNAME, transport);
+        ChatManager client1 = new ChatManager(ADDRESS, PORT, CLIENT_USERNAME, transport);
+
         //Configure each chat manager, one to be a host and the others as a client.
         InstanceChatManagerAs(server, true);
         InstanceChatManagerAs(client1, false);
 
         //Configure a reset event to be used to determine if the client1 peer disconnected.
+        //The ID is captured now as the client clears it when it notices the disconnect, which can be before the server raises its event.
+        UUID client1ID = client1.GetID();
         ManualResetEvent serverOnClient1Disconnected = new ManualResetEvent(false);
         server.onPeerDisconnected.Add(peer ->
         {
-            if (peer.GetUUID().equals(client1.GetID()))
+            if (peer.GetUUID().equals(client1ID))
                 serverOnClient1Disconnected.Set();
         });
 
@@ -275,15 +1581,12 @@ public class Backend
         }
 
         //Now we need to get the event list on the onMessage property.
-        List<Consumer<Object>> clientMessageEvents = null;
+        List<?> clientMessageEvents = null;
         try
         {
             Field field = clientInstanceProperty.onMessage.getClass().getDeclaredField("event");
             field.setAccessible(true);
-            // @SuppressWarnings("unchecked")
-            //Create a copy of the list so that concurrent modification exceptions don't occur.
-            //This exception WILL occur if we don't create a copy of the list because we are modifying the list while iterating over it.
-            clientMessageEvents = new ArrayList<>((List<Consumer<Object>>)field.get(clientInstanceProperty.onMessage));
+            clientMessageEvents = (List<?>)field.get(clientInstanceProperty.onMessage);
         }
         catch (NoSuchFieldException | IllegalAccessException ex)
         {
@@ -292,8 +1595,8 @@ public class Backend
 
         //Now that we have the required properties
         //I will remove all callbacks from it so that the client can't PONG the servers PING messages.
-        for (Consumer<Object> consumer : clientMessageEvents)
-            clientInstanceProperty.onMessage.Remove(consumer);
+        //The list is copy-on-write so this is safe even if a message is being handled at the same time.
+        clientMessageEvents.clear();
 
         //Wait for the server to disconnect the client.
         //The timeout should be set to double that of the PING interval.
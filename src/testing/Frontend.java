@@ -1,14 +1,895 @@
 package testing;
 
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.GridBagConstraints;
+import java.awt.Point;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.plaf.InsetsUIResource;
+import javax.tools.ToolProvider;
+
+import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import readiefur.console.ELogLevel;
 import readiefur.console.Logger;
+import readiefur.misc.Event;
+import readiefur.misc.ManualResetEvent;
+import readiefur.misc.Pair;
+import readiefur.misc.Subscription;
+import readiefur.sockets.InMemoryTransport;
+import readiefur.xml_ui.FrameDispatcher;
+import readiefur.xml_ui.Observable;
+import readiefur.xml_ui.Theme;
+import readiefur.xml_ui.XMLTemplate;
+import readiefur.xml_ui.XMLUIGenerator;
+import readiefur.xml_ui.attributes.BindingAttribute;
+import readiefur.xml_ui.attributes.NamedComponentAttribute;
+import readiefur.xml_ui.attributes.SetterAttribute;
+import readiefur.xml_ui.controls.Grid;
+import readiefur.xml_ui.controls.Label;
+import readiefur.xml_ui.controls.Scrollable;
+import readiefur.xml_ui.controls.StackPanel;
+import readiefur.xml_ui.controls.TextBox;
+import readiefur.xml_ui.controls.TextBlock;
+import readiefur.xml_ui.controls.Transcript;
+import readiefur.xml_ui.controls.TranscriptModel;
+import readiefur.xml_ui.controls.Window;
+import readiefur.xml_ui.factory.FactoryComponentWrapper;
+import readiefur.xml_ui.interfaces.IGeneratedXML;
+
+import chat_app.backend.ChatManager;
+import chat_app.frontend.ChatUI;
+import chat_app.frontend.ClientEntry;
+import chat_app.frontend.ConfigurationUI;
+import chat_app.frontend.MessageBox;
+import chat_app.frontend.Themes;
 
 public class Frontend
 {
+    private static final int VIEW_WIDTH = 700;
+    private static final int VIEW_HEIGHT = 500;
+
     public Frontend()
     {
         Logger.logLevel = ELogLevel.TRACE;
     }
+
+    /**
+     * Returns the heap in use once the garbage collector has settled.
+     */
+    private static long GetUsedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++)
+        {
+            System.gc();
+            try { Thread.sleep(50); }
+            catch (InterruptedException ex) {}
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void LayoutTree(Component component)
+    {
+        if (!(component instanceof Container))
+            return;
+        ((Container)component).doLayout();
+        for (Component child : ((Container)component).getComponents())
+            LayoutTree(child);
+    }
+
+    /**
+     * Runs the work while repeatedly timing how long the UI thread takes to pick up an empty event.
+     * @param work Should only return once everything it queued on the UI thread has run.
+     * @return The longest time the UI thread was unresponsive for, in nanoseconds.
+     */
+    private static long MeasureUIStall(Callable<?> work) throws Exception
+    {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong longestStall = new AtomicLong(0);
+        Thread watchdog = new Thread(() ->
+        {
+            while (running.get())
+            {
+                long start = System.nanoTime();
+                try { SwingUtilities.invokeAndWait(() -> {}); }
+                catch (Exception ex) { return; }
+                longestStall.accumulateAndGet(System.nanoTime() - start, Math::max);
+
+                try { Thread.sleep(1); }
+                catch (InterruptedException ex) { return; }
+            }
+        });
+        watchdog.start();
+
+        work.call();
+        running.set(false);
+        watchdog.join();
+        return longestStall.get();
+    }
+
+    private static String CreateChatLine(int i)
+    {
+        //Every 10th message is long enough to wrap over several lines.
+        String message = i % 10 == 0 ? "This is a longer message that will need to be wrapped onto more than one line of the chat box. ".repeat(3) : "Hello, World!";
+        return "[Client " + (i % 8) + "]: " + i + " " + message;
+    }
+
+    /**
+     * Builds a chat box with the view from the supplier, then paints it at positions spread across the whole history.
+     * @return The heap used by the view in bytes, followed by the frame times in nanoseconds, sorted.
+     */
+    private static long[] MeasureChatBox(Supplier<Component> createView) throws Exception
+    {
+        final int frames = 200;
+        long[] results = new long[frames + 1];
+
+        SwingUtilities.invokeAndWait(() ->
+        {
+            long heapBefore = GetUsedHeap();
+            Scrollable container = new Scrollable();
+            container.setViewportView(createView.get());
+            container.setSize(VIEW_WIDTH, VIEW_HEIGHT);
+            //Nothing is shown on screen so validate() would do nothing, the layout is done by hand.
+            //It is done twice as the rows can only be wrapped once the first pass has given the view its width.
+            LayoutTree(container);
+            LayoutTree(container);
+            results[0] = GetUsedHeap() - heapBefore;
+
+            JViewport viewport = container.getViewport();
+            int maxY = Math.max(0, viewport.getView().getHeight() - viewport.getHeight());
+            BufferedImage frame = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            for (int i = 0; i < frames; i++)
+            {
+                //Jump about the history so that no two frames show the same rows.
+                viewport.setViewPosition(new Point(0, (int)((long)maxY * ((i * 37) % frames) / (frames - 1))));
+                long start = System.nanoTime();
+                Graphics2D g = frame.createGraphics();
+                container.paint(g);
+                g.dispose();
+                results[i + 1] = System.nanoTime() - start;
+            }
+        });
+
+        Arrays.sort(results, 1, results.length);
+        return results;
+    }
+
+    @Test
+    public void TranscriptScalingTest() throws Exception
+    {
+        final int transcriptRows = 100000;
+        //The old chat box gets too slow to lay out long before this many rows, so it is measured with fewer.
+        final int stackPanelRows = 2000;
+
+        int logLevel = Logger.logLevel;
+        Logger.logLevel = ELogLevel.INFO;
+
+        //The old chat box, one text block per message in a bottom aligned stack panel.
+        long[] stackPanel = MeasureChatBox(() ->
+        {
+            StackPanel chatBox = new StackPanel();
+            try { chatBox.SetOrientation(StackPanel.ORIENTATION_BOTTOM_TO_TOP); }
+            catch (Exception ex) { throw new RuntimeException(ex); }
+            for (int i = 0; i < stackPanelRows; i++)
+            {
+                TextBlock textBlock = new TextBlock();
+                textBlock.SetContent(CreateChatLine(i));
+                textBlock.setEditable(false);
+                textBlock.setLineWrap(true);
+                GridBagConstraints constraints = new GridBagConstraints();
+                constraints.insets = new InsetsUIResource(0, 0, 2, 0);
+                chatBox.AddChild(textBlock, constraints);
+            }
+            return chatBox;
+        });
+
+        long[] transcript = MeasureChatBox(() ->
+        {
+            TranscriptModel model = new TranscriptModel();
+            for (int i = 0; i < transcriptRows; i++)
+                model.Add(CreateChatLine(i), i % 2 == 0 ? null : "secondary");
+            Transcript chatBox = new Transcript();
+            chatBox.SetModel(model);
+            return chatBox;
+        });
+
+        Logger.logLevel = logLevel;
+
+        Logger.Info(String.format("StackPanel (%d rows): %d bytes per row, frame median %.2fms, max %.2fms.",
+            stackPanelRows, stackPanel[0] / stackPanelRows, stackPanel[stackPanel.length / 2] / 1e6, stackPanel[stackPanel.length - 1] / 1e6));
+        Logger.Info(String.format("Transcript (%d rows): %d bytes per row, frame median %.2fms, max %.2fms.",
+            transcriptRows, transcript[0] / transcriptRows, transcript[transcript.length / 2] / 1e6, transcript[transcript.length - 1] / 1e6));
+    }
+
+    @Test
+    public void FrameDispatcherBurstTest() throws Exception
+    {
+        //Several threads flood the dispatcher at once, as the network threads would during a burst of messages.
+        final int producers = 4;
+        final int updatesPerProducer = 2500;
+        FrameDispatcher frameDispatcher = new FrameDispatcher();
+        List<int[]> ran = new ArrayList<>();
+        AtomicBoolean offUIThread = new AtomicBoolean(false);
+        ManualResetEvent allRan = new ManualResetEvent(false);
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++)
+        {
+            final int producer = p;
+            Thread thread = new Thread(() ->
+            {
+                for (int i = 0; i < updatesPerProducer; i++)
+                {
+                    final int update = i;
+                    frameDispatcher.Post(() ->
+                    {
+                        if (!SwingUtilities.isEventDispatchThread())
+                            offUIThread.set(true);
+                        //Only the UI thread touches the list.
+                        ran.add(new int[] { producer, update });
+                        if (ran.size() == producers * updatesPerProducer)
+                            allRan.Set();
+                    });
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        allRan.WaitOne(10000);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        long frames = frameDispatcher.GetFrameCount();
+        frameDispatcher.Dispose();
+        Logger.Info(String.format("%d updates ran in %d frames over %dms.", ran.size(), frames, elapsedMs));
+
+        Assert.assertFalse("An update ran off the UI thread.", offUIThread.get());
+        //Each producer's updates must run in the order they were posted.
+        int[] next = new int[producers];
+        for (int[] update : ran)
+            Assert.assertEquals("Updates ran out of order.", next[update[0]]++, update[1]);
+        //The updates should be batched into frames rather than each getting their own UI event.
+        Assert.assertTrue("Too many frames were run.", frames <= elapsedMs / FrameDispatcher.DEFAULT_FRAME_INTERVAL + 2);
+    }
+
+    @Test
+    public void FrameDispatcherSlowFrameTest() throws Exception
+    {
+        //Each update takes several frame intervals and another update is posted part way through it,
+        //so the frame timer fires again while the previous frame is still running.
+        final int updates = 40;
+        FrameDispatcher frameDispatcher = new FrameDispatcher();
+        AtomicInteger ran = new AtomicInteger(0);
+        ManualResetEvent allRan = new ManualResetEvent(false);
+
+        Boolean finished = true;
+        try
+        {
+            for (int i = 0; i < updates; i++)
+            {
+                ManualResetEvent started = new ManualResetEvent(false);
+                frameDispatcher.Post(() ->
+                {
+                    started.Set();
+                    try { Thread.sleep(60); }
+                    catch (InterruptedException ex) {}
+                    if (ran.incrementAndGet() == updates)
+                        allRan.Set();
+                });
+                started.WaitOne(1000);
+                Thread.sleep(30);
+            }
+            allRan.WaitOne(10000);
+        }
+        catch (TimeoutException ex)
+        {
+            finished = false;
+        }
+        long frames = frameDispatcher.GetFrameCount();
+        frameDispatcher.Dispose();
+        Logger.Info(String.format("%d of %d slow updates ran in %d frames.", ran.get(), updates, frames));
+
+        Assert.assertTrue("The dispatcher stopped running updates.", finished);
+    }
+
+    @Test
+    public void HistorySoakTest() throws Exception
+    {
+        //A week of a busy chat, a message every 2 seconds spread over several conversations.
+        final int days = 7;
+        final int messagesPerDay = 24 * 60 * 60 / 2;
+        final int conversations = 6;
+        final int capacity = 500;
+
+        int logLevel = Logger.logLevel;
+        Logger.logLevel = ELogLevel.INFO;
+
+        List<TranscriptModel> models = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        for (int c = 0; c < conversations; c++)
+        {
+            Path spillPath = Files.createTempFile("chat_history_test_", ".bin");
+            models.add(new TranscriptModel(capacity, spillPath));
+            counts.add(0);
+        }
+
+        //The first conversation is shown the whole time, as it would be in the chat window.
+        Transcript transcript = new Transcript();
+        Scrollable container = new Scrollable();
+        SwingUtilities.invokeAndWait(() ->
+        {
+            transcript.SetModel(models.get(0));
+            container.setViewportView(transcript);
+            container.setSize(VIEW_WIDTH, VIEW_HEIGHT);
+            LayoutTree(container);
+        });
+        BufferedImage frame = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+        long[] heapPerDay = new long[days];
+        for (int day = 0; day < days; day++)
+        {
+            for (int i = 0; i < messagesPerDay; i++)
+            {
+                int c = (i * 7 + day) % conversations;
+                int n = counts.get(c);
+                models.get(c).Add("[Client " + c + "]: message " + n + " " + "lorem ipsum ".repeat(n % 10), null);
+                counts.set(c, n + 1);
+
+                //Redraw the chat window every simulated minute.
+                if (i % 30 == 0)
+                {
+                    SwingUtilities.invokeAndWait(() ->
+                    {
+                        LayoutTree(container);
+                        Graphics2D g = frame.createGraphics();
+                        container.paint(g);
+                        g.dispose();
+                    });
+                }
+            }
+            heapPerDay[day] = GetUsedHeap();
+            Logger.Info(String.format("Day %d: %d messages, %.2fMB heap in use.", day + 1, (day + 1) * messagesPerDay, heapPerDay[day] / 1048576.0));
+        }
+
+        //Scroll up through the first conversation's history, older rows should be loaded back in from disk a page at a time.
+        TranscriptModel model = models.get(0);
+        int firstLoaded = model.GetFirstLoaded();
+        for (int i = 0; i < 8; i++)
+        {
+            SwingUtilities.invokeAndWait(() ->
+            {
+                container.getViewport().setViewPosition(new Point(0, 0));
+                Graphics2D g = frame.createGraphics();
+                container.paint(g);
+                g.dispose();
+            });
+            //Let the load and the layout that follows it run.
+            SwingUtilities.invokeAndWait(() -> {});
+            SwingUtilities.invokeAndWait(() -> LayoutTree(container));
+        }
+        int pagedFirst = model.GetFirstLoaded();
+        Assert.assertTrue("Older rows were not loaded when scrolled to.", pagedFirst < firstLoaded);
+        for (int i = pagedFirst; i < firstLoaded; i++)
+            Assert.assertTrue("A loaded row has the wrong content.", model.Get(i).GetText().startsWith("[Client 0]: message " + i + " "));
+
+        //Scrolling back to the bottom drops them again.
+        SwingUtilities.invokeAndWait(() -> transcript.ScrollToEnd());
+        SwingUtilities.invokeAndWait(() -> {});
+        model.Add("[Client 0]: back at the bottom", null);
+        SwingUtilities.invokeAndWait(() -> {});
+        SwingUtilities.invokeAndWait(() -> {});
+        Assert.assertTrue("Loaded rows were not dropped.", model.GetFirstLoaded() >= model.Size() - capacity - TranscriptModel.PAGE_SIZE - 1);
+        //Search results read single rows straight from the spill file without loading them back in.
+        Assert.assertTrue(model.Read(12345).GetText().startsWith("[Client 0]: message 12345 "));
+        Assert.assertNull(model.Get(12345));
+
+        for (TranscriptModel m : models)
+            m.Dispose();
+        Logger.logLevel = logLevel;
+
+        //Once the first day has filled the windows the heap shouldn't keep growing with the history.
+        Assert.assertTrue("The heap grew with the history.", heapPerDay[days - 1] - heapPerDay[0] < 1048576L);
+    }
+
+    @Test
+    public void ThemeSwitchTest() throws Exception
+    {
+        Theme theme = new Theme();
+        Map<String, String> light = new HashMap<>();
+        light.put("background", "#FFFFFF");
+        light.put("foreground", "#000000");
+        Map<String, String> dark = new HashMap<>();
+        dark.put("background", "#191919");
+        dark.put("foreground", "#FFFFFF");
+        theme.SetColours(light);
+
+        //The chat box is bound once, no matter how many messages it shows.
+        Transcript transcript = new Transcript();
+        theme.BindBackground(transcript, "background");
+        theme.BindForeground(transcript, "foreground");
+        for (int i = 0; i < 10000; i++)
+            transcript.GetModel().Add(CreateChatLine(i), null);
+        Assert.assertEquals(1, theme.GetBoundCount());
+
+        List<Label> labels = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+        {
+            Label label = new Label();
+            theme.BindBackground(label, "background");
+            theme.BindForeground(label, "foreground");
+            labels.add(label);
+        }
+        Assert.assertEquals(Color.decode("#FFFFFF"), labels.get(0).getBackground());
+
+        //Switch theme, everything bound should be updated in a single pass on the UI thread.
+        long start = System.nanoTime();
+        SwingUtilities.invokeAndWait(() -> theme.SetColours(dark));
+        Logger.Info(String.format("Theme switch for %d components took %.2fms.", theme.GetBoundCount(), (System.nanoTime() - start) / 1e6));
+        for (Label label : labels)
+        {
+            Assert.assertEquals(Color.decode("#191919"), label.getBackground());
+            Assert.assertEquals(Color.decode("#FFFFFF"), label.getForeground());
+        }
+        Assert.assertEquals(Color.decode("#191919"), transcript.getBackground());
+
+        //Components that are thrown away without being unbound must not be kept alive by the theme.
+        labels.clear();
+        for (int i = 0; i < 10 && theme.GetBoundCount() > 1; i++)
+            GetUsedHeap();
+        Assert.assertEquals(1, theme.GetBoundCount());
+    }
+
+    @Test
+    public void ObservableSubscriptionTest() throws Exception
+    {
+        Observable<String> observable = new Observable<>("a");
+        List<String> received = new ArrayList<>();
+
+        //Setting the same value again shouldn't re-notify.
+        Subscription subscription = observable.AddListener(received::add);
+        observable.Set("b");
+        observable.Set("b");
+        Assert.assertEquals(Arrays.asList("b"), received);
+
+        //Closing the handle removes the listener, without needing the original lambda instance.
+        subscription.close();
+        observable.Set("c");
+        Assert.assertEquals(Arrays.asList("b"), received);
+        Assert.assertFalse(subscription.IsActive());
+
+        //A listener removing itself (or adding another) while the event is being invoked.
+        Event<Integer> event = new Event<>();
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            subscriptions.add(event.Add(value -> subscriptions.get(value).close()));
+        for (int i = 0; i < 100; i++)
+            event.Invoke(i);
+        Assert.assertEquals(0, event.Size());
+
+        //A listener that was added twice is only removed once per call, as it was before handles were returned.
+        List<Integer> twiceReceived = new ArrayList<>();
+        Consumer<Integer> twiceListener = twiceReceived::add;
+        event.Add(twiceListener);
+        event.Add(twiceListener);
+        event.Remove(twiceListener);
+        event.Invoke(3);
+        Assert.assertEquals(Arrays.asList(3), twiceReceived);
+        event.Remove(twiceListener);
+        Assert.assertEquals(0, event.Size());
+
+        //A weak listener is only kept alive by its handle.
+        List<Integer> weakReceived = new ArrayList<>();
+        Subscription weakSubscription = event.AddWeak(weakReceived::add);
+        for (int i = 0; i < 10; i++)
+            GetUsedHeap();
+        event.Invoke(1);
+        Assert.assertEquals(Arrays.asList(1), weakReceived);
+
+        weakSubscription = null;
+        for (int i = 0; i < 10 && event.Size() > 0; i++)
+        {
+            GetUsedHeap();
+            event.Invoke(2);
+        }
+        Assert.assertEquals(0, event.Size());
+    }
+
+    @Test
+    public void SendResponsivenessTest() throws Exception
+    {
+        //The chat window can't be created without a display.
+        Assume.assumeFalse("A display is required to create the chat window.", GraphicsEnvironment.isHeadless());
+
+        /*The window's chat manager is the host, so each send is routed and fanned out to every client before it returns,
+         *which is the work that used to be done on the UI thread.*/
+        final int presses = 20;
+        final int clientCount = 20;
+        InMemoryTransport transport = new InMemoryTransport();
+        Backend backend = new Backend();
+        ChatManager host = new ChatManager(Backend.ADDRESS, Backend.PORT, Backend.SERVER_USERNAME, transport);
+        backend.InstanceChatManagerAs(host, true);
+        List<ChatManager> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++)
+        {
+            ChatManager client = new ChatManager(Backend.ADDRESS, Backend.PORT, Backend.CLIENT_USERNAME, transport);
+            backend.InstanceChatManagerAs(client, false);
+            clients.add(client);
+        }
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        clients.get(0).onMessageReceived.Add(payload -> received.add(payload.GetMessage()));
+
+        ChatUI chatUI = new ChatUI(host);
+        TextBox inputBox = GetField(chatUI, "inputBox", TextBox.class);
+        Transcript chatBox = GetField(chatUI, "chatBox", Transcript.class);
+
+        //Type each message and press enter, as quickly as the UI thread will take them.
+        long stall = MeasureUIStall(() ->
+        {
+            for (int i = 0; i < presses; i++)
+            {
+                String message = "message " + i;
+                SwingUtilities.invokeLater(() ->
+                {
+                    inputBox.setText(message);
+                    KeyEvent enter = new KeyEvent(inputBox, KeyEvent.KEY_PRESSED, System.currentTimeMillis(), 0, KeyEvent.VK_ENTER, '\n');
+                    for (KeyListener listener : inputBox.getKeyListeners())
+                        listener.keyPressed(enter);
+                });
+            }
+            SwingUtilities.invokeAndWait(() -> {});
+            return null;
+        });
+        Logger.Info(String.format("Longest UI stall while sending %d messages to %d clients: %.1fms.", presses, clientCount, stall / 1e6));
+
+        //Every message should arrive in the order it was typed.
+        long deadline = System.currentTimeMillis() + Backend.LONG_TIMEOUT;
+        while (received.size() < presses && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        for (int i = 0; i < presses; i++)
+            Assert.assertEquals("message " + i, received.get(i));
+
+        //Once acknowledged, none of the messages should still be shown as pending.
+        deadline = System.currentTimeMillis() + Backend.LONG_TIMEOUT;
+        Boolean pending = true;
+        while (pending && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+            Boolean[] anyPending = { false };
+            SwingUtilities.invokeAndWait(() ->
+            {
+                TranscriptModel model = chatBox.GetModel();
+                for (int i = 0; i < model.Size(); i++)
+                    if (model.Get(i).GetText().contains("message ") && model.Get(i).GetStyle() != null)
+                        anyPending[0] = true;
+            });
+            pending = anyPending[0];
+        }
+        Assert.assertFalse("A message was still shown as pending.", pending);
+
+        //The window was never shown, so its closed event is raised directly to stop the outbox.
+        SwingUtilities.invokeAndWait(() -> chatUI.rootComponent.dispatchEvent(new WindowEvent(chatUI.rootComponent, WindowEvent.WINDOW_CLOSED)));
+        for (ChatManager client : clients)
+            client.Dispose();
+        host.Dispose();
+    }
+
+    /**
+     * Reads a private field, used to reach the named components of a UI.
+     */
+    private static <T> T GetField(Object instance, String name, Class<T> type) throws ReflectiveOperationException
+    {
+        Field field = instance.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return type.cast(field.get(instance));
+    }
+
+    /**
+     * A context for {@code ClientEntryTemplate.xml}, which has the same layout as {@link ClientEntry}.
+     */
+    private static class ClientEntryTemplate
+    {
+        @BindingAttribute(DefaultValue = "")
+        private Observable<String> username;
+        @BindingAttribute(DefaultValue = "")
+        private Observable<String> ipAddress;
+
+        @NamedComponentAttribute
+        private Label usernameLabel;
+        @NamedComponentAttribute
+        private Label ipLabel;
+    }
+
+    @Test
+    public void TemplateCacheTest() throws Exception
+    {
+        final int entries = 2000;
+        Theme theme = new Theme();
+        theme.SetColour(Themes.FOREGROUND_PRIMARY, "#FFFFFF");
+        theme.SetColour(Themes.BACKGROUND_TERTIARY, "#191919");
+
+        //The built tree is bound to the context and the theme.
+        ClientEntryTemplate context = new ClientEntryTemplate();
+        Pair<Component, Map<String, Component>> instance = XMLTemplate.Get(ClientEntryTemplate.class).Instantiate(context, theme);
+        context.username.Set("Alice");
+        Assert.assertEquals("Alice", context.usernameLabel.getText());
+        Assert.assertEquals(Color.decode("#FFFFFF"), context.usernameLabel.getForeground());
+        Assert.assertEquals(Color.decode("#191919"), instance.item1.getBackground());
+        Assert.assertSame(context.ipLabel, instance.item2.get("ipLabel"));
+        Assert.assertFalse(context.ipLabel.isVisible());
+        Assert.assertSame(XMLTemplate.Get(ClientEntryTemplate.class), XMLTemplate.Get(ClientEntryTemplate.class));
+
+        //Each instance gets its own components.
+        ClientEntryTemplate otherContext = new ClientEntryTemplate();
+        XMLTemplate.Get(ClientEntryTemplate.class).Instantiate(otherContext, theme);
+        Assert.assertNotSame(context.usernameLabel, otherContext.usernameLabel);
+        Assert.assertEquals("", otherContext.usernameLabel.getText());
+
+        //Parsing the XML for every entry (as every XMLUI constructor used to) against building from the cached template.
+        long[] times = new long[3];
+        for (int round = 0; round < 3; round++)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < entries; i++)
+                XMLTemplate.Compile(ClientEntryTemplate.class).Instantiate(new ClientEntryTemplate(), theme);
+            times[0] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < entries; i++)
+                XMLTemplate.Get(ClientEntryTemplate.class).Instantiate(new ClientEntryTemplate(), theme);
+            times[1] = System.nanoTime() - start;
+
+            //For reference, the entry as it is built in code.
+            start = System.nanoTime();
+            for (int i = 0; i < entries; i++)
+                new ClientEntry("Alice", "127.0.0.1", theme);
+            times[2] = System.nanoTime() - start;
+        }
+
+        Logger.Info(String.format("Client entry creation: %.1fus parsing every time, %.1fus from the cached template, %.1fus in code.",
+            times[0] / 1e3 / entries, times[1] / 1e3 / entries, times[2] / 1e3 / entries));
+        Assert.assertTrue(times[1] * 2 < times[0]);
+    }
+
+    @Test
+    public void ComponentWrapperBenchmarkTest() throws Exception
+    {
+        final int calls = 1_000_000;
+        final int lookups = 10_000;
+        Label label = new Label();
+
+        //The setter as it used to be called.
+        Method reflectedSetter = null;
+        for (Method method : Label.class.getDeclaredMethods())
+        {
+            SetterAttribute setterAttribute = method.getAnnotation(SetterAttribute.class);
+            if (setterAttribute != null && setterAttribute.value().equals("Text"))
+                reflectedSetter = method;
+        }
+        reflectedSetter.setAccessible(true);
+        FactoryComponentWrapper wrapper = FactoryComponentWrapper.Get(Label.class);
+
+        String[] values = { "a", "b", "c", "d" };
+        long[] times = new long[4];
+        for (int round = 0; round < 5; round++)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++)
+                reflectedSetter.invoke(label, values[i & 3]);
+            times[0] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < calls; i++)
+                wrapper.TrySetAttribute(label, "Text", values[i & 3]);
+            times[1] = System.nanoTime() - start;
+
+            //Finding the members again for every factory, as each factory used to.
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++)
+                new FactoryComponentWrapper(Grid.class);
+            times[2] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++)
+                FactoryComponentWrapper.Get(Grid.class);
+            times[3] = System.nanoTime() - start;
+        }
+        Assert.assertEquals("d", label.getText());
+
+        Logger.Info(String.format("Setter call: %.1fns with Method.invoke, %.1fns through the wrapper. Wrapper lookup: %.1fus uncached, %.3fus cached.",
+            times[0] / (double)calls, times[1] / (double)calls, times[2] / 1e3 / lookups, times[3] / 1e3 / lookups));
+        Assert.assertTrue(times[1] < times[0] * 1.5);
+        Assert.assertTrue(times[3] * 10 < times[2]);
+        Assert.assertSame(FactoryComponentWrapper.Get(Grid.class), FactoryComponentWrapper.Get(Grid.class));
+    }
+
+    /**
+     * Runs {@link StartupProbe} in a new JVM with the specified extra classpath.
+     * @param windows {@code true} to time opening the windows rather than loading the templates, this needs a display.
+     * @return The times reported by the probe.
+     */
+    private static long[] RunStartupProbe(Path classDirectory, Boolean useGenerated, Boolean windows) throws Exception
+    {
+        String classPath = System.getProperty("java.class.path") + File.pathSeparator + classDirectory;
+        Process process = new ProcessBuilder(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-Djava.awt.headless=" + !windows, "-D" + XMLTemplate.USE_GENERATED_PROPERTY + "=" + useGenerated,
+            "-cp", classPath, StartupProbe.class.getName(), windows ? "windows" : "templates")
+            .redirectErrorStream(true)
+            .start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        Assert.assertEquals(output, 0, process.waitFor());
+
+        for (String line : output.split("\\R"))
+            if (line.startsWith("STARTUP "))
+                return Arrays.stream(line.substring(8).split(" ")).mapToLong(Long::parseLong).toArray();
+        throw new AssertionError("The startup probe didn't report a time: " + output);
+    }
+
+    @Test
+    public void GeneratedXMLStartupTest() throws Exception
+    {
+        final int runs = 5;
+        Class<?>[] contextClasses = { ConfigurationUI.class, ChatUI.class, MessageBox.class, ClientEntryTemplate.class };
+
+        //The classes generated for the app's windows are committed, so they have to be regenerated whenever their XML files change.
+        for (Class<?> contextClass : new Class<?>[] { ConfigurationUI.class, ChatUI.class, MessageBox.class })
+        {
+            IGeneratedXML generatedXML = (IGeneratedXML)Class.forName(contextClass.getName() + XMLUIGenerator.CLASS_SUFFIX).getDeclaredConstructor().newInstance();
+            try (InputStream xmlFileStream = contextClass.getResourceAsStream(contextClass.getSimpleName() + ".xml"))
+            {
+                Assert.assertEquals(contextClass.getSimpleName() + ".xml has changed since its class was generated, run XMLUIGenerator.",
+                    XMLUIGenerator.GetChecksum(xmlFileStream.readAllBytes()), generatedXML.GetChecksum());
+            }
+        }
+
+        //Generate and compile the classes, as the generator would for the committed ones.
+        Path generatedDirectory = Files.createTempDirectory("xmlui");
+        Path sourceDirectory = generatedDirectory.resolve("src");
+        Path classDirectory = generatedDirectory.resolve("classes");
+        List<String> compilerArguments = new ArrayList<>(Arrays.asList("-d", classDirectory.toString(), "-cp", System.getProperty("java.class.path")));
+        for (Class<?> contextClass : contextClasses)
+        {
+            byte[] xmlFile;
+            try (InputStream xmlFileStream = contextClass.getResourceAsStream(contextClass.getSimpleName() + ".xml"))
+            {
+                xmlFile = xmlFileStream.readAllBytes();
+            }
+
+            Path sourceFile = sourceDirectory.resolve(contextClass.getPackageName().replace('.', File.separatorChar))
+                .resolve(contextClass.getSimpleName() + XMLUIGenerator.CLASS_SUFFIX + ".java");
+            Files.createDirectories(sourceFile.getParent());
+            Files.write(sourceFile, XMLUIGenerator.Generate(contextClass.getPackageName(), contextClass.getSimpleName(), xmlFile).getBytes(StandardCharsets.UTF_8));
+            compilerArguments.add(sourceFile.toString());
+        }
+        Assert.assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, compilerArguments.toArray(new String[0])));
+
+        //The generated classes build the same tree as parsing the XML.
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] { classDirectory.toUri().toURL() }, getClass().getClassLoader()))
+        {
+            for (Class<?> contextClass : contextClasses)
+            {
+                IGeneratedXML generatedXML = (IGeneratedXML)classLoader
+                    .loadClass(contextClass.getPackageName() + "." + contextClass.getSimpleName() + XMLUIGenerator.CLASS_SUFFIX)
+                    .getDeclaredConstructor().newInstance();
+                try (InputStream xmlFileStream = contextClass.getResourceAsStream(contextClass.getSimpleName() + ".xml"))
+                {
+                    Assert.assertTrue(contextClass.getSimpleName(), generatedXML.GetRootNode().isEqualNode(XMLTemplate.Parse(xmlFileStream)));
+                }
+            }
+        }
+
+        //Every run is in a new JVM so the parser (or generated classes) are loaded from cold each time.
+        LogStartupTimes(runs, classDirectory, false, "Cold template loading");
+
+        //With a display, also time the windows opening as they do when the app starts, with the configuration window first.
+        if (GraphicsEnvironment.isHeadless())
+            Logger.Info("The window opening times were not measured as there is no display.");
+        else
+            LogStartupTimes(runs, classDirectory, true, "Configuration window opening", "Chat window opening");
+    }
+
+    private static void LogStartupTimes(int runs, Path classDirectory, Boolean windows, String... measurements) throws Exception
+    {
+        long[][] parsedTimes = new long[runs][];
+        long[][] generatedTimes = new long[runs][];
+        for (int i = 0; i < runs; i++)
+        {
+            parsedTimes[i] = RunStartupProbe(classDirectory, false, windows);
+            generatedTimes[i] = RunStartupProbe(classDirectory, true, windows);
+        }
+
+        for (int measurement = 0; measurement < measurements.length; measurement++)
+        {
+            final int column = measurement;
+            long[] parsed = Arrays.stream(parsedTimes).mapToLong(times -> times[column]).sorted().toArray();
+            long[] generated = Arrays.stream(generatedTimes).mapToLong(times -> times[column]).sorted().toArray();
+            Logger.Info(String.format("%s (median of %d): %.1fms parsing the XML, %.1fms from the generated classes.",
+                measurements[measurement], runs, parsed[runs / 2] / 1e6, generated[runs / 2] / 1e6));
+        }
+    }
+
+    /**
+     * Run in a new JVM by {@link Frontend#GeneratedXMLStartupTest()} to time loading the UI templates, or opening the windows, from cold.
+     */
+    public static class StartupProbe
+    {
+        public static void main(String[] args) throws Exception
+        {
+            if (args.length == 1 && args[0].equals("windows"))
+            {
+                long configurationTime = TimeWindowOpening(() -> new ConfigurationUI("127.0.0.1", 8080, "User").rootComponent);
+                long chatTime = TimeWindowOpening(() -> new ChatUI(new ChatManager("127.0.0.1", 8080, "User")).rootComponent);
+                System.out.println("STARTUP " + configurationTime + " " + chatTime);
+                System.exit(0);
+            }
+
+            Class<?>[] contextClasses = { ConfigurationUI.class, ChatUI.class, MessageBox.class, ClientEntryTemplate.class };
+
+            //Load the classes the UIs use first, which costs the same either way, so that only the XML handling is timed.
+            for (Class<?> contextClass : contextClasses)
+            {
+                contextClass.getDeclaredFields();
+                contextClass.getDeclaredMethods();
+            }
+
+            long start = System.nanoTime();
+            for (Class<?> contextClass : contextClasses)
+                XMLTemplate.Get(contextClass);
+            System.out.println("STARTUP " + (System.nanoTime() - start));
+        }
+
+        /**
+         * Returns the time taken to create the window and for it to be opened.
+         */
+        private static long TimeWindowOpening(Callable<Window> createWindow) throws Exception
+        {
+            long start = System.nanoTime();
+            Window window = createWindow.call();
+            ManualResetEvent opened = new ManualResetEvent(false);
+            window.onWindowOpened.Add(e -> opened.Set());
+            SwingUtilities.invokeLater(window::Show);
+            opened.WaitOne(10000);
+            long time = System.nanoTime() - start;
+            SwingUtilities.invokeAndWait(window::dispose);
+            return time;
+        }
+    }
 }